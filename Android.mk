@@ -21,6 +21,25 @@ LOCAL_USE_AAPT2 := true
 LOCAL_SRC_FILES := $(call all-java-files-under, src)
 LOCAL_SRC_FILES += $(call all-java-files-under, ../ROMControl/src) 
 
+# Generate constructor references for the controllers declared in preference xml, so that
+# BasePreferenceController.createInstance() does not need reflection for them. LOCAL_MODULE is
+# only derived from LOCAL_PACKAGE_NAME in package.mk, so the path is spelled out here.
+settings_controller_registry_res_dirs := $(LOCAL_PATH)/res $(LOCAL_PATH)/../ROMControl/res
+settings_controller_registry_src_dirs := $(LOCAL_PATH)/src $(LOCAL_PATH)/../ROMControl/src
+settings_controller_registry := $(call intermediates-dir-for,APPS,$(LOCAL_PACKAGE_NAME),,COMMON)/gen/com/android/settings/core/GeneratedPreferenceControllerRegistry.java
+$(settings_controller_registry): PRIVATE_PATH := $(LOCAL_PATH)
+$(settings_controller_registry): PRIVATE_RES_DIRS := $(settings_controller_registry_res_dirs)
+$(settings_controller_registry): PRIVATE_SRC_DIRS := $(settings_controller_registry_src_dirs)
+$(settings_controller_registry): PRIVATE_CUSTOM_TOOL = python \
+        $(PRIVATE_PATH)/tools/generate_preference_controller_registry.py \
+        $(addprefix --res ,$(PRIVATE_RES_DIRS)) $(addprefix --src ,$(PRIVATE_SRC_DIRS)) $@
+$(settings_controller_registry): $(LOCAL_PATH)/tools/generate_preference_controller_registry.py \
+        $(foreach dir,$(settings_controller_registry_res_dirs),$(wildcard $(dir)/xml*/*.xml)) \
+        $(addprefix $(LOCAL_PATH)/, $(call all-java-files-under, src)) \
+        $(addprefix $(LOCAL_PATH)/, $(call all-java-files-under, ../ROMControl/src))
+	$(transform-generated-source)
+LOCAL_GENERATED_SOURCES += $(settings_controller_registry)
+
 LOCAL_STATIC_ANDROID_LIBRARIES := \
     android-slices-builders \
     android-slices-core \
@@ -32,7 +32,10 @@ import android.telephony.TelephonyManager;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.settings.applications.ProcStatsData;
+import com.android.settings.dashboard.SummaryExecutor;
 import com.android.settings.fuelgauge.batterytip.AnomalyConfigJobService;
+import com.android.settings.overlay.FeatureFactory;
+import com.android.settings.search.IndexQueryCache;
 import com.android.settingslib.net.DataUsageController;
 
 import org.json.JSONArray;
@@ -57,6 +60,10 @@ public class SettingsDumpService extends Service {
     @VisibleForTesting
     static final String KEY_ANOMALY_DETECTION = "anomaly_detection";
     @VisibleForTesting
+    static final String KEY_SEARCH_QUERY_CACHE = "search_query_cache";
+    @VisibleForTesting
+    static final String KEY_SUMMARY_EXECUTOR = "summary_executor";
+    @VisibleForTesting
     static final Intent BROWSER_INTENT =
             new Intent("android.intent.action.VIEW", Uri.parse("http://"));
 
@@ -76,6 +83,8 @@ public class SettingsDumpService extends Service {
             dump.put(KEY_MEMORY, dumpMemory());
             dump.put(KEY_DEFAULT_BROWSER_APP, dumpDefaultBrowser());
             dump.put(KEY_ANOMALY_DETECTION, dumpAnomalyDetection());
+            dump.put(KEY_SEARCH_QUERY_CACHE, dumpSearchQueryCache());
+            dump.put(KEY_SUMMARY_EXECUTOR, dumpSummaryExecutor());
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -179,4 +188,29 @@ public class SettingsDumpService extends Service {
 
         return obj;
     }
+
+    @VisibleForTesting
+    JSONObject dumpSearchQueryCache() throws JSONException {
+        final JSONObject obj = new JSONObject();
+        final IndexQueryCache cache = FeatureFactory.getFactory(this).getSearchFeatureProvider()
+                .getQueryEngine(this).getCache();
+        obj.put("hits", cache.getHitCount());
+        obj.put("prefix_hits", cache.getPrefixHitCount());
+        obj.put("misses", cache.getMissCount());
+        obj.put("size", cache.size());
+        obj.put("generation", cache.getGeneration());
+
+        return obj;
+    }
+
+    private JSONObject dumpSummaryExecutor() throws JSONException {
+        final JSONObject obj = new JSONObject();
+        final SummaryExecutor executor = SummaryExecutor.getInstance();
+        obj.put("queued", executor.getQueuedCount());
+        obj.put("coalesced", executor.getCoalescedCount());
+        obj.put("cancelled", executor.getCancelledCount());
+        obj.put("pending", executor.getPendingCount());
+
+        return obj;
+    }
 }
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import android.content.Context;
+import android.net.http.SslCertificate;
+import android.security.KeyChain;
+import android.support.annotation.VisibleForTesting;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.AtomicFile;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Cache of the subject shown for each trusted CA certificate, kept on disk per profile.
+ *
+ * Parsing a certificate is the slow part of listing them, so the subject is parsed once per
+ * certificate and then found by alias. The digest of the encoded certificate is kept along, so a
+ * cached subject is only used for the exact certificate it was parsed from.
+ */
+class TrustedCertificateCache {
+    private static final String TAG = "TrustedCertificateCache";
+
+    @VisibleForTesting
+    static final String FILE_NAME_PREFIX = "trusted_certificates_";
+    /** Version of the file format, bump it whenever the format changes. */
+    @VisibleForTesting
+    static final int VERSION = 1;
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private static TrustedCertificateCache sInstance;
+
+    private final File mDir;
+    private final SparseArray<Profile> mProfiles = new SparseArray<>();
+
+    static synchronized TrustedCertificateCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new TrustedCertificateCache(context.getApplicationContext().getCacheDir());
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    TrustedCertificateCache(File dir) {
+        mDir = dir;
+    }
+
+    /**
+     * @return the subject of {@param encodedCertificate}, only parsing it if it is not the
+     * certificate cached for {@param alias} of {@param profileId}.
+     */
+    Subject getSubject(int profileId, String alias, byte[] encodedCertificate) {
+        final byte[] digest = digest(encodedCertificate);
+        synchronized (this) {
+            final Entry entry = getProfile(profileId).entries.get(alias);
+            if (entry != null && Arrays.equals(entry.digest, digest)) {
+                return entry.subject;
+            }
+        }
+        // Parse outside of the lock, so profiles can be loaded in parallel.
+        final Subject subject = parseSubject(encodedCertificate);
+        synchronized (this) {
+            final Profile profile = getProfile(profileId);
+            profile.entries.put(alias, new Entry(digest, subject));
+            profile.dirty = true;
+        }
+        return subject;
+    }
+
+    /**
+     * Writes the subjects of {@param profileId} parsed since the last call to disk, dropping the
+     * ones of certificates which are no longer listed in {@param aliases}.
+     */
+    synchronized void save(int profileId, Collection<String> aliases) {
+        final Profile profile = mProfiles.get(profileId);
+        if (profile == null) {
+            return;
+        }
+        if (profile.entries.retainAll(new ArraySet<>(aliases))) {
+            profile.dirty = true;
+        }
+        if (!profile.dirty) {
+            return;
+        }
+        final AtomicFile file = getFile(profileId);
+        FileOutputStream fos = null;
+        try {
+            fos = file.startWrite();
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(VERSION);
+            out.writeInt(profile.entries.size());
+            for (int i = 0, size = profile.entries.size(); i < size; i++) {
+                final Entry entry = profile.entries.valueAt(i);
+                out.writeUTF(profile.entries.keyAt(i));
+                out.writeInt(entry.digest.length);
+                out.write(entry.digest);
+                out.writeUTF(entry.subject.primary);
+                out.writeUTF(entry.subject.secondary);
+            }
+            out.flush();
+            file.finishWrite(fos);
+            profile.dirty = false;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write certificates of profile " + profileId, e);
+            file.failWrite(fos);
+        }
+    }
+
+    private Profile getProfile(int profileId) {
+        Profile profile = mProfiles.get(profileId);
+        if (profile == null) {
+            profile = new Profile();
+            mProfiles.put(profileId, profile);
+            read(profileId, profile);
+        }
+        return profile;
+    }
+
+    private void read(int profileId, Profile profile) {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(getFile(profileId).openRead()))) {
+            if (in.readInt() != VERSION) {
+                return;
+            }
+            for (int count = in.readInt(); count > 0; count--) {
+                final String alias = in.readUTF();
+                final byte[] digest = new byte[in.readInt()];
+                in.readFully(digest);
+                profile.entries.put(alias,
+                        new Entry(digest, new Subject(in.readUTF(), in.readUTF())));
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing cached yet.
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read certificates of profile " + profileId, e);
+            profile.entries.clear();
+        }
+    }
+
+    private AtomicFile getFile(int profileId) {
+        return new AtomicFile(new File(mDir, FILE_NAME_PREFIX + profileId));
+    }
+
+    @VisibleForTesting
+    Subject parseSubject(byte[] encodedCertificate) {
+        return Subject.parse(encodedCertificate);
+    }
+
+    private static byte[] digest(byte[] encodedCertificate) {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM).digest(encodedCertificate);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The names a certificate is listed with.
+     */
+    static class Subject {
+        final String primary;
+        final String secondary;
+
+        @VisibleForTesting
+        Subject(String primary, String secondary) {
+            this.primary = primary;
+            this.secondary = secondary;
+        }
+
+        static Subject parse(byte[] encodedCertificate) {
+            final SslCertificate sslCert =
+                    new SslCertificate(KeyChain.toCertificate(encodedCertificate));
+            String cn = sslCert.getIssuedTo().getCName();
+            String o = sslCert.getIssuedTo().getOName();
+            String ou = sslCert.getIssuedTo().getUName();
+            // if we have a O, use O as primary subject, secondary prefer CN over OU
+            // if we don't have an O, use CN as primary, empty secondary
+            // if we don't have O or CN, use DName as primary, empty secondary
+            if (!o.isEmpty()) {
+                if (!cn.isEmpty()) {
+                    return new Subject(o, cn);
+                } else {
+                    return new Subject(o, ou);
+                }
+            } else {
+                if (!cn.isEmpty()) {
+                    return new Subject(cn, "");
+                } else {
+                    return new Subject(sslCert.getIssuedTo().getDName(), "");
+                }
+            }
+        }
+    }
+
+    private static class Profile {
+        final ArrayMap<String, Entry> entries = new ArrayMap<>();
+        boolean dirty;
+    }
+
+    private static class Entry {
+        final byte[] digest;
+        final Subject subject;
+
+        Entry(byte[] digest, Subject subject) {
+            this.digest = digest;
+            this.subject = subject;
+        }
+    }
+}
@@ -33,7 +33,6 @@ import android.content.pm.UserInfo;
 import android.content.res.TypedArray;
 import android.database.DataSetObserver;
 import android.graphics.drawable.Drawable;
-import android.net.http.SslCertificate;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.RemoteException;
@@ -66,13 +65,16 @@ import com.android.internal.app.UnlaunchableAppActivity;
 import com.android.internal.logging.nano.MetricsProto.MetricsEvent;
 import com.android.internal.widget.LockPatternUtils;
 import com.android.settings.core.InstrumentedFragment;
+import com.android.settings.utils.BackgroundThreadPool;
 
-import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.IntConsumer;
 
 public class TrustedCredentialsSettings extends InstrumentedFragment
@@ -697,68 +699,139 @@ public class TrustedCredentialsSettings extends InstrumentedFragment
                         List<UserHandle> profiles = mUserManager.getUserProfiles();
                         final int n = profiles.size();
                         // First we get all aliases for all profiles in order to show progress
-                        // correctly. Otherwise this could all be in a single loop.
+                        // correctly. Otherwise this could all be in a single loop. Each step
+                        // queries the profiles in parallel.
+                        final List<Future<KeyChainConnection>> connections = new ArrayList<>(n);
+                        for (int i = 0; i < n; ++i) {
+                            UserHandle profile = profiles.get(i);
+                            connections.add(shouldSkipProfile(profile) ? null
+                                    : BackgroundThreadPool.get().submit(
+                                            () -> KeyChain.bindAsUser(mContext, profile)));
+                        }
+                        registerKeyChainConnections(profiles, connections);
+                        final List<Future<List<String>>> aliasesByProfile = new ArrayList<>(n);
+                        for (int i = 0; i < n; ++i) {
+                            KeyChainConnection keyChainConnection = connections.get(i) != null
+                                    ? mKeyChainConnectionByProfileId.get(
+                                            profiles.get(i).getIdentifier())
+                                    : null;
+                            if (keyChainConnection == null) {
+                                aliasesByProfile.add(null);
+                                continue;
+                            }
+                            IKeyChainService service = keyChainConnection.getService();
+                            aliasesByProfile.add(BackgroundThreadPool.get().submit(
+                                    () -> mTab.getAliases(service)));
+                        }
                         SparseArray<List<String>> aliasesByProfileId = new SparseArray<
                                 List<String>>(n);
                         int max = 0;
-                        int progress = 0;
                         for (int i = 0; i < n; ++i) {
-                            UserHandle profile = profiles.get(i);
-                            int profileId = profile.getIdentifier();
-                            if (shouldSkipProfile(profile)) {
+                            if (aliasesByProfile.get(i) == null) {
                                 continue;
                             }
-                            KeyChainConnection keyChainConnection = KeyChain.bindAsUser(mContext,
-                                    profile);
-                            // Saving the connection for later use on the certificate dialog.
-                            mKeyChainConnectionByProfileId.put(profileId, keyChainConnection);
-                            IKeyChainService service = keyChainConnection.getService();
-                            List<String> aliases = mTab.getAliases(service);
+                            List<String> aliases = aliasesByProfile.get(i).get();
                             if (isCancelled()) {
                                 return new SparseArray<List<CertHolder>>();
                             }
                             max += aliases.size();
-                            aliasesByProfileId.put(profileId, aliases);
+                            aliasesByProfileId.put(profiles.get(i).getIdentifier(), aliases);
                         }
+
+                        final TrustedCertificateCache cache =
+                                TrustedCertificateCache.getInstance(mContext);
+                        final AtomicInteger progress = new AtomicInteger();
+                        final int progressMax = max;
+                        final List<Future<List<CertHolder>>> certHoldersFutures =
+                                new ArrayList<>(n);
                         for (int i = 0; i < n; ++i) {
                             UserHandle profile = profiles.get(i);
                             int profileId = profile.getIdentifier();
                             List<String> aliases = aliasesByProfileId.get(profileId);
-                            if (isCancelled()) {
-                                return new SparseArray<List<CertHolder>>();
-                            }
                             KeyChainConnection keyChainConnection = mKeyChainConnectionByProfileId.get(
                                     profileId);
                             if (shouldSkipProfile(profile) || aliases == null
                                     || keyChainConnection == null) {
-                                certHoldersByProfile.put(profileId, new ArrayList<CertHolder>(0));
+                                certHoldersFutures.add(null);
                                 continue;
                             }
                             IKeyChainService service = keyChainConnection.getService();
-                            List<CertHolder> certHolders = new ArrayList<CertHolder>(max);
-                            final int aliasMax = aliases.size();
-                            for (int j = 0; j < aliasMax; ++j) {
-                                String alias = aliases.get(j);
-                                byte[] encodedCertificate = service.getEncodedCaCertificate(alias,
-                                        true);
-                                X509Certificate cert = KeyChain.toCertificate(encodedCertificate);
-                                certHolders.add(new CertHolder(service, mAdapter,
-                                        mTab, alias, cert, profileId));
-                                publishProgress(++progress, max);
+                            certHoldersFutures.add(BackgroundThreadPool.get().submit(() -> {
+                                List<CertHolder> certHolders =
+                                        new ArrayList<CertHolder>(aliases.size());
+                                final int aliasMax = aliases.size();
+                                for (int j = 0; j < aliasMax && !isCancelled(); ++j) {
+                                    String alias = aliases.get(j);
+                                    byte[] encodedCertificate =
+                                            service.getEncodedCaCertificate(alias, true);
+                                    certHolders.add(new CertHolder(service, mAdapter, mTab,
+                                            alias, encodedCertificate,
+                                            cache.getSubject(profileId, alias, encodedCertificate),
+                                            profileId));
+                                    publishProgress(progress.incrementAndGet(), progressMax);
+                                }
+                                Collections.sort(certHolders);
+                                cache.save(profileId, aliases);
+                                return certHolders;
+                            }));
+                        }
+                        for (int i = 0; i < n; ++i) {
+                            if (isCancelled()) {
+                                return new SparseArray<List<CertHolder>>();
                             }
-                            Collections.sort(certHolders);
-                            certHoldersByProfile.put(profileId, certHolders);
+                            certHoldersByProfile.put(profiles.get(i).getIdentifier(),
+                                    certHoldersFutures.get(i) != null
+                                            ? certHoldersFutures.get(i).get()
+                                            : new ArrayList<CertHolder>(0));
                         }
                         return certHoldersByProfile;
                     }
-                } catch (RemoteException e) {
-                    Log.e(TAG, "Remote exception while loading aliases.", e);
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "Exception while loading aliases.", e.getCause());
                     return new SparseArray<List<CertHolder>>();
                 } catch (InterruptedException e) {
                     Log.e(TAG, "InterruptedException while loading aliases.", e);
                     return new SparseArray<List<CertHolder>>();
                 }
             }
+
+            /**
+             * Saves every connection bound by {@param connections} for later use on the
+             * certificate dialog, so they are all closed with the others, even if binding some
+             * failed. Waits for all of them before reporting the first failure.
+             */
+            @GuardedBy("mKeyChainConnectionByProfileId")
+            private void registerKeyChainConnections(List<UserHandle> profiles,
+                    List<Future<KeyChainConnection>> connections)
+                    throws ExecutionException, InterruptedException {
+                ExecutionException bindFailure = null;
+                boolean interrupted = false;
+                for (int i = 0, n = connections.size(); i < n; ++i) {
+                    final Future<KeyChainConnection> connection = connections.get(i);
+                    while (connection != null) {
+                        try {
+                            mKeyChainConnectionByProfileId.put(profiles.get(i).getIdentifier(),
+                                    connection.get());
+                            break;
+                        } catch (ExecutionException e) {
+                            if (bindFailure == null) {
+                                bindFailure = e;
+                            }
+                            break;
+                        } catch (InterruptedException e) {
+                            // Binding is quick, finish collecting the connections first.
+                            interrupted = true;
+                        }
+                    }
+                }
+                if (interrupted) {
+                    throw new InterruptedException();
+                }
+                if (bindFailure != null) {
+                    throw bindFailure;
+                }
+            }
+
             @Override protected void onProgressUpdate(Integer... progressAndMax) {
                 int progress = progressAndMax[0];
                 int max = progressAndMax[1];
@@ -828,9 +901,9 @@ public class TrustedCredentialsSettings extends InstrumentedFragment
         private final GroupAdapter mAdapter;
         private final Tab mTab;
         private final String mAlias;
-        private final X509Certificate mX509Cert;
+        // Only parsed when shown in detail, see getX509CertsFromCertHolder.
+        private final byte[] mEncodedCert;
 
-        private final SslCertificate mSslCert;
         private final String mSubjectPrimary;
         private final String mSubjectSecondary;
         private boolean mDeleted;
@@ -839,40 +912,18 @@ public class TrustedCredentialsSettings extends InstrumentedFragment
                            GroupAdapter adapter,
                            Tab tab,
                            String alias,
-                           X509Certificate x509Cert,
+                           byte[] encodedCert,
+                           TrustedCertificateCache.Subject subject,
                            int profileId) {
             mProfileId = profileId;
             mService = service;
             mAdapter = adapter;
             mTab = tab;
             mAlias = alias;
-            mX509Cert = x509Cert;
-
-            mSslCert = new SslCertificate(x509Cert);
-
-            String cn = mSslCert.getIssuedTo().getCName();
-            String o = mSslCert.getIssuedTo().getOName();
-            String ou = mSslCert.getIssuedTo().getUName();
-            // if we have a O, use O as primary subject, secondary prefer CN over OU
-            // if we don't have an O, use CN as primary, empty secondary
-            // if we don't have O or CN, use DName as primary, empty secondary
-            if (!o.isEmpty()) {
-                if (!cn.isEmpty()) {
-                    mSubjectPrimary = o;
-                    mSubjectSecondary = cn;
-                } else {
-                    mSubjectPrimary = o;
-                    mSubjectSecondary = ou;
-                }
-            } else {
-                if (!cn.isEmpty()) {
-                    mSubjectPrimary = cn;
-                    mSubjectSecondary = "";
-                } else {
-                    mSubjectPrimary = mSslCert.getIssuedTo().getDName();
-                    mSubjectSecondary = "";
-                }
-            }
+            mEncodedCert = encodedCert;
+
+            mSubjectPrimary = subject.primary;
+            mSubjectSecondary = subject.secondary;
             try {
                 mDeleted = mTab.deleted(mService, mAlias);
             } catch (RemoteException e) {
@@ -916,7 +967,6 @@ public class TrustedCredentialsSettings extends InstrumentedFragment
         }
     }
 
-
     private boolean isTrustAllCaCertModeInProgress() {
         return mTrustAllCaUserId != UserHandle.USER_NULL;
     }
@@ -1003,15 +1053,13 @@ public class TrustedCredentialsSettings extends InstrumentedFragment
                             mCertHolder.mProfileId);
                     IKeyChainService service = keyChainConnection.getService();
                     if (mCertHolder.mDeleted) {
-                        byte[] bytes = mCertHolder.mX509Cert.getEncoded();
-                        service.installCaCertificate(bytes);
+                        service.installCaCertificate(mCertHolder.mEncodedCert);
                         return true;
                     } else {
                         return service.deleteCaCertificate(mCertHolder.mAlias);
                     }
                 }
-            } catch (CertificateEncodingException | SecurityException | IllegalStateException
-                    | RemoteException e) {
+            } catch (SecurityException | IllegalStateException | RemoteException e) {
                 Log.w(TAG, "Error while toggling alias " + mCertHolder.mAlias, e);
                 return false;
             }
@@ -17,12 +17,12 @@
 package com.android.settings;
 
 import android.app.Activity;
+import android.app.LoaderManager;
 import android.app.usage.UsageStats;
 import android.app.usage.UsageStatsManager;
 import android.content.Context;
-import android.content.pm.ApplicationInfo;
+import android.content.Loader;
 import android.content.pm.PackageManager;
-import android.content.pm.PackageManager.NameNotFoundException;
 import android.os.Bundle;
 import android.text.format.DateUtils;
 import android.util.ArrayMap;
@@ -37,6 +37,10 @@ import android.widget.ListView;
 import android.widget.Spinner;
 import android.widget.TextView;
 
+import com.android.settings.applications.AppLabelCache;
+import com.android.settingslib.utils.AsyncLoader;
+import com.android.settingslib.utils.ThreadUtils;
+
 import java.text.DateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
@@ -48,13 +52,12 @@ import java.util.Map;
 /**
  * Activity to display package usage statistics.
  */
-public class UsageStatsActivity extends Activity implements OnItemSelectedListener {
+public class UsageStatsActivity extends Activity implements OnItemSelectedListener,
+        LoaderManager.LoaderCallbacks<UsageStatsActivity.UsageStatsResult> {
     private static final String TAG = "UsageStatsActivity";
     private static final boolean localLOGV = false;
-    private UsageStatsManager mUsageStatsManager;
     private LayoutInflater mInflater;
     private UsageStatsAdapter mAdapter;
-    private PackageManager mPm;
 
     public static class AppNameComparator implements Comparator<UsageStats> {
         private Map<String, String> mAppLabelList;
@@ -93,20 +96,31 @@ public class UsageStatsActivity extends Activity implements OnItemSelectedListen
         TextView usageTime;
     }
 
-    class UsageStatsAdapter extends BaseAdapter {
-         // Constants defining order for display order
-        private static final int _DISPLAY_ORDER_USAGE_TIME = 0;
-        private static final int _DISPLAY_ORDER_LAST_TIME_USED = 1;
-        private static final int _DISPLAY_ORDER_APP_NAME = 2;
+    /**
+     * Usage stats of the last days aggregated by package, with the label of each package.
+     */
+    static class UsageStatsResult {
+        final ArrayList<UsageStats> packageStats = new ArrayList<>();
+        final ArrayMap<String, String> appLabels = new ArrayMap<>();
+    }
 
-        private int mDisplayOrder = _DISPLAY_ORDER_USAGE_TIME;
-        private LastTimeUsedComparator mLastTimeUsedComparator = new LastTimeUsedComparator();
-        private UsageTimeComparator mUsageTimeComparator = new UsageTimeComparator();
-        private AppNameComparator mAppLabelComparator;
-        private final ArrayMap<String, String> mAppLabelMap = new ArrayMap<>();
-        private final ArrayList<UsageStats> mPackageStats = new ArrayList<>();
+    /**
+     * Loads the usage stats of the last days off the main thread. Labels are only loaded once
+     * per package, through the shared {@link AppLabelCache}.
+     */
+    static class UsageStatsLoader extends AsyncLoader<UsageStatsResult> {
+        private final UsageStatsManager mUsageStatsManager;
+        private final PackageManager mPm;
+
+        UsageStatsLoader(Context context) {
+            super(context);
+            mUsageStatsManager = context.getSystemService(UsageStatsManager.class);
+            mPm = context.getPackageManager();
+        }
 
-        UsageStatsAdapter() {
+        @Override
+        public UsageStatsResult loadInBackground() {
+            final UsageStatsResult result = new UsageStatsResult();
             Calendar cal = Calendar.getInstance();
             cal.add(Calendar.DAY_OF_YEAR, -5);
 
@@ -114,37 +128,72 @@ public class UsageStatsActivity extends Activity implements OnItemSelectedListen
                     mUsageStatsManager.queryUsageStats(UsageStatsManager.INTERVAL_BEST,
                             cal.getTimeInMillis(), System.currentTimeMillis());
             if (stats == null) {
-                return;
+                return result;
             }
 
             ArrayMap<String, UsageStats> map = new ArrayMap<>();
             final int statCount = stats.size();
             for (int i = 0; i < statCount; i++) {
                 final android.app.usage.UsageStats pkgStats = stats.get(i);
+                UsageStats existingStats =
+                        map.get(pkgStats.getPackageName());
+                if (existingStats == null) {
+                    map.put(pkgStats.getPackageName(), pkgStats);
+                } else {
+                    existingStats.add(pkgStats);
+                }
+            }
 
-                // load application labels for each application
-                try {
-                    ApplicationInfo appInfo = mPm.getApplicationInfo(pkgStats.getPackageName(), 0);
-                    String label = appInfo.loadLabel(mPm).toString();
-                    mAppLabelMap.put(pkgStats.getPackageName(), label);
-
-                    UsageStats existingStats =
-                            map.get(pkgStats.getPackageName());
-                    if (existingStats == null) {
-                        map.put(pkgStats.getPackageName(), pkgStats);
-                    } else {
-                        existingStats.add(pkgStats);
-                    }
-
-                } catch (NameNotFoundException e) {
+            // load application labels for each application
+            final AppLabelCache labelCache = AppLabelCache.getInstance(getContext());
+            for (int i = 0, size = map.size(); i < size; i++) {
+                final String label = labelCache.getLabel(mPm, map.keyAt(i));
+                if (label == null) {
                     // This package may be gone.
+                    continue;
                 }
+                result.appLabels.put(map.keyAt(i), label);
+                result.packageStats.add(map.valueAt(i));
             }
-            mPackageStats.addAll(map.values());
+            labelCache.save();
+
+            Collections.sort(result.packageStats, new UsageTimeComparator());
+            return result;
+        }
+
+        @Override
+        protected void onDiscardResult(UsageStatsResult result) {
+        }
+    }
+
+    class UsageStatsAdapter extends BaseAdapter {
+         // Constants defining order for display order
+        private static final int _DISPLAY_ORDER_USAGE_TIME = 0;
+        private static final int _DISPLAY_ORDER_LAST_TIME_USED = 1;
+        private static final int _DISPLAY_ORDER_APP_NAME = 2;
 
-            // Sort list
+        private int mDisplayOrder = _DISPLAY_ORDER_USAGE_TIME;
+        private LastTimeUsedComparator mLastTimeUsedComparator = new LastTimeUsedComparator();
+        private UsageTimeComparator mUsageTimeComparator = new UsageTimeComparator();
+        private AppNameComparator mAppLabelComparator;
+        private ArrayMap<String, String> mAppLabelMap = new ArrayMap<>();
+        private ArrayList<UsageStats> mPackageStats = new ArrayList<>();
+        // Incremented whenever the list or its order changes, to drop outdated sorts.
+        private int mGeneration;
+
+        /**
+         * Shows {@param result}, which the loader sorted by usage time.
+         */
+        void setResult(UsageStatsResult result) {
+            mGeneration++;
+            mAppLabelMap = result.appLabels;
+            mPackageStats = result.packageStats;
             mAppLabelComparator = new AppNameComparator(mAppLabelMap);
-            sortList();
+            if (mDisplayOrder == _DISPLAY_ORDER_USAGE_TIME) {
+                notifyDataSetChanged();
+            } else {
+                sortList();
+            }
         }
 
         @Override
@@ -210,18 +259,38 @@ public class UsageStatsActivity extends Activity implements OnItemSelectedListen
             mDisplayOrder= sortOrder;
             sortList();
         }
+
+        /**
+         * Sorts a copy of the list off the main thread, then shows it unless the list or the
+         * order changed again in the meantime.
+         */
         private void sortList() {
-            if (mDisplayOrder == _DISPLAY_ORDER_USAGE_TIME) {
+            final int generation = ++mGeneration;
+            final int displayOrder = mDisplayOrder;
+            final ArrayList<UsageStats> packageStats = new ArrayList<>(mPackageStats);
+            final Comparator<UsageStats> comparator;
+            if (displayOrder == _DISPLAY_ORDER_USAGE_TIME) {
                 if (localLOGV) Log.i(TAG, "Sorting by usage time");
-                Collections.sort(mPackageStats, mUsageTimeComparator);
-            } else if (mDisplayOrder == _DISPLAY_ORDER_LAST_TIME_USED) {
+                comparator = mUsageTimeComparator;
+            } else if (displayOrder == _DISPLAY_ORDER_LAST_TIME_USED) {
                 if (localLOGV) Log.i(TAG, "Sorting by last time used");
-                Collections.sort(mPackageStats, mLastTimeUsedComparator);
-            } else if (mDisplayOrder == _DISPLAY_ORDER_APP_NAME) {
+                comparator = mLastTimeUsedComparator;
+            } else if (displayOrder == _DISPLAY_ORDER_APP_NAME && mAppLabelComparator != null) {
                 if (localLOGV) Log.i(TAG, "Sorting by application name");
-                Collections.sort(mPackageStats, mAppLabelComparator);
+                comparator = mAppLabelComparator;
+            } else {
+                return;
             }
-            notifyDataSetChanged();
+            ThreadUtils.postOnBackgroundThread(() -> {
+                Collections.sort(packageStats, comparator);
+                ThreadUtils.postOnMainThread(() -> {
+                    if (generation != mGeneration || isDestroyed()) {
+                        return;
+                    }
+                    mPackageStats = packageStats;
+                    notifyDataSetChanged();
+                });
+            });
         }
     }
 
@@ -231,9 +300,7 @@ public class UsageStatsActivity extends Activity implements OnItemSelectedListen
         super.onCreate(icicle);
         setContentView(R.layout.usage_stats);
 
-        mUsageStatsManager = (UsageStatsManager) getSystemService(Context.USAGE_STATS_SERVICE);
         mInflater = (LayoutInflater)getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-        mPm = getPackageManager();
 
         Spinner typeSpinner = (Spinner) findViewById(R.id.typeSpinner);
         typeSpinner.setOnItemSelectedListener(this);
@@ -241,6 +308,21 @@ public class UsageStatsActivity extends Activity implements OnItemSelectedListen
         ListView listView = (ListView) findViewById(R.id.pkg_list);
         mAdapter = new UsageStatsAdapter();
         listView.setAdapter(mAdapter);
+        getLoaderManager().initLoader(0 /* id */, null /* args */, this);
+    }
+
+    @Override
+    public Loader<UsageStatsResult> onCreateLoader(int id, Bundle args) {
+        return new UsageStatsLoader(this);
+    }
+
+    @Override
+    public void onLoadFinished(Loader<UsageStatsResult> loader, UsageStatsResult result) {
+        mAdapter.setResult(result);
+    }
+
+    @Override
+    public void onLoaderReset(Loader<UsageStatsResult> loader) {
     }
 
     @Override
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.LocaleList;
+import android.support.annotation.VisibleForTesting;
+import android.util.ArrayMap;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Cache of application labels, kept on disk so they survive the process.
+ *
+ * Loading a label loads the resources of the application, which is much slower than asking
+ * {@link PackageManager} when the package was last updated. A cached label is used until its
+ * package is updated, or the locales change. Must not be used on the main thread.
+ */
+public class AppLabelCache {
+    private static final String TAG = "AppLabelCache";
+
+    @VisibleForTesting
+    static final String FILE_NAME = "app_labels";
+    /** Version of the file format, bump it whenever the format changes. */
+    private static final int VERSION = 1;
+
+    private static AppLabelCache sInstance;
+
+    private final AtomicFile mFile;
+    private final ArrayMap<String, Entry> mEntries = new ArrayMap<>();
+    private String mLocales;
+    private boolean mDirty;
+
+    public static synchronized AppLabelCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new AppLabelCache(
+                    new File(context.getApplicationContext().getCacheDir(), FILE_NAME));
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    AppLabelCache(File file) {
+        mFile = new AtomicFile(file);
+    }
+
+    /**
+     * @return the label of {@param packageName}, or {@code null} if it is not installed.
+     */
+    public synchronized String getLabel(PackageManager pm, String packageName) {
+        loadIfNeeded();
+        final PackageInfo info;
+        try {
+            info = pm.getPackageInfo(packageName, 0);
+        } catch (PackageManager.NameNotFoundException e) {
+            if (mEntries.remove(packageName) != null) {
+                mDirty = true;
+            }
+            return null;
+        }
+        final Entry entry = mEntries.get(packageName);
+        if (entry != null && entry.lastUpdateTime == info.lastUpdateTime) {
+            return entry.label;
+        }
+        final String label = info.applicationInfo.loadLabel(pm).toString();
+        mEntries.put(packageName, new Entry(info.lastUpdateTime, label));
+        mDirty = true;
+        return label;
+    }
+
+    /**
+     * Writes the labels loaded since the last call to disk.
+     */
+    public synchronized void save() {
+        if (!mDirty) {
+            return;
+        }
+        FileOutputStream fos = null;
+        try {
+            fos = mFile.startWrite();
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(VERSION);
+            out.writeUTF(mLocales);
+            out.writeInt(mEntries.size());
+            for (int i = 0, size = mEntries.size(); i < size; i++) {
+                final Entry entry = mEntries.valueAt(i);
+                out.writeUTF(mEntries.keyAt(i));
+                out.writeLong(entry.lastUpdateTime);
+                out.writeUTF(entry.label);
+            }
+            out.flush();
+            mFile.finishWrite(fos);
+            mDirty = false;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write app labels", e);
+            mFile.failWrite(fos);
+        }
+    }
+
+    /**
+     * Reads the labels from disk the first time, and drops them all when the locales changed.
+     */
+    private void loadIfNeeded() {
+        final String locales = LocaleList.getDefault().toLanguageTags();
+        if (locales.equals(mLocales)) {
+            return;
+        }
+        final boolean firstLoad = mLocales == null;
+        mLocales = locales;
+        mEntries.clear();
+        mDirty = true;
+        if (!firstLoad) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(mFile.openRead()))) {
+            if (in.readInt() != VERSION || !locales.equals(in.readUTF())) {
+                return;
+            }
+            for (int count = in.readInt(); count > 0; count--) {
+                final String packageName = in.readUTF();
+                mEntries.put(packageName, new Entry(in.readLong(), in.readUTF()));
+            }
+            mDirty = false;
+        } catch (FileNotFoundException e) {
+            // Nothing cached yet.
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read app labels", e);
+            mEntries.clear();
+        }
+    }
+
+    private static class Entry {
+        final long lastUpdateTime;
+        final String label;
+
+        Entry(long lastUpdateTime, String label) {
+            this.lastUpdateTime = lastUpdateTime;
+            this.label = label;
+        }
+    }
+}
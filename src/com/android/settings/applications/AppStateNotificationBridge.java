@@ -16,13 +16,10 @@
 package com.android.settings.applications;
 
 import android.app.usage.IUsageStatsManager;
-import android.app.usage.UsageEvents;
-import android.app.usage.UsageStatsManager;
 import android.content.Context;
-import android.os.RemoteException;
 import android.os.UserHandle;
 import android.os.UserManager;
-import android.text.format.DateUtils;
+import android.support.annotation.VisibleForTesting;
 import android.util.ArrayMap;
 import android.view.View;
 import android.view.ViewGroup;
@@ -51,15 +48,26 @@ public class AppStateNotificationBridge extends AppStateBaseBridge {
     private IUsageStatsManager mUsageStatsManager;
     protected List<Integer> mUserIds;
     private NotificationBackend mBackend;
-    private static final int DAYS_TO_CHECK = 7;
+    private final NotificationSentIndex mSentIndex;
+    static final int DAYS_TO_CHECK = 7;
 
     public AppStateNotificationBridge(Context context, ApplicationsState appState,
             Callback callback, IUsageStatsManager usageStatsManager,
             UserManager userManager, NotificationBackend backend) {
+        this(context, appState, callback, usageStatsManager, userManager, backend,
+                NotificationSentIndex.getInstance());
+    }
+
+    @VisibleForTesting
+    AppStateNotificationBridge(Context context, ApplicationsState appState,
+            Callback callback, IUsageStatsManager usageStatsManager,
+            UserManager userManager, NotificationBackend backend,
+            NotificationSentIndex sentIndex) {
         super(appState, callback);
         mContext = context;
         mUsageStatsManager = usageStatsManager;
         mBackend = backend;
+        mSentIndex = sentIndex;
         mUserIds = new ArrayList<>();
         mUserIds.add(mContext.getUserId());
         int workUserId = Utils.getManagedProfileId(userManager, mContext.getUserId());
@@ -73,10 +81,10 @@ public class AppStateNotificationBridge extends AppStateBaseBridge {
         ArrayList<AppEntry> apps = mAppSession.getAllApps();
         if (apps == null) return;
 
-        final Map<String, NotificationsSentState> map = getAggregatedUsageEvents();
+        updateSentIndex();
         for (AppEntry entry : apps) {
-            NotificationsSentState stats =
-                    map.get(getKey(UserHandle.getUserId(entry.info.uid), entry.info.packageName));
+            NotificationsSentState stats = mSentIndex.get(
+                    UserHandle.getUserId(entry.info.uid), entry.info.packageName);
             calculateAvgSentCounts(stats);
             addBlockStatus(entry, stats);
             entry.extraInfo = stats;
@@ -125,73 +133,28 @@ public class AppStateNotificationBridge extends AppStateBaseBridge {
         }
     }
 
+    private void updateSentIndex() {
+        for (int userId : mUserIds) {
+            mSentIndex.update(mUsageStatsManager, userId, mContext.getPackageName());
+        }
+    }
+
     protected Map<String, NotificationsSentState> getAggregatedUsageEvents() {
         ArrayMap<String, NotificationsSentState> aggregatedStats = new ArrayMap<>();
 
-        long now = System.currentTimeMillis();
-        long startTime = now - (DateUtils.DAY_IN_MILLIS * DAYS_TO_CHECK);
+        updateSentIndex();
         for (int userId : mUserIds) {
-            UsageEvents events = null;
-            try {
-                events = mUsageStatsManager.queryEventsForUser(
-                        startTime, now, userId, mContext.getPackageName());
-            } catch (RemoteException e) {
-                e.printStackTrace();
-            }
-            if (events != null) {
-                UsageEvents.Event event = new UsageEvents.Event();
-                while (events.hasNextEvent()) {
-                    events.getNextEvent(event);
-                    NotificationsSentState stats =
-                            aggregatedStats.get(getKey(userId, event.getPackageName()));
-                    if (stats == null) {
-                        stats = new NotificationsSentState();
-                        aggregatedStats.put(getKey(userId, event.getPackageName()), stats);
-                    }
-
-                    if (event.getEventType() == UsageEvents.Event.NOTIFICATION_INTERRUPTION) {
-                        if (event.getTimeStamp() > stats.lastSent) {
-                            stats.lastSent = event.getTimeStamp();
-                        }
-                        stats.sentCount++;
-                    }
-
-                }
-            }
+            mSentIndex.forEach(userId,
+                    (pkg, stats) -> aggregatedStats.put(getKey(userId, pkg), stats));
         }
         return aggregatedStats;
     }
 
     protected NotificationsSentState getAggregatedUsageEvents(int userId, String pkg) {
-        NotificationsSentState stats = null;
-
-        long now = System.currentTimeMillis();
-        long startTime = now - (DateUtils.DAY_IN_MILLIS * DAYS_TO_CHECK);
-        UsageEvents events = null;
-        try {
-            events = mUsageStatsManager.queryEventsForPackageForUser(
-                    startTime, now, userId, pkg, mContext.getPackageName());
-        } catch (RemoteException e) {
-            e.printStackTrace();
-        }
-        if (events != null) {
-            UsageEvents.Event event = new UsageEvents.Event();
-            while (events.hasNextEvent()) {
-                events.getNextEvent(event);
-
-                if (event.getEventType() == UsageEvents.Event.NOTIFICATION_INTERRUPTION) {
-                    if (stats == null) {
-                        stats = new NotificationsSentState();
-                    }
-                    if (event.getTimeStamp() > stats.lastSent) {
-                        stats.lastSent = event.getTimeStamp();
-                    }
-                    stats.sentCount++;
-                }
-
-            }
-        }
-        return stats;
+        // Only reads the events since the last update, which includes the change that caused
+        // this package to be updated.
+        mSentIndex.update(mUsageStatsManager, userId, mContext.getPackageName());
+        return mSentIndex.get(userId, pkg);
     }
 
     private static NotificationsSentState getNotificationsSentState(AppEntry entry) {
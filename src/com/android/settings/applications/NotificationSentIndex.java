@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.app.usage.IUsageStatsManager;
+import android.app.usage.UsageEvents;
+import android.os.RemoteException;
+import android.support.annotation.VisibleForTesting;
+import android.text.format.DateUtils;
+import android.util.ArrayMap;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.android.settings.applications.AppStateNotificationBridge.NotificationsSentState;
+
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+import java.util.function.LongSupplier;
+
+/**
+ * In-process index of the notifications each package sent over the last {@link #WINDOW_MS},
+ * per user.
+ *
+ * Each update only queries the usage events since the previous update of the same user, so the
+ * full window is read from {@link IUsageStatsManager} once per process instead of every time the
+ * notification list is loaded or sorted. Lookups are answered from memory.
+ */
+class NotificationSentIndex {
+    private static final String TAG = "NotificationSentIndex";
+
+    @VisibleForTesting
+    static final long WINDOW_MS =
+            AppStateNotificationBridge.DAYS_TO_CHECK * DateUtils.DAY_IN_MILLIS;
+
+    private static NotificationSentIndex sInstance;
+
+    private final LongSupplier mClock;
+    private final SparseArray<UserEvents> mUsers = new SparseArray<>();
+
+    static synchronized NotificationSentIndex getInstance() {
+        if (sInstance == null) {
+            sInstance = new NotificationSentIndex(System::currentTimeMillis);
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    NotificationSentIndex(LongSupplier clock) {
+        mClock = clock;
+    }
+
+    /**
+     * Adds the usage events of {@param userId} since its last update, or of the whole window if
+     * it was never updated.
+     */
+    synchronized void update(IUsageStatsManager usageStatsManager, int userId,
+            String callingPackage) {
+        final long now = mClock.getAsLong();
+        final long windowStart = now - WINDOW_MS;
+        UserEvents user = mUsers.get(userId);
+        if (user == null || user.queriedUntil < windowStart || user.queriedUntil > now) {
+            // Never read, too long ago, or the clock went back: start over.
+            user = new UserEvents(windowStart);
+            mUsers.put(userId, user);
+        }
+        if (user.queriedUntil == now) {
+            return;
+        }
+
+        final UsageEvents events;
+        try {
+            events = usageStatsManager.queryEventsForUser(user.queriedUntil, now, userId,
+                    callingPackage);
+        } catch (RemoteException e) {
+            Log.w(TAG, "Failed to query usage events for user " + userId, e);
+            return;
+        }
+        user.queriedUntil = now;
+        if (events == null) {
+            return;
+        }
+        final UsageEvents.Event event = new UsageEvents.Event();
+        while (events.hasNextEvent()) {
+            events.getNextEvent(event);
+            final String pkg = event.getPackageName();
+            PackageEvents pkgEvents = user.packages.get(pkg);
+            if (pkgEvents == null) {
+                pkgEvents = new PackageEvents();
+                user.packages.put(pkg, pkgEvents);
+            }
+            pkgEvents.add(event);
+        }
+    }
+
+    /**
+     * @return how often and how recently {@param pkg} of {@param userId} sent notifications within
+     * the window, or {@code null} if it had no usage events at all.
+     */
+    synchronized NotificationsSentState get(int userId, String pkg) {
+        final UserEvents user = mUsers.get(userId);
+        if (user == null) {
+            return null;
+        }
+        final PackageEvents pkgEvents = user.packages.get(pkg);
+        if (pkgEvents == null) {
+            return null;
+        }
+        if (pkgEvents.prune(mClock.getAsLong() - WINDOW_MS)) {
+            user.packages.remove(pkg);
+            return null;
+        }
+        return pkgEvents.toState();
+    }
+
+    /**
+     * Calls {@param consumer} with every package of {@param userId} that had usage events within
+     * the window.
+     */
+    synchronized void forEach(int userId, BiConsumer<String, NotificationsSentState> consumer) {
+        final UserEvents user = mUsers.get(userId);
+        if (user == null) {
+            return;
+        }
+        final long windowStart = mClock.getAsLong() - WINDOW_MS;
+        for (int i = user.packages.size() - 1; i >= 0; i--) {
+            final PackageEvents pkgEvents = user.packages.valueAt(i);
+            if (pkgEvents.prune(windowStart)) {
+                user.packages.removeAt(i);
+            } else {
+                consumer.accept(user.packages.keyAt(i), pkgEvents.toState());
+            }
+        }
+    }
+
+    private static class UserEvents {
+        final ArrayMap<String, PackageEvents> packages = new ArrayMap<>();
+        long queriedUntil;
+
+        UserEvents(long queriedUntil) {
+            this.queriedUntil = queriedUntil;
+        }
+    }
+
+    /**
+     * Notification timestamps of one package, oldest first, as usage events are reported in
+     * order.
+     */
+    private static class PackageEvents {
+        long[] sentTimes = new long[4];
+        int first;
+        int end;
+        long lastSent;
+        long lastEvent;
+
+        void add(UsageEvents.Event event) {
+            final long timeStamp = event.getTimeStamp();
+            lastEvent = Math.max(lastEvent, timeStamp);
+            if (event.getEventType() != UsageEvents.Event.NOTIFICATION_INTERRUPTION) {
+                return;
+            }
+            if (end == sentTimes.length) {
+                if (first > 0) {
+                    System.arraycopy(sentTimes, first, sentTimes, 0, end - first);
+                    end -= first;
+                    first = 0;
+                }
+                if (end == sentTimes.length) {
+                    sentTimes = Arrays.copyOf(sentTimes, sentTimes.length * 2);
+                }
+            }
+            sentTimes[end++] = timeStamp;
+            lastSent = Math.max(lastSent, timeStamp);
+        }
+
+        /**
+         * Drops the notifications sent before {@param windowStart}.
+         *
+         * @return whether no usage event of the package is left in the window.
+         */
+        boolean prune(long windowStart) {
+            while (first < end && sentTimes[first] < windowStart) {
+                first++;
+            }
+            if (first == end) {
+                lastSent = 0;
+            }
+            return first == end && lastEvent < windowStart;
+        }
+
+        NotificationsSentState toState() {
+            final NotificationsSentState state = new NotificationsSentState();
+            state.sentCount = end - first;
+            state.lastSent = lastSent;
+            return state;
+        }
+    }
+}
@@ -51,6 +51,8 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
 
 public class RunningProcessesView extends FrameLayout
         implements AdapterView.OnItemClickListener, RecyclerListener,
@@ -502,6 +504,18 @@ public class RunningProcessesView extends FrameLayout
         }
     }
 
+    @Override
+    public void onRefreshItems(Set<RunningState.MergedItem> items) {
+        // The list itself did not change, so only rebind the rows showing
+        // one of the changed items.
+        for (Map.Entry<View, ActiveItem> entry : mActiveItems.entrySet()) {
+            ActiveItem ai = entry.getValue();
+            if (ai.mRootView.getWindowToken() != null && items.contains(ai.mItem)) {
+                entry.setValue(ai.mHolder.bind(mState, ai.mItem, mBuilder));
+            }
+        }
+    }
+
     @Override
     public void onRefreshUi(int what) {
         switch (what) {
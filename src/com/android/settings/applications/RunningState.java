@@ -40,6 +40,7 @@ import android.os.RemoteException;
 import android.os.UserHandle;
 import android.os.UserManager;
 import android.text.format.Formatter;
+import android.util.ArraySet;
 import android.util.Log;
 import android.util.SparseArray;
 
@@ -53,6 +54,7 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Singleton for retrieving and monitoring the state about all running
@@ -72,6 +74,7 @@ public class RunningState {
 
     static final long TIME_UPDATE_DELAY = 1000;
     static final long CONTENTS_UPDATE_DELAY = 2000;
+    static final long MAX_CONTENTS_UPDATE_DELAY = 16000;
 
     static final int MAX_SERVICES = 100;
 
@@ -138,6 +141,15 @@ public class RunningState {
     final SparseArray<AppProcessInfo> mTmpAppProcesses = new SparseArray<AppProcessInfo>();
 
     int mSequence = 0;
+    int mBackgroundSequence = 0;
+
+    // Compares each update with the previous one, to only rebuild items when
+    // a process or service actually changed.
+    final RunningStateDiff mDiff = new RunningStateDiff();
+
+    // Results of the last update, only used on the background thread.
+    boolean mSnapshotChanged;
+    ArraySet<MergedItem> mChangedItems;
 
     final Comparator<RunningState.MergedItem> mBackgroundComparator
         = new Comparator<RunningState.MergedItem>() {
@@ -206,6 +218,10 @@ public class RunningState {
     boolean mHaveData;
     boolean mWatchingBackgroundItems;
 
+    // Time until the next update, doubled after each update that found
+    // nothing changed.
+    long mContentsUpdateDelay = CONTENTS_UPDATE_DELAY;
+
     ArrayList<BaseItem> mItems = new ArrayList<BaseItem>();
     ArrayList<MergedItem> mMergedItems = new ArrayList<MergedItem>();
     ArrayList<MergedItem> mBackgroundItems = new ArrayList<MergedItem>();
@@ -240,10 +256,21 @@ public class RunningState {
                     }
                     Message cmd = mHandler.obtainMessage(MSG_REFRESH_UI);
                     cmd.arg1 = update(mApplicationContext, mAm) ? 1 : 0;
+                    cmd.obj = mChangedItems;
                     mHandler.sendMessage(cmd);
+                    long delay;
+                    synchronized (mLock) {
+                        if (mSnapshotChanged) {
+                            mContentsUpdateDelay = CONTENTS_UPDATE_DELAY;
+                        } else {
+                            mContentsUpdateDelay = Math.min(mContentsUpdateDelay * 2,
+                                    MAX_CONTENTS_UPDATE_DELAY);
+                        }
+                        delay = mContentsUpdateDelay;
+                    }
                     removeMessages(MSG_UPDATE_CONTENTS);
                     msg = obtainMessage(MSG_UPDATE_CONTENTS);
-                    sendMessageDelayed(msg, CONTENTS_UPDATE_DELAY);
+                    sendMessageDelayed(msg, delay);
                     break;
             }
         }
@@ -253,14 +280,21 @@ public class RunningState {
 
     final Handler mHandler = new Handler() {
         int mNextUpdate = OnRefreshUiListener.REFRESH_TIME;
+        final ArraySet<MergedItem> mNextChangedItems = new ArraySet<MergedItem>();
 
         @Override
         public void handleMessage(Message msg) {
             switch (msg.what) {
                 case MSG_REFRESH_UI:
-                    mNextUpdate = msg.arg1 != 0
-                            ? OnRefreshUiListener.REFRESH_STRUCTURE
-                            : OnRefreshUiListener.REFRESH_DATA;
+                    if (msg.arg1 != 0) {
+                        mNextUpdate = OnRefreshUiListener.REFRESH_STRUCTURE;
+                        mNextChangedItems.clear();
+                    } else if (mNextUpdate != OnRefreshUiListener.REFRESH_STRUCTURE) {
+                        mNextUpdate = OnRefreshUiListener.REFRESH_DATA;
+                        if (msg.obj != null) {
+                            mNextChangedItems.addAll((ArraySet<MergedItem>) msg.obj);
+                        }
+                    }
                     break;
                 case MSG_UPDATE_TIME:
                     synchronized (mLock) {
@@ -275,6 +309,10 @@ public class RunningState {
                     if (mRefreshUiListener != null) {
                         //Log.i("foo", "Refresh UI: " + mNextUpdate
                         //        + " @ " + SystemClock.uptimeMillis());
+                        if (!mNextChangedItems.isEmpty()) {
+                            mRefreshUiListener.onRefreshItems(mNextChangedItems);
+                            mNextChangedItems.clear();
+                        }
                         mRefreshUiListener.onRefreshUi(mNextUpdate);
                         mNextUpdate = OnRefreshUiListener.REFRESH_TIME;
                     }
@@ -327,6 +365,13 @@ public class RunningState {
         public static final int REFRESH_STRUCTURE = 2;
 
         public void onRefreshUi(int what);
+
+        /**
+         * Called before {@link #onRefreshUi(int)} with the items that changed while the list
+         * of items stayed the same.
+         */
+        default void onRefreshItems(Set<MergedItem> items) {
+        }
     }
 
     static class UserState {
@@ -793,6 +838,7 @@ public class RunningState {
         synchronized (mLock) {
             mResumed = true;
             mRefreshUiListener = listener;
+            mContentsUpdateDelay = CONTENTS_UPDATE_DELAY;
             boolean usersChanged = mUmBroadcastReceiver.checkUsersChangedLocked();
             boolean configChanged =
                     mInterestingConfigChanges.applyNewConfig(mApplicationContext.getResources());
@@ -802,15 +848,16 @@ public class RunningState {
                 mBackgroundHandler.removeMessages(MSG_UPDATE_CONTENTS);
                 mBackgroundHandler.sendEmptyMessage(MSG_RESET_CONTENTS);
             }
-            if (!mBackgroundHandler.hasMessages(MSG_UPDATE_CONTENTS)) {
-                mBackgroundHandler.sendEmptyMessage(MSG_UPDATE_CONTENTS);
-            }
+            // Don't wait for an update that was backed off.
+            mBackgroundHandler.removeMessages(MSG_UPDATE_CONTENTS);
+            mBackgroundHandler.sendEmptyMessage(MSG_UPDATE_CONTENTS);
             mHandler.sendEmptyMessage(MSG_UPDATE_TIME);
         }
     }
 
     void updateNow() {
         synchronized (mLock) {
+            mContentsUpdateDelay = CONTENTS_UPDATE_DELAY;
             mBackgroundHandler.removeMessages(MSG_UPDATE_CONTENTS);
             mBackgroundHandler.sendEmptyMessage(MSG_UPDATE_CONTENTS);
         }
@@ -862,12 +909,13 @@ public class RunningState {
         mRunningProcesses.clear();
         mProcessItems.clear();
         mAllProcessItems.clear();
+        mDiff.clear();
     }
 
     private void addOtherUserItem(Context context, ArrayList<MergedItem> newMergedItems,
-            SparseArray<MergedItem> userItems, MergedItem newItem) {
+            SparseArray<MergedItem> userItems, MergedItem newItem, int seq) {
         MergedItem userItem = userItems.get(newItem.mUserId);
-        boolean first = userItem == null || userItem.mCurSeq != mSequence;
+        boolean first = userItem == null || userItem.mCurSeq != seq;
         if (first) {
             UserInfo info = mUm.getUserInfo(newItem.mUserId);
             if (info == null) {
@@ -883,7 +931,7 @@ public class RunningState {
             } else {
                 userItem.mChildren.clear();
             }
-            userItem.mCurSeq = mSequence;
+            userItem.mCurSeq = seq;
             userItem.mUser = new UserState();
             userItem.mUser.mInfo = info;
             userItem.mUser.mIcon = Utils.getUserIcon(context, mUm, info);
@@ -893,45 +941,16 @@ public class RunningState {
         userItem.mChildren.add(newItem);
     }
 
-    private boolean update(Context context, ActivityManager am) {
-        final PackageManager pm = context.getPackageManager();
-
-        mSequence++;
-        
+    private boolean updateStructure(Context context, PackageManager pm,
+            List<ActivityManager.RunningServiceInfo> services,
+            List<ActivityManager.RunningAppProcessInfo> processes) {
         boolean changed = false;
 
-        // Retrieve list of services, filtering out anything that definitely
-        // won't be shown in the UI.
-        List<ActivityManager.RunningServiceInfo> services 
-                = am.getRunningServices(MAX_SERVICES);
-        int NS = services != null ? services.size() : 0;
-        for (int i=0; i<NS; i++) {
-            ActivityManager.RunningServiceInfo si = services.get(i);
-            // We are not interested in services that have not been started
-            // and don't have a known client, because
-            // there is nothing the user can do about them.
-            if (!si.started && si.clientLabel == 0) {
-                services.remove(i);
-                i--;
-                NS--;
-                continue;
-            }
-            // We likewise don't care about services running in a
-            // persistent process like the system or phone.
-            if ((si.flags&ActivityManager.RunningServiceInfo.FLAG_PERSISTENT_PROCESS)
-                    != 0) {
-                services.remove(i);
-                i--;
-                NS--;
-                continue;
-            }
-        }
-
-        // Retrieve list of running processes, organizing them into a sparse
-        // array for easy retrieval.
-        List<ActivityManager.RunningAppProcessInfo> processes
-                = am.getRunningAppProcesses();
+        final int NS = services != null ? services.size() : 0;
         final int NP = processes != null ? processes.size() : 0;
+
+        // Organize the running processes into a sparse array for easy
+        // retrieval.
         mTmpAppProcesses.clear();
         for (int i=0; i<NP; i++) {
             ActivityManager.RunningAppProcessInfo pi = processes.get(i);
@@ -1234,7 +1253,8 @@ public class RunningState {
                 
                 mergedItem.update(context, false);
                 if (mergedItem.mUserId != mMyUserId) {
-                    addOtherUserItem(context, newMergedItems, mOtherUserMergedItems, mergedItem);
+                    addOtherUserItem(context, newMergedItems, mOtherUserMergedItems, mergedItem,
+                            mSequence);
                 } else {
                     newMergedItems.add(mergedItem);
                 }
@@ -1253,7 +1273,7 @@ public class RunningState {
                     proc.mMergedItem.update(context, false);
                     if (proc.mMergedItem.mUserId != mMyUserId) {
                         addOtherUserItem(context, newMergedItems, mOtherUserMergedItems,
-                                proc.mMergedItem);
+                                proc.mMergedItem, mSequence);
                     } else {
                         newMergedItems.add(0, proc.mMergedItem);
                     }
@@ -1273,10 +1293,79 @@ public class RunningState {
 
             synchronized (mLock) {
                 mItems = newItems;
-                mMergedItems = newMergedItems;
+                if (newMergedItems.equals(mMergedItems)) {
+                    // Same items in the same order, keep the list so only the
+                    // items that changed need to be refreshed.
+                    changed = false;
+                } else {
+                    mMergedItems = newMergedItems;
+                }
             }
         }
-        
+
+        return changed;
+    }
+
+    private ArraySet<MergedItem> collectChangedItems(RunningStateDiff.ChangeSet changes) {
+        final ArraySet<MergedItem> changedItems = new ArraySet<MergedItem>();
+        for (int i=0; i<mMergedItems.size(); i++) {
+            MergedItem mergedItem = mMergedItems.get(i);
+            if (changes.affects(mergedItem)) {
+                changedItems.add(mergedItem);
+            }
+        }
+        return changedItems;
+    }
+
+    private boolean update(Context context, ActivityManager am) {
+        final PackageManager pm = context.getPackageManager();
+
+        boolean changed = false;
+
+        // Retrieve list of services, filtering out anything that definitely
+        // won't be shown in the UI.
+        List<ActivityManager.RunningServiceInfo> services 
+                = am.getRunningServices(MAX_SERVICES);
+        int NS = services != null ? services.size() : 0;
+        for (int i=0; i<NS; i++) {
+            ActivityManager.RunningServiceInfo si = services.get(i);
+            // We are not interested in services that have not been started
+            // and don't have a known client, because
+            // there is nothing the user can do about them.
+            if (!si.started && si.clientLabel == 0) {
+                services.remove(i);
+                i--;
+                NS--;
+                continue;
+            }
+            // We likewise don't care about services running in a
+            // persistent process like the system or phone.
+            if ((si.flags&ActivityManager.RunningServiceInfo.FLAG_PERSISTENT_PROCESS)
+                    != 0) {
+                services.remove(i);
+                i--;
+                NS--;
+                continue;
+            }
+        }
+
+        // Retrieve list of running processes.
+        List<ActivityManager.RunningAppProcessInfo> processes
+                = am.getRunningAppProcesses();
+
+        // The items only need to be rebuilt if a process or service changed
+        // since the last update; otherwise just their sizes are refreshed.
+        final RunningStateDiff.ChangeSet changes = mDiff.update(services, processes);
+        mSnapshotChanged = !changes.isEmpty();
+        mChangedItems = null;
+        if (mSnapshotChanged) {
+            mSequence++;
+            changed = updateStructure(context, pm, services, processes);
+            if (!changed) {
+                mChangedItems = collectChangedItems(changes);
+            }
+        }
+
         // Count number of interesting other (non-active) processes, and
         // build a list of all processes we will retrieve memory for.
         mAllProcessItems.clear();
@@ -1284,7 +1373,7 @@ public class RunningState {
         int numBackgroundProcesses = 0;
         int numForegroundProcesses = 0;
         int numServiceProcesses = 0;
-        NRP = mRunningProcesses.size();
+        final int NRP = mRunningProcesses.size();
         for (int i=0; i<NRP; i++) {
             ProcessItem proc = mRunningProcesses.valueAt(i);
             if (proc.mCurSeq != mSequence) {
@@ -1384,14 +1473,16 @@ public class RunningState {
                 newUserBackgroundItems = newBackgroundItems;
             } else {
                 // We now need to re-build the per-user list so that background
-                // items for users are collapsed together.
+                // items for users are collapsed together.  This may happen
+                // more than once per mSequence, so it counts on its own.
+                mBackgroundSequence++;
                 newUserBackgroundItems = new ArrayList<MergedItem>();
                 final int NB = newBackgroundItems.size();
                 for (int i=0; i<NB; i++) {
                     MergedItem mergedItem = newBackgroundItems.get(i);
                     if (mergedItem.mUserId != mMyUserId) {
                         addOtherUserItem(context, newUserBackgroundItems,
-                                mOtherUserBackgroundItems, mergedItem);
+                                mOtherUserBackgroundItems, mergedItem, mBackgroundSequence);
                     } else {
                         newUserBackgroundItems.add(mergedItem);
                     }
@@ -1401,7 +1492,7 @@ public class RunningState {
                 final int NU = mOtherUserBackgroundItems.size();
                 for (int i=0; i<NU; i++) {
                     MergedItem user = mOtherUserBackgroundItems.valueAt(i);
-                    if (user.mCurSeq == mSequence) {
+                    if (user.mCurSeq == mBackgroundSequence) {
                         user.update(context, true);
                         user.updateSize(context);
                     }
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.app.ActivityManager;
+import android.content.ComponentName;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.Pair;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Compares the running services and processes reported by {@link ActivityManager} with the ones
+ * of the previous update of {@link RunningState}, so an update where nothing that is shown
+ * changed can skip rebuilding the items, and an update where something did only needs to
+ * refresh the items involved.
+ */
+class RunningStateDiff {
+
+    /**
+     * What changed between two snapshots.
+     */
+    static class ChangeSet {
+        /** Pids of the processes that were added, removed or changed. */
+        final SparseBooleanArray pids = new SparseBooleanArray();
+        /** Services that were added, removed or changed. */
+        final ArraySet<ComponentName> services = new ArraySet<>();
+
+        boolean isEmpty() {
+            return pids.size() == 0 && services.isEmpty();
+        }
+
+        /**
+         * @return whether {@param item}, one of its processes or services, or one of its
+         * children is part of this change set.
+         */
+        boolean affects(RunningState.MergedItem item) {
+            if (item.mProcess != null && pids.get(item.mProcess.mPid)) {
+                return true;
+            }
+            for (int i = 0, size = item.mOtherProcesses.size(); i < size; i++) {
+                if (pids.get(item.mOtherProcesses.get(i).mPid)) {
+                    return true;
+                }
+            }
+            for (int i = 0, size = item.mServices.size(); i < size; i++) {
+                final ActivityManager.RunningServiceInfo service =
+                        item.mServices.get(i).mRunningService;
+                if (service != null && services.contains(service.service)) {
+                    return true;
+                }
+            }
+            for (int i = 0, size = item.mChildren.size(); i < size; i++) {
+                if (affects(item.mChildren.get(i))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private SparseArray<ActivityManager.RunningAppProcessInfo> mProcesses = new SparseArray<>();
+    private ArrayMap<Pair<ComponentName, Integer>, ActivityManager.RunningServiceInfo> mServices =
+            new ArrayMap<>();
+
+    /**
+     * Makes {@param services} and {@param processes} the snapshot the next update is compared
+     * with.
+     *
+     * @return what changed since the previous snapshot.
+     */
+    ChangeSet update(List<ActivityManager.RunningServiceInfo> services,
+            List<ActivityManager.RunningAppProcessInfo> processes) {
+        final ChangeSet changes = new ChangeSet();
+
+        final int NP = processes != null ? processes.size() : 0;
+        final SparseArray<ActivityManager.RunningAppProcessInfo> newProcesses =
+                new SparseArray<>(NP);
+        for (int i = 0; i < NP; i++) {
+            final ActivityManager.RunningAppProcessInfo pi = processes.get(i);
+            newProcesses.put(pi.pid, pi);
+            final ActivityManager.RunningAppProcessInfo old = mProcesses.get(pi.pid);
+            if (old == null || !isSameProcess(old, pi)) {
+                changes.pids.put(pi.pid, true);
+            }
+        }
+        for (int i = 0, size = mProcesses.size(); i < size; i++) {
+            final int pid = mProcesses.keyAt(i);
+            if (newProcesses.get(pid) == null) {
+                changes.pids.put(pid, true);
+            }
+        }
+
+        final int NS = services != null ? services.size() : 0;
+        final ArrayMap<Pair<ComponentName, Integer>, ActivityManager.RunningServiceInfo>
+                newServices = new ArrayMap<>(NS);
+        for (int i = 0; i < NS; i++) {
+            final ActivityManager.RunningServiceInfo si = services.get(i);
+            final Pair<ComponentName, Integer> key = Pair.create(si.service, si.uid);
+            newServices.put(key, si);
+            final ActivityManager.RunningServiceInfo old = mServices.get(key);
+            if (old == null || !isSameService(old, si)) {
+                changes.services.add(si.service);
+                if (old != null && old.pid != si.pid) {
+                    changes.pids.put(old.pid, true);
+                }
+            }
+        }
+        for (int i = 0, size = mServices.size(); i < size; i++) {
+            if (!newServices.containsKey(mServices.keyAt(i))) {
+                changes.services.add(mServices.keyAt(i).first);
+            }
+        }
+
+        mProcesses = newProcesses;
+        mServices = newServices;
+        return changes;
+    }
+
+    /**
+     * Forgets the last snapshot, so the next update reports everything as changed.
+     */
+    void clear() {
+        mProcesses = new SparseArray<>();
+        mServices = new ArrayMap<>();
+    }
+
+    private static boolean isSameProcess(ActivityManager.RunningAppProcessInfo a,
+            ActivityManager.RunningAppProcessInfo b) {
+        return a.uid == b.uid
+                && a.importance == b.importance
+                && a.importanceReasonCode == b.importanceReasonCode
+                && a.importanceReasonPid == b.importanceReasonPid
+                && a.flags == b.flags
+                && a.lru == b.lru
+                && Objects.equals(a.processName, b.processName);
+    }
+
+    private static boolean isSameService(ActivityManager.RunningServiceInfo a,
+            ActivityManager.RunningServiceInfo b) {
+        return a.pid == b.pid
+                && a.started == b.started
+                && a.restarting == b.restarting
+                && a.foreground == b.foreground
+                && a.activeSince == b.activeSince
+                && a.clientLabel == b.clientLabel
+                && a.clientCount == b.clientCount
+                && a.crashCount == b.crashCount
+                && a.flags == b.flags
+                && Objects.equals(a.process, b.process)
+                && Objects.equals(a.clientPackage, b.clientPackage);
+    }
+}
@@ -30,6 +30,8 @@ public class BackupSettingsActivityPreferenceController extends BasePreferenceCo
 
     private final UserManager mUm;
     private final BackupManager mBackupManager;
+    // Summary loaded off the main thread by preloadState(), used by the next getSummary() call.
+    private volatile CharSequence mPreloadedSummary;
 
     public BackupSettingsActivityPreferenceController(Context context) {
         super(context, KEY_BACKUP_SETTINGS);
@@ -44,8 +46,29 @@ public class BackupSettingsActivityPreferenceController extends BasePreferenceCo
                 : UNSUPPORTED_ON_DEVICE;
     }
 
+    @Override
+    public boolean canPreloadInBackground() {
+        // Only the user and backup managers are used, and mPreloadedSummary is handed over
+        // atomically.
+        return true;
+    }
+
+    @Override
+    public void preloadState() {
+        mPreloadedSummary = loadSummary();
+    }
+
     @Override
     public CharSequence getSummary() {
+        final CharSequence preloadedSummary = mPreloadedSummary;
+        if (preloadedSummary != null) {
+            mPreloadedSummary = null;
+            return preloadedSummary;
+        }
+        return loadSummary();
+    }
+
+    private CharSequence loadSummary() {
         final boolean backupEnabled = mBackupManager.isBackupEnabled();
 
         return backupEnabled
@@ -16,6 +16,7 @@ package com.android.settings.core;
 import android.annotation.IntDef;
 import android.content.Context;
 import android.content.IntentFilter;
+import android.support.annotation.VisibleForTesting;
 import android.text.TextUtils;
 import android.util.Log;
 
@@ -107,10 +108,48 @@ public abstract class BasePreferenceController extends AbstractPreferenceControl
     /**
      * Instantiate a controller as specified controller type and user-defined key.
      * <p/>
-     * This is done through reflection. Do not use this method unless you know what you are doing.
+     * Controllers declared in preference xml are created through the generated
+     * {@link PreferenceControllerRegistry}, others through reflection. Do not use this method
+     * unless you know what you are doing.
      */
     public static BasePreferenceController createInstance(Context context,
             String controllerName, String key) {
+        final PreferenceControllerRegistry registry = PreferenceControllerRegistry.getInstance();
+        final BasePreferenceController controller =
+                registry.create(context, controllerName, key);
+        if (controller != null) {
+            return controller;
+        }
+        if (registry.contains(controllerName)) {
+            throw new IllegalStateException("Invalid preference controller: " + controllerName
+                    + " has no Context and key constructor");
+        }
+        return createInstanceByReflection(context, controllerName, key);
+    }
+
+    /**
+     * Instantiate a controller as specified controller type.
+     * <p/>
+     * Controllers declared in preference xml are created through the generated
+     * {@link PreferenceControllerRegistry}, others through reflection. Do not use this method
+     * unless you know what you are doing.
+     */
+    public static BasePreferenceController createInstance(Context context, String controllerName) {
+        final PreferenceControllerRegistry registry = PreferenceControllerRegistry.getInstance();
+        final BasePreferenceController controller = registry.create(context, controllerName);
+        if (controller != null) {
+            return controller;
+        }
+        if (registry.contains(controllerName)) {
+            throw new IllegalStateException("Invalid preference controller: " + controllerName
+                    + " has no Context constructor");
+        }
+        return createInstanceByReflection(context, controllerName);
+    }
+
+    @VisibleForTesting
+    static BasePreferenceController createInstanceByReflection(Context context,
+            String controllerName, String key) {
         try {
             final Class<?> clazz = Class.forName(controllerName);
             final Constructor<?> preferenceConstructor =
@@ -124,12 +163,9 @@ public abstract class BasePreferenceController extends AbstractPreferenceControl
         }
     }
 
-    /**
-     * Instantiate a controller as specified controller type.
-     * <p/>
-     * This is done through reflection. Do not use this method unless you know what you are doing.
-     */
-    public static BasePreferenceController createInstance(Context context, String controllerName) {
+    @VisibleForTesting
+    static BasePreferenceController createInstanceByReflection(Context context,
+            String controllerName) {
         try {
             final Class<?> clazz = Class.forName(controllerName);
             final Constructor<?> preferenceConstructor = clazz.getConstructor(Context.class);
@@ -198,6 +234,29 @@ public abstract class BasePreferenceController extends AbstractPreferenceControl
         return getAvailabilityStatus() != UNSUPPORTED_ON_DEVICE;
     }
 
+    /**
+     * @return {@code true} if {@link #isAvailable()} and {@link #preloadState()} may be called on a
+     * background thread, while the main thread keeps using this controller. DashboardFragment then
+     * evaluates this controller off the main thread and updates its preference once done.
+     * <p>
+     * Defaults to {@code false}; only override it when the controller state these methods use is
+     * safe to access from two threads.
+     */
+    public boolean canPreloadInBackground() {
+        return false;
+    }
+
+    /**
+     * Precomputes expensive state, such as a summary, ahead of {@link #updateState}.
+     * <p>
+     * Called by DashboardFragment on a background thread, right after {@link #isAvailable()}
+     * returned true, for controllers which {@link #canPreloadInBackground()}. Must not touch any
+     * {@link Preference}; results should be stored in the controller and applied on the next
+     * {@link #updateState} call.
+     */
+    public void preloadState() {
+    }
+
     /**
      * Displays preference in this controller.
      */
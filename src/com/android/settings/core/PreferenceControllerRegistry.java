@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.core;
+
+import android.content.Context;
+import android.support.annotation.VisibleForTesting;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Maps {@link BasePreferenceController} class names to their constructors, so that controllers
+ * can be created without reflection.
+ *
+ * The constructors of the controllers declared with {@code settings:controller} in preference
+ * xml are registered by {@code GeneratedPreferenceControllerRegistry}, which is generated at
+ * build time by {@code tools/generate_preference_controller_registry.py}.
+ */
+public class PreferenceControllerRegistry {
+
+    private static PreferenceControllerRegistry sInstance;
+
+    private final Map<String, Function<Context, BasePreferenceController>> mContextFactories =
+            new ArrayMap<>();
+    private final Map<String, BiFunction<Context, String, BasePreferenceController>>
+            mKeyedFactories = new ArrayMap<>();
+
+    public static synchronized PreferenceControllerRegistry getInstance() {
+        if (sInstance == null) {
+            sInstance = new PreferenceControllerRegistry();
+            GeneratedPreferenceControllerRegistry.registerAll(sInstance.mContextFactories,
+                    sInstance.mKeyedFactories);
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    PreferenceControllerRegistry() {
+    }
+
+    /**
+     * @return true if the constructor of {@param controllerName} is registered.
+     */
+    public boolean contains(String controllerName) {
+        return mContextFactories.containsKey(controllerName)
+                || mKeyedFactories.containsKey(controllerName);
+    }
+
+    /**
+     * @return a new {@param controllerName} created with its {@link Context}-only constructor,
+     * or null if that constructor is not registered.
+     */
+    public BasePreferenceController create(Context context, String controllerName) {
+        final Function<Context, BasePreferenceController> factory =
+                mContextFactories.get(controllerName);
+        return factory == null ? null : factory.apply(context);
+    }
+
+    /**
+     * @return a new {@param controllerName} created with its {@link Context} and key
+     * constructor, or null if that constructor is not registered.
+     */
+    public BasePreferenceController create(Context context, String controllerName, String key) {
+        final BiFunction<Context, String, BasePreferenceController> factory =
+                mKeyedFactories.get(controllerName);
+        return factory == null ? null : factory.apply(context, key);
+    }
+
+    /**
+     * @return the number of registered constructors.
+     */
+    public int size() {
+        return mContextFactories.size() + mKeyedFactories.size();
+    }
+
+    /**
+     * @return the class names of all registered controllers.
+     */
+    public Set<String> getControllerNames() {
+        final Set<String> names = new ArraySet<>(size());
+        names.addAll(mContextFactories.keySet());
+        names.addAll(mKeyedFactories.keySet());
+        return names;
+    }
+
+    @VisibleForTesting
+    void registerContextFactory(String controllerName,
+            Function<Context, BasePreferenceController> factory) {
+        mContextFactories.put(controllerName, factory);
+    }
+
+    @VisibleForTesting
+    void registerKeyedFactory(String controllerName,
+            BiFunction<Context, String, BasePreferenceController> factory) {
+        mKeyedFactories.put(controllerName, factory);
+    }
+}
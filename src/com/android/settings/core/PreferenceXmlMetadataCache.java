@@ -0,0 +1,409 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.core;
+
+import android.annotation.NonNull;
+import android.annotation.XmlRes;
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.os.Build;
+import android.support.annotation.VisibleForTesting;
+import android.text.TextUtils;
+import android.util.AtomicFile;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.android.settingslib.utils.ThreadUtils;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compiled form of Settings' preference xml files.
+ *
+ * Each xml resource is parsed once per build, package version and resource configuration into a
+ * list of {@link PreferenceMetadata}, which is kept in memory and persisted as a compact binary
+ * snapshot in the cache directory. Search indexing, slice indexing and dashboard fragments read
+ * from this snapshot instead of walking the xml again.
+ */
+public class PreferenceXmlMetadataCache {
+
+    private static final String TAG = "PrefXmlMetadataCache";
+
+    private static final String CACHE_DIR = "preference_metadata";
+    private static final int SNAPSHOT_VERSION = 1;
+
+    private static PreferenceXmlMetadataCache sSingleton;
+    /** Identifies the installed Settings package, which cannot change while it is running. */
+    private static String sPackageKey;
+
+    private final SparseArray<List<PreferenceMetadata>> mMetadata = new SparseArray<>();
+    private String mConfigurationKey;
+
+    public static synchronized PreferenceXmlMetadataCache getInstance() {
+        if (sSingleton == null) {
+            sSingleton = new PreferenceXmlMetadataCache();
+        }
+        return sSingleton;
+    }
+
+    @VisibleForTesting
+    PreferenceXmlMetadataCache() {
+    }
+
+    /**
+     * Returns the metadata of every element in {@param xmlResId}, in document order. The first
+     * element is the root of the xml.
+     *
+     * Only resources of the Settings package are cached; resources of other packages, which may
+     * be updated independently of the build, are parsed on every call.
+     */
+    @NonNull
+    public List<PreferenceMetadata> getMetadata(Context context, @XmlRes int xmlResId)
+            throws IOException, XmlPullParserException {
+        if (xmlResId <= 0) {
+            return Collections.emptyList();
+        }
+        final Context appContext = context.getApplicationContext();
+        final String configurationKey = getConfigurationKey(context);
+        if (appContext == null || configurationKey == null
+                || !TextUtils.equals(context.getPackageName(), appContext.getPackageName())) {
+            return PreferenceXmlParserUtils.parseMetadata(context, xmlResId);
+        }
+
+        synchronized (this) {
+            if (!TextUtils.equals(configurationKey, mConfigurationKey)) {
+                mMetadata.clear();
+                mConfigurationKey = configurationKey;
+            }
+            final List<PreferenceMetadata> cached = mMetadata.get(xmlResId);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        final File snapshot = getSnapshotFile(appContext, xmlResId);
+        List<PreferenceMetadata> metadata = readSnapshot(snapshot, configurationKey);
+        if (metadata == null) {
+            metadata = Collections.unmodifiableList(
+                    PreferenceXmlParserUtils.parseMetadata(context, xmlResId));
+            final List<PreferenceMetadata> toWrite = metadata;
+            ThreadUtils.postOnBackgroundThread(
+                    () -> writeSnapshot(snapshot, configurationKey, toWrite));
+        }
+
+        synchronized (this) {
+            if (TextUtils.equals(configurationKey, mConfigurationKey)) {
+                mMetadata.put(xmlResId, metadata);
+            }
+        }
+        return metadata;
+    }
+
+    /**
+     * Drops the in-memory cache. Persisted snapshots are kept and revalidated on next use.
+     */
+    public synchronized void clear() {
+        mMetadata.clear();
+        mConfigurationKey = null;
+    }
+
+    /**
+     * @return a key which changes whenever resolved xml attributes may change: on build and
+     * package updates, and when locale or carrier resource qualifiers change.
+     */
+    @VisibleForTesting
+    static String getConfigurationKey(Context context) {
+        final Configuration config = context.getResources() == null
+                ? null : context.getResources().getConfiguration();
+        final String packageKey = getPackageKey(context);
+        if (config == null || packageKey == null) {
+            return null;
+        }
+        return new StringBuilder(Build.FINGERPRINT)
+                .append('/')
+                .append(packageKey)
+                .append('/')
+                .append(config.getLocales().toLanguageTags())
+                .append('/')
+                .append(config.mcc)
+                .append('/')
+                .append(config.mnc)
+                .toString();
+    }
+
+    /**
+     * @return the version, update time and location of the installed Settings package, or
+     * {@code null} if it cannot be found.
+     */
+    private static synchronized String getPackageKey(Context context) {
+        if (sPackageKey == null) {
+            try {
+                final PackageInfo info = context.getPackageManager().getPackageInfo(
+                        context.getPackageName(), 0 /* flags */);
+                sPackageKey = new StringBuilder()
+                        .append(info.getLongVersionCode())
+                        .append('/')
+                        .append(info.lastUpdateTime)
+                        .append('/')
+                        .append(info.applicationInfo != null
+                                ? info.applicationInfo.sourceDir : null)
+                        .toString();
+            } catch (PackageManager.NameNotFoundException e) {
+                Log.w(TAG, "Cannot find own package", e);
+            }
+        }
+        return sPackageKey;
+    }
+
+    /**
+     * @return the snapshot of {@param xmlResId}, named after the resource rather than its id,
+     * which is not stable across package updates.
+     */
+    private static File getSnapshotFile(Context context, @XmlRes int xmlResId) {
+        String name;
+        try {
+            name = context.getResources().getResourceEntryName(xmlResId);
+        } catch (Resources.NotFoundException e) {
+            name = Integer.toString(xmlResId);
+        }
+        return new File(new File(context.getCacheDir(), CACHE_DIR), name);
+    }
+
+    @VisibleForTesting
+    static synchronized List<PreferenceMetadata> readSnapshot(File file, String configurationKey) {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new AtomicFile(file).openRead()))) {
+            if (in.readInt() != SNAPSHOT_VERSION
+                    || !TextUtils.equals(in.readUTF(), configurationKey)) {
+                return null;
+            }
+            final int count = in.readInt();
+            final List<PreferenceMetadata> metadata = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                metadata.add(PreferenceMetadata.readFrom(in));
+            }
+            return Collections.unmodifiableList(metadata);
+        } catch (FileNotFoundException e) {
+            // Not parsed yet.
+            return null;
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot read preference metadata snapshot " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes a snapshot. Synchronized with {@link #readSnapshot} as two threads may parse the
+     * same xml at once, and {@link AtomicFile} only protects a file from one writer at a time.
+     */
+    @VisibleForTesting
+    static synchronized void writeSnapshot(File file, String configurationKey,
+            List<PreferenceMetadata> metadata) {
+        final File dir = file.getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.w(TAG, "Cannot create preference metadata cache dir");
+            return;
+        }
+        final AtomicFile atomicFile = new AtomicFile(file);
+        FileOutputStream fos = null;
+        try {
+            fos = atomicFile.startWrite();
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeUTF(configurationKey);
+            out.writeInt(metadata.size());
+            for (PreferenceMetadata element : metadata) {
+                element.writeTo(out);
+            }
+            out.flush();
+            atomicFile.finishWrite(fos);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot write preference metadata snapshot " + file, e);
+            atomicFile.failWrite(fos);
+        }
+    }
+
+    /**
+     * The resolved attributes of a single element of a preference xml.
+     */
+    public static class PreferenceMetadata {
+        public final String type;
+        public final String key;
+        public final String title;
+        public final String summary;
+        public final String summaryOn;
+        public final String summaryOff;
+        public final String entries;
+        public final String keywords;
+        public final String controller;
+        public final String childFragment;
+        public final int iconResId;
+        public final boolean platformSlice;
+
+        private PreferenceMetadata(Builder builder) {
+            type = builder.mType;
+            key = builder.mKey;
+            title = builder.mTitle;
+            summary = builder.mSummary;
+            summaryOn = builder.mSummaryOn;
+            summaryOff = builder.mSummaryOff;
+            entries = builder.mEntries;
+            keywords = builder.mKeywords;
+            controller = builder.mController;
+            childFragment = builder.mChildFragment;
+            iconResId = builder.mIconResId;
+            platformSlice = builder.mPlatformSlice;
+        }
+
+        private void writeTo(DataOutputStream out) throws IOException {
+            writeString(out, type);
+            writeString(out, key);
+            writeString(out, title);
+            writeString(out, summary);
+            writeString(out, summaryOn);
+            writeString(out, summaryOff);
+            writeString(out, entries);
+            writeString(out, keywords);
+            writeString(out, controller);
+            writeString(out, childFragment);
+            out.writeInt(iconResId);
+            out.writeBoolean(platformSlice);
+        }
+
+        private static PreferenceMetadata readFrom(DataInputStream in) throws IOException {
+            return new Builder()
+                    .setType(readString(in))
+                    .setKey(readString(in))
+                    .setTitle(readString(in))
+                    .setSummary(readString(in))
+                    .setSummaryOn(readString(in))
+                    .setSummaryOff(readString(in))
+                    .setEntries(readString(in))
+                    .setKeywords(readString(in))
+                    .setController(readString(in))
+                    .setChildFragment(readString(in))
+                    .setIconResId(in.readInt())
+                    .setPlatformSlice(in.readBoolean())
+                    .build();
+        }
+
+        private static void writeString(DataOutputStream out, String value) throws IOException {
+            out.writeBoolean(value != null);
+            if (value != null) {
+                out.writeUTF(value);
+            }
+        }
+
+        private static String readString(DataInputStream in) throws IOException {
+            return in.readBoolean() ? in.readUTF() : null;
+        }
+
+        public static class Builder {
+            private String mType;
+            private String mKey;
+            private String mTitle;
+            private String mSummary;
+            private String mSummaryOn;
+            private String mSummaryOff;
+            private String mEntries;
+            private String mKeywords;
+            private String mController;
+            private String mChildFragment;
+            private int mIconResId;
+            private boolean mPlatformSlice;
+
+            public Builder setType(String type) {
+                mType = type;
+                return this;
+            }
+
+            public Builder setKey(String key) {
+                mKey = key;
+                return this;
+            }
+
+            public Builder setTitle(String title) {
+                mTitle = title;
+                return this;
+            }
+
+            public Builder setSummary(String summary) {
+                mSummary = summary;
+                return this;
+            }
+
+            public Builder setSummaryOn(String summaryOn) {
+                mSummaryOn = summaryOn;
+                return this;
+            }
+
+            public Builder setSummaryOff(String summaryOff) {
+                mSummaryOff = summaryOff;
+                return this;
+            }
+
+            public Builder setEntries(String entries) {
+                mEntries = entries;
+                return this;
+            }
+
+            public Builder setKeywords(String keywords) {
+                mKeywords = keywords;
+                return this;
+            }
+
+            public Builder setController(String controller) {
+                mController = controller;
+                return this;
+            }
+
+            public Builder setChildFragment(String childFragment) {
+                mChildFragment = childFragment;
+                return this;
+            }
+
+            public Builder setIconResId(int iconResId) {
+                mIconResId = iconResId;
+                return this;
+            }
+
+            public Builder setPlatformSlice(boolean platformSlice) {
+                mPlatformSlice = platformSlice;
+                return this;
+            }
+
+            public PreferenceMetadata build() {
+                return new PreferenceMetadata(this);
+            }
+        }
+    }
+}
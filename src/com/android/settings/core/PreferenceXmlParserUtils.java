@@ -32,6 +32,7 @@ import android.util.TypedValue;
 import android.util.Xml;
 
 import com.android.settings.R;
+import com.android.settings.core.PreferenceXmlMetadataCache.PreferenceMetadata;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
@@ -51,6 +52,8 @@ public class PreferenceXmlParserUtils {
     private static final String TAG = "PreferenceXmlParserUtil";
     @VisibleForTesting
     static final String PREF_SCREEN_TAG = "PreferenceScreen";
+    private static final String NODE_NAME_CHECK_BOX_PREFERENCE = "CheckBoxPreference";
+    private static final String NODE_NAME_LIST_PREFERENCE = "ListPreference";
     private static final List<String> SUPPORTED_PREF_TYPES = Arrays.asList(
             "Preference", "PreferenceCategory", "PreferenceScreen");
 
@@ -167,6 +170,7 @@ public class PreferenceXmlParserUtils {
 
     /**
      * Extracts metadata from preference xml and put them into a {@link Bundle}.
+     * The xml is read through {@link PreferenceXmlMetadataCache}, so it is only parsed once.
      *
      * @param xmlResId xml res id of a preference screen
      * @param flags    Should be one or more of {@link MetadataFlag}.
@@ -179,20 +183,11 @@ public class PreferenceXmlParserUtils {
             Log.d(TAG, xmlResId + " is invalid.");
             return metadata;
         }
-        final XmlResourceParser parser = context.getResources().getXml(xmlResId);
-
-        int type;
-        while ((type = parser.next()) != XmlPullParser.END_DOCUMENT
-                && type != XmlPullParser.START_TAG) {
-            // Parse next until start tag is found
-        }
-        final int outerDepth = parser.getDepth();
+        final List<PreferenceMetadata> elements =
+                PreferenceXmlMetadataCache.getInstance().getMetadata(context, xmlResId);
 
-        do {
-            if (type != XmlPullParser.START_TAG) {
-                continue;
-            }
-            final String nodeName = parser.getName();
+        for (PreferenceMetadata element : elements) {
+            final String nodeName = element.type;
             if (!hasFlag(flags, MetadataFlag.FLAG_INCLUDE_PREF_SCREEN)
                     && TextUtils.equals(PREF_SCREEN_TAG, nodeName)) {
                 continue;
@@ -201,42 +196,89 @@ public class PreferenceXmlParserUtils {
                 continue;
             }
             final Bundle preferenceMetadata = new Bundle();
-            final AttributeSet attrs = Xml.asAttributeSet(parser);
-            final TypedArray preferenceAttributes = context.obtainStyledAttributes(attrs,
-                    R.styleable.Preference);
 
             if (hasFlag(flags, MetadataFlag.FLAG_NEED_PREF_TYPE)) {
                 preferenceMetadata.putString(METADATA_PREF_TYPE, nodeName);
             }
             if (hasFlag(flags, MetadataFlag.FLAG_NEED_KEY)) {
-                preferenceMetadata.putString(METADATA_KEY, getKey(preferenceAttributes));
+                preferenceMetadata.putString(METADATA_KEY, element.key);
             }
             if (hasFlag(flags, MetadataFlag.FLAG_NEED_PREF_CONTROLLER)) {
-                preferenceMetadata.putString(METADATA_CONTROLLER,
-                        getController(preferenceAttributes));
+                preferenceMetadata.putString(METADATA_CONTROLLER, element.controller);
             }
             if (hasFlag(flags, MetadataFlag.FLAG_NEED_PREF_TITLE)) {
-                preferenceMetadata.putString(METADATA_TITLE, getTitle(preferenceAttributes));
+                preferenceMetadata.putString(METADATA_TITLE, element.title);
             }
             if (hasFlag(flags, MetadataFlag.FLAG_NEED_PREF_SUMMARY)) {
-                preferenceMetadata.putString(METADATA_SUMMARY, getSummary(preferenceAttributes));
+                preferenceMetadata.putString(METADATA_SUMMARY, element.summary);
             }
             if (hasFlag(flags, MetadataFlag.FLAG_NEED_PREF_ICON)) {
-                preferenceMetadata.putInt(METADATA_ICON, getIcon(preferenceAttributes));
+                preferenceMetadata.putInt(METADATA_ICON, element.iconResId);
             }
             if (hasFlag(flags, MetadataFlag.FLAG_NEED_PLATFORM_SLICE_FLAG)) {
                 preferenceMetadata.putBoolean(METADATA_PLATFORM_SLICE_FLAG,
-                        getPlatformSlice(preferenceAttributes));
+                        element.platformSlice);
             }
             if (hasFlag(flags, MetadataFlag.FLAG_NEED_KEYWORDS)) {
-                preferenceMetadata.putString(METADATA_KEYWORDS, getKeywords(preferenceAttributes));
+                preferenceMetadata.putString(METADATA_KEYWORDS, element.keywords);
             }
             metadata.add(preferenceMetadata);
+        }
+        return metadata;
+    }
 
-            preferenceAttributes.recycle();
-        } while ((type = parser.next()) != XmlPullParser.END_DOCUMENT
-                && (type != XmlPullParser.END_TAG || parser.getDepth() > outerDepth));
-        parser.close();
+    /**
+     * Parses every element of {@param xmlResId}, in document order, resolving all attributes
+     * consumed by Settings. Callers should go through {@link PreferenceXmlMetadataCache}.
+     */
+    @NonNull
+    static List<PreferenceMetadata> parseMetadata(Context context, @XmlRes int xmlResId)
+            throws IOException, XmlPullParserException {
+        final List<PreferenceMetadata> metadata = new ArrayList<>();
+        final XmlResourceParser parser = context.getResources().getXml(xmlResId);
+        try {
+            int type;
+            while ((type = parser.next()) != XmlPullParser.END_DOCUMENT
+                    && type != XmlPullParser.START_TAG) {
+                // Parse next until start tag is found
+            }
+            final int outerDepth = parser.getDepth();
+
+            do {
+                if (type != XmlPullParser.START_TAG) {
+                    continue;
+                }
+                final String nodeName = parser.getName();
+                final AttributeSet attrs = Xml.asAttributeSet(parser);
+                final TypedArray preferenceAttributes = context.obtainStyledAttributes(attrs,
+                        R.styleable.Preference);
+
+                final PreferenceMetadata.Builder builder = new PreferenceMetadata.Builder()
+                        .setType(nodeName)
+                        .setKey(getKey(preferenceAttributes))
+                        .setTitle(getTitle(preferenceAttributes))
+                        .setSummary(getSummary(preferenceAttributes))
+                        .setKeywords(getKeywords(preferenceAttributes))
+                        .setController(getController(preferenceAttributes))
+                        .setChildFragment(preferenceAttributes.getString(
+                                R.styleable.Preference_android_fragment))
+                        .setIconResId(getIcon(preferenceAttributes))
+                        .setPlatformSlice(getPlatformSlice(preferenceAttributes));
+                preferenceAttributes.recycle();
+
+                if (NODE_NAME_CHECK_BOX_PREFERENCE.equals(nodeName)) {
+                    builder.setSummaryOn(getDataSummaryOn(context, attrs))
+                            .setSummaryOff(getDataSummaryOff(context, attrs));
+                }
+                if (nodeName.endsWith(NODE_NAME_LIST_PREFERENCE)) {
+                    builder.setEntries(getDataEntries(context, attrs));
+                }
+                metadata.add(builder.build());
+            } while ((type = parser.next()) != XmlPullParser.END_DOCUMENT
+                    && (type != XmlPullParser.END_TAG || parser.getDepth() > outerDepth));
+        } finally {
+            parser.close();
+        }
         return metadata;
     }
 
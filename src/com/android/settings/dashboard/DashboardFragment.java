@@ -21,6 +21,7 @@ import android.content.res.TypedArray;
 import android.os.Bundle;
 import android.support.annotation.VisibleForTesting;
 import android.support.v7.preference.Preference;
+import android.support.v7.preference.PreferenceGroup;
 import android.support.v7.preference.PreferenceManager;
 import android.support.v7.preference.PreferenceScreen;
 import android.text.TextUtils;
@@ -58,11 +59,16 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
     private final Map<Class, List<AbstractPreferenceController>> mPreferenceControllers =
             new ArrayMap<>();
     private final Set<String> mDashboardTilePrefKeys = new ArraySet<>();
+    // Index of the preferences on screen by key, so that controllers and tiles do not walk the
+    // preference tree on every lookup. Rebuilt by each updatePreferenceStates() call.
+    private final Map<String, Preference> mPreferenceIndex = new ArrayMap<>();
+    private boolean mPreferenceIndexValid;
 
     private DashboardFeatureProvider mDashboardFeatureProvider;
     private DashboardTilePlaceholderPreferenceController mPlaceholderPreferenceController;
     private boolean mListeningToCategoryChange;
     private SummaryLoader mSummaryLoader;
+    private PreferenceControllerStateEvaluator mStateEvaluator;
 
     @Override
     public void onAttach(Context context) {
@@ -112,7 +118,7 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
         if (icicle != null) {
             // Upon rotation configuration change we need to update preference states before any
             // editing dialog is recreated (that would happen before onResume is called).
-            updatePreferenceStates();
+            updatePreferenceStates(true /* synchronous */);
         }
     }
 
@@ -153,7 +159,7 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
     @Override
     public void notifySummaryChanged(Tile tile) {
         final String key = mDashboardFeatureProvider.getDashboardKeyForTile(tile);
-        final Preference pref = getPreferenceScreen().findPreference(key);
+        final Preference pref = findIndexedPreference(key);
         if (pref == null) {
             Log.d(getLogTag(),
                     String.format("Can't find pref by key %s, skipping update summary %s/%s",
@@ -190,6 +196,10 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
     @Override
     public void onStop() {
         super.onStop();
+        if (mStateEvaluator != null) {
+            // Preferences are updated again from onResume().
+            mStateEvaluator.cancel();
+        }
         if (mSummaryLoader != null) {
             // SummaryLoader can be null when there is no dynamic tiles.
             mSummaryLoader.setListening(false);
@@ -286,25 +296,106 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
 
     /**
      * Update state of each preference managed by PreferenceController.
+     *
+     * Controllers which {@link BasePreferenceController#canPreloadInBackground()} are evaluated
+     * off the main thread by {@link PreferenceControllerStateEvaluator}, and their preferences
+     * are updated once that is done. The others are updated right away.
      */
     protected void updatePreferenceStates() {
-        final PreferenceScreen screen = getPreferenceScreen();
-        Collection<List<AbstractPreferenceController>> controllerLists =
-                mPreferenceControllers.values();
-        for (List<AbstractPreferenceController> controllerList : controllerLists) {
+        updatePreferenceStates(false /* synchronous */);
+    }
+
+    /**
+     * @param synchronous whether to update every preference before returning, on the main thread,
+     * unless controllers are being evaluated off the main thread already.
+     */
+    @VisibleForTesting
+    void updatePreferenceStates(boolean synchronous) {
+        // Controllers being evaluated off the main thread must not be evaluated here meanwhile.
+        final boolean updateAll = synchronous
+                && (mStateEvaluator == null || !mStateEvaluator.isRunning());
+        final List<BasePreferenceController> backgroundControllers = new ArrayList<>();
+        invalidatePreferenceIndex();
+        for (List<AbstractPreferenceController> controllerList : mPreferenceControllers.values()) {
             for (AbstractPreferenceController controller : controllerList) {
-                if (!controller.isAvailable()) {
-                    continue;
+                if (!updateAll && PreferenceControllerStateEvaluator.canEvaluate(controller)) {
+                    backgroundControllers.add((BasePreferenceController) controller);
+                } else if (controller.isAvailable()) {
+                    updateControllerState(controller);
                 }
-                final String key = controller.getPreferenceKey();
+            }
+        }
+        if (mStateEvaluator == null) {
+            mStateEvaluator = createStateEvaluator(this::onControllersEvaluated);
+        }
+        mStateEvaluator.evaluate(backgroundControllers);
+    }
 
-                final Preference preference = screen.findPreference(key);
-                if (preference == null) {
-                    Log.d(TAG, String.format("Cannot find preference with key %s in Controller %s",
-                            key, controller.getClass().getSimpleName()));
-                    continue;
-                }
-                controller.updateState(preference);
+    @VisibleForTesting
+    PreferenceControllerStateEvaluator createStateEvaluator(
+            PreferenceControllerStateEvaluator.Callback callback) {
+        return new PreferenceControllerStateEvaluator(callback);
+    }
+
+    private void onControllersEvaluated(List<BasePreferenceController> availableControllers) {
+        for (BasePreferenceController controller : availableControllers) {
+            updateControllerState(controller);
+        }
+    }
+
+    private void updateControllerState(AbstractPreferenceController controller) {
+        final String key = controller.getPreferenceKey();
+
+        final Preference preference = findIndexedPreference(key);
+        if (preference == null) {
+            Log.d(TAG, String.format("Cannot find preference with key %s in Controller %s",
+                    key, controller.getClass().getSimpleName()));
+            return;
+        }
+        controller.updateState(preference);
+    }
+
+    /**
+     * Returns the preference with {@param key} on screen, looking it up in the preference index.
+     */
+    @VisibleForTesting
+    Preference findIndexedPreference(String key) {
+        final PreferenceScreen screen = getPreferenceScreen();
+        if (screen == null || TextUtils.isEmpty(key)) {
+            return null;
+        }
+        if (!mPreferenceIndexValid) {
+            mPreferenceIndex.clear();
+            indexPreferences(screen);
+            mPreferenceIndexValid = true;
+        }
+        Preference preference = mPreferenceIndex.get(key);
+        if (preference == null) {
+            // Preferences added by controllers after the index was built.
+            preference = screen.findPreference(key);
+            if (preference != null) {
+                mPreferenceIndex.put(key, preference);
+            }
+        }
+        return preference;
+    }
+
+    private void invalidatePreferenceIndex() {
+        mPreferenceIndexValid = false;
+        mPreferenceIndex.clear();
+    }
+
+    private void indexPreferences(PreferenceGroup group) {
+        final int count = group.getPreferenceCount();
+        for (int i = 0; i < count; i++) {
+            final Preference preference = group.getPreference(i);
+            final String key = preference.getKey();
+            if (key != null && !mPreferenceIndex.containsKey(key)) {
+                // Keep the first match, as findPreference() does.
+                mPreferenceIndex.put(key, preference);
+            }
+            if (preference instanceof PreferenceGroup) {
+                indexPreferences((PreferenceGroup) preference);
             }
         }
     }
@@ -319,6 +410,7 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
             // Intentionally do not cache PreferenceScreen because it will be recreated later.
             getPreferenceScreen().removeAll();
         }
+        invalidatePreferenceIndex();
 
         // Add resource based tiles.
         displayResourceTiles();
@@ -373,7 +465,7 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
             }
             if (mDashboardTilePrefKeys.contains(key)) {
                 // Have the key already, will rebind.
-                final Preference preference = screen.findPreference(key);
+                final Preference preference = findIndexedPreference(key);
                 mDashboardFeatureProvider.bindPreferenceToTile(getActivity(), getMetricsCategory(),
                         preference, tile, key, mPlaceholderPreferenceController.getOrder());
             } else {
@@ -383,16 +475,20 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
                         pref, tile, key, mPlaceholderPreferenceController.getOrder());
                 screen.addPreference(pref);
                 mDashboardTilePrefKeys.add(key);
+                if (mPreferenceIndexValid) {
+                    mPreferenceIndex.put(key, pref);
+                }
             }
             remove.remove(key);
         }
         // Finally remove tiles that are gone.
         for (String key : remove) {
             mDashboardTilePrefKeys.remove(key);
-            final Preference preference = screen.findPreference(key);
+            final Preference preference = findIndexedPreference(key);
             if (preference != null) {
                 screen.removePreference(preference);
             }
+            mPreferenceIndex.remove(key);
         }
         mSummaryLoader.setListening(true);
     }
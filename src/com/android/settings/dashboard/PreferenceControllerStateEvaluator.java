@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import com.android.settings.core.BasePreferenceController;
+import com.android.settings.utils.BackgroundThreadPool;
+import com.android.settingslib.core.AbstractPreferenceController;
+import com.android.settingslib.utils.ThreadUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Evaluates the availability of {@link BasePreferenceController}s concurrently on background
+ * threads, lets the available ones precompute their state through
+ * {@link BasePreferenceController#preloadState()}, and reports the available ones on the main
+ * thread once all of them are done.
+ *
+ * Only controllers which opted in through
+ * {@link BasePreferenceController#canPreloadInBackground()} are evaluated here. Evaluations do not
+ * overlap: one requested while another is running starts once it is done, so a controller is
+ * never evaluated by two threads at once. {@link #cancel()} drops the results which are not
+ * reported yet, e.g. once the screen stops.
+ */
+class PreferenceControllerStateEvaluator {
+
+    private static final String TAG = "PrefControllerEvaluator";
+
+    interface Callback {
+        /**
+         * Called on the main thread with the controllers found available, in the order they
+         * were given.
+         */
+        void onControllersEvaluated(List<BasePreferenceController> availableControllers);
+    }
+
+    private final Callback mCallback;
+    private final Executor mBackgroundExecutor;
+    private final Executor mMainExecutor;
+
+    // Only accessed on the main thread.
+    private boolean mRunning;
+    private boolean mCancelled;
+    private List<BasePreferenceController> mPendingControllers;
+
+    PreferenceControllerStateEvaluator(Callback callback) {
+        this(callback, BackgroundThreadPool.get(), ThreadUtils::postOnMainThread);
+    }
+
+    @VisibleForTesting
+    PreferenceControllerStateEvaluator(Callback callback, Executor backgroundExecutor,
+            Executor mainExecutor) {
+        mCallback = callback;
+        mBackgroundExecutor = backgroundExecutor;
+        mMainExecutor = mainExecutor;
+    }
+
+    /**
+     * @return whether {@param controller} is evaluated here rather than on the main thread.
+     */
+    static boolean canEvaluate(AbstractPreferenceController controller) {
+        return controller instanceof BasePreferenceController
+                && ((BasePreferenceController) controller).canPreloadInBackground();
+    }
+
+    /**
+     * Starts evaluating {@param controllers}, or replaces the controllers to evaluate next if an
+     * evaluation is running. Must be called on the main thread.
+     */
+    void evaluate(List<BasePreferenceController> controllers) {
+        if (mRunning) {
+            mPendingControllers = controllers;
+            return;
+        }
+        if (controllers.isEmpty()) {
+            return;
+        }
+        mRunning = true;
+        mCancelled = false;
+
+        final int count = controllers.size();
+        final boolean[] available = new boolean[count];
+        final AtomicInteger remaining = new AtomicInteger(count);
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            mBackgroundExecutor.execute(() -> {
+                available[index] = evaluate(controllers.get(index));
+                // The last one to finish sees the results of the others through the counter.
+                if (remaining.decrementAndGet() == 0) {
+                    mMainExecutor.execute(() -> onEvaluated(controllers, available));
+                }
+            });
+        }
+    }
+
+    /**
+     * Drops the results of the running evaluation and the pending one, if any. The running one
+     * still finishes on its background threads before the next can start. Must be called on the
+     * main thread.
+     */
+    void cancel() {
+        mPendingControllers = null;
+        mCancelled = mRunning;
+    }
+
+    /**
+     * @return whether an evaluation is running, during which the controllers must not be
+     * evaluated elsewhere. Must be called on the main thread.
+     */
+    boolean isRunning() {
+        return mRunning;
+    }
+
+    private void onEvaluated(List<BasePreferenceController> controllers, boolean[] available) {
+        mRunning = false;
+        if (mCancelled) {
+            mCancelled = false;
+            evaluatePending();
+            return;
+        }
+        final List<BasePreferenceController> availableControllers = new ArrayList<>();
+        for (int i = 0, size = controllers.size(); i < size; i++) {
+            if (available[i]) {
+                availableControllers.add(controllers.get(i));
+            }
+        }
+        mCallback.onControllersEvaluated(availableControllers);
+        evaluatePending();
+    }
+
+    private void evaluatePending() {
+        final List<BasePreferenceController> pendingControllers = mPendingControllers;
+        mPendingControllers = null;
+        if (pendingControllers != null) {
+            evaluate(pendingControllers);
+        }
+    }
+
+    private static boolean evaluate(BasePreferenceController controller) {
+        try {
+            final boolean available = controller.isAvailable();
+            if (available) {
+                controller.preloadState();
+            }
+            return available;
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Failed to evaluate " + controller.getClass().getSimpleName(), e);
+            return false;
+        }
+    }
+}
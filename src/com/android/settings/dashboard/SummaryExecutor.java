@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import android.os.Process;
+import android.support.annotation.VisibleForTesting;
+import android.util.ArraySet;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Shared worker pool running the background work of every {@link SummaryLoader}.
+ *
+ * Jobs are submitted on behalf of an owner, usually a {@link SummaryLoader}:
+ * <ul>
+ * <li>Jobs of the same owner run one at a time, in submission order.</li>
+ * <li>Across owners, jobs with a higher priority run first.</li>
+ * <li>A job replaces the pending job of its owner with the same key, if any.</li>
+ * <li>{@link #cancel} drops all pending jobs of an owner.</li>
+ * </ul>
+ */
+public class SummaryExecutor {
+
+    private static final String TAG = "SummaryExecutor";
+
+    public static final int PRIORITY_BACKGROUND = 0;
+    public static final int PRIORITY_FOREGROUND = 1;
+
+    @VisibleForTesting
+    static final int THREAD_COUNT = 2;
+
+    private static SummaryExecutor sInstance;
+
+    private final Object mLock = new Object();
+    private final List<Job> mPendingJobs = new ArrayList<>();
+    private final Set<Object> mRunningOwners = new ArraySet<>();
+    private final int mThreadCount;
+
+    private int mStartedThreads;
+    private int mQueuedCount;
+    private int mCoalescedCount;
+    private int mCancelledCount;
+
+    public static synchronized SummaryExecutor getInstance() {
+        if (sInstance == null) {
+            sInstance = new SummaryExecutor(THREAD_COUNT);
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    SummaryExecutor(int threadCount) {
+        mThreadCount = threadCount;
+    }
+
+    /**
+     * Queues {@param runnable} for {@param owner}, replacing the pending job of {@param owner}
+     * with the same {@param key}.
+     */
+    public void submit(Object owner, String key, int priority, Runnable runnable) {
+        synchronized (mLock) {
+            mQueuedCount++;
+            for (int i = 0; i < mPendingJobs.size(); i++) {
+                final Job job = mPendingJobs.get(i);
+                if (job.owner == owner && Objects.equals(job.key, key)) {
+                    mPendingJobs.remove(i);
+                    mCoalescedCount++;
+                    break;
+                }
+            }
+            mPendingJobs.add(new Job(owner, key, priority, runnable));
+            startThreadIfNeededLocked();
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * @return true if {@param owner} has a pending job with {@param key}.
+     */
+    public boolean hasPendingJob(Object owner, String key) {
+        synchronized (mLock) {
+            for (Job job : mPendingJobs) {
+                if (job.owner == owner && Objects.equals(job.key, key)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Drops the pending job of {@param owner} with {@param key}, if any.
+     */
+    public void cancel(Object owner, String key) {
+        synchronized (mLock) {
+            for (int i = mPendingJobs.size() - 1; i >= 0; i--) {
+                final Job job = mPendingJobs.get(i);
+                if (job.owner == owner && Objects.equals(job.key, key)) {
+                    mPendingJobs.remove(i);
+                    mCancelledCount++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops all pending jobs of {@param owner}. A job already running is not interrupted.
+     */
+    public void cancel(Object owner) {
+        synchronized (mLock) {
+            for (int i = mPendingJobs.size() - 1; i >= 0; i--) {
+                if (mPendingJobs.get(i).owner == owner) {
+                    mPendingJobs.remove(i);
+                    mCancelledCount++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Records a summary update dropped in favor of a newer one for the same tile.
+     */
+    void recordCoalesced() {
+        synchronized (mLock) {
+            mCoalescedCount++;
+        }
+    }
+
+    public int getQueuedCount() {
+        synchronized (mLock) {
+            return mQueuedCount;
+        }
+    }
+
+    public int getCoalescedCount() {
+        synchronized (mLock) {
+            return mCoalescedCount;
+        }
+    }
+
+    public int getCancelledCount() {
+        synchronized (mLock) {
+            return mCancelledCount;
+        }
+    }
+
+    public int getPendingCount() {
+        synchronized (mLock) {
+            return mPendingJobs.size();
+        }
+    }
+
+    /**
+     * Runs the next job on the calling thread, waiting for one if needed.
+     */
+    @VisibleForTesting
+    void runNextJob() throws InterruptedException {
+        final Job job;
+        synchronized (mLock) {
+            Job next;
+            while ((next = nextJobLocked()) == null) {
+                mLock.wait();
+            }
+            job = next;
+            mPendingJobs.remove(job);
+            mRunningOwners.add(job.owner);
+        }
+        try {
+            job.runnable.run();
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Summary job " + job.key + " failed", e);
+        } finally {
+            synchronized (mLock) {
+                mRunningOwners.remove(job.owner);
+                mLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return the highest priority job among the first pending job of each idle owner. Pending
+     * jobs are kept in submission order, so ties go to the oldest job.
+     */
+    private Job nextJobLocked() {
+        final Set<Object> seenOwners = new ArraySet<>();
+        Job best = null;
+        for (Job job : mPendingJobs) {
+            if (!seenOwners.add(job.owner) || mRunningOwners.contains(job.owner)) {
+                // Only the oldest job of an owner may run, and only when the owner is idle.
+                continue;
+            }
+            if (best == null || job.priority > best.priority) {
+                best = job;
+            }
+        }
+        return best;
+    }
+
+    private void startThreadIfNeededLocked() {
+        if (mStartedThreads >= mThreadCount) {
+            return;
+        }
+        mStartedThreads++;
+        final Thread thread = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            while (true) {
+                try {
+                    runNextJob();
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, TAG + "-" + mStartedThreads);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static class Job {
+        final Object owner;
+        final String key;
+        final int priority;
+        final Runnable runnable;
+
+        Job(Object owner, String key, int priority, Runnable runnable) {
+            this.owner = owner;
+            this.key = key;
+            this.priority = priority;
+            this.runnable = runnable;
+        }
+    }
+}
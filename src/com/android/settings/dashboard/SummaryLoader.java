@@ -20,11 +20,6 @@ import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.IntentFilter;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.HandlerThread;
-import android.os.Looper;
-import android.os.Message;
-import android.os.Process;
 import android.support.annotation.VisibleForTesting;
 import android.text.TextUtils;
 import android.util.ArrayMap;
@@ -52,26 +47,38 @@ public class SummaryLoader {
     private final DashboardFeatureProvider mDashboardFeatureProvider;
     private final String mCategoryKey;
 
-    private final Worker mWorker;
-    private final HandlerThread mWorkerThread;
+    // Keys of the jobs submitted to mExecutor.
+    private static final String JOB_LOAD_TILES = "load_tiles";
+    private static final String JOB_SET_LISTENING = "set_listening";
+
+    private final SummaryExecutor mExecutor;
+    // Summaries set by providers and not yet applied on the main thread, by tile component.
+    private final ArrayMap<ComponentName, CharSequence> mPendingSummaries = new ArrayMap<>();
 
     private SummaryConsumer mSummaryConsumer;
     private boolean mListening;
     private boolean mWorkerListening;
+    private boolean mReleased;
     private ArraySet<BroadcastReceiver> mReceivers = new ArraySet<>();
 
     public SummaryLoader(Activity activity, String categoryKey) {
+        this(activity, categoryKey, SummaryExecutor.getInstance());
+    }
+
+    @VisibleForTesting
+    SummaryLoader(Activity activity, String categoryKey, SummaryExecutor executor) {
         mDashboardFeatureProvider = FeatureFactory.getFactory(activity)
                 .getDashboardFeatureProvider(activity);
         mCategoryKey = categoryKey;
-        mWorkerThread = new HandlerThread("SummaryLoader", Process.THREAD_PRIORITY_BACKGROUND);
-        mWorkerThread.start();
-        mWorker = new Worker(mWorkerThread.getLooper());
+        mExecutor = executor;
         mActivity = activity;
     }
 
     public void release() {
-        mWorkerThread.quitSafely();
+        mExecutor.cancel(this);
+        synchronized (this) {
+            mReleased = true;
+        }
         // Make sure we aren't listening.
         setListeningW(false);
     }
@@ -80,9 +87,22 @@ public class SummaryLoader {
         mSummaryConsumer = summaryConsumer;
     }
 
-    public void setSummary(SummaryProvider provider, final CharSequence summary) {
+    public void setSummary(SummaryProvider provider, CharSequence summary) {
         final ComponentName component = mSummaryProviderMap.get(provider);
+        synchronized (mPendingSummaries) {
+            final boolean pending = mPendingSummaries.containsKey(component);
+            mPendingSummaries.put(component, summary);
+            if (pending) {
+                // The posted update will apply the latest summary.
+                mExecutor.recordCoalesced();
+                return;
+            }
+        }
         ThreadUtils.postOnMainThread(() -> {
+            final CharSequence latestSummary;
+            synchronized (mPendingSummaries) {
+                latestSummary = mPendingSummaries.remove(component);
+            }
 
             final Tile tile = getTileFromCategory(
                     mDashboardFeatureProvider.getTilesForCategory(mCategoryKey), component);
@@ -94,10 +114,10 @@ public class SummaryLoader {
                 return;
             }
             if (DEBUG) {
-                Log.d(TAG, "setSummary " + tile.title + " - " + summary);
+                Log.d(TAG, "setSummary " + tile.title + " - " + latestSummary);
             }
 
-            updateSummaryIfNeeded(tile, summary);
+            updateSummaryIfNeeded(tile, latestSummary);
         });
     }
 
@@ -135,20 +155,23 @@ public class SummaryLoader {
         }
         mReceivers.clear();
 
-        mWorker.removeMessages(Worker.MSG_SET_LISTENING);
         if (!listening) {
-            // Stop listen
-            mWorker.obtainMessage(Worker.MSG_SET_LISTENING, 0 /* listening */).sendToTarget();
+            // Stop listen, dropping work that has not started yet.
+            mExecutor.cancel(this, JOB_LOAD_TILES);
+            mExecutor.submit(this, JOB_SET_LISTENING, SummaryExecutor.PRIORITY_BACKGROUND,
+                    () -> setListeningW(false));
         } else {
             // Start listen
             if (mSummaryProviderMap.isEmpty()) {
                 // Category not initialized yet, init before starting to listen
-                if (!mWorker.hasMessages(Worker.MSG_GET_CATEGORY_TILES_AND_SET_LISTENING)) {
-                    mWorker.sendEmptyMessage(Worker.MSG_GET_CATEGORY_TILES_AND_SET_LISTENING);
+                if (!mExecutor.hasPendingJob(this, JOB_LOAD_TILES)) {
+                    mExecutor.submit(this, JOB_LOAD_TILES, SummaryExecutor.PRIORITY_FOREGROUND,
+                            this::loadTilesAndSetListeningW);
                 }
             } else {
                 // Category already initialized, start listening immediately
-                mWorker.obtainMessage(Worker.MSG_SET_LISTENING, 1 /* listening */).sendToTarget();
+                mExecutor.submit(this, JOB_SET_LISTENING, SummaryExecutor.PRIORITY_FOREGROUND,
+                        () -> setListeningW(true));
             }
         }
     }
@@ -224,8 +247,21 @@ public class SummaryLoader {
         }
     }
 
+    private void loadTilesAndSetListeningW() {
+        final DashboardCategory category =
+                mDashboardFeatureProvider.getTilesForCategory(mCategoryKey);
+        if (category == null || category.getTilesCount() == 0) {
+            return;
+        }
+        final List<Tile> tiles = category.getTiles();
+        for (Tile tile : tiles) {
+            makeProviderW(tile);
+        }
+        setListeningW(true);
+    }
+
     private synchronized void setListeningW(boolean listening) {
-        if (mWorkerListening == listening) {
+        if (mWorkerListening == listening || (listening && mReleased)) {
             return;
         }
         mWorkerListening = listening;
@@ -276,40 +312,4 @@ public class SummaryLoader {
     public interface SummaryProviderFactory {
         SummaryProvider createSummaryProvider(Activity activity, SummaryLoader summaryLoader);
     }
-
-    private class Worker extends Handler {
-        private static final int MSG_GET_CATEGORY_TILES_AND_SET_LISTENING = 1;
-        private static final int MSG_GET_PROVIDER = 2;
-        private static final int MSG_SET_LISTENING = 3;
-
-        public Worker(Looper looper) {
-            super(looper);
-        }
-
-        @Override
-        public void handleMessage(Message msg) {
-            switch (msg.what) {
-                case MSG_GET_CATEGORY_TILES_AND_SET_LISTENING:
-                    final DashboardCategory category =
-                            mDashboardFeatureProvider.getTilesForCategory(mCategoryKey);
-                    if (category == null || category.getTilesCount() == 0) {
-                        return;
-                    }
-                    final List<Tile> tiles = category.getTiles();
-                    for (Tile tile : tiles) {
-                        makeProviderW(tile);
-                    }
-                    setListeningW(true);
-                    break;
-                case MSG_GET_PROVIDER:
-                    Tile tile = (Tile) msg.obj;
-                    makeProviderW(tile);
-                    break;
-                case MSG_SET_LISTENING:
-                    boolean listening = msg.obj != null && msg.obj.equals(1);
-                    setListeningW(listening);
-                    break;
-            }
-        }
-    }
 }
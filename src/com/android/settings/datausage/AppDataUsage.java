@@ -246,8 +246,14 @@ public class AppDataUsage extends DataUsageBase implements Preference.OnPreferen
             mDataSaverBackend.addListener(this);
         }
         mPolicy = services.mPolicyEditor.getPolicy(mTemplate);
-        getLoaderManager().restartLoader(LOADER_CHART_DATA,
-                ChartDataLoader.buildArgs(mTemplate, mAppItem), mChartDataCallbacks);
+        final ChartData chartData = DataUsageCycleCache.getInstance().getChartData(mTemplate,
+                mAppItem);
+        if (chartData != null) {
+            bindChartData(chartData);
+        } else {
+            getLoaderManager().restartLoader(LOADER_CHART_DATA,
+                    ChartDataLoader.buildArgs(mTemplate, mAppItem), mChartDataCallbacks);
+        }
         updatePrefs();
     }
 
@@ -345,6 +351,12 @@ public class AppDataUsage extends DataUsageBase implements Preference.OnPreferen
         }
     }
 
+    private void bindChartData(ChartData data) {
+        mChartData = data;
+        mCycleAdapter.updateCycleList(mPolicy, mChartData);
+        bindData();
+    }
+
     private void bindData() {
         final long backgroundBytes, foregroundBytes;
         if (mChartData == null || mStart == 0) {
@@ -480,9 +492,8 @@ public class AppDataUsage extends DataUsageBase implements Preference.OnPreferen
 
         @Override
         public void onLoadFinished(Loader<ChartData> loader, ChartData data) {
-            mChartData = data;
-            mCycleAdapter.updateCycleList(mPolicy, mChartData);
-            bindData();
+            DataUsageCycleCache.getInstance().putChartData(mTemplate, mAppItem, data);
+            bindChartData(data);
         }
 
         @Override
@@ -27,7 +27,9 @@ import com.android.settings.Utils;
 import com.android.settingslib.net.ChartData;
 
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
 
 public class CycleAdapter extends ArrayAdapter<CycleAdapter.CycleItem> {
@@ -75,7 +77,6 @@ public class CycleAdapter extends ArrayAdapter<CycleAdapter.CycleItem> {
         clear();
 
         final Context context = getContext();
-        NetworkStatsHistory.Entry entry = null;
 
         long historyStart = Long.MAX_VALUE;
         long historyEnd = Long.MIN_VALUE;
@@ -90,47 +91,28 @@ public class CycleAdapter extends ArrayAdapter<CycleAdapter.CycleItem> {
 
         boolean hasCycles = false;
         if (policy != null) {
+            final List<Long> bounds = new ArrayList<>();
             final Iterator<Pair<ZonedDateTime, ZonedDateTime>> it = NetworkPolicyManager
                     .cycleIterator(policy);
             while (it.hasNext()) {
                 final Pair<ZonedDateTime, ZonedDateTime> cycle = it.next();
-                final long cycleStart = cycle.first.toInstant().toEpochMilli();
-                final long cycleEnd = cycle.second.toInstant().toEpochMilli();
-
-                final boolean includeCycle;
-                if (chartData != null) {
-                    entry = chartData.network.getValues(cycleStart, cycleEnd, entry);
-                    includeCycle = (entry.rxBytes + entry.txBytes) > 0;
-                } else {
-                    includeCycle = true;
-                }
-
-                if (includeCycle) {
-                    add(new CycleAdapter.CycleItem(context, cycleStart, cycleEnd));
-                    hasCycles = true;
-                }
+                bounds.add(cycle.first.toInstant().toEpochMilli());
+                bounds.add(cycle.second.toInstant().toEpochMilli());
             }
+            hasCycles = addCycles(context, chartData, bounds);
         }
 
         if (!hasCycles) {
             // no policy defined cycles; show entry for each four-week period
+            final List<Long> bounds = new ArrayList<>();
             long cycleEnd = historyEnd;
             while (cycleEnd > historyStart) {
                 final long cycleStart = cycleEnd - (DateUtils.WEEK_IN_MILLIS * 4);
-
-                final boolean includeCycle;
-                if (chartData != null) {
-                    entry = chartData.network.getValues(cycleStart, cycleEnd, entry);
-                    includeCycle = (entry.rxBytes + entry.txBytes) > 0;
-                } else {
-                    includeCycle = true;
-                }
-
-                if (includeCycle) {
-                    add(new CycleAdapter.CycleItem(context, cycleStart, cycleEnd));
-                }
+                bounds.add(cycleStart);
+                bounds.add(cycleEnd);
                 cycleEnd = cycleStart;
             }
+            addCycles(context, chartData, bounds);
         }
 
         // force pick the current cycle (first item)
@@ -149,6 +131,33 @@ public class CycleAdapter extends ArrayAdapter<CycleAdapter.CycleItem> {
         return true;
     }
 
+    /**
+     * Adds the cycles of {@param bounds}, given as pairs of start and end, which have usage in
+     * {@param chartData}. The usage of all cycles is summed up in one pass over the history.
+     *
+     * @return whether any cycle was added.
+     */
+    private boolean addCycles(Context context, ChartData chartData, List<Long> bounds) {
+        final int count = bounds.size() / 2;
+        final long[] starts = new long[count];
+        final long[] ends = new long[count];
+        for (int i = 0; i < count; i++) {
+            starts[i] = bounds.get(2 * i);
+            ends[i] = bounds.get(2 * i + 1);
+        }
+        final long[] totals = chartData != null
+                ? DataUsageCycleCache.getTotalPerCycle(chartData.network, starts, ends) : null;
+
+        boolean added = false;
+        for (int i = 0; i < count; i++) {
+            if (totals == null || totals[i] > 0) {
+                add(new CycleAdapter.CycleItem(context, starts[i], ends[i]));
+                added = true;
+            }
+        }
+        return added;
+    }
+
     /**
      * List item that reflects a specific data usage cycle.
      */
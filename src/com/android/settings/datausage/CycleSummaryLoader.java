@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.datausage;
+
+import android.content.Context;
+import android.net.INetworkStatsSession;
+import android.net.NetworkStats;
+import android.net.NetworkTemplate;
+import android.os.Bundle;
+import android.os.RemoteException;
+import android.util.Log;
+
+import com.android.settingslib.utils.AsyncLoader;
+
+/**
+ * Loads the usage of every uid in one cycle through {@link DataUsageCycleCache}.
+ */
+public class CycleSummaryLoader extends AsyncLoader<NetworkStats> {
+
+    private static final String TAG = "CycleSummaryLoader";
+
+    private static final String KEY_TEMPLATE = "template";
+    private static final String KEY_START = "start";
+    private static final String KEY_END = "end";
+
+    private final INetworkStatsSession mSession;
+    private final NetworkTemplate mTemplate;
+    private final long mStart;
+    private final long mEnd;
+
+    public static Bundle buildArgs(NetworkTemplate template, long start, long end) {
+        final Bundle args = new Bundle();
+        args.putParcelable(KEY_TEMPLATE, template);
+        args.putLong(KEY_START, start);
+        args.putLong(KEY_END, end);
+        return args;
+    }
+
+    public CycleSummaryLoader(Context context, INetworkStatsSession session, Bundle args) {
+        super(context);
+        mSession = session;
+        mTemplate = args.getParcelable(KEY_TEMPLATE);
+        mStart = args.getLong(KEY_START);
+        mEnd = args.getLong(KEY_END);
+    }
+
+    @Override
+    public NetworkStats loadInBackground() {
+        try {
+            return DataUsageCycleCache.getInstance().getSummaryForAllUid(mSession, mTemplate,
+                    mStart, mEnd);
+        } catch (RemoteException e) {
+            Log.w(TAG, "Failed to load summary", e);
+            return null;
+        }
+    }
+
+    @Override
+    protected void onDiscardResult(NetworkStats result) {
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.datausage;
+
+import android.net.INetworkStatsSession;
+import android.net.NetworkStats;
+import android.net.NetworkStatsHistory;
+import android.net.NetworkTemplate;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.support.annotation.VisibleForTesting;
+import android.text.format.DateUtils;
+import android.util.LruCache;
+
+import com.android.settingslib.AppItem;
+import com.android.settingslib.net.ChartData;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.LongSupplier;
+
+/**
+ * In-process cache of data usage per uid for each cycle of a {@link NetworkTemplate}, so switching
+ * between cycles, or between the data usage list and an app, does not query the stats service
+ * again.
+ *
+ * Usage recorded more than {@link #SETTLE_TIME_MS} ago no longer changes, so it is queried once
+ * per cycle and kept. Only the part of a cycle after that, which is the open end of the current
+ * cycle, is queried again on every request and added on top.
+ */
+public class DataUsageCycleCache {
+
+    /**
+     * How long after it happened usage may still be attributed to a time: the stats service
+     * spreads the usage it polls over the time since its previous poll.
+     */
+    @VisibleForTesting
+    static final long SETTLE_TIME_MS = DateUtils.DAY_IN_MILLIS;
+    /**
+     * Duration of the buckets the stats service keeps per uid usage in. Splitting a query on a
+     * bucket boundary gives the same totals as a single query.
+     */
+    @VisibleForTesting
+    static final long BUCKET_DURATION_MS = 2 * DateUtils.HOUR_IN_MILLIS;
+    /**
+     * Minimum time between two forced polls of the stats service, which is also how long chart
+     * data is reused: past that, the next poll may have changed it.
+     */
+    @VisibleForTesting
+    static final long FORCE_UPDATE_INTERVAL_MS = DateUtils.MINUTE_IN_MILLIS;
+
+    private static final int MAX_CYCLES = 24;
+    private static final int MAX_CHART_DATA = 8;
+
+    private static DataUsageCycleCache sInstance;
+
+    private final LongSupplier mClock;
+    private final LruCache<CycleKey, CycleSummary> mSummaries = new LruCache<>(MAX_CYCLES);
+    private final LruCache<ChartKey, ChartEntry> mChartData = new LruCache<>(MAX_CHART_DATA);
+    private long mLastForceUpdateTime;
+
+    public static synchronized DataUsageCycleCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new DataUsageCycleCache(System::currentTimeMillis);
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    DataUsageCycleCache(LongSupplier clock) {
+        mClock = clock;
+    }
+
+    /**
+     * @return the usage of every uid in {@param template} between {@param start} and
+     * {@param end}, with the same entries as {@link INetworkStatsSession#getSummaryForAllUid}.
+     * May query {@param session}, so it must not be called on the main thread.
+     */
+    public NetworkStats getSummaryForAllUid(INetworkStatsSession session,
+            NetworkTemplate template, long start, long end) throws RemoteException {
+        final CycleKey key = new CycleKey(template, start, end);
+        final long now = mClock.getAsLong();
+        final long settledEnd = Math.max(start, Math.min(end,
+                alignToBucket(now - SETTLE_TIME_MS)));
+
+        CycleSummary summary = mSummaries.get(key);
+        if (summary == null || summary.settledEnd > settledEnd) {
+            summary = new CycleSummary(settledEnd > start
+                    ? session.getSummaryForAllUid(template, start, settledEnd, false)
+                    : new NetworkStats(SystemClock.elapsedRealtime(), 0), settledEnd);
+            mSummaries.put(key, summary);
+        } else if (summary.settledEnd < settledEnd) {
+            // More of the cycle settled since last time, only query what is new.
+            final NetworkStats settled = summary.settled.clone();
+            settled.combineAllValues(session.getSummaryForAllUid(template, summary.settledEnd,
+                    settledEnd, false));
+            summary = new CycleSummary(settled, settledEnd);
+            mSummaries.put(key, summary);
+        }
+
+        final NetworkStats stats = summary.settled.clone();
+        if (settledEnd < end) {
+            stats.combineAllValues(session.getSummaryForAllUid(template, settledEnd, end, false));
+        }
+        return stats;
+    }
+
+    /**
+     * @return the {@link ChartData} last loaded for {@param item}, unless the stats service was
+     * polled since or it was loaded more than {@link #FORCE_UPDATE_INTERVAL_MS} ago.
+     */
+    public ChartData getChartData(NetworkTemplate template, AppItem item) {
+        final ChartKey key = new ChartKey(template, item.key);
+        final ChartEntry entry = mChartData.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (Math.abs(mClock.getAsLong() - entry.loadTime) >= FORCE_UPDATE_INTERVAL_MS) {
+            mChartData.remove(key);
+            return null;
+        }
+        return entry.data;
+    }
+
+    public void putChartData(NetworkTemplate template, AppItem item, ChartData data) {
+        mChartData.put(new ChartKey(template, item.key),
+                new ChartEntry(data, mClock.getAsLong()));
+    }
+
+    /**
+     * @return whether the stats service should be polled now, which is at most once every
+     * {@link #FORCE_UPDATE_INTERVAL_MS}. Returning {@code true} counts as a poll.
+     */
+    public synchronized boolean shouldForceUpdate() {
+        final long now = mClock.getAsLong();
+        if (mLastForceUpdateTime != 0 && Math.abs(now - mLastForceUpdateTime)
+                < FORCE_UPDATE_INTERVAL_MS) {
+            return false;
+        }
+        mLastForceUpdateTime = now;
+        // The poll changes what apps used recently, but not the settled cycle summaries.
+        mChartData.evictAll();
+        return true;
+    }
+
+    /**
+     * Computes the usage of {@param history} in each of the cycles from {@param starts} to
+     * {@param ends} in one pass, prorating buckets over cycle boundaries like
+     * {@link NetworkStatsHistory#getValues(long, long, NetworkStatsHistory.Entry)}.
+     * Cycles must not overlap.
+     *
+     * @return the received and transmitted bytes of each cycle.
+     */
+    public static long[] getTotalPerCycle(NetworkStatsHistory history, long[] starts,
+            long[] ends) {
+        final int cycleCount = starts.length;
+        final long[] totals = new long[cycleCount];
+        if (cycleCount == 0) {
+            return totals;
+        }
+        // Cycles in increasing order of start.
+        final Integer[] order = new Integer[cycleCount];
+        for (int i = 0; i < cycleCount; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(starts[a], starts[b]));
+
+        NetworkStatsHistory.Entry entry = null;
+        int first = 0;
+        for (int i = 0, size = history.size(); i < size; i++) {
+            entry = history.getValues(i, entry);
+            final long bucketStart = entry.bucketStart;
+            final long bucketEnd = bucketStart + entry.bucketDuration;
+            while (first < cycleCount && ends[order[first]] <= bucketStart) {
+                first++;
+            }
+            for (int j = first; j < cycleCount && starts[order[j]] < bucketEnd; j++) {
+                final int cycle = order[j];
+                final long overlap = Math.min(bucketEnd, ends[cycle])
+                        - Math.max(bucketStart, starts[cycle]);
+                if (overlap <= 0) {
+                    continue;
+                }
+                if (overlap == entry.bucketDuration) {
+                    totals[cycle] += entry.rxBytes + entry.txBytes;
+                } else {
+                    totals[cycle] += entry.rxBytes * overlap / entry.bucketDuration
+                            + entry.txBytes * overlap / entry.bucketDuration;
+                }
+            }
+        }
+        return totals;
+    }
+
+    private static long alignToBucket(long time) {
+        return time - Math.floorMod(time, BUCKET_DURATION_MS);
+    }
+
+    private static class CycleSummary {
+        final NetworkStats settled;
+        final long settledEnd;
+
+        CycleSummary(NetworkStats settled, long settledEnd) {
+            this.settled = settled;
+            this.settledEnd = settledEnd;
+        }
+    }
+
+    private static class ChartEntry {
+        final ChartData data;
+        final long loadTime;
+
+        ChartEntry(ChartData data, long loadTime) {
+            this.data = data;
+            this.loadTime = loadTime;
+        }
+    }
+
+    private static class CycleKey {
+        final NetworkTemplate template;
+        final long start;
+        final long end;
+
+        CycleKey(NetworkTemplate template, long start, long end) {
+            this.template = template;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CycleKey)) {
+                return false;
+            }
+            final CycleKey other = (CycleKey) o;
+            return start == other.start && end == other.end
+                    && Objects.equals(template, other.template);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(template, start, end);
+        }
+    }
+
+    private static class ChartKey {
+        final NetworkTemplate template;
+        final int appKey;
+
+        ChartKey(NetworkTemplate template, int appKey) {
+            this.template = template;
+            this.appKey = appKey;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ChartKey)) {
+                return false;
+            }
+            final ChartKey other = (ChartKey) o;
+            return appKey == other.appKey && Objects.equals(template, other.template);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(template, appKey);
+        }
+    }
+}
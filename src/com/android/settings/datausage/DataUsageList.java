@@ -16,8 +16,6 @@ package com.android.settings.datausage;
 
 import static android.net.ConnectivityManager.TYPE_MOBILE;
 import static android.net.NetworkPolicyManager.POLICY_REJECT_METERED_BACKGROUND;
-import static android.net.TrafficStats.UID_REMOVED;
-import static android.net.TrafficStats.UID_TETHERING;
 import static android.telephony.TelephonyManager.SIM_STATE_READY;
 
 import android.app.ActivityManager;
@@ -25,7 +23,6 @@ import android.app.LoaderManager.LoaderCallbacks;
 import android.content.Context;
 import android.content.Intent;
 import android.content.Loader;
-import android.content.pm.UserInfo;
 import android.graphics.Color;
 import android.net.ConnectivityManager;
 import android.net.INetworkStatsSession;
@@ -38,12 +35,13 @@ import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.RemoteException;
 import android.os.SystemProperties;
-import android.os.UserHandle;
 import android.os.UserManager;
 import android.provider.Settings;
 import android.support.annotation.VisibleForTesting;
 import android.support.v7.preference.Preference;
 import android.support.v7.preference.PreferenceGroup;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.telephony.SubscriptionInfo;
 import android.telephony.SubscriptionManager;
 import android.telephony.TelephonyManager;
@@ -63,8 +61,8 @@ import com.android.settings.widget.LoadingViewController;
 import com.android.settingslib.AppItem;
 import com.android.settingslib.net.ChartData;
 import com.android.settingslib.net.ChartDataLoader;
-import com.android.settingslib.net.SummaryForAllUidLoader;
 import com.android.settingslib.net.UidDetailProvider;
+import com.android.settingslib.utils.ThreadUtils;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -89,6 +87,12 @@ public class DataUsageList extends DataUsageBase {
     private static final int LOADER_CHART_DATA = 2;
     private static final int LOADER_SUMMARY = 3;
 
+    /**
+     * Number of app rows created at once, enough to fill the screen.
+     */
+    @VisibleForTesting
+    static final int APPS_PAGE_SIZE = 25;
+
     private final CellDataPreference.DataStateListener mDataStateListener =
             new CellDataPreference.DataStateListener() {
                 @Override
@@ -108,11 +112,31 @@ public class DataUsageList extends DataUsageBase {
 
     private LoadingViewController mLoadingViewController;
     private UidDetailProvider mUidDetailProvider;
+    private final DataUsageCycleCache mCycleCache = DataUsageCycleCache.getInstance();
     private CycleAdapter mCycleAdapter;
     private Spinner mCycleSpinner;
     private Preference mUsageAmount;
     private PreferenceGroup mApps;
     private View mHeader;
+    private List<AppItem> mAppItems = Collections.emptyList();
+    private long mLargestTotal;
+
+    private final RecyclerView.OnScrollListener mAppsScrollListener =
+            new RecyclerView.OnScrollListener() {
+                @Override
+                public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                    if (mApps.getPreferenceCount() >= mAppItems.size()) {
+                        return;
+                    }
+                    final RecyclerView.LayoutManager layoutManager =
+                            recyclerView.getLayoutManager();
+                    if (layoutManager instanceof LinearLayoutManager
+                            && ((LinearLayoutManager) layoutManager).findLastVisibleItemPosition()
+                            >= layoutManager.getItemCount() - APPS_PAGE_SIZE / 2) {
+                        bindNextAppsPage();
+                    }
+                }
+            };
 
 
     @Override
@@ -186,6 +210,7 @@ public class DataUsageList extends DataUsageBase {
         mLoadingViewController = new LoadingViewController(
                 getView().findViewById(R.id.loading_container), getListView());
         mLoadingViewController.showLoadingViewDelayed();
+        getListView().addOnScrollListener(mAppsScrollListener);
     }
 
     @Override
@@ -194,6 +219,11 @@ public class DataUsageList extends DataUsageBase {
         mDataStateListener.setListener(true, mSubId, getContext());
         updateBody();
 
+        if (!mCycleCache.shouldForceUpdate()) {
+            // Stats were polled moments ago, e.g. before opening an app and coming back.
+            return;
+        }
+
         // kick off background task to update stats
         new AsyncTask<Void, Void, Void>() {
             @Override
@@ -304,6 +334,34 @@ public class DataUsageList extends DataUsageBase {
         }
     }
 
+    /**
+     * Loads the usage of the cycles next to {@param position} in the spinner into
+     * {@link #mCycleCache}, so stepping to a neighbouring cycle shows it right away.
+     */
+    private void prefetchAdjacentCycles(int position) {
+        final INetworkStatsSession session = mStatsSession;
+        final NetworkTemplate template = mTemplate;
+        final List<CycleAdapter.CycleItem> cycles = new ArrayList<>(2);
+        for (int i = position - 1; i <= position + 1; i += 2) {
+            if (i >= 0 && i < mCycleAdapter.getCount()) {
+                cycles.add(mCycleAdapter.getItem(i));
+            }
+        }
+        if (cycles.isEmpty()) {
+            return;
+        }
+        ThreadUtils.postOnBackgroundThread(() -> {
+            try {
+                for (CycleAdapter.CycleItem cycle : cycles) {
+                    mCycleCache.getSummaryForAllUid(session, template, cycle.start, cycle.end);
+                }
+            } catch (RemoteException | IllegalStateException e) {
+                // The session was closed, the page is gone.
+                Log.w(TAG, "Failed to prefetch cycles", e);
+            }
+        });
+    }
+
     /**
      * Update details based on {@link #mChart} inspection range depending on
      * current mode. Updates {@link #mAdapter} with sorted list
@@ -325,7 +383,7 @@ public class DataUsageList extends DataUsageBase {
 
         // kick off loader for detailed stats
         getLoaderManager().restartLoader(LOADER_SUMMARY,
-                SummaryForAllUidLoader.buildArgs(mTemplate, start, end), mSummaryCallbacks);
+                CycleSummaryLoader.buildArgs(mTemplate, start, end), mSummaryCallbacks);
 
         final long totalBytes = entry != null ? entry.rxBytes + entry.txBytes : 0;
         final CharSequence totalPhrase = DataUsageUtils.formatDataUsage(context, totalBytes);
@@ -336,63 +394,45 @@ public class DataUsageList extends DataUsageBase {
      * Bind the given {@link NetworkStats}, or {@code null} to clear list.
      */
     public void bindStats(NetworkStats stats, int[] restrictedUids) {
-        ArrayList<AppItem> items = new ArrayList<>();
-        long largest = 0;
+        final UserManager userManager = UserManager.get(getContext());
+        final UidCollapseResolver resolver = new UidCollapseResolver(
+                ActivityManager.getCurrentUser(), userManager.getUserProfiles(), userManager);
+        bindAppItems(aggregate(stats, restrictedUids, resolver));
+    }
 
-        final int currentUserId = ActivityManager.getCurrentUser();
-        UserManager userManager = UserManager.get(getContext());
-        final List<UserHandle> profiles = userManager.getUserProfiles();
+    /**
+     * Collapses the entries of {@param stats} into one {@link AppItem} per key given by
+     * {@param resolver}, and marks the items of {@param restrictedUids} as restricted.
+     *
+     * @return the items, sorted for display.
+     */
+    @VisibleForTesting
+    static List<AppItem> aggregate(NetworkStats stats, int[] restrictedUids,
+            UidCollapseResolver resolver) {
+        final ArrayList<AppItem> items = new ArrayList<>();
         final SparseArray<AppItem> knownItems = new SparseArray<AppItem>();
 
         NetworkStats.Entry entry = null;
         final int size = stats != null ? stats.size() : 0;
         for (int i = 0; i < size; i++) {
             entry = stats.getValues(i, entry);
-
-            // Decide how to collapse items together
             final int uid = entry.uid;
+            final long bytes = entry.rxBytes + entry.txBytes;
 
-            final int collapseKey;
-            final int category;
-            final int userId = UserHandle.getUserId(uid);
-            if (UserHandle.isApp(uid)) {
-                if (profiles.contains(new UserHandle(userId))) {
-                    if (userId != currentUserId) {
-                        // Add to a managed user item.
-                        final int managedKey = UidDetailProvider.buildKeyForUser(userId);
-                        largest = accumulate(managedKey, knownItems, entry, AppItem.CATEGORY_USER,
-                                items, largest);
-                    }
-                    // Add to app item.
-                    collapseKey = uid;
-                    category = AppItem.CATEGORY_APP;
-                } else {
-                    // If it is a removed user add it to the removed users' key
-                    final UserInfo info = userManager.getUserInfo(userId);
-                    if (info == null) {
-                        collapseKey = UID_REMOVED;
-                        category = AppItem.CATEGORY_APP;
-                    } else {
-                        // Add to other user item.
-                        collapseKey = UidDetailProvider.buildKeyForUser(userId);
-                        category = AppItem.CATEGORY_USER;
-                    }
-                }
-            } else if (uid == UID_REMOVED || uid == UID_TETHERING) {
-                collapseKey = uid;
-                category = AppItem.CATEGORY_APP;
-            } else {
-                collapseKey = android.os.Process.SYSTEM_UID;
-                category = AppItem.CATEGORY_APP;
+            final int profileKey = resolver.getProfileKey(uid);
+            if (profileKey != UidCollapseResolver.NO_KEY) {
+                // Add to a managed user item.
+                accumulate(profileKey, knownItems, uid, bytes, AppItem.CATEGORY_USER, items);
             }
-            largest = accumulate(collapseKey, knownItems, entry, category, items, largest);
+            accumulate(resolver.getCollapseKey(uid), knownItems, uid, bytes,
+                    resolver.getCategory(uid), items);
         }
 
         final int restrictedUidsMax = restrictedUids.length;
         for (int i = 0; i < restrictedUidsMax; ++i) {
             final int uid = restrictedUids[i];
             // Only splice in restricted state for current user or managed users
-            if (!profiles.contains(new UserHandle(UserHandle.getUserId(uid)))) {
+            if (!resolver.isInProfiles(uid)) {
                 continue;
             }
 
@@ -407,11 +447,33 @@ public class DataUsageList extends DataUsageBase {
         }
 
         Collections.sort(items);
+        return items;
+    }
+
+    /**
+     * Shows {@param items}, creating preferences only for the first pages of them. The next page
+     * is added when the list is scrolled close to its end, see {@link #mAppsScrollListener}.
+     */
+    private void bindAppItems(List<AppItem> items) {
+        long largest = 0;
+        for (int i = 0, size = items.size(); i < size; i++) {
+            largest = Math.max(largest, items.get(i).total);
+        }
+        mAppItems = items;
+        mLargestTotal = largest;
         mApps.removeAll();
-        for (int i = 0; i < items.size(); i++) {
-            final int percentTotal = largest != 0 ? (int) (items.get(i).total * 100 / largest) : 0;
+        bindNextAppsPage();
+    }
+
+    private void bindNextAppsPage() {
+        final int start = mApps.getPreferenceCount();
+        final int end = Math.min(mAppItems.size(), start + APPS_PAGE_SIZE);
+        for (int i = start; i < end; i++) {
+            final AppItem item = mAppItems.get(i);
+            final int percentTotal = mLargestTotal != 0
+                    ? (int) (item.total * 100 / mLargestTotal) : 0;
             AppDataUsagePreference preference = new AppDataUsagePreference(getContext(),
-                    items.get(i), percentTotal, mUidDetailProvider);
+                    item, percentTotal, mUidDetailProvider);
             preference.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
                 @Override
                 public boolean onPreferenceClick(Preference preference) {
@@ -444,12 +506,12 @@ public class DataUsageList extends DataUsageBase {
      *
      * @param collapseKey  the collapse key used to map the item.
      * @param knownItems   collection of known (already existing) items.
-     * @param entry        the network stats entry to extract data usage from.
-     * @param itemCategory the item is categorized on the list view by this category. Must be
+     * @param uid          the uid of the network stats entry.
+     * @param bytes        the data usage of the network stats entry.
+     * @param itemCategory the item is categorized on the list view by this category.
      */
-    private static long accumulate(int collapseKey, final SparseArray<AppItem> knownItems,
-            NetworkStats.Entry entry, int itemCategory, ArrayList<AppItem> items, long largest) {
-        final int uid = entry.uid;
+    private static void accumulate(int collapseKey, final SparseArray<AppItem> knownItems,
+            int uid, long bytes, int itemCategory, ArrayList<AppItem> items) {
         AppItem item = knownItems.get(collapseKey);
         if (item == null) {
             item = new AppItem(collapseKey);
@@ -458,8 +520,7 @@ public class DataUsageList extends DataUsageBase {
             knownItems.put(item.key, item);
         }
         item.addUid(uid);
-        item.total += entry.rxBytes + entry.txBytes;
-        return Math.max(largest, item.total);
+        item.total += bytes;
     }
 
     /**
@@ -535,6 +596,7 @@ public class DataUsageList extends DataUsageBase {
             mChart.setVisibleRange(cycle.start, cycle.end);
 
             updateDetailData();
+            prefetchAdjacentCycles(position);
         }
 
         @Override
@@ -571,7 +633,7 @@ public class DataUsageList extends DataUsageBase {
             NetworkStats>() {
         @Override
         public Loader<NetworkStats> onCreateLoader(int id, Bundle args) {
-            return new SummaryForAllUidLoader(getActivity(), mStatsSession, args);
+            return new CycleSummaryLoader(getActivity(), mStatsSession, args);
         }
 
         @Override
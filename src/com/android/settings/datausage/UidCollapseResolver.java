@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.datausage;
+
+import static android.net.TrafficStats.UID_REMOVED;
+import static android.net.TrafficStats.UID_TETHERING;
+
+import android.os.Process;
+import android.os.UserHandle;
+import android.os.UserManager;
+import android.util.SparseIntArray;
+
+import com.android.settingslib.AppItem;
+import com.android.settingslib.net.UidDetailProvider;
+
+import java.util.List;
+
+/**
+ * Decides which {@link AppItem} the data usage of a uid is collapsed into on the data usage list.
+ *
+ * Which kind of user each user id is gets resolved once, so resolving a uid does not allocate
+ * and asks {@link UserManager} at most once per user.
+ */
+class UidCollapseResolver {
+
+    /**
+     * Returned by {@link #getProfileKey(int)} when the uid is not also counted for a profile.
+     */
+    static final int NO_KEY = Integer.MIN_VALUE;
+
+    private static final int USER_UNKNOWN = 0;
+    private static final int USER_CURRENT = 1;
+    private static final int USER_PROFILE = 2;
+    private static final int USER_OTHER = 3;
+    private static final int USER_REMOVED = 4;
+
+    private final UserManager mUserManager;
+    private final SparseIntArray mUserKinds = new SparseIntArray();
+
+    UidCollapseResolver(int currentUserId, List<UserHandle> profiles, UserManager userManager) {
+        mUserManager = userManager;
+        for (int i = 0, size = profiles.size(); i < size; i++) {
+            final int userId = profiles.get(i).getIdentifier();
+            mUserKinds.put(userId, userId == currentUserId ? USER_CURRENT : USER_PROFILE);
+        }
+    }
+
+    /**
+     * @return the key of the item the usage of {@param uid} is collapsed into.
+     */
+    int getCollapseKey(int uid) {
+        if (UserHandle.isApp(uid)) {
+            final int userId = UserHandle.getUserId(uid);
+            switch (getUserKind(userId)) {
+                case USER_CURRENT:
+                case USER_PROFILE:
+                    return uid;
+                case USER_OTHER:
+                    return UidDetailProvider.buildKeyForUser(userId);
+                default:
+                    return UID_REMOVED;
+            }
+        }
+        if (uid == UID_REMOVED || uid == UID_TETHERING) {
+            return uid;
+        }
+        return Process.SYSTEM_UID;
+    }
+
+    /**
+     * @return the category of the item returned by {@link #getCollapseKey(int)}.
+     */
+    int getCategory(int uid) {
+        return UserHandle.isApp(uid) && getUserKind(UserHandle.getUserId(uid)) == USER_OTHER
+                ? AppItem.CATEGORY_USER : AppItem.CATEGORY_APP;
+    }
+
+    /**
+     * @return the key of the managed profile item the usage of {@param uid} is also added to, or
+     * {@link #NO_KEY}.
+     */
+    int getProfileKey(int uid) {
+        if (!UserHandle.isApp(uid)) {
+            return NO_KEY;
+        }
+        final int userId = UserHandle.getUserId(uid);
+        return getUserKind(userId) == USER_PROFILE
+                ? UidDetailProvider.buildKeyForUser(userId) : NO_KEY;
+    }
+
+    /**
+     * @return whether {@param uid} belongs to the current user or one of its profiles.
+     */
+    boolean isInProfiles(int uid) {
+        final int kind = mUserKinds.get(UserHandle.getUserId(uid), USER_UNKNOWN);
+        return kind == USER_CURRENT || kind == USER_PROFILE;
+    }
+
+    private int getUserKind(int userId) {
+        int kind = mUserKinds.get(userId, USER_UNKNOWN);
+        if (kind == USER_UNKNOWN) {
+            kind = mUserManager.getUserInfo(userId) != null ? USER_OTHER : USER_REMOVED;
+            mUserKinds.put(userId, kind);
+        }
+        return kind;
+    }
+}
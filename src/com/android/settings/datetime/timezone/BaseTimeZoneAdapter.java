@@ -16,7 +16,6 @@
 
 package com.android.settings.datetime.timezone;
 
-import android.icu.text.BreakIterator;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
@@ -218,14 +217,12 @@ public class BaseTimeZoneAdapter<T extends BaseTimeZoneAdapter.AdapterItem>
      * a prefix. Each item that does not start with the supplied prefix
      * is removed from the list.</p>
      *
-     * The filtering operation is not optimized, due to small data size (~260 regions),
-     * require additional pre-processing. Potentially, a trie structure can be used to match
-     * prefixes of the search keys.
+     * Items are matched through a {@link TimeZoneSearchIndex}, built on the first filtering.
      */
     @VisibleForTesting
     public class ArrayFilter extends Filter {
 
-        private BreakIterator mBreakIterator = BreakIterator.getWordInstance(mLocale);
+        private TimeZoneSearchIndex mSearchIndex;
 
         @WorkerThread
         @Override
@@ -234,31 +231,13 @@ public class BaseTimeZoneAdapter<T extends BaseTimeZoneAdapter.AdapterItem>
             if (TextUtils.isEmpty(prefix)) {
                 newItems = mOriginalItems;
             } else {
-                final String prefixString = prefix.toString().toLowerCase(mLocale);
-                newItems = new ArrayList<>();
-
-                for (T item : mOriginalItems) {
-                    outer:
-                    for (String searchKey : item.getSearchKeys()) {
-                        searchKey = searchKey.toLowerCase(mLocale);
-                        // First match against the whole, non-splitted value
-                        if (searchKey.startsWith(prefixString)) {
-                            newItems.add(item);
-                            break outer;
-                        } else {
-                            mBreakIterator.setText(searchKey);
-                            for (int wordStart = 0, wordLimit = mBreakIterator.next();
-                                    wordLimit != BreakIterator.DONE;
-                                    wordStart = wordLimit,
-                                            wordLimit = mBreakIterator.next()) {
-                                if (mBreakIterator.getRuleStatus() != BreakIterator.WORD_NONE
-                                        && searchKey.startsWith(prefixString, wordStart)) {
-                                    newItems.add(item);
-                                    break outer;
-                                }
-                            }
-                        }
-                    }
+                if (mSearchIndex == null) {
+                    mSearchIndex = TimeZoneSearchIndex.getInstance(mLocale, mOriginalItems);
+                }
+                final int[] positions = mSearchIndex.query(prefix.toString());
+                newItems = new ArrayList<>(positions.length);
+                for (int position : positions) {
+                    newItems.add(mOriginalItems.get(position));
                 }
             }
 
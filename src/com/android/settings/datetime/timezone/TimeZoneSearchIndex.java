@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.datetime.timezone;
+
+import android.icu.text.BreakIterator;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Prefix index of the search keys of a list of {@link BaseTimeZoneAdapter.AdapterItem}.
+ *
+ * An item matches a prefix if one of its search keys, or one of the words in it, starts with the
+ * prefix, ignoring case. The index keeps every such word start as the lower case rest of the
+ * search key from there, sorted, so a query is a binary search followed by a scan of the
+ * matches.
+ *
+ * Indexes are kept by locale and search keys, so pickers showing the same items share one.
+ */
+class TimeZoneSearchIndex {
+
+    /** Enough for the region list and the zones of the regions visited recently. */
+    private static final int MAX_CACHED_INDEXES = 8;
+
+    private static final LruCache<CacheKey, TimeZoneSearchIndex> sCache =
+            new LruCache<>(MAX_CACHED_INDEXES);
+
+    private final Locale mLocale;
+    private final int mItemCount;
+    /** Lower case rest of a search key from each word start, sorted. */
+    private final String[] mWords;
+    /** Position of the item each of {@link #mWords} belongs to. */
+    private final int[] mItemPositions;
+
+    /**
+     * @return the index of {@param items} in {@param locale}, built once for the same search
+     * keys.
+     */
+    @WorkerThread
+    static TimeZoneSearchIndex getInstance(Locale locale,
+            List<? extends BaseTimeZoneAdapter.AdapterItem> items) {
+        final String[][] searchKeys = new String[items.size()][];
+        for (int i = 0; i < searchKeys.length; i++) {
+            searchKeys[i] = items.get(i).getSearchKeys();
+        }
+        final CacheKey key = new CacheKey(locale, searchKeys);
+        TimeZoneSearchIndex index = sCache.get(key);
+        if (index == null) {
+            index = new TimeZoneSearchIndex(locale, searchKeys);
+            sCache.put(key, index);
+        }
+        return index;
+    }
+
+    @VisibleForTesting
+    TimeZoneSearchIndex(Locale locale, String[][] searchKeys) {
+        mLocale = locale;
+        mItemCount = searchKeys.length;
+        final BreakIterator breakIterator = BreakIterator.getWordInstance(locale);
+        final List<String> words = new ArrayList<>();
+        final List<Integer> itemPositions = new ArrayList<>();
+        for (int i = 0; i < searchKeys.length; i++) {
+            for (String searchKey : searchKeys[i]) {
+                searchKey = searchKey.toLowerCase(locale);
+                // The whole, non-splitted value
+                words.add(searchKey);
+                itemPositions.add(i);
+                breakIterator.setText(searchKey);
+                for (int wordStart = 0, wordLimit = breakIterator.next();
+                        wordLimit != BreakIterator.DONE;
+                        wordStart = wordLimit, wordLimit = breakIterator.next()) {
+                    if (wordStart > 0 && breakIterator.getRuleStatus() != BreakIterator.WORD_NONE) {
+                        words.add(searchKey.substring(wordStart));
+                        itemPositions.add(i);
+                    }
+                }
+            }
+        }
+
+        final Integer[] order = new Integer[words.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> words.get(a).compareTo(words.get(b)));
+        mWords = new String[order.length];
+        mItemPositions = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            mWords[i] = words.get(order[i]);
+            mItemPositions[i] = itemPositions.get(order[i]);
+        }
+    }
+
+    /**
+     * @return the positions of the items matching {@param prefix}, in increasing order.
+     */
+    int[] query(String prefix) {
+        final String prefixString = prefix.toLowerCase(mLocale);
+        int low = 0;
+        int high = mWords.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (mWords[mid].compareTo(prefixString) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        final boolean[] matches = new boolean[mItemCount];
+        int matchCount = 0;
+        for (int i = low; i < mWords.length && mWords[i].startsWith(prefixString); i++) {
+            if (!matches[mItemPositions[i]]) {
+                matches[mItemPositions[i]] = true;
+                matchCount++;
+            }
+        }
+        final int[] positions = new int[matchCount];
+        for (int i = 0, j = 0; j < matchCount; i++) {
+            if (matches[i]) {
+                positions[j++] = i;
+            }
+        }
+        return positions;
+    }
+
+    private static class CacheKey {
+        final Locale locale;
+        final String[][] searchKeys;
+        final int hashCode;
+
+        CacheKey(Locale locale, String[][] searchKeys) {
+            this.locale = locale;
+            this.searchKeys = searchKeys;
+            hashCode = 31 * locale.hashCode() + Arrays.deepHashCode(searchKeys);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+            final CacheKey other = (CacheKey) o;
+            return hashCode == other.hashCode && Objects.equals(locale, other.locale)
+                    && Arrays.deepEquals(searchKeys, other.searchKeys);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -247,10 +247,27 @@ public class StorageDashboardFragment extends DashboardFragment implements
     public Loader<SparseArray<StorageAsyncLoader.AppsStorageResult>> onCreateLoader(int id,
             Bundle args) {
         final Context context = getContext();
-        return new StorageAsyncLoader(context, context.getSystemService(UserManager.class),
+        final StorageAsyncLoader loader = new StorageAsyncLoader(context,
+                context.getSystemService(UserManager.class),
                 mVolume.fsUuid,
                 new StorageStatsSource(context),
                 new PackageManagerWrapper(context.getPackageManager()));
+        loader.setParallel(true);
+        loader.setCachedValuesHelper(mCachedStorageValuesHelper);
+        loader.setPartialResultListener(this::onPartialAppsResult);
+        return loader;
+    }
+
+    @VisibleForTesting
+    void onPartialAppsResult(SparseArray<StorageAsyncLoader.AppsStorageResult> partial) {
+        // Only fill in the sizes while nothing better is shown: neither cached nor final values.
+        if (mAppsResult != null || mStorageInfo == null || getView() == null) {
+            return;
+        }
+        mPreferenceController.onLoadFinished(partial, UserHandle.myUserId());
+        if (getView().findViewById(R.id.loading_container).getVisibility() == View.VISIBLE) {
+            setLoading(false, true);
+        }
     }
 
     @Override
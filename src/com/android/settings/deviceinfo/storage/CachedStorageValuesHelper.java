@@ -18,16 +18,30 @@ package com.android.settings.deviceinfo.storage;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.content.pm.ApplicationInfo;
 import android.provider.Settings;
 import android.support.annotation.VisibleForTesting;
+import android.util.ArrayMap;
+import android.util.AtomicFile;
+import android.util.Log;
 import android.util.SparseArray;
 
 import com.android.settingslib.applications.StorageStatsSource;
 import com.android.settingslib.deviceinfo.PrivateStorageInfo;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Objects;
 import java.util.concurrent.TimeUnit;
 
 public class CachedStorageValuesHelper {
+    private static final String TAG = "CachedStorageValues";
 
     @VisibleForTesting public static final String SHARED_PREFERENCES_NAME = "CachedStorageValues";
     public static final String TIMESTAMP_KEY = "last_query_timestamp";
@@ -45,9 +59,18 @@ public class CachedStorageValuesHelper {
     public static final String EXTERNAL_IMAGE_BYTES = "external_image_bytes";
     public static final String EXTERNAL_APP_BYTES = "external_apps_bytes";
     public static final String USER_ID_KEY = "user_id";
+    @VisibleForTesting static final String PACKAGE_STATS_FILE_NAME = "package_storage_stats";
+    /**
+     * How long the storage of a package that was not updated is shown while it is queried again.
+     * Its data keeps changing, so older values are not worth showing even for a moment.
+     */
+    @VisibleForTesting static final long PACKAGE_STATS_MAX_AGE_MS = TimeUnit.HOURS.toMillis(1);
+    /** Version of the package stats file format, bump it whenever the format changes. */
+    private static final int PACKAGE_STATS_VERSION = 1;
     private final Long mClobberThreshold;
     private final SharedPreferences mSharedPreferences;
     private final int mUserId;
+    private final AtomicFile mPackageStatsFile;
     // This clock is used to provide the time. By default, it uses the system clock, but can be
     // replaced for test purposes.
     protected Clock mClock;
@@ -57,6 +80,8 @@ public class CachedStorageValuesHelper {
                 context.getSharedPreferences(SHARED_PREFERENCES_NAME, Context.MODE_PRIVATE);
         mClock = new Clock();
         mUserId = userId;
+        mPackageStatsFile =
+                new AtomicFile(new File(context.getCacheDir(), PACKAGE_STATS_FILE_NAME));
         mClobberThreshold =
                 Settings.Global.getLong(
                         context.getContentResolver(),
@@ -152,6 +177,88 @@ public class CachedStorageValuesHelper {
                 .apply();
     }
 
+    /**
+     * Returns the storage of each package last saved by {@link #cachePackageStats}, by user id and
+     * package name, leaving out what is older than {@link #PACKAGE_STATS_MAX_AGE_MS}. Reads from
+     * disk, so it must not be called on the main thread.
+     */
+    public SparseArray<ArrayMap<String, PackageStorageStats>> getCachedPackageStats(String uuid) {
+        final SparseArray<ArrayMap<String, PackageStorageStats>> result = new SparseArray<>();
+        final long minQueryTime = mClock.getCurrentTime() - PACKAGE_STATS_MAX_AGE_MS;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(mPackageStatsFile.openRead()))) {
+            if (in.readInt() != PACKAGE_STATS_VERSION || !Objects.equals(uuid, readString(in))) {
+                return result;
+            }
+            for (int userCount = in.readInt(); userCount > 0; userCount--) {
+                final int userId = in.readInt();
+                final int packageCount = in.readInt();
+                final ArrayMap<String, PackageStorageStats> packages =
+                        new ArrayMap<>(packageCount);
+                for (int i = 0; i < packageCount; i++) {
+                    final String packageName = in.readUTF();
+                    final PackageStorageStats stats = new PackageStorageStats(in.readUTF(),
+                            in.readLong(), in.readLong(), in.readLong());
+                    if (stats.queryTime >= minQueryTime) {
+                        packages.put(packageName, stats);
+                    }
+                }
+                result.put(userId, packages);
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing cached yet.
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read package storage stats", e);
+            result.clear();
+        }
+        return result;
+    }
+
+    /**
+     * Saves the storage of each package, by user id and package name, replacing what was saved
+     * before. Writes to disk, so it must not be called on the main thread.
+     */
+    public void cachePackageStats(String uuid,
+            SparseArray<ArrayMap<String, PackageStorageStats>> stats) {
+        FileOutputStream fos = null;
+        try {
+            fos = mPackageStatsFile.startWrite();
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(PACKAGE_STATS_VERSION);
+            writeString(out, uuid);
+            out.writeInt(stats.size());
+            for (int i = 0, userCount = stats.size(); i < userCount; i++) {
+                final ArrayMap<String, PackageStorageStats> packages = stats.valueAt(i);
+                out.writeInt(stats.keyAt(i));
+                out.writeInt(packages.size());
+                for (int j = 0, packageCount = packages.size(); j < packageCount; j++) {
+                    final PackageStorageStats packageStats = packages.valueAt(j);
+                    out.writeUTF(packages.keyAt(j));
+                    out.writeUTF(packageStats.installId);
+                    out.writeLong(packageStats.queryTime);
+                    out.writeLong(packageStats.blamedDataBytes);
+                    out.writeLong(packageStats.codeBytes);
+                }
+            }
+            out.flush();
+            mPackageStatsFile.finishWrite(fos);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write package storage stats", e);
+            mPackageStatsFile.failWrite(fos);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
     private boolean isDataValid() {
         final int cachedUserId = mSharedPreferences.getInt(USER_ID_KEY, -1);
         if (cachedUserId != mUserId) {
@@ -163,6 +270,34 @@ public class CachedStorageValuesHelper {
         return currentTime - lastQueryTime < mClobberThreshold;
     }
 
+    /**
+     * Storage used by one package for one user, as of {@link #queryTime}.
+     */
+    public static class PackageStorageStats {
+        /** Identifies the installed version of the package, see {@link #getInstallId}. */
+        public final String installId;
+        public final long queryTime;
+        /** Data bytes, with cache beyond the quota of the package left out. */
+        public final long blamedDataBytes;
+        public final long codeBytes;
+
+        public PackageStorageStats(String installId, long queryTime, long blamedDataBytes,
+                long codeBytes) {
+            this.installId = installId;
+            this.queryTime = queryTime;
+            this.blamedDataBytes = blamedDataBytes;
+            this.codeBytes = codeBytes;
+        }
+
+        /**
+         * Returns a value that changes whenever {@param info} is installed or updated: the install
+         * directory changes on every install, and so does the version on most of them.
+         */
+        public static String getInstallId(ApplicationInfo info) {
+            return info.getLongVersionCode() + ":" + info.sourceDir;
+        }
+    }
+
     /** Clock provides the current time. */
     static class Clock {
         public long getCurrentTime() {
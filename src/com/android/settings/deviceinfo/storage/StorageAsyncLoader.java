@@ -25,12 +25,17 @@ import android.content.Context;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.pm.UserInfo;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.UserHandle;
 import android.os.UserManager;
+import android.util.ArrayMap;
 import android.util.ArraySet;
 import android.util.Log;
 import android.util.SparseArray;
 
+import com.android.settings.deviceinfo.storage.CachedStorageValuesHelper.PackageStorageStats;
+import com.android.settings.utils.BackgroundThreadPool;
 import com.android.settingslib.applications.StorageStatsSource;
 import com.android.settingslib.utils.AsyncLoader;
 import com.android.settingslib.wrapper.PackageManagerWrapper;
@@ -39,6 +44,8 @@ import java.io.IOException;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 
 /**
  * StorageAsyncLoader is a Loader which loads categorized app information and external stats for all
@@ -53,6 +60,10 @@ public class StorageAsyncLoader
     private StorageStatsSource mStatsManager;
     private PackageManagerWrapper mPackageManager;
     private ArraySet<String> mSeenPackages;
+    private boolean mParallel;
+    private CachedStorageValuesHelper mCachedValuesHelper;
+    private PartialResultListener mPartialResultListener;
+    private Handler mMainHandler;
 
     public StorageAsyncLoader(Context context, UserManager userManager,
             String uuid, StorageStatsSource source, PackageManagerWrapper pm) {
@@ -63,14 +74,37 @@ public class StorageAsyncLoader
         mPackageManager = pm;
     }
 
+    /**
+     * Queries the packages of each user on a bounded pool of threads instead of one by one.
+     */
+    public void setParallel(boolean parallel) {
+        mParallel = parallel;
+    }
+
+    /**
+     * Shows the storage of the packages {@param helper} cached that were not updated since in the
+     * partial results, until they are queried again, and caches the storage of all packages there
+     * once loaded. The final result is always queried.
+     */
+    public void setCachedValuesHelper(CachedStorageValuesHelper helper) {
+        mCachedValuesHelper = helper;
+    }
+
+    /**
+     * Sets a listener for the totals of the packages loaded so far. Only called in the parallel
+     * mode, on the main thread.
+     */
+    public void setPartialResultListener(PartialResultListener listener) {
+        mPartialResultListener = listener;
+        mMainHandler = listener != null ? new Handler(Looper.getMainLooper()) : null;
+    }
+
     @Override
     public SparseArray<AppsStorageResult> loadInBackground() {
         return loadApps();
     }
 
     private SparseArray<AppsStorageResult> loadApps() {
-        mSeenPackages = new ArraySet<>();
-        SparseArray<AppsStorageResult> result = new SparseArray<>();
         List<UserInfo> infos = mUserManager.getUsers();
         // Sort the users by user id ascending.
         Collections.sort(
@@ -81,22 +115,109 @@ public class StorageAsyncLoader
                         return Integer.compare(userInfo.id, otherUser.id);
                     }
                 });
+        final SparseArray<ArrayMap<String, PackageStorageStats>> cachedStats =
+                mCachedValuesHelper != null
+                        ? mCachedValuesHelper.getCachedPackageStats(mUuid) : null;
+        final UserApps[] users = new UserApps[infos.size()];
         for (int i = 0, userCount = infos.size(); i < userCount; i++) {
-            UserInfo info = infos.get(i);
-            result.put(info.id, getStorageResultForUser(info.id));
+            final int userId = infos.get(i).id;
+            users[i] = new UserApps(userId,
+                    mPackageManager.getInstalledApplicationsAsUser(0, userId),
+                    cachedStats != null ? cachedStats.get(userId) : null);
+        }
+
+        Log.d(TAG, "Loading external stats");
+        final SparseArray<StorageStatsSource.ExternalStorageStats> externalStats =
+                new SparseArray<>();
+        for (UserApps user : users) {
+            try {
+                externalStats.put(user.userId, mStatsManager.getExternalStorageStats(mUuid,
+                        UserHandle.of(user.userId)));
+            } catch (IOException e) {
+                Log.w(TAG, e);
+            }
         }
+
+        Log.d(TAG, "Loading apps");
+        if (mParallel) {
+            if (cachedStats != null && canReportPartialResults(users, externalStats)) {
+                // Seed the display with the cached storage while all packages are queried.
+                postPartialResult(aggregate(users, externalStats, true /* useCachedStats */));
+            }
+            loadPackageStatsInParallel(users, externalStats);
+        } else {
+            for (UserApps user : users) {
+                loadPackageStats(user, 0, user.apps.size());
+            }
+        }
+
+        final SparseArray<AppsStorageResult> result =
+                aggregate(users, externalStats, false /* useCachedStats */);
+        if (mCachedValuesHelper != null) {
+            mCachedValuesHelper.cachePackageStats(mUuid, toCachedStats(users));
+        }
+        Log.d(TAG, "Obtaining result completed");
         return result;
     }
 
-    private AppsStorageResult getStorageResultForUser(int userId) {
-        Log.d(TAG, "Loading apps");
-        List<ApplicationInfo> applicationInfos =
-                mPackageManager.getInstalledApplicationsAsUser(0, userId);
-        AppsStorageResult result = new AppsStorageResult();
-        UserHandle myUser = UserHandle.of(userId);
-        for (int i = 0, size = applicationInfos.size(); i < size; i++) {
-            ApplicationInfo app = applicationInfos.get(i);
+    /**
+     * Queries the packages of all users on the {@link BackgroundThreadPool}, each thread taking an
+     * equal share of the packages of a user, and reports the totals so far as each share completes.
+     */
+    private void loadPackageStatsInParallel(UserApps[] users,
+            SparseArray<StorageStatsSource.ExternalStorageStats> externalStats) {
+        final ExecutorCompletionService<Void> completionService =
+                new ExecutorCompletionService<>(BackgroundThreadPool.get());
+        int taskCount = 0;
+        for (UserApps user : users) {
+            final int size = user.apps.size();
+            final int threads = BackgroundThreadPool.getThreadCount();
+            final int shardSize = (size + threads - 1) / threads;
+            for (int start = 0; start < size; start += shardSize) {
+                final int shardStart = start;
+                final int shardEnd = Math.min(size, start + shardSize);
+                completionService.submit(() -> loadPackageStats(user, shardStart, shardEnd),
+                        null /* result */);
+                taskCount++;
+            }
+        }
+
+        final boolean reportPartialResults = canReportPartialResults(users, externalStats);
+        for (int i = 0; i < taskCount; i++) {
+            try {
+                completionService.take().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while loading apps", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Failed to load apps", e.getCause());
+            }
+            if (reportPartialResults && i < taskCount - 1) {
+                postPartialResult(aggregate(users, externalStats, true /* useCachedStats */));
+            }
+        }
+    }
+
+    private boolean canReportPartialResults(UserApps[] users,
+            SparseArray<StorageStatsSource.ExternalStorageStats> externalStats) {
+        // Partial results are not worth reporting without the external stats.
+        return mPartialResultListener != null
+                && externalStats.size() == users.length && externalStats.indexOfValue(null) < 0;
+    }
+
+    private void postPartialResult(SparseArray<AppsStorageResult> partial) {
+        final PartialResultListener listener = mPartialResultListener;
+        mMainHandler.post(() -> listener.onPartialResult(partial));
+    }
 
+    /**
+     * Loads the storage of the apps of {@param user} from {@param start} to {@param end}. Each
+     * call writes to its own range of {@link UserApps#stats}, so calls can run concurrently.
+     */
+    private void loadPackageStats(UserApps user, int start, int end) {
+        final UserHandle myUser = UserHandle.of(user.userId);
+        for (int i = start; i < end; i++) {
+            ApplicationInfo app = user.apps.get(i);
             StorageStatsSource.AppStorageStats stats;
             try {
                 stats = mStatsManager.getStatsForPackage(mUuid, app.packageName, myUser);
@@ -117,46 +238,81 @@ public class StorageAsyncLoader
             if (cacheQuota < cacheBytes) {
                 blamedSize = blamedSize - cacheBytes + cacheQuota;
             }
+            user.stats[i] = new PackageStorageStats(PackageStorageStats.getInstallId(app),
+                    System.currentTimeMillis(), blamedSize, stats.getCodeBytes());
+        }
+    }
 
-            // This isn't quite right because it slams the first user by user id with the whole code
-            // size, but this ensures that we count all apps seen once.
-            if (!mSeenPackages.contains(app.packageName)) {
-                blamedSize += stats.getCodeBytes();
-                mSeenPackages.add(app.packageName);
-            }
+    /**
+     * Adds up the storage of the apps loaded so far by category, for each user. With
+     * {@param useCachedStats}, the cached storage of the apps not loaded yet is counted too.
+     */
+    private SparseArray<AppsStorageResult> aggregate(UserApps[] users,
+            SparseArray<StorageStatsSource.ExternalStorageStats> externalStats,
+            boolean useCachedStats) {
+        mSeenPackages = new ArraySet<>();
+        final SparseArray<AppsStorageResult> results = new SparseArray<>();
+        for (UserApps user : users) {
+            final AppsStorageResult result = new AppsStorageResult();
+            for (int i = 0, size = user.apps.size(); i < size; i++) {
+                PackageStorageStats stats = user.stats[i];
+                if (stats == null && useCachedStats) {
+                    stats = user.getCached(i);
+                }
+                if (stats == null) {
+                    continue;
+                }
+                final ApplicationInfo app = user.apps.get(i);
+                long blamedSize = stats.blamedDataBytes;
+
+                // This isn't quite right because it slams the first user by user id with the
+                // whole code size, but this ensures that we count all apps seen once.
+                if (!mSeenPackages.contains(app.packageName)) {
+                    blamedSize += stats.codeBytes;
+                    mSeenPackages.add(app.packageName);
+                }
 
-            switch (app.category) {
-                case CATEGORY_GAME:
-                    result.gamesSize += blamedSize;
-                    break;
-                case CATEGORY_AUDIO:
-                    result.musicAppsSize += blamedSize;
-                    break;
-                case CATEGORY_VIDEO:
-                    result.videoAppsSize += blamedSize;
-                    break;
-                case CATEGORY_IMAGE:
-                    result.photosAppsSize += blamedSize;
-                    break;
-                default:
-                    // The deprecated game flag does not set the category.
-                    if ((app.flags & ApplicationInfo.FLAG_IS_GAME) != 0) {
+                switch (app.category) {
+                    case CATEGORY_GAME:
                         result.gamesSize += blamedSize;
                         break;
-                    }
-                    result.otherAppsSize += blamedSize;
-                    break;
+                    case CATEGORY_AUDIO:
+                        result.musicAppsSize += blamedSize;
+                        break;
+                    case CATEGORY_VIDEO:
+                        result.videoAppsSize += blamedSize;
+                        break;
+                    case CATEGORY_IMAGE:
+                        result.photosAppsSize += blamedSize;
+                        break;
+                    default:
+                        // The deprecated game flag does not set the category.
+                        if ((app.flags & ApplicationInfo.FLAG_IS_GAME) != 0) {
+                            result.gamesSize += blamedSize;
+                            break;
+                        }
+                        result.otherAppsSize += blamedSize;
+                        break;
+                }
             }
+            result.externalStats = externalStats.get(user.userId);
+            results.put(user.userId, result);
         }
+        return results;
+    }
 
-        Log.d(TAG, "Loading external stats");
-        try {
-            result.externalStats = mStatsManager.getExternalStorageStats(mUuid,
-                    UserHandle.of(userId));
-        } catch (IOException e) {
-            Log.w(TAG, e);
+    private static SparseArray<ArrayMap<String, PackageStorageStats>> toCachedStats(
+            UserApps[] users) {
+        final SparseArray<ArrayMap<String, PackageStorageStats>> result = new SparseArray<>();
+        for (UserApps user : users) {
+            final ArrayMap<String, PackageStorageStats> packages = new ArrayMap<>();
+            for (int i = 0, size = user.apps.size(); i < size; i++) {
+                if (user.stats[i] != null) {
+                    packages.put(user.apps.get(i).packageName, user.stats[i]);
+                }
+            }
+            result.put(user.userId, packages);
         }
-        Log.d(TAG, "Obtaining result completed");
         return result;
     }
 
@@ -181,4 +337,43 @@ public class StorageAsyncLoader
     public interface ResultHandler {
         void handleResult(SparseArray<AppsStorageResult> result);
     }
+
+    /**
+     * PartialResultListener receives the totals of the packages loaded so far while
+     * {@link StorageAsyncLoader} is still loading.
+     */
+    public interface PartialResultListener {
+        void onPartialResult(SparseArray<AppsStorageResult> result);
+    }
+
+    /**
+     * The apps of one user, and the storage of each of them once loaded.
+     */
+    private static class UserApps {
+        final int userId;
+        final List<ApplicationInfo> apps;
+        final PackageStorageStats[] stats;
+        final ArrayMap<String, PackageStorageStats> cachedStats;
+
+        UserApps(int userId, List<ApplicationInfo> apps,
+                ArrayMap<String, PackageStorageStats> cachedStats) {
+            this.userId = userId;
+            this.apps = apps;
+            this.stats = new PackageStorageStats[apps.size()];
+            this.cachedStats = cachedStats;
+        }
+
+        /**
+         * @return the cached storage of the app at {@param index}, if it was not updated since.
+         */
+        PackageStorageStats getCached(int index) {
+            if (cachedStats == null) {
+                return null;
+            }
+            final ApplicationInfo app = apps.get(index);
+            final PackageStorageStats cached = cachedStats.get(app.packageName);
+            return cached != null && cached.installId.equals(PackageStorageStats.getInstallId(app))
+                    ? cached : null;
+        }
+    }
 }
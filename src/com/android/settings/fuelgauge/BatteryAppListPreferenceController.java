@@ -80,6 +80,7 @@ public class BatteryAppListPreferenceController extends AbstractPreferenceContro
     private SettingsActivity mActivity;
     private InstrumentedPreferenceFragment mFragment;
     private Context mPrefContext;
+    private List<BatteryUsageSnapshot.AppUsage> mAppUsages;
     SparseArray<List<Anomaly>> mAnomalySparseArray;
 
     private Handler mHandler = new Handler(Looper.getMainLooper()) {
@@ -160,7 +161,8 @@ public class BatteryAppListPreferenceController extends AbstractPreferenceContro
 
     @Override
     public boolean handlePreferenceTreeClick(Preference preference) {
-        if (preference instanceof PowerGaugePreference) {
+        // Rows restored from a snapshot open the detail page once stats are loaded.
+        if (preference instanceof PowerGaugePreference && mBatteryStatsHelper != null) {
             PowerGaugePreference pgp = (PowerGaugePreference) preference;
             BatteryEntry entry = pgp.getInfo();
             AdvancedPowerUsageDetail.startBatteryDetailPage(mActivity,
@@ -204,6 +206,7 @@ public class BatteryAppListPreferenceController extends AbstractPreferenceContro
 
         cacheRemoveAllPrefs(mAppListGroup);
         mAppListGroup.setOrderingAsAdded(false);
+        final List<BatteryUsageSnapshot.AppUsage> appUsages = new ArrayList<>();
 
         if (averagePower >= MIN_AVERAGE_POWER_THRESHOLD_MILLI_AMP || USE_FAKE_DATA) {
             final List<BatterySipper> usageList = getCoalescedUsageList(
@@ -226,34 +229,14 @@ public class BatteryAppListPreferenceController extends AbstractPreferenceContro
                 if (shouldHideSipper(sipper)) {
                     continue;
                 }
-                final UserHandle userHandle = new UserHandle(UserHandle.getUserId(sipper.getUid()));
-                final BatteryEntry entry = new BatteryEntry(mActivity, mHandler, mUserManager,
-                        sipper);
-                final Drawable badgedIcon = mUserManager.getBadgedIconForUser(entry.getIcon(),
-                        userHandle);
-                final CharSequence contentDescription = mUserManager.getBadgedLabelForUser(
-                        entry.getLabel(),
-                        userHandle);
-
-                final String key = extractKeyFromSipper(sipper);
-                PowerGaugePreference pref = (PowerGaugePreference) getCachedPreference(key);
-                if (pref == null) {
-                    pref = new PowerGaugePreference(mPrefContext, badgedIcon,
-                            contentDescription, entry);
-                    pref.setKey(key);
-                }
                 sipper.percent = percentOfTotal;
-                pref.setTitle(entry.getLabel());
-                pref.setOrder(i + 1);
-                pref.setPercent(percentOfTotal);
-                pref.shouldShowAnomalyIcon(false);
                 if (sipper.usageTimeMs == 0 && sipper.drainType == DrainType.APP) {
                     sipper.usageTimeMs = mBatteryUtils.getProcessTimeMs(
                             BatteryUtils.StatusType.FOREGROUND, sipper.uidObj, STATS_TYPE);
                 }
-                setUsageSummary(pref, sipper);
+                addAppPreference(sipper, i + 1);
+                appUsages.add(new BatteryUsageSnapshot.AppUsage(sipper));
                 addedSome = true;
-                mAppListGroup.addPreference(pref);
                 if (mAppListGroup.getPreferenceCount() - getCachedCount()
                         > (MAX_ITEMS_TO_LIST + 1)) {
                     break;
@@ -264,10 +247,61 @@ public class BatteryAppListPreferenceController extends AbstractPreferenceContro
             addNotAvailableMessage();
         }
         removeCachedPrefs(mAppListGroup);
+        mAppUsages = appUsages;
+
+        BatteryEntry.startRequestQueue();
+    }
+
+    /**
+     * Shows the rows saved from an earlier {@link #refreshAppListGroup(BatteryStatsHelper,
+     * boolean)} until battery stats are loaded.
+     */
+    public void refreshAppListGroup(List<BatteryUsageSnapshot.AppUsage> appUsages) {
+        if (!isAvailable() || appUsages.isEmpty()) {
+            return;
+        }
+
+        mAppListGroup.setTitle(R.string.power_usage_list_summary);
+        cacheRemoveAllPrefs(mAppListGroup);
+        mAppListGroup.setOrderingAsAdded(false);
+        for (int i = 0, size = appUsages.size(); i < size; i++) {
+            addAppPreference(appUsages.get(i).toBatterySipper(), i + 1);
+        }
+        removeCachedPrefs(mAppListGroup);
 
         BatteryEntry.startRequestQueue();
     }
 
+    /**
+     * @return the rows shown by the last {@link #refreshAppListGroup(BatteryStatsHelper, boolean)},
+     * or null if it has not run yet.
+     */
+    public List<BatteryUsageSnapshot.AppUsage> getAppUsages() {
+        return mAppUsages;
+    }
+
+    private void addAppPreference(BatterySipper sipper, int order) {
+        final UserHandle userHandle = new UserHandle(UserHandle.getUserId(sipper.getUid()));
+        final BatteryEntry entry = new BatteryEntry(mActivity, mHandler, mUserManager, sipper);
+        final Drawable badgedIcon = mUserManager.getBadgedIconForUser(entry.getIcon(),
+                userHandle);
+        final CharSequence contentDescription = mUserManager.getBadgedLabelForUser(
+                entry.getLabel(), userHandle);
+
+        final String key = extractKeyFromSipper(sipper);
+        PowerGaugePreference pref = (PowerGaugePreference) getCachedPreference(key);
+        if (pref == null) {
+            pref = new PowerGaugePreference(mPrefContext, badgedIcon, contentDescription, entry);
+            pref.setKey(key);
+        }
+        pref.setTitle(entry.getLabel());
+        pref.setOrder(order);
+        pref.setPercent(sipper.percent);
+        pref.shouldShowAnomalyIcon(false);
+        setUsageSummary(pref, sipper);
+        mAppListGroup.addPreference(pref);
+    }
+
     /**
      * We want to coalesce some UIDs. For example, dex2oat runs under a shared gid that
      * exists for all users of the same app. We detect this case and merge the power use
@@ -0,0 +1,384 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import android.os.BatteryStats;
+import android.os.BatteryStats.HistoryItem;
+import android.support.annotation.VisibleForTesting;
+
+import java.util.Arrays;
+
+/**
+ * Columnar copy of the battery history in {@link BatteryStats}, decoded in a single pass.
+ *
+ * Holds the records up to the last data point, with the wall clock time of every record already
+ * resolved from the time change records, so that charts and {@link BatteryInfo.BatteryDataParser}s
+ * can walk the history as often as they need without iterating {@link BatteryStats} again.
+ */
+public class BatteryHistorySnapshot {
+
+    private static final int INITIAL_CAPACITY = 256;
+    // A jump in wall clock time larger than this discards the times seen before.
+    private static final long MAX_TIME_JUMP_MS = 180 * 24 * 60 * 60 * 1000L;
+    // Time changes this close to the start of the history are treated as the real start time.
+    private static final long START_TIME_NOISE_MS = 5 * 60 * 1000L;
+    // A clock change larger than this breaks the chart lines.
+    private static final long TIME_CHANGE_GAP_MS = 60 * 60 * 1000L;
+
+    private int mSize;
+    private long[] mTimes;
+    private long[] mWallTimes;
+    private byte[] mCmds;
+    private byte[] mLevels;
+    private int[] mStates;
+    private int[] mStates2;
+    private boolean[] mGaps;
+
+    // Time change markers: record index and wall clock time of CMD_CURRENT_TIME and CMD_RESET.
+    private int mTimeChangeCount;
+    private int[] mTimeChangeIndices;
+    private long[] mTimeChangeCurrentTimes;
+
+    private long mHistoryStart;
+    private long mHistoryDataEnd;
+    private long mStartWallTime;
+    private long mEndDataWallTime;
+    private int mAggregatedStates;
+    private int mAggregatedStates2;
+
+    @VisibleForTesting
+    BatteryHistorySnapshot() {
+        mTimes = new long[INITIAL_CAPACITY];
+        mCmds = new byte[INITIAL_CAPACITY];
+        mLevels = new byte[INITIAL_CAPACITY];
+        mStates = new int[INITIAL_CAPACITY];
+        mStates2 = new int[INITIAL_CAPACITY];
+        mTimeChangeIndices = new int[16];
+        mTimeChangeCurrentTimes = new long[16];
+    }
+
+    /**
+     * Reads the history of {@param stats} in a single pass.
+     */
+    public static BatteryHistorySnapshot decode(BatteryStats stats) {
+        final BatteryHistorySnapshot snapshot = new BatteryHistorySnapshot();
+        if (stats.startIteratingHistoryLocked()) {
+            final HistoryItem rec = new HistoryItem();
+            while (stats.getNextHistoryLocked(rec)) {
+                snapshot.add(rec);
+            }
+        }
+        stats.finishIteratingHistoryLocked();
+        snapshot.finish();
+        return snapshot;
+    }
+
+    @VisibleForTesting
+    void add(HistoryItem rec) {
+        if (mSize == mTimes.length) {
+            final int capacity = mSize * 2;
+            mTimes = Arrays.copyOf(mTimes, capacity);
+            mCmds = Arrays.copyOf(mCmds, capacity);
+            mLevels = Arrays.copyOf(mLevels, capacity);
+            mStates = Arrays.copyOf(mStates, capacity);
+            mStates2 = Arrays.copyOf(mStates2, capacity);
+        }
+        if (isTimeChange(rec.cmd)) {
+            if (mTimeChangeCount == mTimeChangeIndices.length) {
+                mTimeChangeIndices = Arrays.copyOf(mTimeChangeIndices, mTimeChangeCount * 2);
+                mTimeChangeCurrentTimes =
+                        Arrays.copyOf(mTimeChangeCurrentTimes, mTimeChangeCount * 2);
+            }
+            mTimeChangeIndices[mTimeChangeCount] = mSize;
+            mTimeChangeCurrentTimes[mTimeChangeCount] = rec.currentTime;
+            mTimeChangeCount++;
+        }
+        mTimes[mSize] = rec.time;
+        mCmds[mSize] = rec.cmd;
+        mLevels[mSize] = rec.batteryLevel;
+        mStates[mSize] = rec.states;
+        mStates2[mSize] = rec.states2;
+        mSize++;
+    }
+
+    /**
+     * Resolves the wall clock bounds and the wall clock time of every record, once all records
+     * are added.
+     */
+    @VisibleForTesting
+    void finish() {
+        long lastWallTime = 0;
+        long lastRealtime = 0;
+        int lastInteresting = 0;
+        int timeChange = 0;
+        for (int i = 0; i < mSize; i++) {
+            if (i == 0) {
+                mHistoryStart = mTimes[i];
+            }
+            if (isTimeChange(mCmds[i])) {
+                // If there is a ridiculously large jump in time, then we won't be
+                // able to create a good chart with that data, so just ignore the
+                // times we got before and pretend like our data extends back from
+                // the time we have now.
+                // Also, if we are getting a time change and we are less than 5 minutes
+                // since the start of the history real time, then also use this new
+                // time to compute the base time, since whatever time we had before is
+                // pretty much just noise.
+                final long currentTime = mTimeChangeCurrentTimes[timeChange++];
+                if (currentTime > (lastWallTime + MAX_TIME_JUMP_MS)
+                        || mTimes[i] < (mHistoryStart + START_TIME_NOISE_MS)) {
+                    mStartWallTime = 0;
+                }
+                lastWallTime = currentTime;
+                lastRealtime = mTimes[i];
+                if (mStartWallTime == 0) {
+                    mStartWallTime = lastWallTime - (lastRealtime - mHistoryStart);
+                }
+            }
+            if (mCmds[i] == HistoryItem.CMD_UPDATE) {
+                lastInteresting = i + 1;
+                mHistoryDataEnd = mTimes[i];
+                mAggregatedStates |= mStates[i];
+                mAggregatedStates2 |= mStates2[i];
+            }
+        }
+        mEndDataWallTime = lastWallTime + mHistoryDataEnd - lastRealtime;
+        // Records after the last data point carry nothing to draw.
+        mSize = lastInteresting;
+
+        mWallTimes = new long[mSize];
+        mGaps = new boolean[mSize];
+        // The start wall time is the wall time of the first record.
+        long curWallTime = mStartWallTime;
+        lastRealtime = mHistoryStart;
+        timeChange = 0;
+        for (int i = 0; i < mSize; i++) {
+            if (mCmds[i] == HistoryItem.CMD_UPDATE) {
+                curWallTime += mTimes[i] - lastRealtime;
+                lastRealtime = mTimes[i];
+            } else {
+                final long lastWallTimeOfGap = curWallTime;
+                if (isTimeChange(mCmds[i])) {
+                    final long currentTime = mTimeChangeCurrentTimes[timeChange++];
+                    if (currentTime >= mStartWallTime) {
+                        curWallTime = currentTime;
+                    } else {
+                        curWallTime = mStartWallTime + (mTimes[i] - mHistoryStart);
+                    }
+                    lastRealtime = mTimes[i];
+                }
+                mGaps[i] = mCmds[i] != HistoryItem.CMD_OVERFLOW
+                        && (mCmds[i] != HistoryItem.CMD_CURRENT_TIME
+                        || Math.abs(lastWallTimeOfGap - curWallTime) > TIME_CHANGE_GAP_MS);
+            }
+            mWallTimes[i] = curWallTime;
+        }
+    }
+
+    /**
+     * @return the number of records up to the last data point.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    public long getHistoryStart() {
+        return mHistoryStart;
+    }
+
+    /**
+     * @return the elapsed realtime of the last data point.
+     */
+    public long getHistoryDataEnd() {
+        return mHistoryDataEnd;
+    }
+
+    public long getStartWallTime() {
+        return mStartWallTime;
+    }
+
+    /**
+     * @return the wall clock time of the last data point.
+     */
+    public long getEndDataWallTime() {
+        return mEndDataWallTime;
+    }
+
+    /**
+     * @return the union of {@link HistoryItem#states} of all data points.
+     */
+    public int getAggregatedStates() {
+        return mAggregatedStates;
+    }
+
+    /**
+     * @return the union of {@link HistoryItem#states2} of all data points.
+     */
+    public int getAggregatedStates2() {
+        return mAggregatedStates2;
+    }
+
+    /**
+     * @return true if the record at {@param index} is a data point, see
+     * {@link HistoryItem#isDeltaData()}.
+     */
+    public boolean isDeltaData(int index) {
+        return mCmds[index] == HistoryItem.CMD_UPDATE;
+    }
+
+    /**
+     * @return true if the record at {@param index} breaks the continuity of the data.
+     */
+    public boolean isGap(int index) {
+        return mGaps[index];
+    }
+
+    /**
+     * @return the wall clock time of the record at {@param index}.
+     */
+    public long getWallTime(int index) {
+        return mWallTimes[index];
+    }
+
+    public byte getBatteryLevel(int index) {
+        return mLevels[index];
+    }
+
+    public int getStates(int index) {
+        return mStates[index];
+    }
+
+    public int getStates2(int index) {
+        return mStates2[index];
+    }
+
+    /**
+     * Selects the records worth drawing when {@param wallTimeSpan} of wall clock time from
+     * {@param startWallTime} is laid out over {@param width} pixels.
+     *
+     * For every pixel column, keeps the first and last data points, the ones with the lowest and
+     * highest battery level, and the first data point setting a state bit that none of the kept
+     * ones has, so that short state changes stay visible. Gaps are always kept. The result holds
+     * at most a few records per pixel, however long the history is.
+     *
+     * @return the indices of the selected records, in order.
+     */
+    public int[] selectForWidth(long startWallTime, long wallTimeSpan, int width) {
+        if (width <= 0 || wallTimeSpan <= 0) {
+            return new int[0];
+        }
+        final int[] selected = new int[mSize];
+        int count = 0;
+        int bucketStart = -1;
+        int bucket = -1;
+        for (int i = 0; i < mSize; i++) {
+            if (mCmds[i] != HistoryItem.CMD_UPDATE) {
+                if (mGaps[i]) {
+                    if (bucketStart >= 0) {
+                        count = selectInBucket(bucketStart, i - 1, selected, count);
+                        bucketStart = -1;
+                    }
+                    selected[count++] = i;
+                }
+                continue;
+            }
+            final int column = (int) Math.max(0,
+                    Math.min(width - 1, ((mWallTimes[i] - startWallTime) * width) / wallTimeSpan));
+            if (bucketStart >= 0 && column != bucket) {
+                count = selectInBucket(bucketStart, i - 1, selected, count);
+                bucketStart = -1;
+            }
+            if (bucketStart < 0) {
+                bucketStart = i;
+                bucket = column;
+            }
+        }
+        if (bucketStart >= 0) {
+            count = selectInBucket(bucketStart, mSize - 1, selected, count);
+        }
+        return Arrays.copyOf(selected, count);
+    }
+
+    /**
+     * Appends the records of a pixel column spanning records {@param from} to {@param to} to
+     * {@param selected}. The range holds data points and non-gap records only.
+     *
+     * @return the new number of selected records.
+     */
+    private int selectInBucket(int from, int to, int[] selected, int count) {
+        int first = -1;
+        int last = -1;
+        int min = -1;
+        int max = -1;
+        for (int i = from; i <= to; i++) {
+            if (mCmds[i] != HistoryItem.CMD_UPDATE) {
+                continue;
+            }
+            if (first < 0) {
+                first = min = max = i;
+            }
+            last = i;
+            if (mLevels[i] < mLevels[min]) {
+                min = i;
+            } else if (mLevels[i] > mLevels[max]) {
+                max = i;
+            }
+        }
+        if (first < 0) {
+            return count;
+        }
+        int keptStates = mStates[first] | mStates[last] | mStates[min] | mStates[max];
+        int keptStates2 = mStates2[first] | mStates2[last] | mStates2[min] | mStates2[max];
+        for (int i = first; i <= last; i++) {
+            if (mCmds[i] != HistoryItem.CMD_UPDATE) {
+                continue;
+            }
+            if (i == first || i == last || i == min || i == max
+                    || (mStates[i] & ~keptStates) != 0 || (mStates2[i] & ~keptStates2) != 0) {
+                keptStates |= mStates[i];
+                keptStates2 |= mStates2[i];
+                selected[count++] = i;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Copies the record at {@param index} into {@param rec}. Only the fields kept by the snapshot
+     * are set.
+     *
+     * As when iterating {@link BatteryStats}, {@link HistoryItem#currentTime} holds the time of
+     * the latest time change record.
+     */
+    public void readRecord(int index, HistoryItem rec) {
+        rec.cmd = mCmds[index];
+        rec.time = mTimes[index];
+        rec.batteryLevel = mLevels[index];
+        rec.states = mStates[index];
+        rec.states2 = mStates2[index];
+        int timeChange = Arrays.binarySearch(mTimeChangeIndices, 0, mTimeChangeCount, index);
+        if (timeChange < 0) {
+            // Latest time change before index.
+            timeChange = -timeChange - 2;
+        }
+        rec.currentTime = timeChange >= 0 ? mTimeChangeCurrentTimes[timeChange] : 0;
+    }
+
+    private static boolean isTimeChange(byte cmd) {
+        return cmd == HistoryItem.CMD_CURRENT_TIME || cmd == HistoryItem.CMD_RESET;
+    }
+}
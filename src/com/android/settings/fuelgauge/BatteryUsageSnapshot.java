@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import android.os.Parcel;
+
+import com.android.internal.os.BatterySipper;
+import com.android.internal.os.BatterySipper.DrainType;
+import com.android.settings.fuelgauge.batterytip.tips.BatteryTip;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Last content computed for the battery pages, kept by {@link BatteryUsageSnapshotCache} so the
+ * pages can be shown before battery stats are loaded.
+ *
+ * Each part is null until the page showing it has computed it once for the current stats.
+ */
+public class BatteryUsageSnapshot {
+
+    /**
+     * Start of the battery stats the snapshot was computed from, changes when stats are reset.
+     */
+    public long statsStartClockTime;
+    public boolean plugged;
+    public int batteryLevel;
+
+    /**
+     * Header of {@link PowerUsageSummary}.
+     */
+    public Header header;
+    /**
+     * Tips of {@link PowerUsageSummary}.
+     */
+    public List<BatteryTip> tips;
+    /**
+     * App list of {@link PowerUsageAdvanced}, as shown with {@link #showAllApps}.
+     */
+    public List<AppUsage> appUsages;
+    public boolean showAllApps;
+
+    public BatteryUsageSnapshot(long statsStartClockTime, boolean plugged, int batteryLevel) {
+        this.statsStartClockTime = statsStartClockTime;
+        this.plugged = plugged;
+        this.batteryLevel = batteryLevel;
+    }
+
+    /**
+     * Copies all parts of {@param other}, parts are immutable so they are shared.
+     */
+    public BatteryUsageSnapshot(BatteryUsageSnapshot other) {
+        this(other.statsStartClockTime, other.plugged, other.batteryLevel);
+        header = other.header;
+        tips = other.tips;
+        appUsages = other.appUsages;
+        showAllApps = other.showAllApps;
+    }
+
+    BatteryUsageSnapshot(Parcel in) {
+        this(in.readLong(), in.readInt() != 0, in.readInt());
+        if (in.readInt() != 0) {
+            header = new Header(in);
+        }
+        if (in.readInt() != 0) {
+            tips = new ArrayList<>();
+            in.readParcelableList(tips, BatteryTip.class.getClassLoader());
+        }
+        if (in.readInt() != 0) {
+            final int size = in.readInt();
+            appUsages = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                appUsages.add(new AppUsage(in));
+            }
+        }
+        showAllApps = in.readInt() != 0;
+    }
+
+    void writeToParcel(Parcel dest) {
+        dest.writeLong(statsStartClockTime);
+        dest.writeInt(plugged ? 1 : 0);
+        dest.writeInt(batteryLevel);
+        dest.writeInt(header != null ? 1 : 0);
+        if (header != null) {
+            header.writeToParcel(dest);
+        }
+        dest.writeInt(tips != null ? 1 : 0);
+        if (tips != null) {
+            dest.writeParcelableList(tips, 0 /* flags */);
+        }
+        dest.writeInt(appUsages != null ? 1 : 0);
+        if (appUsages != null) {
+            dest.writeInt(appUsages.size());
+            for (AppUsage appUsage : appUsages) {
+                appUsage.writeToParcel(dest);
+            }
+        }
+        dest.writeInt(showAllApps ? 1 : 0);
+    }
+
+    /**
+     * Battery header and usage summary of {@link PowerUsageSummary}.
+     */
+    public static class Header {
+        public final boolean discharging;
+        public final String statusLabel;
+        public final String remainingLabel;
+        public final long averageTimeToDischarge;
+        public final long screenUsageTimeMs;
+
+        public Header(BatteryInfo info, long screenUsageTimeMs) {
+            discharging = info.discharging;
+            statusLabel = info.statusLabel;
+            remainingLabel = info.remainingLabel != null ? info.remainingLabel.toString() : null;
+            averageTimeToDischarge = info.averageTimeToDischarge;
+            this.screenUsageTimeMs = screenUsageTimeMs;
+        }
+
+        Header(Parcel in) {
+            discharging = in.readInt() != 0;
+            statusLabel = in.readString();
+            remainingLabel = in.readString();
+            averageTimeToDischarge = in.readLong();
+            screenUsageTimeMs = in.readLong();
+        }
+
+        void writeToParcel(Parcel dest) {
+            dest.writeInt(discharging ? 1 : 0);
+            dest.writeString(statusLabel);
+            dest.writeString(remainingLabel);
+            dest.writeLong(averageTimeToDischarge);
+            dest.writeLong(screenUsageTimeMs);
+        }
+
+        /**
+         * @return a {@link BatteryInfo} holding the header fields, for
+         * {@link BatteryHeaderPreferenceController#updateHeaderPreference(BatteryInfo)}.
+         */
+        public BatteryInfo toBatteryInfo(int batteryLevel) {
+            final BatteryInfo info = new BatteryInfo();
+            info.batteryLevel = batteryLevel;
+            info.discharging = discharging;
+            info.statusLabel = statusLabel;
+            info.remainingLabel = remainingLabel;
+            info.averageTimeToDischarge = averageTimeToDischarge;
+            return info;
+        }
+    }
+
+    /**
+     * One row of the app list of {@link PowerUsageAdvanced}.
+     */
+    public static class AppUsage {
+        public final DrainType drainType;
+        /**
+         * Uid of the row, or -1 for rows not attributed to a uid.
+         */
+        public final int uid;
+        public final int userId;
+        public final String[] packages;
+        public final String packageWithHighestDrain;
+        public final double totalPowerMah;
+        public final long usageTimeMs;
+        public final double percent;
+
+        public AppUsage(BatterySipper sipper) {
+            drainType = sipper.drainType;
+            uid = sipper.uidObj != null ? sipper.getUid() : -1;
+            userId = sipper.userId;
+            packages = sipper.mPackages;
+            packageWithHighestDrain = sipper.packageWithHighestDrain;
+            totalPowerMah = sipper.totalPowerMah;
+            usageTimeMs = sipper.usageTimeMs;
+            percent = sipper.percent;
+        }
+
+        AppUsage(Parcel in) {
+            drainType = DrainType.valueOf(in.readString());
+            uid = in.readInt();
+            userId = in.readInt();
+            packages = in.createStringArray();
+            packageWithHighestDrain = in.readString();
+            totalPowerMah = in.readDouble();
+            usageTimeMs = in.readLong();
+            percent = in.readDouble();
+        }
+
+        void writeToParcel(Parcel dest) {
+            dest.writeString(drainType.name());
+            dest.writeInt(uid);
+            dest.writeInt(userId);
+            dest.writeStringArray(packages);
+            dest.writeString(packageWithHighestDrain);
+            dest.writeDouble(totalPowerMah);
+            dest.writeLong(usageTimeMs);
+            dest.writeDouble(percent);
+        }
+
+        /**
+         * @return a {@link BatterySipper} with the saved fields, enough to show the row again.
+         */
+        public BatterySipper toBatterySipper() {
+            final BatterySipper sipper = new BatterySipper(drainType,
+                    uid >= 0 ? new FakeUid(uid) : null, totalPowerMah);
+            sipper.userId = userId;
+            sipper.mPackages = packages;
+            sipper.packageWithHighestDrain = packageWithHighestDrain;
+            sipper.usageTimeMs = usageTimeMs;
+            sipper.percent = percent;
+            return sipper;
+        }
+    }
+}
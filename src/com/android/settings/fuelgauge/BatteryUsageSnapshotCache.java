@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.Parcel;
+import android.support.annotation.VisibleForTesting;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.android.internal.os.BatteryStatsHelper;
+import com.android.settings.Utils;
+import com.android.settingslib.utils.ThreadUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the last {@link BatteryUsageSnapshot} in memory and on disk, so the battery pages can show
+ * it right away while battery stats are loaded.
+ *
+ * A snapshot is dropped when it no longer describes the device:
+ * <ul>
+ * <li>the device was plugged or unplugged since it was saved.</li>
+ * <li>the battery level went up since it was saved, stats may have been reset by a charge.</li>
+ * <li>it was saved by another version of the snapshot format or of the platform.</li>
+ * </ul>
+ * Parts saved for other battery stats than the current snapshot, as after a stats reset, replace
+ * the whole snapshot.
+ */
+public class BatteryUsageSnapshotCache {
+
+    private static final String TAG = "BatteryUsageSnapshot";
+
+    @VisibleForTesting
+    static final String FILE_NAME = "battery_usage_snapshot";
+    /**
+     * Version of the file format, bump it whenever {@link BatteryUsageSnapshot} changes.
+     */
+    @VisibleForTesting
+    static final int VERSION = 1;
+
+    private static BatteryUsageSnapshotCache sInstance;
+
+    private final Object mLock = new Object();
+    private final AtomicFile mFile;
+    private final Executor mExecutor;
+
+    private BatteryUsageSnapshot mSnapshot;
+    private boolean mLoaded;
+    private int mGeneration;
+
+    public static synchronized BatteryUsageSnapshotCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new BatteryUsageSnapshotCache(
+                    new File(context.getApplicationContext().getCacheDir(), FILE_NAME),
+                    ThreadUtils::postOnBackgroundThread);
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    BatteryUsageSnapshotCache(File file, Executor executor) {
+        mFile = new AtomicFile(file);
+        mExecutor = executor;
+    }
+
+    /**
+     * @return the snapshot if it still describes the current battery state, null otherwise. The
+     * returned snapshot carries the current battery level.
+     * Reads the snapshot from disk the first time, which is small enough for the main thread.
+     */
+    public BatteryUsageSnapshot get(Context context) {
+        final Intent batteryBroadcast = getBatteryBroadcast(context);
+        if (batteryBroadcast == null) {
+            return null;
+        }
+        return get(isPlugged(batteryBroadcast), Utils.getBatteryLevel(batteryBroadcast));
+    }
+
+    @VisibleForTesting
+    BatteryUsageSnapshot get(boolean plugged, int batteryLevel) {
+        synchronized (mLock) {
+            if (!mLoaded) {
+                mSnapshot = readFromDisk();
+                mLoaded = true;
+            }
+            if (mSnapshot == null) {
+                return null;
+            }
+            if (mSnapshot.plugged != plugged
+                    || (!plugged && batteryLevel > mSnapshot.batteryLevel)) {
+                invalidateLocked();
+                return null;
+            }
+            final BatteryUsageSnapshot snapshot = new BatteryUsageSnapshot(mSnapshot);
+            snapshot.batteryLevel = batteryLevel;
+            return snapshot;
+        }
+    }
+
+    /**
+     * Saves the parts set by {@param editor}, computed from {@param statsHelper}.
+     */
+    public void update(Context context, BatteryStatsHelper statsHelper,
+            Consumer<BatteryUsageSnapshot> editor) {
+        final Intent batteryBroadcast = getBatteryBroadcast(context);
+        if (batteryBroadcast == null || statsHelper.getStats() == null) {
+            return;
+        }
+        update(statsHelper.getStats().getStartClockTime(), isPlugged(batteryBroadcast),
+                Utils.getBatteryLevel(batteryBroadcast), editor);
+    }
+
+    @VisibleForTesting
+    void update(long statsStartClockTime, boolean plugged, int batteryLevel,
+            Consumer<BatteryUsageSnapshot> editor) {
+        final byte[] bytes;
+        final int generation;
+        synchronized (mLock) {
+            final BatteryUsageSnapshot snapshot;
+            if (mSnapshot != null && mSnapshot.statsStartClockTime == statsStartClockTime
+                    && mSnapshot.plugged == plugged) {
+                snapshot = new BatteryUsageSnapshot(mSnapshot);
+                snapshot.batteryLevel = batteryLevel;
+            } else {
+                snapshot = new BatteryUsageSnapshot(statsStartClockTime, plugged, batteryLevel);
+            }
+            editor.accept(snapshot);
+            mSnapshot = snapshot;
+            mLoaded = true;
+            bytes = marshall(snapshot);
+            generation = ++mGeneration;
+        }
+        mExecutor.execute(() -> writeToDisk(bytes, generation));
+    }
+
+    /**
+     * Drops the snapshot, for example when the device is plugged or unplugged.
+     */
+    public void invalidate() {
+        synchronized (mLock) {
+            invalidateLocked();
+        }
+    }
+
+    private void invalidateLocked() {
+        mSnapshot = null;
+        mLoaded = true;
+        final int generation = ++mGeneration;
+        mExecutor.execute(() -> writeToDisk(null /* bytes */, generation));
+    }
+
+    private void writeToDisk(byte[] bytes, int generation) {
+        synchronized (mFile) {
+            synchronized (mLock) {
+                if (generation != mGeneration) {
+                    // A newer snapshot has been saved or dropped meanwhile.
+                    return;
+                }
+            }
+            if (bytes == null) {
+                mFile.delete();
+                return;
+            }
+            FileOutputStream out = null;
+            try {
+                out = mFile.startWrite();
+                out.write(bytes);
+                mFile.finishWrite(out);
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to write snapshot", e);
+                mFile.failWrite(out);
+            }
+        }
+    }
+
+    /**
+     * Called once, before anything is written: every write is queued after {@link #mLoaded} is
+     * set, so no write can race with this read.
+     */
+    private BatteryUsageSnapshot readFromDisk() {
+        if (!mFile.exists()) {
+            return null;
+        }
+        final Parcel parcel = Parcel.obtain();
+        try {
+            final byte[] bytes = mFile.readFully();
+            parcel.unmarshall(bytes, 0, bytes.length);
+            parcel.setDataPosition(0);
+            if (parcel.readInt() != VERSION
+                    || !Objects.equals(parcel.readString(), Build.FINGERPRINT)) {
+                // Parcels are only readable by the same code that wrote them.
+                mFile.delete();
+                return null;
+            }
+            return new BatteryUsageSnapshot(parcel);
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Failed to read snapshot", e);
+            mFile.delete();
+            return null;
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static byte[] marshall(BatteryUsageSnapshot snapshot) {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeInt(VERSION);
+            parcel.writeString(Build.FINGERPRINT);
+            snapshot.writeToParcel(parcel);
+            return parcel.marshall();
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static Intent getBatteryBroadcast(Context context) {
+        return context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+    }
+
+    private static boolean isPlugged(Intent batteryBroadcast) {
+        return batteryBroadcast.getIntExtra(BatteryManager.EXTRA_PLUGGED, -1) != 0;
+    }
+}
@@ -66,6 +66,7 @@ public class PowerUsageAdvanced extends PowerUsageBase {
         // init the summary so other preferences won't have unnecessary move
         updateHistPrefSummary(context);
         restoreSavedInstance(icicle);
+        restoreFromSnapshot();
     }
 
     @Override
@@ -148,6 +149,32 @@ public class PowerUsageAdvanced extends PowerUsageBase {
         updateHistPrefSummary(context);
 
         mBatteryAppListPreferenceController.refreshAppListGroup(mStatsHelper, mShowAllApps);
+        saveSnapshot();
+    }
+
+    /**
+     * Shows the app list saved by the last visit while battery stats are loaded.
+     */
+    @VisibleForTesting
+    void restoreFromSnapshot() {
+        final BatteryUsageSnapshot snapshot = mSnapshotCache.get(getContext());
+        if (snapshot != null && snapshot.appUsages != null
+                && snapshot.showAllApps == mShowAllApps) {
+            mBatteryAppListPreferenceController.refreshAppListGroup(snapshot.appUsages);
+        }
+    }
+
+    private void saveSnapshot() {
+        final List<BatteryUsageSnapshot.AppUsage> appUsages =
+                mBatteryAppListPreferenceController.getAppUsages();
+        if (appUsages == null) {
+            return;
+        }
+        final boolean showAllApps = mShowAllApps;
+        mSnapshotCache.update(getContext(), mStatsHelper, snapshot -> {
+            snapshot.appUsages = appUsages;
+            snapshot.showAllApps = showAllApps;
+        });
     }
 
     private void updateHistPrefSummary(Context context) {
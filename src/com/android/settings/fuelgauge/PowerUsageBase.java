@@ -42,6 +42,7 @@ public abstract class PowerUsageBase extends DashboardFragment {
 
     protected BatteryStatsHelper mStatsHelper;
     protected UserManager mUm;
+    protected BatteryUsageSnapshotCache mSnapshotCache;
     private BatteryBroadcastReceiver mBatteryBroadcastReceiver;
 
     @Override
@@ -49,6 +50,7 @@ public abstract class PowerUsageBase extends DashboardFragment {
         super.onAttach(activity);
         mUm = (UserManager) activity.getSystemService(Context.USER_SERVICE);
         mStatsHelper = new BatteryStatsHelper(activity, true);
+        mSnapshotCache = BatteryUsageSnapshotCache.getInstance(activity);
     }
 
     @Override
@@ -59,6 +61,10 @@ public abstract class PowerUsageBase extends DashboardFragment {
 
         mBatteryBroadcastReceiver = new BatteryBroadcastReceiver(getContext());
         mBatteryBroadcastReceiver.setBatteryChangedListener(type -> {
+            if (type == BatteryUpdateType.BATTERY_STATUS) {
+                // Plugged or unplugged, usage saved so far no longer matches the stats.
+                mSnapshotCache.invalidate();
+            }
             restartBatteryStatsLoader(type);
         });
     }
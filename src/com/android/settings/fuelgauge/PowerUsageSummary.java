@@ -112,6 +112,15 @@ public class PowerUsageSummary extends PowerUsageBase implements OnLongClickList
     boolean mNeedUpdateBatteryTip;
     @VisibleForTesting
     BatteryTipPreferenceController mBatteryTipPreferenceController;
+    /**
+     * True while the header shows the snapshot of the last visit.
+     */
+    @VisibleForTesting
+    boolean mHeaderRestored;
+    /**
+     * Screen usage of the loaded battery stats, or -1 until they are loaded.
+     */
+    private long mScreenUsageTimeMs = -1;
     private int mStatsType = BatteryStats.STATS_SINCE_CHARGED;
 
     @VisibleForTesting
@@ -127,7 +136,9 @@ public class PowerUsageSummary extends PowerUsageBase implements OnLongClickList
                 public void onLoadFinished(Loader<BatteryInfo> loader, BatteryInfo batteryInfo) {
                     mBatteryHeaderPreferenceController.updateHeaderPreference(batteryInfo);
                     mBatteryInfo = batteryInfo;
+                    mHeaderRestored = false;
                     updateLastFullChargePreference();
+                    saveHeaderSnapshot(batteryInfo);
                 }
 
                 @Override
@@ -193,6 +204,8 @@ public class PowerUsageSummary extends PowerUsageBase implements OnLongClickList
                 public void onLoadFinished(Loader<List<BatteryTip>> loader,
                         List<BatteryTip> data) {
                     mBatteryTipPreferenceController.updateBatteryTips(data);
+                    mSnapshotCache.update(getContext(), mStatsHelper,
+                            snapshot -> snapshot.tips = new ArrayList<>(data));
                 }
 
                 @Override
@@ -216,6 +229,7 @@ public class PowerUsageSummary extends PowerUsageBase implements OnLongClickList
         mBatteryUtils = BatteryUtils.getInstance(getContext());
         mAnomalySparseArray = new SparseArray<>();
 
+        restoreFromSnapshot(icicle);
         restartBatteryInfoLoader();
         mBatteryTipPreferenceController.restoreInstanceState(icicle);
         updateBatteryTipFlag(icicle);
@@ -310,8 +324,44 @@ public class PowerUsageSummary extends PowerUsageBase implements OnLongClickList
         // reload BatteryInfo and updateUI
         restartBatteryInfoLoader();
         updateLastFullChargePreference();
+        mScreenUsageTimeMs = mBatteryUtils.calculateScreenUsageTime(mStatsHelper);
         mScreenUsagePref.setSubtitle(StringUtil.formatElapsedTime(getContext(),
-                mBatteryUtils.calculateScreenUsageTime(mStatsHelper), false));
+                mScreenUsageTimeMs, false));
+    }
+
+    /**
+     * Shows the header, usage summary and tips saved by the last visit while battery stats are
+     * loaded. Tips are only restored when they were not saved in {@param icicle}.
+     */
+    @VisibleForTesting
+    void restoreFromSnapshot(Bundle icicle) {
+        final BatteryUsageSnapshot snapshot = mSnapshotCache.get(getContext());
+        if (snapshot == null) {
+            return;
+        }
+        if (snapshot.header != null) {
+            final BatteryUsageSnapshot.Header header = snapshot.header;
+            mBatteryHeaderPreferenceController.updateHeaderPreference(
+                    header.toBatteryInfo(snapshot.batteryLevel));
+            mScreenUsagePref.setSubtitle(StringUtil.formatElapsedTime(getContext(),
+                    header.screenUsageTimeMs, false));
+            updateLastFullChargePreference(header.averageTimeToDischarge,
+                    System.currentTimeMillis() - snapshot.statsStartClockTime);
+            mHeaderRestored = true;
+        }
+        if (snapshot.tips != null && icicle == null) {
+            mBatteryTipPreferenceController.updateBatteryTips(snapshot.tips);
+        }
+    }
+
+    private void saveHeaderSnapshot(BatteryInfo batteryInfo) {
+        if (mScreenUsageTimeMs < 0) {
+            // Loaded from the initial stats helper, before battery stats were refreshed.
+            return;
+        }
+        final long screenUsageTimeMs = mScreenUsageTimeMs;
+        mSnapshotCache.update(getContext(), mStatsHelper, snapshot ->
+                snapshot.header = new BatteryUsageSnapshot.Header(batteryInfo, screenUsageTimeMs));
     }
 
     @VisibleForTesting
@@ -333,13 +383,23 @@ public class PowerUsageSummary extends PowerUsageBase implements OnLongClickList
     void updateLastFullChargePreference() {
         if (mBatteryInfo != null && mBatteryInfo.averageTimeToDischarge
                 != Estimate.AVERAGE_TIME_TO_DISCHARGE_UNKNOWN) {
+            updateLastFullChargePreference(mBatteryInfo.averageTimeToDischarge,
+                    0 /* lastFullChargeTime */);
+        } else {
+            updateLastFullChargePreference(Estimate.AVERAGE_TIME_TO_DISCHARGE_UNKNOWN,
+                    mBatteryUtils.calculateLastFullChargeTime(mStatsHelper,
+                            System.currentTimeMillis()));
+        }
+    }
+
+    private void updateLastFullChargePreference(long averageTimeToDischarge,
+            long lastFullChargeTime) {
+        if (averageTimeToDischarge != Estimate.AVERAGE_TIME_TO_DISCHARGE_UNKNOWN) {
             mLastFullChargePref.setTitle(R.string.battery_full_charge_last);
             mLastFullChargePref.setSubtitle(
-                    StringUtil.formatElapsedTime(getContext(), mBatteryInfo.averageTimeToDischarge,
+                    StringUtil.formatElapsedTime(getContext(), averageTimeToDischarge,
                             false /* withSeconds */));
         } else {
-            final long lastFullChargeTime = mBatteryUtils.calculateLastFullChargeTime(mStatsHelper,
-                    System.currentTimeMillis());
             mLastFullChargePref.setTitle(R.string.battery_last_full_charge);
             mLastFullChargePref.setSubtitle(
                     StringUtil.formatRelativeTime(getContext(), lastFullChargeTime,
@@ -402,7 +462,10 @@ public class PowerUsageSummary extends PowerUsageBase implements OnLongClickList
     @Override
     protected void restartBatteryStatsLoader(@BatteryUpdateType int refreshType) {
         super.restartBatteryStatsLoader(refreshType);
-        mBatteryHeaderPreferenceController.quickUpdateHeaderPreference();
+        if (!mHeaderRestored || refreshType != BatteryUpdateType.MANUAL) {
+            // Keep the restored summaries until BatteryInfo is loaded instead of clearing them.
+            mBatteryHeaderPreferenceController.quickUpdateHeaderPreference();
+        }
     }
 
     @Override
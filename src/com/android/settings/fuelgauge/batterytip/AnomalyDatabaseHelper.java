@@ -34,7 +34,11 @@ public class AnomalyDatabaseHelper extends SQLiteOpenHelper {
     private static final String TAG = "BatteryDatabaseHelper";
 
     private static final String DATABASE_NAME = "battery_settings.db";
-    private static final int DATABASE_VERSION = 4;
+    private static final int DATABASE_VERSION = 5;
+    /**
+     * The last version whose table can be kept, only missing the indices.
+     */
+    private static final int DATABASE_VERSION_WITHOUT_INDICES = 4;
 
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({State.NEW,
@@ -92,6 +96,21 @@ public class AnomalyDatabaseHelper extends SQLiteOpenHelper {
                     + AnomalyColumns.ANOMALY_STATE + "," + AnomalyColumns.TIME_STAMP_MS + ")"
                     + ")";
 
+    /**
+     * Serves {@link BatteryDatabaseManager#queryAllAnomalies}, which filters by state and time.
+     */
+    private static final String CREATE_STATE_TIME_INDEX =
+            "CREATE INDEX IF NOT EXISTS anomaly_state_time_index ON " + Tables.TABLE_ANOMALY
+                    + "(" + AnomalyColumns.ANOMALY_STATE + "," + AnomalyColumns.TIME_STAMP_MS
+                    + ")";
+
+    /**
+     * Serves {@link BatteryDatabaseManager#deleteAllAnomaliesBeforeTimeStamp}.
+     */
+    private static final String CREATE_TIME_INDEX =
+            "CREATE INDEX IF NOT EXISTS anomaly_time_index ON " + Tables.TABLE_ANOMALY
+                    + "(" + AnomalyColumns.TIME_STAMP_MS + ")";
+
     private static AnomalyDatabaseHelper sSingleton;
 
     public static synchronized AnomalyDatabaseHelper getInstance(Context context) {
@@ -103,6 +122,8 @@ public class AnomalyDatabaseHelper extends SQLiteOpenHelper {
 
     private AnomalyDatabaseHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        // Lets anomalies be read while the detection job writes a burst of them.
+        setWriteAheadLoggingEnabled(true);
     }
 
     @Override
@@ -112,12 +133,21 @@ public class AnomalyDatabaseHelper extends SQLiteOpenHelper {
 
     private void bootstrapDB(SQLiteDatabase db) {
         db.execSQL(CREATE_ANOMALY_TABLE);
+        createIndices(db);
         Log.i(TAG, "Bootstrapped database");
     }
 
+    private void createIndices(SQLiteDatabase db) {
+        db.execSQL(CREATE_STATE_TIME_INDEX);
+        db.execSQL(CREATE_TIME_INDEX);
+    }
+
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        if (oldVersion < DATABASE_VERSION) {
+        if (oldVersion == DATABASE_VERSION_WITHOUT_INDICES) {
+            Log.i(TAG, "Adding indices for schema version '" + newVersion + "'.");
+            createIndices(db);
+        } else if (oldVersion < DATABASE_VERSION) {
             Log.w(TAG, "Detected schema version '" + oldVersion + "'. " +
                     "Index needs to be rebuilt for schema version '" + newVersion + "'.");
             // We need to drop the tables and recreate them
@@ -103,13 +103,31 @@ public class AnomalyDetectionJobService extends JobService {
             final MetricsFeatureProvider metricsFeatureProvider = FeatureFactory
                     .getFactory(this).getMetricsFeatureProvider();
 
+            // Anomalies often come in bursts: check all pending ones first, then save the ones to
+            // keep with a single insert, so the database is not held while checking them.
+            final List<JobWorkItem> items = new ArrayList<>();
+            final List<BatteryDatabaseManager.AnomalyRecord> records = new ArrayList<>();
             for (JobWorkItem item = dequeueWork(params); item != null; item = dequeueWork(params)) {
-                saveAnomalyToDatabase(context, userManager,
-                        batteryDatabaseManager, batteryUtils, policy, powerWhitelistBackend,
-                        contentResolver, powerUsageFeatureProvider, metricsFeatureProvider,
-                        item.getIntent().getExtras());
-
-                completeWork(params, item);
+                items.add(item);
+                try {
+                    final BatteryDatabaseManager.AnomalyRecord record = createAnomalyRecord(
+                            context, userManager, batteryUtils, policy, powerWhitelistBackend,
+                            contentResolver, powerUsageFeatureProvider, metricsFeatureProvider,
+                            item.getIntent().getExtras());
+                    if (record != null) {
+                        records.add(record);
+                    }
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Failed to check anomaly, dropping it.", e);
+                }
+            }
+            try {
+                batteryDatabaseManager.insertAnomalies(records);
+            } finally {
+                // Complete every item even if saving failed, so a burst is not redelivered forever.
+                for (int i = 0, size = items.size(); i < size; i++) {
+                    completeWork(params, items.get(i));
+                }
             }
         });
 
@@ -124,9 +142,14 @@ public class AnomalyDetectionJobService extends JobService {
         return true; // Need to reschedule
     }
 
+    /**
+     * Checks the anomaly in {@code bundle}, auto restricting the app if needed.
+     *
+     * @return the record to save for it, or {@code null} if it should not be saved
+     */
     @VisibleForTesting
-    void saveAnomalyToDatabase(Context context, UserManager userManager,
-            BatteryDatabaseManager databaseManager, BatteryUtils batteryUtils,
+    BatteryDatabaseManager.AnomalyRecord createAnomalyRecord(Context context,
+            UserManager userManager, BatteryUtils batteryUtils,
             BatteryTipPolicy policy, PowerWhitelistBackend powerWhitelistBackend,
             ContentResolver contentResolver, PowerUsageFeatureProvider powerUsageFeatureProvider,
             MetricsFeatureProvider metricsFeatureProvider, Bundle bundle) {
@@ -159,30 +182,30 @@ public class AnomalyDetectionJobService extends JobService {
                                 anomalyInfo.anomalyType),
                         Pair.create(MetricsProto.MetricsEvent.FIELD_APP_VERSION_CODE,
                                 versionCode));
-            } else {
-                if (autoFeatureOn && anomalyInfo.autoRestriction) {
-                    // Auto restrict this app
-                    batteryUtils.setForceAppStandby(uid, packageName,
-                            AppOpsManager.MODE_IGNORED);
-                    databaseManager.insertAnomaly(uid, packageName, anomalyInfo.anomalyType,
-                            AnomalyDatabaseHelper.State.AUTO_HANDLED,
-                            timeMs);
-                } else {
-                    databaseManager.insertAnomaly(uid, packageName, anomalyInfo.anomalyType,
-                            AnomalyDatabaseHelper.State.NEW,
-                            timeMs);
-                }
-                metricsFeatureProvider.action(context,
-                        MetricsProto.MetricsEvent.ACTION_ANOMALY_TRIGGERED,
-                        packageName,
-                        Pair.create(MetricsProto.MetricsEvent.FIELD_ANOMALY_TYPE,
-                                anomalyInfo.anomalyType),
-                        Pair.create(MetricsProto.MetricsEvent.FIELD_APP_VERSION_CODE,
-                                versionCode));
+                return null;
             }
 
+            final int state;
+            if (autoFeatureOn && anomalyInfo.autoRestriction) {
+                // Auto restrict this app
+                batteryUtils.setForceAppStandby(uid, packageName,
+                        AppOpsManager.MODE_IGNORED);
+                state = AnomalyDatabaseHelper.State.AUTO_HANDLED;
+            } else {
+                state = AnomalyDatabaseHelper.State.NEW;
+            }
+            metricsFeatureProvider.action(context,
+                    MetricsProto.MetricsEvent.ACTION_ANOMALY_TRIGGERED,
+                    packageName,
+                    Pair.create(MetricsProto.MetricsEvent.FIELD_ANOMALY_TYPE,
+                            anomalyInfo.anomalyType),
+                    Pair.create(MetricsProto.MetricsEvent.FIELD_APP_VERSION_CODE,
+                            versionCode));
+            return new BatteryDatabaseManager.AnomalyRecord(uid, packageName,
+                    anomalyInfo.anomalyType, state, timeMs);
         } catch (NullPointerException | IndexOutOfBoundsException e) {
             Log.e(TAG, "Parse stats dimensions value error.", e);
+            return null;
         }
     }
 
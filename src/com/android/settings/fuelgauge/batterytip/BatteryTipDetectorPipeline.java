@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge.batterytip;
+
+import android.os.SystemClock;
+import android.support.annotation.VisibleForTesting;
+import android.util.ArrayMap;
+import android.util.Log;
+
+import com.android.settings.fuelgauge.batterytip.BatteryTipInputs.Input;
+import com.android.settings.fuelgauge.batterytip.detectors.BatteryTipDetector;
+import com.android.settings.fuelgauge.batterytip.tips.BatteryTip;
+import com.android.settings.utils.BackgroundThreadPool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Runs {@link BatteryTipDetector}s concurrently and collects their tips in the order the
+ * detectors were added.
+ *
+ * Each detector declares the {@link Input}s it needs; all declared inputs are computed once,
+ * concurrently, as soon as {@link #run()} starts. A detector added with a budget is given up on
+ * once the budget has passed since the start of {@link #run()}, and its fallback tip is used
+ * instead, so one slow detector does not hold back the whole tips card. Such a detector must only
+ * read the shared {@link com.android.internal.os.BatteryStatsHelper} through its inputs, since it
+ * may keep running after {@link #run()} returned.
+ */
+public class BatteryTipDetectorPipeline {
+
+    private static final String TAG = "BatteryTipPipeline";
+    private static final boolean DEBUG = false;
+
+    /**
+     * Creates a detector once the pipeline runs, from the inputs it declared.
+     */
+    public interface DetectorFactory {
+        BatteryTipDetector create(BatteryTipInputs inputs);
+    }
+
+    private final BatteryTipInputs mInputs;
+    private final ExecutorService mExecutor;
+    private final List<Stage> mStages = new ArrayList<>();
+    private final Map<String, Long> mTimingsMs = new ArrayMap<>();
+
+    public BatteryTipDetectorPipeline(BatteryTipInputs inputs) {
+        this(inputs, BackgroundThreadPool.get());
+    }
+
+    @VisibleForTesting
+    BatteryTipDetectorPipeline(BatteryTipInputs inputs, ExecutorService executor) {
+        mInputs = inputs;
+        mExecutor = executor;
+    }
+
+    /**
+     * Adds a detector which is always waited for.
+     */
+    public BatteryTipDetectorPipeline addDetector(String name, @Input int inputs,
+            DetectorFactory factory) {
+        mStages.add(new Stage(name, inputs, 0 /* budgetMs */, factory, null /* fallback */));
+        return this;
+    }
+
+    /**
+     * Adds a detector which is waited for at most {@param budgetMs}, after which the tip of
+     * {@param fallback} is used instead.
+     */
+    public BatteryTipDetectorPipeline addDetector(String name, @Input int inputs, long budgetMs,
+            DetectorFactory factory, Supplier<BatteryTip> fallback) {
+        mStages.add(new Stage(name, inputs, budgetMs, factory, fallback));
+        return this;
+    }
+
+    /**
+     * Runs all detectors, blocking until each of them finished or ran out of budget.
+     *
+     * @return one tip per detector, in the order they were added.
+     */
+    public List<BatteryTip> run() {
+        final long startTime = SystemClock.elapsedRealtime();
+        int inputs = 0;
+        for (Stage stage : mStages) {
+            inputs |= stage.inputs;
+        }
+        mInputs.prefetch(inputs, mExecutor);
+
+        final List<Future<BatteryTip>> futures = new ArrayList<>(mStages.size());
+        for (Stage stage : mStages) {
+            futures.add(mExecutor.submit(() -> detect(stage)));
+        }
+        final List<BatteryTip> tips = new ArrayList<>(mStages.size());
+        for (int i = 0, size = mStages.size(); i < size; i++) {
+            tips.add(await(mStages.get(i), futures.get(i), startTime));
+        }
+        // Detectors given up on may still run, but only on copies of the stats; the inputs read
+        // from the shared BatteryStatsHelper must be done before the next load reads it.
+        mInputs.awaitStatsInputs();
+        return tips;
+    }
+
+    /**
+     * @return how long each detector that finished took, in milliseconds, including waiting for
+     * its inputs.
+     */
+    public Map<String, Long> getTimingsMs() {
+        synchronized (mTimingsMs) {
+            return new ArrayMap<>(mTimingsMs);
+        }
+    }
+
+    private BatteryTip detect(Stage stage) {
+        final long startTime = SystemClock.elapsedRealtime();
+        final BatteryTip tip = stage.factory.create(mInputs).detect();
+        final long elapsedMs = SystemClock.elapsedRealtime() - startTime;
+        synchronized (mTimingsMs) {
+            mTimingsMs.put(stage.name, elapsedMs);
+        }
+        if (DEBUG) {
+            Log.d(TAG, stage.name + ": " + elapsedMs + "ms");
+        }
+        return tip;
+    }
+
+    private BatteryTip await(Stage stage, Future<BatteryTip> future, long startTime) {
+        try {
+            if (stage.fallback == null) {
+                return future.get();
+            }
+            final long remainingMs =
+                    stage.budgetMs - (SystemClock.elapsedRealtime() - startTime);
+            return future.get(Math.max(0, remainingMs), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            Log.w(TAG, stage.name + " did not finish within " + stage.budgetMs + "ms");
+            future.cancel(true /* mayInterruptIfRunning */);
+        } catch (ExecutionException e) {
+            if (stage.fallback == null) {
+                throw new IllegalStateException(stage.name + " failed", e.getCause());
+            }
+            Log.w(TAG, stage.name + " failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (stage.fallback == null) {
+                throw new IllegalStateException("Interrupted while waiting for " + stage.name, e);
+            }
+        }
+        return stage.fallback.get();
+    }
+
+    private static class Stage {
+        final String name;
+        final int inputs;
+        final long budgetMs;
+        final DetectorFactory factory;
+        final Supplier<BatteryTip> fallback;
+
+        Stage(String name, int inputs, long budgetMs, DetectorFactory factory,
+                Supplier<BatteryTip> fallback) {
+            this.name = name;
+            this.inputs = inputs;
+            this.budgetMs = budgetMs;
+            this.factory = factory;
+            this.fallback = fallback;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge.batterytip;
+
+import android.support.annotation.IntDef;
+import android.text.format.DateUtils;
+
+import com.android.internal.os.BatteryStatsHelper;
+import com.android.settings.fuelgauge.BatteryHistorySnapshot;
+import com.android.settings.fuelgauge.BatteryInfo;
+import com.android.settings.fuelgauge.BatteryUtils;
+import com.android.settings.fuelgauge.batterytip.detectors.HighUsageDetector;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Inputs shared by the {@link com.android.settings.fuelgauge.batterytip.detectors
+ * .BatteryTipDetector}s of one {@link BatteryTipLoader} run.
+ *
+ * Each input is computed at most once, by the first thread asking for it or by
+ * {@link #prefetch(int, Executor)}; other threads asking meanwhile wait for that computation.
+ */
+public class BatteryTipInputs {
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef(flag = true, value = {Input.BATTERY_INFO, Input.BATTERY_HISTORY, Input.ANOMALIES,
+            Input.APP_USAGE})
+    public @interface Input {
+        int BATTERY_INFO = 1;
+        int ANOMALIES = 1 << 1;
+        int BATTERY_HISTORY = 1 << 2;
+        int APP_USAGE = 1 << 3;
+    }
+
+    private final FutureTask<BatteryInfo> mBatteryInfo;
+    private final FutureTask<BatteryHistorySnapshot> mBatteryHistory;
+    private final FutureTask<Long> mLastFullChargeTime;
+    private final FutureTask<List<AppInfo>> mForegroundApps;
+    private final FutureTask<List<AppInfo>> mNewAnomalies;
+    private final FutureTask<List<AppInfo>> mAutoHandledAnomalies;
+
+    public BatteryTipInputs(BatteryStatsHelper batteryStatsHelper, BatteryUtils batteryUtils,
+            BatteryDatabaseManager batteryDatabaseManager, String tag) {
+        // TODO(b/72385333): hook up the query timestamp to server side
+        final long oneDayBeforeMs = System.currentTimeMillis() - DateUtils.DAY_IN_MILLIS;
+        mBatteryInfo = new FutureTask<>(
+                () -> batteryUtils.getBatteryInfo(batteryStatsHelper, tag));
+        mBatteryHistory = new FutureTask<>(() -> get(mBatteryInfo).getHistory());
+        mLastFullChargeTime = new FutureTask<>(() -> batteryUtils.calculateLastFullChargeTime(
+                batteryStatsHelper, System.currentTimeMillis()));
+        mForegroundApps = new FutureTask<>(
+                () -> HighUsageDetector.queryForegroundApps(batteryUtils, batteryStatsHelper));
+        mNewAnomalies = new FutureTask<>(() -> batteryDatabaseManager.queryAllAnomalies(
+                oneDayBeforeMs, AnomalyDatabaseHelper.State.NEW));
+        mAutoHandledAnomalies = new FutureTask<>(() -> batteryDatabaseManager.queryAllAnomalies(
+                oneDayBeforeMs, AnomalyDatabaseHelper.State.AUTO_HANDLED));
+    }
+
+    /**
+     * Starts computing {@param inputs} on {@param executor}.
+     */
+    public void prefetch(@Input int inputs, Executor executor) {
+        if ((inputs & (Input.BATTERY_INFO | Input.BATTERY_HISTORY)) != 0) {
+            executor.execute(mBatteryInfo);
+        }
+        if ((inputs & Input.BATTERY_HISTORY) != 0) {
+            executor.execute(mBatteryHistory);
+        }
+        if ((inputs & Input.APP_USAGE) != 0) {
+            // Apps used in the foreground are only needed once the device is heavily used, so
+            // they are left to be computed on demand.
+            executor.execute(mLastFullChargeTime);
+        }
+        if ((inputs & Input.ANOMALIES) != 0) {
+            executor.execute(mNewAnomalies);
+            executor.execute(mAutoHandledAnomalies);
+        }
+    }
+
+    public BatteryInfo getBatteryInfo() {
+        return get(mBatteryInfo);
+    }
+
+    /**
+     * @return the battery history, decoded from the stats once so that detectors do not iterate
+     * the shared stats themselves.
+     */
+    public BatteryHistorySnapshot getBatteryHistory() {
+        return get(mBatteryHistory);
+    }
+
+    public long getLastFullChargeTime() {
+        return get(mLastFullChargeTime);
+    }
+
+    /**
+     * @return a copy of the apps used in the foreground for at least a minute since the last full
+     * charge, which can be modified.
+     */
+    public List<AppInfo> getForegroundApps() {
+        return new ArrayList<>(get(mForegroundApps));
+    }
+
+    /**
+     * Blocks until the inputs read from the {@link BatteryStatsHelper} which already started are
+     * done.
+     */
+    public void awaitStatsInputs() {
+        await(mBatteryInfo);
+        await(mBatteryHistory);
+        await(mLastFullChargeTime);
+        await(mForegroundApps);
+    }
+
+    /**
+     * @return a copy of the anomalies of the last day in {@param state}, which can be modified.
+     */
+    public List<AppInfo> getRecentAnomalies(@AnomalyDatabaseHelper.State int state) {
+        switch (state) {
+            case AnomalyDatabaseHelper.State.NEW:
+                return new ArrayList<>(get(mNewAnomalies));
+            case AnomalyDatabaseHelper.State.AUTO_HANDLED:
+                return new ArrayList<>(get(mAutoHandledAnomalies));
+            default:
+                throw new IllegalArgumentException("Anomaly state not prefetched: " + state);
+        }
+    }
+
+    private static void await(FutureTask<?> task) {
+        // Make sure a task which did not start yet never will, rather than waiting for it.
+        if (task.cancel(false /* mayInterruptIfRunning */)) {
+            return;
+        }
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | CancellationException e) {
+            // Reported to whoever asked for the input.
+        }
+    }
+
+    private static <T> T get(FutureTask<T> task) {
+        // No-op if the task already ran or is running on another thread.
+        task.run();
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while computing battery tip input", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to compute battery tip input", e.getCause());
+        }
+    }
+}
@@ -20,9 +20,9 @@ import android.content.Context;
 import android.support.annotation.VisibleForTesting;
 
 import com.android.internal.os.BatteryStatsHelper;
-import com.android.settings.fuelgauge.BatteryInfo;
 import com.android.settings.fuelgauge.BatteryUtils;
 import com.android.settings.fuelgauge.Estimate;
+import com.android.settings.fuelgauge.batterytip.BatteryTipInputs.Input;
 import com.android.settings.fuelgauge.batterytip.detectors.EarlyWarningDetector;
 import com.android.settings.fuelgauge.batterytip.detectors.HighUsageDetector;
 import com.android.settings.fuelgauge.batterytip.detectors.LowBatteryDetector;
@@ -30,7 +30,9 @@ import com.android.settings.fuelgauge.batterytip.detectors.SmartBatteryDetector;
 import com.android.settings.fuelgauge.batterytip.detectors.RestrictAppDetector;
 import com.android.settings.fuelgauge.batterytip.detectors.SummaryDetector;
 import com.android.settings.fuelgauge.batterytip.tips.BatteryTip;
+import com.android.settings.fuelgauge.batterytip.tips.HighUsageTip;
 import com.android.settings.fuelgauge.batterytip.tips.LowBatteryTip;
+import com.android.settings.fuelgauge.batterytip.tips.RestrictAppTip;
 import com.android.settings.fuelgauge.batterytip.tips.SummaryTip;
 import com.android.settingslib.utils.AsyncLoader;
 
@@ -47,6 +49,13 @@ public class BatteryTipLoader extends AsyncLoader<List<BatteryTip>> {
 
     private static final boolean USE_FAKE_DATA = false;
 
+    /**
+     * Time detectors reading battery history or the anomaly database are waited for, after which
+     * their tip is hidden for this load.
+     */
+    @VisibleForTesting
+    static final long DETECTOR_BUDGET_MS = 500;
+
     private BatteryStatsHelper mBatteryStatsHelper;
     @VisibleForTesting
     BatteryUtils mBatteryUtils;
@@ -62,18 +71,32 @@ public class BatteryTipLoader extends AsyncLoader<List<BatteryTip>> {
         if (USE_FAKE_DATA) {
             return getFakeData();
         }
-        final List<BatteryTip> tips = new ArrayList<>();
-        final BatteryTipPolicy policy = new BatteryTipPolicy(getContext());
-        final BatteryInfo batteryInfo = mBatteryUtils.getBatteryInfo(mBatteryStatsHelper, TAG);
         final Context context = getContext();
+        final BatteryTipPolicy policy = new BatteryTipPolicy(context);
+        final BatteryTipInputs inputs = new BatteryTipInputs(mBatteryStatsHelper, mBatteryUtils,
+                BatteryDatabaseManager.getInstance(context), TAG);
 
-        tips.add(new LowBatteryDetector(context, policy, batteryInfo).detect());
-        tips.add(new HighUsageDetector(context, policy, mBatteryStatsHelper,
-                batteryInfo.discharging).detect());
-        tips.add(new SmartBatteryDetector(policy, context.getContentResolver()).detect());
-        tips.add(new EarlyWarningDetector(policy, context).detect());
-        tips.add(new SummaryDetector(policy, batteryInfo.averageTimeToDischarge).detect());
-        tips.add(new RestrictAppDetector(context, policy).detect());
+        final List<BatteryTip> tips = new BatteryTipDetectorPipeline(inputs)
+                .addDetector("LowBatteryDetector", Input.BATTERY_INFO,
+                        in -> new LowBatteryDetector(context, policy, in.getBatteryInfo()))
+                .addDetector("HighUsageDetector",
+                        Input.BATTERY_INFO | Input.BATTERY_HISTORY | Input.APP_USAGE,
+                        DETECTOR_BUDGET_MS,
+                        in -> new HighUsageDetector(context, policy, in),
+                        // Invisible without apps, the last full charge time is never shown.
+                        () -> new HighUsageTip(0 /* lastFullChargeTimeMs */, new ArrayList<>()))
+                .addDetector("SmartBatteryDetector", 0 /* inputs */,
+                        in -> new SmartBatteryDetector(policy, context.getContentResolver()))
+                .addDetector("EarlyWarningDetector", 0 /* inputs */,
+                        in -> new EarlyWarningDetector(policy, context))
+                .addDetector("SummaryDetector", Input.BATTERY_INFO,
+                        in -> new SummaryDetector(policy,
+                                in.getBatteryInfo().averageTimeToDischarge))
+                .addDetector("RestrictAppDetector", Input.ANOMALIES, DETECTOR_BUDGET_MS,
+                        in -> new RestrictAppDetector(context, policy, in),
+                        () -> new RestrictAppTip(BatteryTip.StateType.INVISIBLE,
+                                new ArrayList<>()))
+                .run();
 
         Collections.sort(tips);
         return tips;
@@ -24,6 +24,7 @@ import android.text.format.DateUtils;
 import com.android.internal.os.BatterySipper;
 import com.android.internal.os.BatteryStatsHelper;
 import com.android.settings.fuelgauge.BatteryUtils;
+import com.android.settings.fuelgauge.batterytip.BatteryTipInputs;
 import com.android.settings.fuelgauge.batterytip.BatteryTipPolicy;
 import com.android.settings.fuelgauge.batterytip.AppInfo;
 import com.android.settings.fuelgauge.BatteryInfo;
@@ -43,6 +44,7 @@ import java.util.concurrent.TimeUnit;
 public class HighUsageDetector implements BatteryTipDetector {
     private BatteryTipPolicy mPolicy;
     private BatteryStatsHelper mBatteryStatsHelper;
+    private BatteryTipInputs mInputs;
     private List<AppInfo> mHighUsageAppList;
     @VisibleForTesting
     HighUsageDataParser mDataParser;
@@ -62,30 +64,29 @@ public class HighUsageDetector implements BatteryTipDetector {
         mDischarging = discharging;
     }
 
+    /**
+     * Creates a detector which reads the battery history and app usage from {@param inputs}
+     * instead of the shared {@link BatteryStatsHelper}.
+     */
+    public HighUsageDetector(Context context, BatteryTipPolicy policy,
+            BatteryTipInputs inputs) {
+        this(context, policy, null /* batteryStatsHelper */,
+                inputs.getBatteryInfo().discharging);
+        mInputs = inputs;
+    }
+
     @Override
     public BatteryTip detect() {
-        final long lastFullChargeTimeMs = mBatteryUtils.calculateLastFullChargeTime(
-                mBatteryStatsHelper, System.currentTimeMillis());
+        final long lastFullChargeTimeMs = mInputs != null
+                ? mInputs.getLastFullChargeTime()
+                : mBatteryUtils.calculateLastFullChargeTime(mBatteryStatsHelper,
+                        System.currentTimeMillis());
         if (mPolicy.highUsageEnabled && mDischarging) {
             parseBatteryData();
             if (mDataParser.isDeviceHeavilyUsed() || mPolicy.testHighUsageTip) {
-                final List<BatterySipper> batterySippers = mBatteryStatsHelper.getUsageList();
-                for (int i = 0, size = batterySippers.size(); i < size; i++) {
-                    final BatterySipper batterySipper = batterySippers.get(i);
-                    if (!mBatteryUtils.shouldHideSipper(batterySipper)) {
-                        final long foregroundTimeMs = mBatteryUtils.getProcessTimeMs(
-                                BatteryUtils.StatusType.FOREGROUND, batterySipper.uidObj,
-                                BatteryStats.STATS_SINCE_CHARGED);
-                        if (foregroundTimeMs >= DateUtils.MINUTE_IN_MILLIS) {
-                            mHighUsageAppList.add(new AppInfo.Builder()
-                                    .setUid(batterySipper.getUid())
-                                    .setPackageName(
-                                            mBatteryUtils.getPackageName(batterySipper.getUid()))
-                                    .setScreenOnTimeMs(foregroundTimeMs)
-                                    .build());
-                        }
-                    }
-                }
+                mHighUsageAppList = mInputs != null
+                        ? mInputs.getForegroundApps()
+                        : queryForegroundApps(mBatteryUtils, mBatteryStatsHelper);
 
                 // When in test mode, add an app if necessary
                 if (mPolicy.testHighUsageTip && mHighUsageAppList.isEmpty()) {
@@ -104,8 +105,37 @@ public class HighUsageDetector implements BatteryTipDetector {
         return new HighUsageTip(lastFullChargeTimeMs, mHighUsageAppList);
     }
 
+    /**
+     * @return the apps used in the foreground for at least a minute since the last full charge.
+     */
+    public static List<AppInfo> queryForegroundApps(BatteryUtils batteryUtils,
+            BatteryStatsHelper batteryStatsHelper) {
+        final List<AppInfo> apps = new ArrayList<>();
+        final List<BatterySipper> batterySippers = batteryStatsHelper.getUsageList();
+        for (int i = 0, size = batterySippers.size(); i < size; i++) {
+            final BatterySipper batterySipper = batterySippers.get(i);
+            if (!batteryUtils.shouldHideSipper(batterySipper)) {
+                final long foregroundTimeMs = batteryUtils.getProcessTimeMs(
+                        BatteryUtils.StatusType.FOREGROUND, batterySipper.uidObj,
+                        BatteryStats.STATS_SINCE_CHARGED);
+                if (foregroundTimeMs >= DateUtils.MINUTE_IN_MILLIS) {
+                    apps.add(new AppInfo.Builder()
+                            .setUid(batterySipper.getUid())
+                            .setPackageName(batteryUtils.getPackageName(batterySipper.getUid()))
+                            .setScreenOnTimeMs(foregroundTimeMs)
+                            .build());
+                }
+            }
+        }
+        return apps;
+    }
+
     @VisibleForTesting
     void parseBatteryData() {
-        BatteryInfo.parse(mBatteryStatsHelper.getStats(), mDataParser);
+        if (mInputs != null) {
+            BatteryInfo.parse(mInputs.getBatteryHistory(), mDataParser);
+        } else {
+            BatteryInfo.parse(mBatteryStatsHelper.getStats(), mDataParser);
+        }
     }
 }
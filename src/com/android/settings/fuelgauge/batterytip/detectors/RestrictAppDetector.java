@@ -23,6 +23,7 @@ import android.text.format.DateUtils;
 import com.android.settings.fuelgauge.batterytip.AnomalyDatabaseHelper;
 import com.android.settings.fuelgauge.batterytip.AppInfo;
 import com.android.settings.fuelgauge.batterytip.BatteryDatabaseManager;
+import com.android.settings.fuelgauge.batterytip.BatteryTipInputs;
 import com.android.settings.fuelgauge.batterytip.BatteryTipPolicy;
 import com.android.settings.fuelgauge.batterytip.tips.AppLabelPredicate;
 import com.android.settings.fuelgauge.batterytip.tips.AppRestrictionPredicate;
@@ -42,6 +43,7 @@ public class RestrictAppDetector implements BatteryTipDetector {
     private BatteryTipPolicy mPolicy;
     @VisibleForTesting
     BatteryDatabaseManager mBatteryDatabaseManager;
+    private BatteryTipInputs mInputs;
     private Context mContext;
 
     private AppRestrictionPredicate mAppRestrictionPredicate;
@@ -55,16 +57,24 @@ public class RestrictAppDetector implements BatteryTipDetector {
         mAppLabelPredicate = new AppLabelPredicate(context);
     }
 
+    /**
+     * Reads anomalies from {@param inputs}, which may have been prefetched, instead of querying
+     * the database directly.
+     */
+    public RestrictAppDetector(Context context, BatteryTipPolicy policy,
+            BatteryTipInputs inputs) {
+        this(context, policy);
+        mInputs = inputs;
+    }
+
     @Override
     public BatteryTip detect() {
         if (USE_FAKE_DATA) {
             return getFakeData();
         }
         if (mPolicy.appRestrictionEnabled) {
-            // TODO(b/72385333): hook up the query timestamp to server side
-            final long oneDayBeforeMs = System.currentTimeMillis() - DateUtils.DAY_IN_MILLIS;
-            final List<AppInfo> highUsageApps = mBatteryDatabaseManager.queryAllAnomalies(
-                    oneDayBeforeMs, AnomalyDatabaseHelper.State.NEW);
+            final List<AppInfo> highUsageApps =
+                    queryRecentAnomalies(AnomalyDatabaseHelper.State.NEW);
             // Remove it if it doesn't have label or been restricted
             highUsageApps.removeIf(mAppLabelPredicate.or(mAppRestrictionPredicate));
             if (!highUsageApps.isEmpty()) {
@@ -72,8 +82,8 @@ public class RestrictAppDetector implements BatteryTipDetector {
                 return new RestrictAppTip(BatteryTip.StateType.NEW, highUsageApps);
             } else {
                 // Otherwise, show auto-handled one if it exists
-                final List<AppInfo> autoHandledApps = mBatteryDatabaseManager.queryAllAnomalies(
-                        oneDayBeforeMs, AnomalyDatabaseHelper.State.AUTO_HANDLED);
+                final List<AppInfo> autoHandledApps =
+                        queryRecentAnomalies(AnomalyDatabaseHelper.State.AUTO_HANDLED);
                 // Remove it if it doesn't have label or unrestricted
                 autoHandledApps.removeIf(mAppLabelPredicate.or(mAppRestrictionPredicate.negate()));
                 return new RestrictAppTip(autoHandledApps.isEmpty() ? BatteryTip.StateType.INVISIBLE
@@ -84,6 +94,15 @@ public class RestrictAppDetector implements BatteryTipDetector {
         }
     }
 
+    private List<AppInfo> queryRecentAnomalies(@AnomalyDatabaseHelper.State int state) {
+        if (mInputs != null) {
+            return mInputs.getRecentAnomalies(state);
+        }
+        // TODO(b/72385333): hook up the query timestamp to server side
+        final long oneDayBeforeMs = System.currentTimeMillis() - DateUtils.DAY_IN_MILLIS;
+        return mBatteryDatabaseManager.queryAllAnomalies(oneDayBeforeMs, state);
+    }
+
     private BatteryTip getFakeData() {
         final List<AppInfo> highUsageApps = new ArrayList<>();
         highUsageApps.add(new AppInfo.Builder()
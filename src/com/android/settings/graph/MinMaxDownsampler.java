@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.graph;
+
+import android.util.SparseIntArray;
+
+/**
+ * Reduces a series of points to a few points per bucket of x values, keeping the first, last,
+ * lowest and highest point of every bucket so that the drawn shape keeps its extremes.
+ */
+public class MinMaxDownsampler {
+
+    private MinMaxDownsampler() {
+    }
+
+    /**
+     * @param points      points ordered by x.
+     * @param bucketWidth width of a bucket in x units, usually the x span of one pixel.
+     * @param breakValue  value marking the end of a line. Such points end the current bucket and
+     *                    are always kept.
+     * @return the kept points, or {@param points} itself if buckets are too narrow to drop any.
+     */
+    public static SparseIntArray downsample(SparseIntArray points, float bucketWidth,
+            int breakValue) {
+        final int size = points.size();
+        // At most 4 points are kept per bucket.
+        if (bucketWidth <= 1 || size <= 4) {
+            return points;
+        }
+        final SparseIntArray result = new SparseIntArray(size);
+        int bucketStart = -1;
+        long bucket = 0;
+        for (int i = 0; i < size; i++) {
+            if (points.valueAt(i) == breakValue) {
+                if (bucketStart >= 0) {
+                    appendBucket(points, bucketStart, i - 1, result);
+                    bucketStart = -1;
+                }
+                result.append(points.keyAt(i), breakValue);
+                continue;
+            }
+            final long pointBucket = (long) (points.keyAt(i) / bucketWidth);
+            if (bucketStart >= 0 && pointBucket != bucket) {
+                appendBucket(points, bucketStart, i - 1, result);
+                bucketStart = -1;
+            }
+            if (bucketStart < 0) {
+                bucketStart = i;
+                bucket = pointBucket;
+            }
+        }
+        if (bucketStart >= 0) {
+            appendBucket(points, bucketStart, size - 1, result);
+        }
+        return result;
+    }
+
+    private static void appendBucket(SparseIntArray points, int from, int to,
+            SparseIntArray result) {
+        int min = from;
+        int max = from;
+        for (int i = from + 1; i <= to; i++) {
+            if (points.valueAt(i) < points.valueAt(min)) {
+                min = i;
+            } else if (points.valueAt(i) > points.valueAt(max)) {
+                max = i;
+            }
+        }
+        for (int i = from; i <= to; i++) {
+            if (i == from || i == to || i == min || i == max) {
+                result.append(points.keyAt(i), points.valueAt(i));
+            }
+        }
+    }
+}
@@ -177,19 +177,22 @@ public class UsageGraph extends View {
             return;
         }
         localPaths.clear();
+        // Keep the draw cost bounded by the view width rather than the number of points.
+        final SparseIntArray points =
+                MinMaxDownsampler.downsample(paths, mMaxX / getWidth(), PATH_DELIM);
         // Store the local coordinates of the most recent point.
         int lx = 0;
         int ly = PATH_DELIM;
         boolean skippedLastPoint = false;
-        for (int i = 0; i < paths.size(); i++) {
-            int x = paths.keyAt(i);
-            int y = paths.valueAt(i);
+        for (int i = 0; i < points.size(); i++) {
+            int x = points.keyAt(i);
+            int y = points.valueAt(i);
             if (y == PATH_DELIM) {
                 if (i == 1) {
                     localPaths.put(getX(x+1) - 1, getY(0));
                     continue;
                 }
-                if (i == paths.size() - 1 && skippedLastPoint) {
+                if (i == points.size() - 1 && skippedLastPoint) {
                     // Add back skipped point to complete the path.
                     localPaths.put(lx, ly);
                 }
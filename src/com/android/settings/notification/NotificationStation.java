@@ -39,6 +39,7 @@ import android.service.notification.NotificationListenerService;
 import android.service.notification.NotificationListenerService.Ranking;
 import android.service.notification.NotificationListenerService.RankingMap;
 import android.service.notification.StatusBarNotification;
+import android.support.annotation.VisibleForTesting;
 import android.support.v7.preference.Preference;
 import android.support.v7.preference.PreferenceViewHolder;
 import android.support.v7.widget.RecyclerView;
@@ -46,6 +47,7 @@ import android.text.SpannableString;
 import android.text.SpannableStringBuilder;
 import android.text.TextUtils;
 import android.text.style.StyleSpan;
+import android.util.ArrayMap;
 import android.util.Log;
 import android.view.View;
 import android.widget.DateTimeView;
@@ -56,6 +58,7 @@ import com.android.internal.logging.nano.MetricsProto.MetricsEvent;
 import com.android.settings.R;
 import com.android.settings.SettingsPreferenceFragment;
 import com.android.settings.Utils;
+import com.android.settingslib.utils.ThreadUtils;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -71,7 +74,10 @@ public class NotificationStation extends SettingsPreferenceFragment {
     private static final boolean DUMP_PARCEL = true;
     private Handler mHandler;
 
-    private static class HistoricalNotificationInfo {
+    @VisibleForTesting
+    static class HistoricalNotificationInfo {
+        /** Identifies the row: the same notification may have been posted more than once. */
+        public String id;
         public String key;
         public String channel;
         public String pkg;
@@ -84,12 +90,43 @@ public class NotificationStation extends SettingsPreferenceFragment {
         public long timestamp;
         public boolean active;
         public CharSequence extra;
+
+        /**
+         * @return whether {@param other} shows the same as this one in a row.
+         */
+        boolean hasSameContent(HistoricalNotificationInfo other) {
+            return active == other.active
+                    && timestamp == other.timestamp
+                    && TextUtils.equals(title, other.title)
+                    && TextUtils.equals(pkgname, other.pkgname)
+                    && TextUtils.equals(extra, other.extra)
+                    && isSameDrawable(icon, other.icon)
+                    && isSameDrawable(pkgicon, other.pkgicon);
+        }
+
+        private static boolean isSameDrawable(Drawable a, Drawable b) {
+            // Icons are copies of the same cached drawable, sharing its state.
+            return a == b || (a != null && b != null && a.getConstantState() != null
+                    && a.getConstantState() == b.getConstantState());
+        }
     }
 
     private PackageManager mPm;
     private INotificationManager mNoMan;
     private RankingMap mRanking;
 
+    // Only used on the main thread.
+    private final ArrayMap<String, HistoricalNotificationPreference> mPreferences =
+            new ArrayMap<>();
+    private boolean mLoading;
+    private boolean mRefreshPending;
+
+    // Only used by the load in progress, off the main thread. Loads never overlap.
+    private ArrayMap<String, HistoricalNotificationInfo> mLoadedInfos = new ArrayMap<>();
+    private final ArrayMap<String, Drawable> mIconCache = new ArrayMap<>();
+    private final ArrayMap<String, Drawable> mPackageIconCache = new ArrayMap<>();
+    private final ArrayMap<String, CharSequence> mPackageNameCache = new ArrayMap<>();
+
     private Runnable mRefreshListRunnable = new Runnable() {
         @Override
         public void run() {
@@ -205,21 +242,63 @@ public class NotificationStation extends SettingsPreferenceFragment {
         refreshList();
     }
 
-    private void refreshList() {
-        List<HistoricalNotificationInfo> infos = loadNotifications();
-        if (infos != null) {
-            final int N = infos.size();
-            logd("adding %d infos", N);
-            Collections.sort(infos, mNotificationSorter);
-            if (getPreferenceScreen() == null) {
-                setPreferenceScreen(getPreferenceManager().createPreferenceScreen(getContext()));
-            }
-            getPreferenceScreen().removeAll();
-            for (int i = 0; i < N; i++) {
-                getPreferenceScreen().addPreference(
-                        new HistoricalNotificationPreference(getPrefContext(), infos.get(i)));
+    /**
+     * Loads the notifications off the main thread, then updates the rows that changed. A refresh
+     * requested while loading is done once the load completes.
+     */
+    @VisibleForTesting
+    void refreshList() {
+        if (mLoading) {
+            mRefreshPending = true;
+            return;
+        }
+        mLoading = true;
+        final RankingMap ranking = mRanking;
+        ThreadUtils.postOnBackgroundThread(() -> {
+            final List<HistoricalNotificationInfo> infos = loadNotifications(ranking);
+            ThreadUtils.postOnMainThread(() -> {
+                mLoading = false;
+                if (mHandler == null) {
+                    // Detached while loading.
+                    return;
+                }
+                if (infos != null) {
+                    updateList(infos);
+                }
+                if (mRefreshPending) {
+                    mRefreshPending = false;
+                    refreshList();
+                }
+            });
+        });
+    }
+
+    private void updateList(List<HistoricalNotificationInfo> infos) {
+        final int N = infos.size();
+        logd("adding %d infos", N);
+        Collections.sort(infos, mNotificationSorter);
+        if (getPreferenceScreen() == null) {
+            setPreferenceScreen(getPreferenceManager().createPreferenceScreen(getContext()));
+        }
+        final ArrayMap<String, HistoricalNotificationPreference> removed =
+                new ArrayMap<>(mPreferences);
+        for (int i = 0; i < N; i++) {
+            final HistoricalNotificationInfo info = infos.get(i);
+            HistoricalNotificationPreference pref = removed.remove(info.id);
+            if (pref == null) {
+                pref = new HistoricalNotificationPreference(getPrefContext(), info);
+                pref.setOrder(i);
+                mPreferences.put(info.id, pref);
+                getPreferenceScreen().addPreference(pref);
+            } else {
+                pref.setInfo(info);
+                pref.setOrder(i);
             }
         }
+        for (int i = 0, size = removed.size(); i < size; i++) {
+            mPreferences.remove(removed.keyAt(i));
+            getPreferenceScreen().removePreference(removed.valueAt(i));
+        }
     }
 
     private static void logd(String msg, Object... args) {
@@ -262,7 +341,11 @@ public class NotificationStation extends SettingsPreferenceFragment {
         return sb.toString();
     }
 
-    private List<HistoricalNotificationInfo> loadNotifications() {
+    /**
+     * Loads the active and the recently dismissed notifications. Dismissed notifications do not
+     * change, so the ones loaded last time are reused as is.
+     */
+    private List<HistoricalNotificationInfo> loadNotifications(RankingMap ranking) {
         final int currentUserId = ActivityManager.getCurrentUser();
         try {
             StatusBarNotification[] active = mNoMan.getActiveNotifications(
@@ -272,6 +355,8 @@ public class NotificationStation extends SettingsPreferenceFragment {
 
             List<HistoricalNotificationInfo> list
                     = new ArrayList<HistoricalNotificationInfo>(active.length + dismissed.length);
+            final ArrayMap<String, HistoricalNotificationInfo> loadedInfos =
+                    new ArrayMap<>(active.length + dismissed.length);
 
             for (StatusBarNotification[] resultset
                     : new StatusBarNotification[][] { active, dismissed }) {
@@ -280,31 +365,22 @@ public class NotificationStation extends SettingsPreferenceFragment {
                         continue;
                     }
 
-                    final Notification n = sbn.getNotification();
-                    final HistoricalNotificationInfo info = new HistoricalNotificationInfo();
-                    info.pkg = sbn.getPackageName();
-                    info.user = sbn.getUserId();
-                    info.icon = loadIconDrawable(info.pkg, info.user, n.icon);
-                    info.pkgicon = loadPackageIconDrawable(info.pkg, info.user);
-                    info.pkgname = loadPackageName(info.pkg);
-                    info.title = getTitleString(n);
-                    if (TextUtils.isEmpty(info.title)) {
-                        info.title = getString(R.string.notification_log_no_title);
+                    final String id = sbn.getKey() + "|" + sbn.getPostTime();
+                    if (loadedInfos.containsKey(id)) {
+                        // Already listed among the active notifications.
+                        continue;
                     }
-                    info.timestamp = sbn.getPostTime();
-                    info.priority = n.priority;
-                    info.channel = n.getChannelId();
-                    info.key = sbn.getKey();
-
-                    info.active = (resultset == active);
-
-                    info.extra = generateExtraText(sbn, info);
-
-                    logd("   [%d] %s: %s", info.timestamp, info.pkg, info.title);
+                    final boolean isActive = (resultset == active);
+                    HistoricalNotificationInfo info = mLoadedInfos.get(id);
+                    if (info == null || isActive || info.active) {
+                        info = loadNotificationInfo(sbn, id, isActive, ranking);
+                    }
+                    loadedInfos.put(id, info);
                     list.add(info);
                 }
             }
 
+            mLoadedInfos = loadedInfos;
             return list;
         } catch (RemoteException e) {
             Log.e(TAG, "Cannot load Notifications: ", e);
@@ -312,22 +388,49 @@ public class NotificationStation extends SettingsPreferenceFragment {
         return null;
     }
 
+    private HistoricalNotificationInfo loadNotificationInfo(StatusBarNotification sbn, String id,
+            boolean active, RankingMap ranking) {
+        final Notification n = sbn.getNotification();
+        final HistoricalNotificationInfo info = new HistoricalNotificationInfo();
+        info.id = id;
+        info.pkg = sbn.getPackageName();
+        info.user = sbn.getUserId();
+        info.icon = loadIconDrawable(info.pkg, info.user, n.icon);
+        info.pkgicon = loadPackageIconDrawable(info.pkg, info.user);
+        info.pkgname = loadPackageName(info.pkg, info.user);
+        info.title = getTitleString(n);
+        if (TextUtils.isEmpty(info.title)) {
+            info.title = mContext.getString(R.string.notification_log_no_title);
+        }
+        info.timestamp = sbn.getPostTime();
+        info.priority = n.priority;
+        info.channel = n.getChannelId();
+        info.key = sbn.getKey();
+
+        info.active = active;
+
+        info.extra = generateExtraText(sbn, info, ranking);
+
+        logd("   [%d] %s: %s", info.timestamp, info.pkg, info.title);
+        return info;
+    }
+
     private CharSequence generateExtraText(StatusBarNotification sbn,
-                                           HistoricalNotificationInfo info) {
+                                           HistoricalNotificationInfo info, RankingMap ranking) {
         final Ranking rank = new Ranking();
 
         final Notification n = sbn.getNotification();
         final SpannableStringBuilder sb = new SpannableStringBuilder();
-        final String delim = getString(R.string.notification_log_details_delimiter);
-        sb.append(bold(getString(R.string.notification_log_details_package)))
+        final String delim = mContext.getString(R.string.notification_log_details_delimiter);
+        sb.append(bold(mContext.getString(R.string.notification_log_details_package)))
                 .append(delim)
                 .append(info.pkg)
                 .append("\n")
-                .append(bold(getString(R.string.notification_log_details_key)))
+                .append(bold(mContext.getString(R.string.notification_log_details_key)))
                 .append(delim)
                 .append(sbn.getKey());
         sb.append("\n")
-                .append(bold(getString(R.string.notification_log_details_icon)))
+                .append(bold(mContext.getString(R.string.notification_log_details_icon)))
                 .append(delim)
                 .append(String.valueOf(n.getSmallIcon()));
         sb.append("\n")
@@ -346,125 +449,125 @@ public class NotificationStation extends SettingsPreferenceFragment {
         }
         if (sbn.isGroup()) {
             sb.append("\n")
-                    .append(bold(getString(R.string.notification_log_details_group)))
+                    .append(bold(mContext.getString(R.string.notification_log_details_group)))
                     .append(delim)
                     .append(String.valueOf(sbn.getGroupKey()));
             if (n.isGroupSummary()) {
                 sb.append(bold(
-                        getString(R.string.notification_log_details_group_summary)));
+                        mContext.getString(R.string.notification_log_details_group_summary)));
             }
         }
         sb.append("\n")
-                .append(bold(getString(R.string.notification_log_details_sound)))
+                .append(bold(mContext.getString(R.string.notification_log_details_sound)))
                 .append(delim);
         if (0 != (n.defaults & Notification.DEFAULT_SOUND)) {
-            sb.append(getString(R.string.notification_log_details_default));
+            sb.append(mContext.getString(R.string.notification_log_details_default));
         } else if (n.sound != null) {
             sb.append(n.sound.toString());
         } else {
-            sb.append(getString(R.string.notification_log_details_none));
+            sb.append(mContext.getString(R.string.notification_log_details_none));
         }
         sb.append("\n")
-                .append(bold(getString(R.string.notification_log_details_vibrate)))
+                .append(bold(mContext.getString(R.string.notification_log_details_vibrate)))
                 .append(delim);
         if (0 != (n.defaults & Notification.DEFAULT_VIBRATE)) {
-            sb.append(getString(R.string.notification_log_details_default));
+            sb.append(mContext.getString(R.string.notification_log_details_default));
         } else if (n.vibrate != null) {
             for (int vi=0;vi<n.vibrate.length;vi++) {
                 if (vi > 0) sb.append(',');
                 sb.append(String.valueOf(n.vibrate[vi]));
             }
         } else {
-            sb.append(getString(R.string.notification_log_details_none));
+            sb.append(mContext.getString(R.string.notification_log_details_none));
         }
         sb.append("\n")
-                .append(bold(getString(R.string.notification_log_details_visibility)))
+                .append(bold(mContext.getString(R.string.notification_log_details_visibility)))
                 .append(delim)
                 .append(Notification.visibilityToString(n.visibility));
         if (n.publicVersion != null) {
             sb.append("\n")
-                    .append(bold(getString(
+                    .append(bold(mContext.getString(
                             R.string.notification_log_details_public_version)))
                     .append(delim)
                     .append(getTitleString(n.publicVersion));
         }
         sb.append("\n")
-                .append(bold(getString(R.string.notification_log_details_priority)))
+                .append(bold(mContext.getString(R.string.notification_log_details_priority)))
                 .append(delim)
                 .append(Notification.priorityToString(n.priority));
         if (info.active) {
-            // mRanking only applies to active notifications
-            if (mRanking != null && mRanking.getRanking(sbn.getKey(), rank)) {
+            // ranking only applies to active notifications
+            if (ranking != null && ranking.getRanking(sbn.getKey(), rank)) {
                 sb.append("\n")
-                        .append(bold(getString(
+                        .append(bold(mContext.getString(
                                 R.string.notification_log_details_importance)))
                         .append(delim)
                         .append(Ranking.importanceToString(rank.getImportance()));
                 if (rank.getImportanceExplanation() != null) {
                     sb.append("\n")
-                            .append(bold(getString(
+                            .append(bold(mContext.getString(
                                     R.string.notification_log_details_explanation)))
                             .append(delim)
                             .append(rank.getImportanceExplanation());
                 }
                 sb.append("\n")
-                        .append(bold(getString(
+                        .append(bold(mContext.getString(
                                 R.string.notification_log_details_badge)))
                         .append(delim)
                         .append(Boolean.toString(rank.canShowBadge()));
             } else {
-                if (mRanking == null) {
+                if (ranking == null) {
                     sb.append("\n")
-                            .append(bold(getString(
+                            .append(bold(mContext.getString(
                                     R.string.notification_log_details_ranking_null)));
                 } else {
                     sb.append("\n")
-                            .append(bold(getString(
+                            .append(bold(mContext.getString(
                                     R.string.notification_log_details_ranking_none)));
                 }
             }
         }
         if (n.contentIntent != null) {
             sb.append("\n")
-                    .append(bold(getString(
+                    .append(bold(mContext.getString(
                             R.string.notification_log_details_content_intent)))
                     .append(delim)
                     .append(formatPendingIntent(n.contentIntent));
         }
         if (n.deleteIntent != null) {
             sb.append("\n")
-                    .append(bold(getString(
+                    .append(bold(mContext.getString(
                             R.string.notification_log_details_delete_intent)))
                     .append(delim)
                     .append(formatPendingIntent(n.deleteIntent));
         }
         if (n.fullScreenIntent != null) {
             sb.append("\n")
-                    .append(bold(getString(
+                    .append(bold(mContext.getString(
                             R.string.notification_log_details_full_screen_intent)))
                     .append(delim)
                     .append(formatPendingIntent(n.fullScreenIntent));
         }
         if (n.actions != null && n.actions.length > 0) {
             sb.append("\n")
-                    .append(bold(getString(R.string.notification_log_details_actions)));
+                    .append(bold(mContext.getString(R.string.notification_log_details_actions)));
             for (int ai=0; ai<n.actions.length; ai++) {
                 final Notification.Action action = n.actions[ai];
                 sb.append("\n  ").append(String.valueOf(ai)).append(' ')
-                        .append(bold(getString(
+                        .append(bold(mContext.getString(
                                 R.string.notification_log_details_title)))
                         .append(delim)
                         .append(action.title);
                 if (action.actionIntent != null) {
                     sb.append("\n    ")
-                            .append(bold(getString(
+                            .append(bold(mContext.getString(
                                     R.string.notification_log_details_content_intent)))
                             .append(delim)
                             .append(formatPendingIntent(action.actionIntent));
                 }
                 if (action.getRemoteInputs() != null) {
                     sb.append("\n    ")
-                            .append(bold(getString(
+                            .append(bold(mContext.getString(
                                     R.string.notification_log_details_remoteinput)))
                             .append(delim)
                             .append(String.valueOf(action.getRemoteInputs().length));
@@ -473,7 +576,7 @@ public class NotificationStation extends SettingsPreferenceFragment {
         }
         if (n.contentView != null) {
             sb.append("\n")
-                    .append(bold(getString(
+                    .append(bold(mContext.getString(
                             R.string.notification_log_details_content_view)))
                     .append(delim)
                     .append(n.contentView.toString());
@@ -482,7 +585,7 @@ public class NotificationStation extends SettingsPreferenceFragment {
         if (DUMP_EXTRAS) {
             if (n.extras != null && n.extras.size() > 0) {
                 sb.append("\n")
-                        .append(bold(getString(
+                        .append(bold(mContext.getString(
                                 R.string.notification_log_details_extras)));
                 for (String extraKey : n.extras.keySet()) {
                     String val = String.valueOf(n.extras.get(extraKey));
@@ -495,11 +598,11 @@ public class NotificationStation extends SettingsPreferenceFragment {
             final Parcel p = Parcel.obtain();
             n.writeToParcel(p, 0);
             sb.append("\n")
-                    .append(bold(getString(R.string.notification_log_details_parcel)))
+                    .append(bold(mContext.getString(R.string.notification_log_details_parcel)))
                     .append(delim)
                     .append(String.valueOf(p.dataPosition()))
                     .append(' ')
-                    .append(bold(getString(R.string.notification_log_details_ashmem)))
+                    .append(bold(mContext.getString(R.string.notification_log_details_ashmem)))
                     .append(delim)
                     .append(String.valueOf(p.getBlobAshmemSize()))
                     .append("\n");
@@ -527,6 +630,10 @@ public class NotificationStation extends SettingsPreferenceFragment {
     }
 
     private Drawable loadPackageIconDrawable(String pkg, int userId) {
+        final String cacheKey = pkg + ":" + userId;
+        if (mPackageIconCache.containsKey(cacheKey)) {
+            return newDrawable(mPackageIconCache.get(cacheKey));
+        }
         Drawable icon = null;
         try {
             icon = mPm.getApplicationIcon(pkg);
@@ -534,40 +641,69 @@ public class NotificationStation extends SettingsPreferenceFragment {
             Log.e(TAG, "Cannot get application icon", e);
         }
 
+        mPackageIconCache.put(cacheKey, icon);
         return icon;
     }
 
-    private CharSequence loadPackageName(String pkg) {
+    private CharSequence loadPackageName(String pkg, int userId) {
+        final String cacheKey = pkg + ":" + userId;
+        CharSequence name = mPackageNameCache.get(cacheKey);
+        if (name != null) {
+            return name;
+        }
+        name = pkg;
         try {
             ApplicationInfo info = mPm.getApplicationInfo(pkg,
                     PackageManager.MATCH_ANY_USER);
-            if (info != null) return mPm.getApplicationLabel(info);
+            if (info != null) name = mPm.getApplicationLabel(info);
         } catch (PackageManager.NameNotFoundException e) {
             Log.e(TAG, "Cannot load package name", e);
         }
-        return pkg;
+        mPackageNameCache.put(cacheKey, name);
+        return name;
     }
 
     private Drawable loadIconDrawable(String pkg, int userId, int resId) {
-        Resources r = getResourcesForUserPackage(pkg, userId);
-
         if (resId == 0) {
             return null;
         }
 
-        try {
-            return r.getDrawable(resId, null);
-        } catch (RuntimeException e) {
-            Log.w(TAG, "Icon not found in "
-                    + (pkg != null ? resId : "<system>")
-                    + ": " + Integer.toHexString(resId), e);
+        final String cacheKey = pkg + ":" + userId + ":" + resId;
+        if (mIconCache.containsKey(cacheKey)) {
+            return newDrawable(mIconCache.get(cacheKey));
         }
 
-        return null;
+        Resources r = getResourcesForUserPackage(pkg, userId);
+        Drawable icon = null;
+        if (r != null) {
+            try {
+                icon = r.getDrawable(resId, null);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Icon not found in "
+                        + (pkg != null ? resId : "<system>")
+                        + ": " + Integer.toHexString(resId), e);
+            }
+        }
+
+        mIconCache.put(cacheKey, icon);
+        return icon;
+    }
+
+    /**
+     * Returns a copy of a cached {@param drawable} sharing its state, so rows do not share the
+     * bounds and callback of a single instance.
+     */
+    private static Drawable newDrawable(Drawable drawable) {
+        if (drawable == null) {
+            return null;
+        }
+        final Drawable.ConstantState state = drawable.getConstantState();
+        return state != null ? state.newDrawable() : drawable;
     }
 
-    private static class HistoricalNotificationPreference extends Preference {
-        private final HistoricalNotificationInfo mInfo;
+    @VisibleForTesting
+    static class HistoricalNotificationPreference extends Preference {
+        private HistoricalNotificationInfo mInfo;
         private static long sLastExpandedTimestamp; // quick hack to keep things from collapsing
 
         public HistoricalNotificationPreference(Context context, HistoricalNotificationInfo info) {
@@ -576,6 +712,25 @@ public class NotificationStation extends SettingsPreferenceFragment {
             mInfo = info;
         }
 
+        /**
+         * Shows {@param info} instead, rebinding the row only if it shows something else.
+         *
+         * @return whether the row was rebound
+         */
+        public boolean setInfo(HistoricalNotificationInfo info) {
+            if (mInfo == info || mInfo.hasSameContent(info)) {
+                return false;
+            }
+            mInfo = info;
+            notifyChanged();
+            return true;
+        }
+
+        @VisibleForTesting
+        HistoricalNotificationInfo getInfo() {
+            return mInfo;
+        }
+
         @Override
         public void onBindViewHolder(PreferenceViewHolder row) {
             super.onBindViewHolder(row);
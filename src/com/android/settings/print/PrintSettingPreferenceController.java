@@ -48,6 +48,8 @@ public class PrintSettingPreferenceController extends BasePreferenceController i
     private final PrintManager mPrintManager;
 
     private Preference mPreference;
+    // Summary loaded off the main thread by preloadState(), used by the next getSummary() call.
+    private volatile CharSequence mPreloadedSummary;
 
     public PrintSettingPreferenceController(Context context) {
         super(context, KEY_PRINTING_SETTINGS);
@@ -62,6 +64,17 @@ public class PrintSettingPreferenceController extends BasePreferenceController i
                 ? AVAILABLE : UNSUPPORTED_ON_DEVICE;
     }
 
+    @Override
+    public boolean canPreloadInBackground() {
+        // Only the print manager is used, and mPreloadedSummary is handed over atomically.
+        return true;
+    }
+
+    @Override
+    public void preloadState() {
+        mPreloadedSummary = loadSummary();
+    }
+
     @Override
     public void displayPreference(PreferenceScreen screen) {
         super.displayPreference(screen);
@@ -80,6 +93,7 @@ public class PrintSettingPreferenceController extends BasePreferenceController i
 
     @Override
     public void onPrintJobStateChanged(PrintJobId printJobId) {
+        mPreloadedSummary = null;
         updateState(mPreference);
     }
 
@@ -92,6 +106,15 @@ public class PrintSettingPreferenceController extends BasePreferenceController i
 
     @Override
     public CharSequence getSummary() {
+        final CharSequence preloadedSummary = mPreloadedSummary;
+        if (preloadedSummary != null) {
+            mPreloadedSummary = null;
+            return preloadedSummary;
+        }
+        return loadSummary();
+    }
+
+    private CharSequence loadSummary() {
         final List<PrintJob> printJobs = mPrintManager.getPrintJobs();
 
         int numActivePrintJobs = 0;
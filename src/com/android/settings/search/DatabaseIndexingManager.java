@@ -18,11 +18,6 @@
 package com.android.settings.search;
 
 
-import static com.android.settings.search.DatabaseResultLoader.COLUMN_INDEX_ID;
-import static com.android.settings.search.DatabaseResultLoader
-        .COLUMN_INDEX_INTENT_ACTION_TARGET_PACKAGE;
-import static com.android.settings.search.DatabaseResultLoader.COLUMN_INDEX_KEY;
-import static com.android.settings.search.DatabaseResultLoader.SELECT_COLUMNS;
 import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.CLASS_NAME;
 import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.DATA_ENTRIES;
 import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.DATA_KEYWORDS;
@@ -39,17 +34,19 @@ import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.INTEN
 import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.INTENT_TARGET_CLASS;
 import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.INTENT_TARGET_PACKAGE;
 import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.LOCALE;
+import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.PACKAGE;
 import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.PAYLOAD;
 import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.PAYLOAD_TYPE;
 import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.SCREEN_TITLE;
 import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.USER_ID;
 import static com.android.settings.search.IndexDatabaseHelper.Tables.TABLE_PREFS_INDEX;
+import static com.android.settings.search.IndexDatabaseHelper.Tables.TABLE_SITE_MAP;
 
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ResolveInfo;
-import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.os.Build;
@@ -57,6 +54,7 @@ import android.provider.SearchIndexablesContract;
 import android.provider.SearchIndexablesContract.SiteMapColumns;
 import android.support.annotation.VisibleForTesting;
 import android.text.TextUtils;
+import android.util.ArraySet;
 import android.util.Log;
 
 import com.android.settings.overlay.FeatureFactory;
@@ -64,7 +62,9 @@ import com.android.settings.search.indexing.IndexData;
 import com.android.settings.search.indexing.IndexDataConverter;
 import com.android.settings.search.indexing.PreIndexData;
 import com.android.settings.search.indexing.PreIndexDataCollector;
+import com.android.settings.utils.SQLiteBulkWriter;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -80,6 +80,11 @@ public class DatabaseIndexingManager {
 
     private static final String LOG_TAG = "DatabaseIndexingManager";
 
+    @VisibleForTesting
+    static final String METRICS_FULL_INDEX_TIME = "search_full_indexing_time";
+    @VisibleForTesting
+    static final String METRICS_DELTA_INDEX_TIME = "search_delta_indexing_time";
+
     private PreIndexDataCollector mCollector;
     private IndexDataConverter mConverter;
 
@@ -92,7 +97,8 @@ public class DatabaseIndexingManager {
     /**
      * Accumulate all data and non-indexable keys from each of the content-providers.
      * Only the first indexing for the default language gets static search results - subsequent
-     * calls will only gather non-indexable keys.
+     * calls will only gather non-indexable keys, plus the data of any provider whose package has
+     * changed since it was last indexed.
      */
     public void performIndexing() {
         final long startTime = System.currentTimeMillis();
@@ -104,18 +110,46 @@ public class DatabaseIndexingManager {
         final String fingerprint = Build.DATE;
         final String providerVersionedNames =
                 IndexDatabaseHelper.buildProviderVersionedNames(providers);
+        final Map<String, String> providerHashes =
+                IndexDatabaseHelper.buildProviderContentHashes(providers);
 
-        final boolean isFullIndex = isFullIndex(mContext, localeStr, fingerprint,
+        boolean isFullIndex = isFullIndex(mContext, localeStr, fingerprint,
                 providerVersionedNames);
+        Set<String> changedPackages = Collections.emptySet();
+
+        // When only the set of providers changed, re-index just the packages that changed.
+        if (isFullIndex && isLocaleAndBuildIndexed(mContext, localeStr, fingerprint)) {
+            final Set<String> packages = getChangedProviderPackages(providerHashes);
+            if (packages != null) {
+                changedPackages = packages;
+                isFullIndex = false;
+            }
+        }
 
         if (isFullIndex) {
             rebuildDatabase();
         }
 
-        PreIndexData indexData = getIndexDataFromProviders(providers, isFullIndex);
+        final PreIndexData indexData = isFullIndex || changedPackages.isEmpty()
+                ? getIndexDataFromProviders(providers, isFullIndex)
+                : getIndexDataFromProviders(providers, changedPackages);
+
+        // Providers which failed or timed out are not marked as indexed, so that the next indexing
+        // collects them again, as changed packages. Meanwhile they keep their previous rows after
+        // a delta index, but have none after a full index, which dropped the whole database.
+        final Set<String> indexedPackages =
+                new ArraySet<>(isFullIndex ? providerHashes.keySet() : changedPackages);
+        indexedPackages.removeAll(indexData.failedPackages);
+        if (!changedPackages.isEmpty()) {
+            changedPackages = indexedPackages;
+        }
 
         final long updateDatabaseStartTime = System.currentTimeMillis();
-        updateDatabase(indexData, isFullIndex);
+        if (changedPackages.isEmpty()) {
+            updateDatabase(indexData, isFullIndex);
+        } else {
+            updateDatabaseForPackages(indexData, changedPackages);
+        }
         if (SettingsSearchIndexablesProvider.DEBUG) {
             final long updateDatabaseTime = System.currentTimeMillis() - updateDatabaseStartTime;
             Log.d(LOG_TAG, "performIndexing updateDatabase took time: " + updateDatabaseTime);
@@ -124,21 +158,40 @@ public class DatabaseIndexingManager {
         //TODO(63922686): Setting indexed should be a single method, not 3 separate setters.
         IndexDatabaseHelper.setLocaleIndexed(mContext, localeStr);
         IndexDatabaseHelper.setBuildIndexed(mContext, fingerprint);
-        IndexDatabaseHelper.setProvidersIndexed(mContext, providerVersionedNames);
+        if (indexData.failedPackages.isEmpty()) {
+            IndexDatabaseHelper.setProvidersIndexed(mContext, providerVersionedNames);
+        }
+        updateProviderHashes(providerHashes, indexedPackages);
 
+        final int indexingTime = (int) (System.currentTimeMillis() - startTime);
+        if (isFullIndex || !changedPackages.isEmpty()) {
+            FeatureFactory.getFactory(mContext).getMetricsFeatureProvider().histogram(mContext,
+                    isFullIndex ? METRICS_FULL_INDEX_TIME : METRICS_DELTA_INDEX_TIME,
+                    indexingTime);
+        }
         if (SettingsSearchIndexablesProvider.DEBUG) {
-            final long indexingTime = System.currentTimeMillis() - startTime;
             Log.d(LOG_TAG, "performIndexing took time: " + indexingTime
-                    + "ms. Full index? " + isFullIndex);
+                    + "ms. Full index? " + isFullIndex
+                    + ". Changed packages: " + changedPackages);
         }
     }
 
     @VisibleForTesting
     PreIndexData getIndexDataFromProviders(List<ResolveInfo> providers, boolean isFullIndex) {
+        return getCollector().collectIndexableData(providers, isFullIndex);
+    }
+
+    @VisibleForTesting
+    PreIndexData getIndexDataFromProviders(List<ResolveInfo> providers,
+            Set<String> changedPackages) {
+        return getCollector().collectIndexableData(providers, changedPackages);
+    }
+
+    private PreIndexDataCollector getCollector() {
         if (mCollector == null) {
             mCollector = new PreIndexDataCollector(mContext);
         }
-        return mCollector.collectIndexableData(providers, isFullIndex);
+        return mCollector;
     }
 
     /**
@@ -162,6 +215,70 @@ public class DatabaseIndexingManager {
         return !(isLocaleIndexed && isBuildIndexed && areProvidersIndexed);
     }
 
+    /**
+     * @return true if the current locale and build have been indexed, in which case the index
+     * only needs to be updated for providers which changed.
+     */
+    @VisibleForTesting
+    boolean isLocaleAndBuildIndexed(Context context, String locale, String fingerprint) {
+        return IndexDatabaseHelper.isLocaleAlreadyIndexed(context, locale)
+                && IndexDatabaseHelper.isBuildIndexed(context, fingerprint);
+    }
+
+    /**
+     * Compares {@param providerHashes} with the hashes recorded at the last indexing.
+     *
+     * @return the packages which were added, updated or removed since they were last indexed, or
+     * null if there is no record of the previous indexing and a full index is required.
+     */
+    @VisibleForTesting
+    Set<String> getChangedProviderPackages(Map<String, String> providerHashes) {
+        final SQLiteDatabase database = getWritableDatabase();
+        if (database == null) {
+            return null;
+        }
+        final Map<String, String> indexedHashes =
+                IndexDatabaseHelper.getIndexedProviderHashes(database);
+        if (indexedHashes.isEmpty()) {
+            return null;
+        }
+
+        final Set<String> changedPackages = new ArraySet<>();
+        for (Map.Entry<String, String> entry : providerHashes.entrySet()) {
+            if (!TextUtils.equals(entry.getValue(), indexedHashes.get(entry.getKey()))) {
+                changedPackages.add(entry.getKey());
+            }
+        }
+        for (String packageName : indexedHashes.keySet()) {
+            if (!providerHashes.containsKey(packageName)) {
+                changedPackages.add(packageName);
+            }
+        }
+        return changedPackages;
+    }
+
+    private void updateProviderHashes(Map<String, String> providerHashes,
+            Set<String> packages) {
+        final SQLiteDatabase database = getWritableDatabase();
+        if (database == null) {
+            return;
+        }
+        try {
+            database.beginTransaction();
+            for (String packageName : packages) {
+                final String hash = providerHashes.get(packageName);
+                if (hash == null) {
+                    IndexDatabaseHelper.removeProviderHash(database, packageName);
+                } else {
+                    IndexDatabaseHelper.setProviderHashIndexed(database, packageName, hash);
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
     /**
      * Drop the currently stored database, and clear the flags which mark the database as indexed.
      */
@@ -203,6 +320,7 @@ public class DatabaseIndexingManager {
             if (!needsReindexing) {
                 updateDataInDatabase(database, nonIndexableKeys);
             }
+            IndexDatabaseHelper.bumpIndexGeneration(database);
 
             database.setTransactionSuccessful();
         } finally {
@@ -210,6 +328,45 @@ public class DatabaseIndexingManager {
         }
     }
 
+    /**
+     * Replaces the rows of {@param changedPackages} with the freshly collected data, and verifies
+     * the correctness of the ENABLED column for every row.
+     */
+    @VisibleForTesting
+    void updateDatabaseForPackages(PreIndexData preIndexData, Set<String> changedPackages) {
+        final SQLiteDatabase database = getWritableDatabase();
+        if (database == null) {
+            Log.w(LOG_TAG, "Cannot indexDatabase Index as I cannot get a writable database");
+            return;
+        }
+
+        try {
+            database.beginTransaction();
+
+            deleteDataForPackages(database, changedPackages);
+            insertIndexData(database, getIndexData(preIndexData));
+            updateDataInDatabase(database, preIndexData.nonIndexableKeys);
+            IndexDatabaseHelper.bumpIndexGeneration(database);
+
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Removes all search and site map rows contributed by {@param packages}.
+     */
+    @VisibleForTesting
+    void deleteDataForPackages(SQLiteDatabase database, Set<String> packages) {
+        final String packageList = buildSqlList(packages);
+        database.delete(TABLE_SITE_MAP, SiteMapColumns.PARENT_CLASS + " IN (SELECT "
+                + CLASS_NAME + " FROM " + TABLE_PREFS_INDEX + " WHERE " + PACKAGE + " IN "
+                + packageList + ")", null /* whereArgs */);
+        database.delete(TABLE_PREFS_INDEX, PACKAGE + " IN " + packageList,
+                null /* whereArgs */);
+    }
+
     @VisibleForTesting
     List<IndexData> getIndexData(PreIndexData data) {
         if (mConverter == null) {
@@ -224,47 +381,52 @@ public class DatabaseIndexingManager {
      */
     @VisibleForTesting
     void insertIndexData(SQLiteDatabase database, List<IndexData> indexData) {
-        ContentValues values;
-
-        for (IndexData dataRow : indexData) {
-            if (TextUtils.isEmpty(dataRow.normalizedTitle)) {
-                continue;
-            }
-
-            values = new ContentValues();
-            values.put(IndexDatabaseHelper.IndexColumns.DOCID, dataRow.getDocId());
-            values.put(LOCALE, dataRow.locale);
-            values.put(DATA_TITLE, dataRow.updatedTitle);
-            values.put(DATA_TITLE_NORMALIZED, dataRow.normalizedTitle);
-            values.put(DATA_SUMMARY_ON, dataRow.updatedSummaryOn);
-            values.put(DATA_SUMMARY_ON_NORMALIZED, dataRow.normalizedSummaryOn);
-            values.put(DATA_ENTRIES, dataRow.entries);
-            values.put(DATA_KEYWORDS, dataRow.spaceDelimitedKeywords);
-            values.put(CLASS_NAME, dataRow.className);
-            values.put(SCREEN_TITLE, dataRow.screenTitle);
-            values.put(INTENT_ACTION, dataRow.intentAction);
-            values.put(INTENT_TARGET_PACKAGE, dataRow.intentTargetPackage);
-            values.put(INTENT_TARGET_CLASS, dataRow.intentTargetClass);
-            values.put(ICON, dataRow.iconResId);
-            values.put(ENABLED, dataRow.enabled);
-            values.put(DATA_KEY_REF, dataRow.key);
-            values.put(USER_ID, dataRow.userId);
-            values.put(PAYLOAD_TYPE, dataRow.payloadType);
-            values.put(PAYLOAD, dataRow.payload);
-
-            database.replaceOrThrow(TABLE_PREFS_INDEX, null, values);
-
-            if (!TextUtils.isEmpty(dataRow.className)
-                    && !TextUtils.isEmpty(dataRow.childClassName)) {
-                final ContentValues siteMapPair = new ContentValues();
-                siteMapPair.put(SiteMapColumns.PARENT_CLASS, dataRow.className);
-                siteMapPair.put(SiteMapColumns.PARENT_TITLE, dataRow.screenTitle);
-                siteMapPair.put(SiteMapColumns.CHILD_CLASS, dataRow.childClassName);
-                siteMapPair.put(SiteMapColumns.CHILD_TITLE, dataRow.updatedTitle);
-
-                database.replaceOrThrow(IndexDatabaseHelper.Tables.TABLE_SITE_MAP,
-                        null /* nullColumnHack */, siteMapPair);
+        try (SQLiteBulkWriter indexWriter = new SQLiteBulkWriter(database, TABLE_PREFS_INDEX,
+                DOCID, LOCALE, DATA_TITLE, DATA_TITLE_NORMALIZED, DATA_SUMMARY_ON,
+                DATA_SUMMARY_ON_NORMALIZED, DATA_ENTRIES, DATA_KEYWORDS, CLASS_NAME,
+                SCREEN_TITLE, INTENT_ACTION, INTENT_TARGET_PACKAGE, INTENT_TARGET_CLASS, ICON,
+                ENABLED, DATA_KEY_REF, USER_ID, PAYLOAD_TYPE, PAYLOAD, PACKAGE);
+             SQLiteBulkWriter siteMapWriter = new SQLiteBulkWriter(database, TABLE_SITE_MAP,
+                     SiteMapColumns.PARENT_CLASS, SiteMapColumns.PARENT_TITLE,
+                     SiteMapColumns.CHILD_CLASS, SiteMapColumns.CHILD_TITLE)) {
+            for (IndexData dataRow : indexData) {
+                if (TextUtils.isEmpty(dataRow.normalizedTitle)) {
+                    continue;
+                }
+
+                indexWriter.bindLong(1, dataRow.getDocId())
+                        .bindString(2, dataRow.locale)
+                        .bindString(3, dataRow.updatedTitle)
+                        .bindString(4, dataRow.normalizedTitle)
+                        .bindString(5, dataRow.updatedSummaryOn)
+                        .bindString(6, dataRow.normalizedSummaryOn)
+                        .bindString(7, dataRow.entries)
+                        .bindString(8, dataRow.spaceDelimitedKeywords)
+                        .bindString(9, dataRow.className)
+                        .bindString(10, dataRow.screenTitle)
+                        .bindString(11, dataRow.intentAction)
+                        .bindString(12, dataRow.intentTargetPackage)
+                        .bindString(13, dataRow.intentTargetClass)
+                        .bindLong(14, dataRow.iconResId)
+                        .bindBoolean(15, dataRow.enabled)
+                        .bindString(16, dataRow.key)
+                        .bindLong(17, dataRow.userId)
+                        .bindLong(18, dataRow.payloadType)
+                        .bindBlob(19, dataRow.payload)
+                        .bindString(20, dataRow.packageName)
+                        .insert();
+
+                if (!TextUtils.isEmpty(dataRow.className)
+                        && !TextUtils.isEmpty(dataRow.childClassName)) {
+                    siteMapWriter.bindString(1, dataRow.className)
+                            .bindString(2, dataRow.screenTitle)
+                            .bindString(3, dataRow.childClassName)
+                            .bindString(4, dataRow.updatedTitle)
+                            .insert();
+                }
             }
+            siteMapWriter.markSuccessful();
+            indexWriter.markSuccessful();
         }
     }
 
@@ -272,6 +434,7 @@ public class DatabaseIndexingManager {
      * Upholds the validity of enabled data for the user.
      * All rows which are enabled but are now flagged with non-indexable keys will become disabled.
      * All rows which are disabled but no longer a non-indexable key will become enabled.
+     * Rows are flipped with one set-based statement per package and direction.
      *
      * @param database         The database to validate.
      * @param nonIndexableKeys A map between package name and the set of non-indexable keys for it.
@@ -279,62 +442,57 @@ public class DatabaseIndexingManager {
     @VisibleForTesting
     void updateDataInDatabase(SQLiteDatabase database,
             Map<String, Set<String>> nonIndexableKeys) {
-        final String whereEnabled = ENABLED + " = 1";
-        final String whereDisabled = ENABLED + " = 0";
-
-        final Cursor enabledResults = database.query(TABLE_PREFS_INDEX, SELECT_COLUMNS,
-                whereEnabled, null, null, null, null);
-
         final ContentValues enabledToDisabledValue = new ContentValues();
         enabledToDisabledValue.put(ENABLED, 0);
-
-        String packageName;
-        // TODO Refactor: Move these two loops into one method.
-        while (enabledResults.moveToNext()) {
-            // Package name is the key for remote providers.
-            // If package name is null, the provider is Settings.
-            packageName = enabledResults.getString(COLUMN_INDEX_INTENT_ACTION_TARGET_PACKAGE);
-            if (packageName == null) {
-                packageName = mContext.getPackageName();
-            }
-
-            final String key = enabledResults.getString(COLUMN_INDEX_KEY);
-            final Set<String> packageKeys = nonIndexableKeys.get(packageName);
-
-            // The indexed item is set to Enabled but is now non-indexable
-            if (packageKeys != null && packageKeys.contains(key)) {
-                final String whereClause = DOCID + " = " + enabledResults.getInt(COLUMN_INDEX_ID);
-                database.update(TABLE_PREFS_INDEX, enabledToDisabledValue, whereClause, null);
-            }
-        }
-        enabledResults.close();
-
-        final Cursor disabledResults = database.query(TABLE_PREFS_INDEX, SELECT_COLUMNS,
-                whereDisabled, null, null, null, null);
-
         final ContentValues disabledToEnabledValue = new ContentValues();
         disabledToEnabledValue.put(ENABLED, 1);
 
-        while (disabledResults.moveToNext()) {
+        // Keys from packages missing in the map are left untouched: they came from an
+        // unrecognized package and therefore should not be surfaced as results.
+        for (Map.Entry<String, Set<String>> entry : nonIndexableKeys.entrySet()) {
+            final String packageName = entry.getKey();
+            final Set<String> packageKeys = entry.getValue();
             // Package name is the key for remote providers.
             // If package name is null, the provider is Settings.
-            packageName = disabledResults.getString(COLUMN_INDEX_INTENT_ACTION_TARGET_PACKAGE);
-            if (packageName == null) {
-                packageName = mContext.getPackageName();
+            final String wherePackage = TextUtils.equals(packageName, mContext.getPackageName())
+                    ? "(" + INTENT_TARGET_PACKAGE + " = ? OR " + INTENT_TARGET_PACKAGE
+                    + " IS NULL)"
+                    : INTENT_TARGET_PACKAGE + " = ?";
+            final String[] whereArgs = {packageName};
+
+            if (packageKeys == null || packageKeys.isEmpty()) {
+                database.update(TABLE_PREFS_INDEX, disabledToEnabledValue,
+                        ENABLED + " = 0 AND " + wherePackage, whereArgs);
+                continue;
             }
+            final String keyList = buildSqlList(packageKeys);
 
-            final String key = disabledResults.getString(COLUMN_INDEX_KEY);
-            final Set<String> packageKeys = nonIndexableKeys.get(packageName);
-
+            // The indexed item is set to Enabled but is now non-indexable
+            database.update(TABLE_PREFS_INDEX, enabledToDisabledValue,
+                    ENABLED + " = 1 AND " + wherePackage + " AND " + DATA_KEY_REF + " IN "
+                            + keyList, whereArgs);
             // The indexed item is set to Disabled but is no longer non-indexable.
-            // We do not enable keys when packageKeys is null because it means the keys came
-            // from an unrecognized package and therefore should not be surfaced as results.
-            if (packageKeys != null && !packageKeys.contains(key)) {
-                String whereClause = DOCID + " = " + disabledResults.getInt(COLUMN_INDEX_ID);
-                database.update(TABLE_PREFS_INDEX, disabledToEnabledValue, whereClause, null);
+            database.update(TABLE_PREFS_INDEX, disabledToEnabledValue,
+                    ENABLED + " = 0 AND " + wherePackage + " AND (" + DATA_KEY_REF
+                            + " IS NULL OR " + DATA_KEY_REF + " NOT IN " + keyList + ")",
+                    whereArgs);
+        }
+    }
+
+    /**
+     * @return {@param values} as an escaped SQL list, e.g. ('a', 'b').
+     */
+    private static String buildSqlList(Set<String> values) {
+        final StringBuilder sb = new StringBuilder("(");
+        boolean first = true;
+        for (String value : values) {
+            if (!first) {
+                sb.append(',');
             }
+            DatabaseUtils.appendEscapedSQLString(sb, value == null ? "" : value);
+            first = false;
         }
-        disabledResults.close();
+        return sb.append(')').toString();
     }
 
     private SQLiteDatabase getWritableDatabase() {
@@ -16,25 +16,31 @@
 
 package com.android.settings.search;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.content.pm.ApplicationInfo;
 import android.content.pm.ResolveInfo;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.os.Build;
 import android.provider.SearchIndexablesContract.SiteMapColumns;
 import android.support.annotation.VisibleForTesting;
 import android.text.TextUtils;
+import android.util.ArrayMap;
 import android.util.Log;
 
 import java.util.List;
+import java.util.Map;
 
 public class IndexDatabaseHelper extends SQLiteOpenHelper {
 
     private static final String TAG = "IndexDatabaseHelper";
 
     private static final String DATABASE_NAME = "search_index.db";
-    private static final int DATABASE_VERSION = 118;
+    private static final int DATABASE_VERSION = 122;
 
     private static final String SHARED_PREFS_TAG = "indexing_manager";
 
@@ -44,6 +50,7 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
         String TABLE_PREFS_INDEX = "prefs_index";
         String TABLE_SITE_MAP = "site_map";
         String TABLE_META_INDEX = "meta_index";
+        String TABLE_META_PROVIDERS = "meta_providers";
         String TABLE_SAVED_QUERIES = "saved_queries";
     }
 
@@ -70,10 +77,17 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
         String USER_ID = "user_id";
         String PAYLOAD_TYPE = "payload_type";
         String PAYLOAD = "payload";
+        String PACKAGE = "package";
     }
 
     public interface MetaColumns {
         String BUILD = "build";
+        String GENERATION = "generation";
+    }
+
+    public interface MetaProvidersColumns {
+        String PACKAGE = "package";
+        String CONTENT_HASH = "content_hash";
     }
 
     public interface SavedQueriesColumns {
@@ -125,12 +139,28 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
                     IndexColumns.PAYLOAD_TYPE +
                     ", " +
                     IndexColumns.PAYLOAD +
+                    ", " +
+                    IndexColumns.PACKAGE +
+                    ", " +
+                    "notindexed=" + IndexColumns.PACKAGE +
+                    ", " +
+                    "prefix=\"2,3\"" +
                     ");";
 
     private static final String CREATE_META_TABLE =
             "CREATE TABLE " + Tables.TABLE_META_INDEX +
                     "(" +
                     MetaColumns.BUILD + " VARCHAR(32) NOT NULL" +
+                    ", " +
+                    MetaColumns.GENERATION + " INTEGER NOT NULL DEFAULT 0" +
+                    ")";
+
+    private static final String CREATE_META_PROVIDERS_TABLE =
+            "CREATE TABLE " + Tables.TABLE_META_PROVIDERS +
+                    "(" +
+                    MetaProvidersColumns.PACKAGE + " TEXT PRIMARY KEY" +
+                    ", " +
+                    MetaProvidersColumns.CONTENT_HASH + " TEXT NOT NULL" +
                     ")";
 
     private static final String CREATE_SAVED_QUERIES_TABLE =
@@ -154,11 +184,19 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
                     ")";
     private static final String INSERT_BUILD_VERSION =
             "INSERT INTO " + Tables.TABLE_META_INDEX +
+                    " (" + MetaColumns.BUILD + ")" +
                     " VALUES ('" + Build.VERSION.INCREMENTAL + "');";
 
     private static final String SELECT_BUILD_VERSION =
             "SELECT " + MetaColumns.BUILD + " FROM " + Tables.TABLE_META_INDEX + " LIMIT 1;";
 
+    private static final String SELECT_GENERATION =
+            "SELECT " + MetaColumns.GENERATION + " FROM " + Tables.TABLE_META_INDEX + " LIMIT 1;";
+
+    private static final String BUMP_GENERATION =
+            "UPDATE " + Tables.TABLE_META_INDEX +
+                    " SET " + MetaColumns.GENERATION + " = " + MetaColumns.GENERATION + " + 1;";
+
     private static IndexDatabaseHelper sSingleton;
 
     private final Context mContext;
@@ -183,6 +221,7 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
     private void bootstrapDB(SQLiteDatabase db) {
         db.execSQL(CREATE_INDEX_TABLE);
         db.execSQL(CREATE_META_TABLE);
+        db.execSQL(CREATE_META_PROVIDERS_TABLE);
         db.execSQL(CREATE_SAVED_QUERIES_TABLE);
         db.execSQL(CREATE_SITE_MAP_TABLE);
         db.execSQL(INSERT_BUILD_VERSION);
@@ -227,8 +266,13 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
                 .edit()
                 .clear()
                 .commit();
+        // Carry the generation over so that it keeps increasing across rebuilds.
+        final long generation = getIndexGeneration(db);
         dropTables(db);
         bootstrapDB(db);
+        final ContentValues values = new ContentValues();
+        values.put(MetaColumns.GENERATION, generation + 1);
+        db.update(Tables.TABLE_META_INDEX, values, null /* whereClause */, null /* whereArgs */);
     }
 
     private String getBuildVersion(SQLiteDatabase db) {
@@ -249,6 +293,27 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
         return version;
     }
 
+    /**
+     * @return the generation of the index content. The generation increases every time the
+     * content changes, so results read from the index are valid as long as it is unchanged.
+     */
+    public static long getIndexGeneration(SQLiteDatabase db) {
+        try {
+            return DatabaseUtils.longForQuery(db, SELECT_GENERATION, null /* selectionArgs */);
+        } catch (SQLiteException e) {
+            Log.w(TAG, "Cannot get generation from Index metadata");
+            return 0;
+        }
+    }
+
+    /**
+     * Increases the generation of the index content. Call within the transaction which changes
+     * the content.
+     */
+    static void bumpIndexGeneration(SQLiteDatabase db) {
+        db.execSQL(BUMP_GENERATION);
+    }
+
     @VisibleForTesting
     static String buildProviderVersionedNames(List<ResolveInfo> providers) {
         StringBuilder sb = new StringBuilder();
@@ -261,6 +326,57 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
         return sb.toString();
     }
 
+    /**
+     * Returns a content hash for each package hosting a search indexable provider. The hash
+     * changes whenever the package is updated, which is when its indexable data may change.
+     */
+    @VisibleForTesting
+    static Map<String, String> buildProviderContentHashes(List<ResolveInfo> providers) {
+        final Map<String, String> hashes = new ArrayMap<>();
+        for (ResolveInfo info : providers) {
+            final ApplicationInfo appInfo = info.providerInfo.applicationInfo;
+            final String packageName = info.providerInfo.packageName;
+            final String previous = hashes.get(packageName);
+            final String hash = new StringBuilder()
+                    .append(info.providerInfo.authority)
+                    .append(':')
+                    .append(appInfo.longVersionCode)
+                    .append(':')
+                    .append(appInfo.sourceDir)
+                    .toString();
+            hashes.put(packageName, previous == null ? hash : previous + ',' + hash);
+        }
+        return hashes;
+    }
+
+    /**
+     * @return the content hash of each indexed provider package, keyed by package name.
+     */
+    static Map<String, String> getIndexedProviderHashes(SQLiteDatabase db) {
+        final Map<String, String> hashes = new ArrayMap<>();
+        try (Cursor cursor = db.query(Tables.TABLE_META_PROVIDERS,
+                new String[] {MetaProvidersColumns.PACKAGE, MetaProvidersColumns.CONTENT_HASH},
+                null /* selection */, null /* selectionArgs */, null /* groupBy */,
+                null /* having */, null /* orderBy */)) {
+            while (cursor.moveToNext()) {
+                hashes.put(cursor.getString(0), cursor.getString(1));
+            }
+        }
+        return hashes;
+    }
+
+    static void setProviderHashIndexed(SQLiteDatabase db, String packageName, String hash) {
+        final ContentValues values = new ContentValues();
+        values.put(MetaProvidersColumns.PACKAGE, packageName);
+        values.put(MetaProvidersColumns.CONTENT_HASH, hash);
+        db.replaceOrThrow(Tables.TABLE_META_PROVIDERS, null /* nullColumnHack */, values);
+    }
+
+    static void removeProviderHash(SQLiteDatabase db, String packageName) {
+        db.delete(Tables.TABLE_META_PROVIDERS, MetaProvidersColumns.PACKAGE + " = ?",
+                new String[] {packageName});
+    }
+
     static void setLocaleIndexed(Context context, String locale) {
         context.getSharedPreferences(SHARED_PREFS_TAG, Context.MODE_PRIVATE)
                 .edit()
@@ -299,6 +415,7 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
 
     private void dropTables(SQLiteDatabase db) {
         db.execSQL("DROP TABLE IF EXISTS " + Tables.TABLE_META_INDEX);
+        db.execSQL("DROP TABLE IF EXISTS " + Tables.TABLE_META_PROVIDERS);
         db.execSQL("DROP TABLE IF EXISTS " + Tables.TABLE_PREFS_INDEX);
         db.execSQL("DROP TABLE IF EXISTS " + Tables.TABLE_SAVED_QUERIES);
         db.execSQL("DROP TABLE IF EXISTS " + Tables.TABLE_SITE_MAP);
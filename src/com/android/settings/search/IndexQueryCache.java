@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.search;
+
+import android.support.annotation.VisibleForTesting;
+import android.text.TextUtils;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * In-memory LRU cache of {@link IndexQueryEngine} results, keyed by normalized query, locale and
+ * user id.
+ *
+ * Entries are valid for a single index generation (see
+ * {@link IndexDatabaseHelper#getIndexGeneration}); the whole cache is dropped when the
+ * generation changes.
+ *
+ * Besides repeated queries, the cache narrows down the candidates of queries which extend a cached
+ * query, such as "blue" after "blu", by filtering the cached results, provided that the cached
+ * results were complete. Those candidates still have to be scored against the extended query.
+ */
+public class IndexQueryCache {
+
+    @VisibleForTesting
+    static final int MAX_ENTRIES = 64;
+
+    private final LruCache<String, Entry> mEntries = new LruCache<>(MAX_ENTRIES);
+
+    private long mGeneration = -1;
+    private int mHits;
+    private int mPrefixHits;
+    private int mMisses;
+
+    /**
+     * @return the cached results for {@param tokens}, or null if they must be queried.
+     */
+    public synchronized List<IndexQueryEngine.Result> get(long generation, String locale,
+            int userId, List<String> tokens, int maxResults) {
+        if (generation != mGeneration) {
+            mEntries.evictAll();
+            mGeneration = generation;
+        }
+        final Entry entry = mEntries.get(buildKey(TextUtils.join(" ", tokens), locale, userId));
+        if (entry != null && (entry.complete || entry.maxResults >= maxResults)) {
+            mHits++;
+            return truncate(entry.results, maxResults);
+        }
+        return null;
+    }
+
+    /**
+     * Called once {@link #get} returned null.
+     *
+     * @return every row which may match {@param tokens}, taken from the complete results of a
+     * cached query they extend, or null if the index must be queried. The rows keep the scores
+     * and order of that shorter query.
+     */
+    public synchronized List<IndexQueryEngine.Result> getPrefixCandidates(long generation,
+            String locale, int userId, List<String> tokens) {
+        if (generation != mGeneration) {
+            mMisses++;
+            return null;
+        }
+        final String query = TextUtils.join(" ", tokens);
+        // Results of an extended query are a subset of the complete results of its prefix.
+        for (int end = query.length() - 1; end > 0; end--) {
+            if (query.charAt(end - 1) == ' ') {
+                continue;
+            }
+            final Entry prefixEntry = mEntries.get(
+                    buildKey(query.substring(0, end), locale, userId));
+            if (prefixEntry == null || !prefixEntry.complete) {
+                continue;
+            }
+            final List<IndexQueryEngine.Result> filtered = new ArrayList<>();
+            for (IndexQueryEngine.Result result : prefixEntry.results) {
+                if (result.matchesPrefixes(tokens)) {
+                    filtered.add(result);
+                }
+            }
+            if (filtered.isEmpty()) {
+                // The engine may still find typo corrections.
+                break;
+            }
+            mPrefixHits++;
+            return filtered;
+        }
+        mMisses++;
+        return null;
+    }
+
+    /**
+     * Caches {@param results} of a query for {@param tokens}.
+     *
+     * @param exact false if the results do not match the tokens as typed, for example because
+     *              typos were corrected. Such results are not used for extended queries.
+     */
+    public synchronized void put(long generation, String locale, int userId,
+            List<String> tokens, int maxResults, List<IndexQueryEngine.Result> results,
+            boolean exact) {
+        if (generation != mGeneration) {
+            return;
+        }
+        final boolean complete = exact && results.size() < maxResults;
+        mEntries.put(buildKey(TextUtils.join(" ", tokens), locale, userId),
+                new Entry(results, maxResults, complete));
+    }
+
+    public synchronized void clear() {
+        mEntries.evictAll();
+        mGeneration = -1;
+    }
+
+    public synchronized int getHitCount() {
+        return mHits;
+    }
+
+    public synchronized int getPrefixHitCount() {
+        return mPrefixHits;
+    }
+
+    public synchronized int getMissCount() {
+        return mMisses;
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    public synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    private static String buildKey(String query, String locale, int userId) {
+        return userId + "/" + locale + "/" + query;
+    }
+
+    private static List<IndexQueryEngine.Result> truncate(List<IndexQueryEngine.Result> results,
+            int maxResults) {
+        return results.size() <= maxResults ? results : results.subList(0, maxResults);
+    }
+
+    private static class Entry {
+        final List<IndexQueryEngine.Result> results;
+        final int maxResults;
+        // True if the results hold every row matching the query, not only the top ones.
+        final boolean complete;
+
+        Entry(List<IndexQueryEngine.Result> results, int maxResults, boolean complete) {
+            this.results = results;
+            this.maxResults = maxResults;
+            this.complete = complete;
+        }
+    }
+}
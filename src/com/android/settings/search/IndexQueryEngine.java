@@ -0,0 +1,640 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.search;
+
+import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.DATA_KEYWORDS;
+import static com.android.settings.search.IndexDatabaseHelper.IndexColumns
+        .DATA_SUMMARY_ON_NORMALIZED;
+import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.DATA_TITLE_NORMALIZED;
+import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.DOCID;
+import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.ENABLED;
+import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.LOCALE;
+import static com.android.settings.search.IndexDatabaseHelper.Tables.TABLE_PREFS_INDEX;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.os.UserHandle;
+import android.support.annotation.VisibleForTesting;
+import android.text.TextUtils;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.Log;
+
+import com.android.settings.search.indexing.IndexData;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Ranked query engine over the {@link IndexDatabaseHelper.Tables#TABLE_PREFS_INDEX} FTS table.
+ *
+ * Every query token is matched as a prefix against the normalized title, the normalized summary
+ * and the keywords of a row; a row must match every token. Rows are scored with BM25 computed from
+ * FTS4 {@code matchinfo}, with titles weighted above keywords and summaries. Tokens which match
+ * nothing are replaced by title words within a small edit distance, to tolerate typos.
+ *
+ * Scoring reads only the doc id and the match info of the candidate rows; the full columns are
+ * loaded for the top results only. Results are kept in an {@link IndexQueryCache} until the
+ * index generation changes. A query extending a cached one only scores the cached rows which may
+ * match it, reusing their loaded columns.
+ */
+public class IndexQueryEngine {
+
+    private static final String TAG = "IndexQueryEngine";
+
+    // BM25 parameters.
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    // Column positions in prefs_index, as laid out in IndexDatabaseHelper.
+    @VisibleForTesting
+    static final int COLUMN_POSITION_TITLE = 3;
+    @VisibleForTesting
+    static final int COLUMN_POSITION_SUMMARY = 5;
+    @VisibleForTesting
+    static final int COLUMN_POSITION_KEYWORDS = 9;
+
+    private static final double WEIGHT_TITLE = 3.0;
+    private static final double WEIGHT_KEYWORDS = 2.0;
+    private static final double WEIGHT_SUMMARY = 1.0;
+
+    // Extra score for rows whose title starts with the query, so that as-you-type results
+    // favour the setting the user is spelling out.
+    private static final double TITLE_PREFIX_BOOST = 2.0;
+
+    private static final int MAX_TYPO_CANDIDATES = 5;
+
+    private static final String WORD_DELIMITERS = "[^\\p{L}\\p{N}]+";
+
+    private static final String[] MATCHED_COLUMNS =
+            {DATA_TITLE_NORMALIZED, DATA_SUMMARY_ON_NORMALIZED, DATA_KEYWORDS};
+
+    @VisibleForTesting
+    static final String[] RESULT_COLUMNS = {
+            DOCID,
+            IndexDatabaseHelper.IndexColumns.DATA_TITLE,
+            IndexDatabaseHelper.IndexColumns.DATA_SUMMARY_ON,
+            IndexDatabaseHelper.IndexColumns.CLASS_NAME,
+            IndexDatabaseHelper.IndexColumns.SCREEN_TITLE,
+            IndexDatabaseHelper.IndexColumns.ICON,
+            IndexDatabaseHelper.IndexColumns.INTENT_ACTION,
+            IndexDatabaseHelper.IndexColumns.INTENT_TARGET_PACKAGE,
+            IndexDatabaseHelper.IndexColumns.INTENT_TARGET_CLASS,
+            IndexDatabaseHelper.IndexColumns.DATA_KEY_REF,
+            IndexDatabaseHelper.IndexColumns.PAYLOAD_TYPE,
+            IndexDatabaseHelper.IndexColumns.PAYLOAD,
+            DATA_TITLE_NORMALIZED,
+            DATA_SUMMARY_ON_NORMALIZED,
+            DATA_KEYWORDS
+    };
+
+    private final Context mContext;
+    private final IndexQueryCache mCache = new IndexQueryCache();
+
+    // Words of the indexed titles, used to correct typos. Built lazily.
+    private Set<String> mTitleVocabulary;
+    private String mVocabularyLocale;
+    private long mVocabularyGeneration;
+
+    public IndexQueryEngine(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * Returns at most {@param maxResults} enabled results for {@param query} in the current
+     * locale, best first.
+     */
+    public List<Result> query(String query, int maxResults) {
+        final List<String> tokens = tokenize(query);
+        if (tokens.isEmpty() || maxResults <= 0) {
+            return Collections.emptyList();
+        }
+        final SQLiteDatabase database = getReadableDatabase();
+        if (database == null) {
+            return Collections.emptyList();
+        }
+        final String locale = Locale.getDefault().toString();
+        final int userId = UserHandle.myUserId();
+
+        try {
+            final long generation = IndexDatabaseHelper.getIndexGeneration(database);
+            final List<Result> cached =
+                    mCache.get(generation, locale, userId, tokens, maxResults);
+            if (cached != null) {
+                return cached;
+            }
+            final String normalizedQuery = TextUtils.join(" ", tokens);
+
+            final List<Result> candidates =
+                    mCache.getPrefixCandidates(generation, locale, userId, tokens);
+            if (candidates != null) {
+                final List<Result> results = Collections.unmodifiableList(rescoreResults(
+                        database, candidates, tokens, locale, normalizedQuery, maxResults));
+                mCache.put(generation, locale, userId, tokens, maxResults, results,
+                        true /* exact */);
+                return results;
+            }
+
+            boolean exact = true;
+            final List<String> tokenExpressions = new ArrayList<>(tokens.size());
+            for (String token : tokens) {
+                String expression = buildPrefixExpression(token);
+                if (!hasMatch(database, expression, locale)) {
+                    expression = buildTypoExpression(database, token, locale, generation);
+                    exact = false;
+                    if (expression == null) {
+                        mCache.put(generation, locale, userId, tokens, maxResults,
+                                Collections.emptyList(), false /* exact */);
+                        return Collections.emptyList();
+                    }
+                }
+                tokenExpressions.add(expression);
+            }
+
+            final Map<Integer, Double> topScores =
+                    scoreTopResults(database, tokenExpressions, locale, normalizedQuery,
+                            maxResults, null /* docIds */);
+            final List<Result> results =
+                    Collections.unmodifiableList(loadResults(database, topScores));
+            mCache.put(generation, locale, userId, tokens, maxResults, results, exact);
+            return results;
+        } catch (SQLiteException e) {
+            Log.w(TAG, "Cannot query search index", e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Drops state derived from the index content. State is also dropped automatically when the
+     * index generation changes.
+     */
+    public synchronized void invalidate() {
+        mTitleVocabulary = null;
+        mVocabularyLocale = null;
+        mCache.clear();
+    }
+
+    public IndexQueryCache getCache() {
+        return mCache;
+    }
+
+    /**
+     * Splits {@param query} into normalized tokens, using the same normalization as the indexed
+     * columns.
+     */
+    @VisibleForTesting
+    static List<String> tokenize(String query) {
+        final List<String> tokens = new ArrayList<>();
+        if (TextUtils.isEmpty(query)) {
+            return tokens;
+        }
+        final String normalized = Locale.JAPAN.equals(Locale.getDefault())
+                ? IndexData.normalizeJapaneseString(query)
+                : IndexData.normalizeString(query);
+        for (String token : normalized.split(WORD_DELIMITERS)) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    private static String buildPrefixExpression(String token) {
+        final StringBuilder sb = new StringBuilder();
+        for (String column : MATCHED_COLUMNS) {
+            if (sb.length() > 0) {
+                sb.append(" OR ");
+            }
+            sb.append(column).append(':').append(token).append('*');
+        }
+        return sb.toString();
+    }
+
+    private boolean hasMatch(SQLiteDatabase database, String expression, String locale) {
+        try (Cursor cursor = database.rawQuery("SELECT " + DOCID + " FROM " + TABLE_PREFS_INDEX
+                + " WHERE " + TABLE_PREFS_INDEX + " MATCH ? AND " + LOCALE + " = ? LIMIT 1",
+                new String[] {expression, locale})) {
+            return cursor.moveToFirst();
+        }
+    }
+
+    /**
+     * @return an expression matching the title words closest to {@param token}, or null if no
+     * title word is close enough.
+     */
+    private String buildTypoExpression(SQLiteDatabase database, String token, String locale,
+            long generation) {
+        final int maxDistance = getMaxEditDistance(token);
+        if (maxDistance == 0) {
+            return null;
+        }
+        final List<String> candidates = new ArrayList<>();
+        for (String word : getTitleVocabulary(database, locale, generation)) {
+            if (Math.abs(word.length() - token.length()) <= maxDistance
+                    && editDistance(token, word, maxDistance) <= maxDistance) {
+                candidates.add(word);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        Collections.sort(candidates, Comparator.comparingInt(
+                (String word) -> editDistance(token, word, maxDistance))
+                .thenComparing(Comparator.naturalOrder()));
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < Math.min(MAX_TYPO_CANDIDATES, candidates.size()); i++) {
+            if (i > 0) {
+                sb.append(" OR ");
+            }
+            sb.append(DATA_TITLE_NORMALIZED).append(':').append(candidates.get(i));
+        }
+        return sb.toString();
+    }
+
+    @VisibleForTesting
+    static int getMaxEditDistance(String token) {
+        if (token.length() < 4) {
+            return 0;
+        }
+        return token.length() < 8 ? 1 : 2;
+    }
+
+    /**
+     * @return the Levenshtein distance between {@param a} and {@param b}, or a value greater
+     * than {@param limit} once the distance is known to exceed it.
+     */
+    @VisibleForTesting
+    static int editDistance(String a, String b, int limit) {
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            for (int j = 1; j <= b.length(); j++) {
+                final int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1),
+                        previous[j - 1] + cost);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (rowMin > limit) {
+                return limit + 1;
+            }
+            final int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+
+    private synchronized Set<String> getTitleVocabulary(SQLiteDatabase database,
+            String locale, long generation) {
+        if (mTitleVocabulary != null && TextUtils.equals(locale, mVocabularyLocale)
+                && generation == mVocabularyGeneration) {
+            return mTitleVocabulary;
+        }
+        final Set<String> vocabulary = new ArraySet<>();
+        try (Cursor cursor = database.query(TABLE_PREFS_INDEX,
+                new String[] {DATA_TITLE_NORMALIZED}, LOCALE + " = ?", new String[] {locale},
+                null /* groupBy */, null /* having */, null /* orderBy */)) {
+            while (cursor.moveToNext()) {
+                final String title = cursor.getString(0);
+                if (title == null) {
+                    continue;
+                }
+                for (String word : title.split(WORD_DELIMITERS)) {
+                    if (!word.isEmpty()) {
+                        vocabulary.add(word);
+                    }
+                }
+            }
+        }
+        mTitleVocabulary = vocabulary;
+        mVocabularyLocale = locale;
+        mVocabularyGeneration = generation;
+        return vocabulary;
+    }
+
+    /**
+     * Scores {@param candidates}, already loaded for a shorter query, against {@param tokens},
+     * without loading their columns again.
+     *
+     * @return the best {@param maxResults} candidates, best first.
+     */
+    private List<Result> rescoreResults(SQLiteDatabase database, List<Result> candidates,
+            List<String> tokens, String locale, String normalizedQuery, int maxResults) {
+        final List<String> tokenExpressions = new ArrayList<>(tokens.size());
+        for (String token : tokens) {
+            tokenExpressions.add(buildPrefixExpression(token));
+        }
+        final List<Integer> docIds = new ArrayList<>(candidates.size());
+        for (Result candidate : candidates) {
+            docIds.add(candidate.docId);
+        }
+        final Map<Integer, Double> scores = scoreTopResults(database, tokenExpressions, locale,
+                normalizedQuery, maxResults, docIds);
+
+        final List<Result> results = new ArrayList<>(scores.size());
+        for (Result candidate : candidates) {
+            final Double score = scores.get(candidate.docId);
+            if (score != null) {
+                results.add(new Result(candidate, score));
+            }
+        }
+        Collections.sort(results);
+        return results;
+    }
+
+    /**
+     * Scores every candidate row from its match info and keeps the best {@param maxResults}.
+     *
+     * @param docIds the rows to score, or null to score every row matching the tokens.
+     * @return doc id to score of the best rows.
+     */
+    private Map<Integer, Double> scoreTopResults(SQLiteDatabase database,
+            List<String> tokenExpressions, String locale, String normalizedQuery,
+            int maxResults, List<Integer> docIds) {
+        // The outer MATCH gathers match info for all tokens; each token must also match on its
+        // own, which gives AND semantics regardless of the FTS query syntax in use.
+        final StringBuilder sql = new StringBuilder()
+                .append("SELECT ").append(DOCID).append(", ").append(DATA_TITLE_NORMALIZED)
+                .append(", matchinfo(").append(TABLE_PREFS_INDEX).append(", 'pcnalx')")
+                .append(" FROM ").append(TABLE_PREFS_INDEX)
+                .append(" WHERE ").append(TABLE_PREFS_INDEX).append(" MATCH ?")
+                .append(" AND ").append(LOCALE).append(" = ?")
+                .append(" AND ").append(ENABLED).append(" = 1");
+        if (docIds != null) {
+            sql.append(" AND ").append(DOCID).append(" IN (")
+                    .append(TextUtils.join(",", docIds)).append(')');
+        }
+        final List<String> args = new ArrayList<>();
+        args.add(TextUtils.join(" OR ", tokenExpressions));
+        args.add(locale);
+        if (tokenExpressions.size() > 1) {
+            for (String expression : tokenExpressions) {
+                sql.append(" AND ").append(DOCID).append(" IN (SELECT ").append(DOCID)
+                        .append(" FROM ").append(TABLE_PREFS_INDEX).append(" WHERE ")
+                        .append(TABLE_PREFS_INDEX).append(" MATCH ?)");
+                args.add(expression);
+            }
+        }
+
+        final PriorityQueue<ScoredDoc> topDocs = new PriorityQueue<>(maxResults);
+        try (Cursor cursor = database.rawQuery(sql.toString(),
+                args.toArray(new String[args.size()]))) {
+            while (cursor.moveToNext()) {
+                double score = scoreBm25(cursor.getBlob(2));
+                final String title = cursor.getString(1);
+                if (title != null && title.startsWith(normalizedQuery)) {
+                    score += TITLE_PREFIX_BOOST;
+                }
+                final ScoredDoc doc = new ScoredDoc(cursor.getInt(0), score);
+                if (topDocs.size() < maxResults) {
+                    topDocs.add(doc);
+                } else if (doc.compareTo(topDocs.peek()) > 0) {
+                    topDocs.poll();
+                    topDocs.add(doc);
+                }
+            }
+        }
+
+        final Map<Integer, Double> scores = new ArrayMap<>(topDocs.size());
+        for (ScoredDoc doc : topDocs) {
+            scores.put(doc.docId, doc.score);
+        }
+        return scores;
+    }
+
+    /**
+     * Computes the BM25 score of a row from an FTS4 {@code matchinfo(table, 'pcnalx')} blob.
+     */
+    @VisibleForTesting
+    static double scoreBm25(byte[] matchInfo) {
+        final IntBuffer info = ByteBuffer.wrap(matchInfo).order(ByteOrder.nativeOrder())
+                .asIntBuffer();
+        final int phraseCount = info.get(0);
+        final int columnCount = info.get(1);
+        final int rowCount = info.get(2);
+        final int avgLengthOffset = 3;
+        final int lengthOffset = avgLengthOffset + columnCount;
+        final int hitsOffset = lengthOffset + columnCount;
+
+        double score = 0;
+        for (int phrase = 0; phrase < phraseCount; phrase++) {
+            for (int column = 0; column < columnCount; column++) {
+                final double weight = getColumnWeight(column);
+                if (weight == 0) {
+                    continue;
+                }
+                final int hits = hitsOffset + 3 * (phrase * columnCount + column);
+                final int hitsInRow = info.get(hits);
+                if (hitsInRow == 0) {
+                    continue;
+                }
+                final int rowsWithHits = info.get(hits + 2);
+                double idf = Math.log((rowCount - rowsWithHits + 0.5) / (rowsWithHits + 0.5));
+                if (idf <= 0) {
+                    idf = 1e-6;
+                }
+                final double avgLength = Math.max(1, info.get(avgLengthOffset + column));
+                final double length = info.get(lengthOffset + column);
+                score += weight * idf * (hitsInRow * (K1 + 1))
+                        / (hitsInRow + K1 * (1 - B + B * length / avgLength));
+            }
+        }
+        return score;
+    }
+
+    private static double getColumnWeight(int column) {
+        switch (column) {
+            case COLUMN_POSITION_TITLE:
+                return WEIGHT_TITLE;
+            case COLUMN_POSITION_KEYWORDS:
+                return WEIGHT_KEYWORDS;
+            case COLUMN_POSITION_SUMMARY:
+                return WEIGHT_SUMMARY;
+            default:
+                return 0;
+        }
+    }
+
+    private List<Result> loadResults(SQLiteDatabase database, Map<Integer, Double> scores) {
+        final List<Result> results = new ArrayList<>(scores.size());
+        if (scores.isEmpty()) {
+            return results;
+        }
+        final String docIds = TextUtils.join(",", scores.keySet());
+        try (Cursor cursor = database.query(TABLE_PREFS_INDEX, RESULT_COLUMNS,
+                DOCID + " IN (" + docIds + ")", null /* selectionArgs */, null /* groupBy */,
+                null /* having */, null /* orderBy */)) {
+            while (cursor.moveToNext()) {
+                final int docId = cursor.getInt(0);
+                results.add(new Result(docId, scores.get(docId), cursor));
+            }
+        }
+        Collections.sort(results);
+        return results;
+    }
+
+    private SQLiteDatabase getReadableDatabase() {
+        try {
+            return IndexDatabaseHelper.getInstance(mContext).getReadableDatabase();
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Cannot open readable database", e);
+            return null;
+        }
+    }
+
+    private static class ScoredDoc implements Comparable<ScoredDoc> {
+        final int docId;
+        final double score;
+
+        ScoredDoc(int docId, double score) {
+            this.docId = docId;
+            this.score = score;
+        }
+
+        /**
+         * Orders by ascending score, then by descending doc id, so that the head of a
+         * {@link PriorityQueue} is the worst result.
+         */
+        @Override
+        public int compareTo(ScoredDoc other) {
+            final int byScore = Double.compare(score, other.score);
+            return byScore != 0 ? byScore : Integer.compare(other.docId, docId);
+        }
+    }
+
+    /**
+     * A single ranked search result.
+     */
+    public static class Result implements Comparable<Result> {
+        public final int docId;
+        public final double score;
+        public final String title;
+        public final String summary;
+        public final String className;
+        public final String screenTitle;
+        public final int iconResId;
+        public final String intentAction;
+        public final String intentTargetPackage;
+        public final String intentTargetClass;
+        public final String key;
+        public final int payloadType;
+        public final byte[] payload;
+
+        private final String mTitleNormalized;
+        private final String mSummaryNormalized;
+        private final String mKeywords;
+
+        @VisibleForTesting
+        Result(int docId, double score, Cursor cursor) {
+            this.docId = docId;
+            this.score = score;
+            title = cursor.getString(1);
+            summary = cursor.getString(2);
+            className = cursor.getString(3);
+            screenTitle = cursor.getString(4);
+            iconResId = cursor.getInt(5);
+            intentAction = cursor.getString(6);
+            intentTargetPackage = cursor.getString(7);
+            intentTargetClass = cursor.getString(8);
+            key = cursor.getString(9);
+            payloadType = cursor.getInt(10);
+            payload = cursor.getBlob(11);
+            mTitleNormalized = cursor.getString(12);
+            mSummaryNormalized = cursor.getString(13);
+            mKeywords = cursor.getString(14);
+        }
+
+        /**
+         * Copies {@param other} with a new {@param score}.
+         */
+        private Result(Result other, double score) {
+            this.docId = other.docId;
+            this.score = score;
+            title = other.title;
+            summary = other.summary;
+            className = other.className;
+            screenTitle = other.screenTitle;
+            iconResId = other.iconResId;
+            intentAction = other.intentAction;
+            intentTargetPackage = other.intentTargetPackage;
+            intentTargetClass = other.intentTargetClass;
+            key = other.key;
+            payloadType = other.payloadType;
+            payload = other.payload;
+            mTitleNormalized = other.mTitleNormalized;
+            mSummaryNormalized = other.mSummaryNormalized;
+            mKeywords = other.mKeywords;
+        }
+
+        /**
+         * @return true if every one of {@param tokens} is a prefix of a word of the normalized
+         * title, the normalized summary or the keywords.
+         */
+        boolean matchesPrefixes(List<String> tokens) {
+            for (String token : tokens) {
+                if (!hasWordWithPrefix(mTitleNormalized, token)
+                        && !hasWordWithPrefix(mSummaryNormalized, token)
+                        && !hasWordWithPrefix(mKeywords, token)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean hasWordWithPrefix(String text, String prefix) {
+            if (text == null) {
+                return false;
+            }
+            for (String word : text.toLowerCase().split(WORD_DELIMITERS)) {
+                if (word.startsWith(prefix)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Orders by descending score, then by ascending doc id for a stable order.
+         */
+        @Override
+        public int compareTo(Result other) {
+            final int byScore = Double.compare(other.score, score);
+            return byScore != 0 ? byScore : Integer.compare(docId, other.docId);
+        }
+
+        @Override
+        public String toString() {
+            return title + " (" + score + ")";
+        }
+    }
+}
@@ -48,6 +48,11 @@ public interface SearchFeatureProvider {
 
     DatabaseIndexingManager getIndexingManager(Context context);
 
+    /**
+     * @return a {@link IndexQueryEngine} ranking results from the Settings database.
+     */
+    IndexQueryEngine getQueryEngine(Context context);
+
     /**
      * @return a {@link SearchIndexableResources} to be used for indexing search results.
      */
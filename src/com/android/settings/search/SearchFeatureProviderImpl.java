@@ -36,6 +36,7 @@ public class SearchFeatureProviderImpl implements SearchFeatureProvider {
 
     private static final String METRICS_ACTION_SETTINGS_INDEX = "search_synchronous_indexing";
     private DatabaseIndexingManager mDatabaseIndexingManager;
+    private IndexQueryEngine mIndexQueryEngine;
     private SearchIndexableResources mSearchIndexableResources;
 
     @Override
@@ -64,6 +65,14 @@ public class SearchFeatureProviderImpl implements SearchFeatureProvider {
         return mDatabaseIndexingManager;
     }
 
+    @Override
+    public IndexQueryEngine getQueryEngine(Context context) {
+        if (mIndexQueryEngine == null) {
+            mIndexQueryEngine = new IndexQueryEngine(context.getApplicationContext());
+        }
+        return mIndexQueryEngine;
+    }
+
     @Override
     public void updateIndex(Context context) {
         long indexStartTime = System.currentTimeMillis();
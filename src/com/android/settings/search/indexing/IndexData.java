@@ -50,6 +50,7 @@ public class IndexData {
     public final String intentAction;
     public final String intentTargetPackage;
     public final String intentTargetClass;
+    public final String packageName;
     public final boolean enabled;
     public final String key;
     public final int userId;
@@ -87,6 +88,7 @@ public class IndexData {
         intentAction = builder.mIntentAction;
         intentTargetPackage = builder.mIntentTargetPackage;
         intentTargetClass = builder.mIntentTargetClass;
+        packageName = builder.mPackageName;
         enabled = builder.mEnabled;
         key = builder.mKey;
         userId = builder.mUserId;
@@ -169,6 +171,7 @@ public class IndexData {
         private String mIntentAction;
         private String mIntentTargetPackage;
         private String mIntentTargetClass;
+        private String mPackageName;
         private boolean mEnabled;
         private String mKey;
         private int mUserId;
@@ -231,6 +234,15 @@ public class IndexData {
             return this;
         }
 
+        /**
+         * Sets the package of the provider which supplied this row, so that the row can be
+         * dropped when only that provider needs to be re-indexed.
+         */
+        public Builder setPackageName(String packageName) {
+            mPackageName = packageName;
+            return this;
+        }
+
         public Builder setEnabled(boolean enabled) {
             mEnabled = enabled;
             return this;
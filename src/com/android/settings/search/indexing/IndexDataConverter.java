@@ -20,21 +20,17 @@ package com.android.settings.search.indexing;
 import android.annotation.Nullable;
 import android.content.Context;
 import android.content.res.Resources;
-import android.content.res.XmlResourceParser;
 import android.provider.SearchIndexableData;
 import android.provider.SearchIndexableResource;
-import android.support.annotation.DrawableRes;
 import android.text.TextUtils;
-import android.util.AttributeSet;
 import android.util.Log;
-import android.util.Xml;
 
+import com.android.settings.core.PreferenceXmlMetadataCache;
+import com.android.settings.core.PreferenceXmlMetadataCache.PreferenceMetadata;
 import com.android.settings.search.DatabaseIndexingUtils;
-import com.android.settings.core.PreferenceXmlParserUtils;
 import com.android.settings.search.ResultPayload;
 import com.android.settings.search.SearchIndexableRaw;
 
-import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.IOException;
@@ -121,6 +117,7 @@ public class IndexDataConverter {
                 .setIntentAction(raw.intentAction)
                 .setIntentTargetPackage(raw.intentTargetPackage)
                 .setIntentTargetClass(raw.intentTargetClass)
+                .setPackageName(raw.packageName)
                 .setEnabled(enabled)
                 .setKey(raw.key)
                 .setUserId(raw.userId);
@@ -138,45 +135,28 @@ public class IndexDataConverter {
     private List<IndexData> convertResource(SearchIndexableResource sir,
             Set<String> nonIndexableKeys) {
         final Context context = sir.context;
-        XmlResourceParser parser = null;
 
         List<IndexData> resourceIndexData = new ArrayList<>();
         try {
-            parser = context.getResources().getXml(sir.xmlResId);
-
-            int type;
-            while ((type = parser.next()) != XmlPullParser.END_DOCUMENT
-                    && type != XmlPullParser.START_TAG) {
-                // Parse next until start tag is found
+            final List<PreferenceMetadata> metadata = PreferenceXmlMetadataCache.getInstance()
+                    .getMetadata(context, sir.xmlResId);
+            if (metadata.isEmpty()) {
+                return resourceIndexData;
             }
 
-            String nodeName = parser.getName();
-            if (!NODE_NAME_PREFERENCE_SCREEN.equals(nodeName)) {
+            final PreferenceMetadata header = metadata.get(0);
+            if (!NODE_NAME_PREFERENCE_SCREEN.equals(header.type)) {
                 throw new RuntimeException(
                         "XML document must start with <PreferenceScreen> tag; found"
-                                + nodeName + " at " + parser.getPositionDescription());
+                                + header.type + " in " + sir.xmlResId);
             }
 
-            final int outerDepth = parser.getDepth();
-            final AttributeSet attrs = Xml.asAttributeSet(parser);
-
-            final String screenTitle = PreferenceXmlParserUtils.getDataTitle(context, attrs);
-            String key = PreferenceXmlParserUtils.getDataKey(context, attrs);
-
-            String title;
-            String headerTitle;
-            String summary;
-            String headerSummary;
-            String keywords;
-            String headerKeywords;
-            String childFragment;
-            @DrawableRes int iconResId;
-            ResultPayload payload;
-            boolean enabled;
+            final String screenTitle = header.title;
             final String fragmentName = sir.className;
             final String intentAction = sir.intentAction;
             final String intentTargetPackage = sir.intentTargetPackage;
             final String intentTargetClass = sir.intentTargetClass;
+            final String packageName = sir.packageName;
 
             Map<String, ResultPayload> controllerUriMap = new HashMap<>();
 
@@ -185,42 +165,32 @@ public class IndexDataConverter {
                         .getPayloadKeyMap(fragmentName, context);
             }
 
-            headerTitle = PreferenceXmlParserUtils.getDataTitle(context, attrs);
-            headerSummary = PreferenceXmlParserUtils.getDataSummary(context, attrs);
-            headerKeywords = PreferenceXmlParserUtils.getDataKeywords(context, attrs);
-            enabled = !nonIndexableKeys.contains(key);
+            final String headerTitle = header.title;
 
             // TODO: Set payload type for header results
             IndexData.Builder headerBuilder = new IndexData.Builder();
             headerBuilder.setTitle(headerTitle)
-                    .setSummaryOn(headerSummary)
-                    .setKeywords(headerKeywords)
+                    .setSummaryOn(header.summary)
+                    .setKeywords(header.keywords)
                     .setClassName(fragmentName)
                     .setScreenTitle(screenTitle)
                     .setIntentAction(intentAction)
                     .setIntentTargetPackage(intentTargetPackage)
                     .setIntentTargetClass(intentTargetClass)
-                    .setEnabled(enabled)
-                    .setKey(key)
+                    .setPackageName(packageName)
+                    .setEnabled(!nonIndexableKeys.contains(header.key))
+                    .setKey(header.key)
                     .setUserId(-1 /* default user id */);
 
             // Flag for XML headers which a child element's title.
             boolean isHeaderUnique = true;
             IndexData.Builder builder;
 
-            while ((type = parser.next()) != XmlPullParser.END_DOCUMENT
-                    && (type != XmlPullParser.END_TAG || parser.getDepth() > outerDepth)) {
-                if (type == XmlPullParser.END_TAG || type == XmlPullParser.TEXT) {
-                    continue;
-                }
-
-                nodeName = parser.getName();
-
-                title = PreferenceXmlParserUtils.getDataTitle(context, attrs);
-                key = PreferenceXmlParserUtils.getDataKey(context, attrs);
-                enabled = !nonIndexableKeys.contains(key);
-                keywords = PreferenceXmlParserUtils.getDataKeywords(context, attrs);
-                iconResId = PreferenceXmlParserUtils.getDataIcon(context, attrs);
+            for (int i = 1; i < metadata.size(); i++) {
+                final PreferenceMetadata element = metadata.get(i);
+                final String nodeName = element.type;
+                final String title = element.title;
+                final String key = element.key;
 
                 if (isHeaderUnique && TextUtils.equals(headerTitle, title)) {
                     isHeaderUnique = false;
@@ -228,45 +198,34 @@ public class IndexDataConverter {
 
                 builder = new IndexData.Builder();
                 builder.setTitle(title)
-                        .setKeywords(keywords)
+                        .setKeywords(element.keywords)
                         .setClassName(fragmentName)
                         .setScreenTitle(screenTitle)
-                        .setIconResId(iconResId)
+                        .setIconResId(element.iconResId)
                         .setIntentAction(intentAction)
                         .setIntentTargetPackage(intentTargetPackage)
                         .setIntentTargetClass(intentTargetClass)
-                        .setEnabled(enabled)
+                        .setPackageName(packageName)
+                        .setEnabled(!nonIndexableKeys.contains(key))
                         .setKey(key)
                         .setUserId(-1 /* default user id */);
 
                 if (!nodeName.equals(NODE_NAME_CHECK_BOX_PREFERENCE)) {
-                    summary = PreferenceXmlParserUtils.getDataSummary(context, attrs);
-
-                    String entries = null;
-
-                    if (nodeName.endsWith(NODE_NAME_LIST_PREFERENCE)) {
-                        entries = PreferenceXmlParserUtils.getDataEntries(context, attrs);
-                    }
-
                     // TODO (b/62254931) index primitives instead of payload
-                    payload = controllerUriMap.get(key);
-                    childFragment = PreferenceXmlParserUtils.getDataChildFragment(context, attrs);
-
-                    builder.setSummaryOn(summary)
-                            .setEntries(entries)
-                            .setChildClassName(childFragment)
-                            .setPayload(payload);
+                    builder.setSummaryOn(element.summary)
+                            .setEntries(nodeName.endsWith(NODE_NAME_LIST_PREFERENCE)
+                                    ? element.entries : null)
+                            .setChildClassName(element.childFragment)
+                            .setPayload(controllerUriMap.get(key));
 
                     resourceIndexData.add(builder.build(mContext));
                 } else {
                     // TODO (b/33577327) We removed summary off here. We should check if we can
                     // merge this 'else' section with the one above. Put a break point to
                     // investigate.
-                    String summaryOn = PreferenceXmlParserUtils.getDataSummaryOn(context, attrs);
-                    String summaryOff = PreferenceXmlParserUtils.getDataSummaryOff(context, attrs);
-
-                    if (TextUtils.isEmpty(summaryOn) && TextUtils.isEmpty(summaryOff)) {
-                        summaryOn = PreferenceXmlParserUtils.getDataSummary(context, attrs);
+                    String summaryOn = element.summaryOn;
+                    if (TextUtils.isEmpty(summaryOn) && TextUtils.isEmpty(element.summaryOff)) {
+                        summaryOn = element.summary;
                     }
 
                     builder.setSummaryOn(summaryOn);
@@ -285,8 +244,6 @@ public class IndexDataConverter {
             Log.w(LOG_TAG, "IO Error parsing PreferenceScreen: ", e);
         } catch (Resources.NotFoundException e) {
             Log.w(LOG_TAG, "Resoucre not found error parsing PreferenceScreen: ", e);
-        } finally {
-            if (parser != null) parser.close();
         }
         return resourceIndexData;
     }
@@ -21,6 +21,7 @@ import android.provider.SearchIndexableData;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -33,15 +34,19 @@ import java.util.Set;
 public class PreIndexData {
     public List<SearchIndexableData> dataToUpdate;
     public Map<String, Set<String>> nonIndexableKeys;
+    // Packages whose providers failed or were not queried in time; their data is incomplete.
+    public Set<String> failedPackages;
 
     public PreIndexData() {
         dataToUpdate = new ArrayList<>();
         nonIndexableKeys = new HashMap<>();
+        failedPackages = new HashSet<>();
     }
 
     public PreIndexData(PreIndexData other) {
         dataToUpdate = new ArrayList<>(other.dataToUpdate);
         nonIndexableKeys = new HashMap<>(other.nonIndexableKeys);
+        failedPackages = new HashSet<>(other.failedPackages);
     }
 
     public PreIndexData copy() {
@@ -51,5 +56,6 @@ public class PreIndexData {
     public void clear() {
         dataToUpdate.clear();
         nonIndexableKeys.clear();
+        failedPackages.clear();
     }
 }
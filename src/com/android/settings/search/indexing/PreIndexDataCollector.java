@@ -39,6 +39,13 @@ import com.android.settings.search.SettingsSearchIndexablesProvider;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static android.provider.SearchIndexablesContract.COLUMN_INDEX_XML_RES_CLASS_NAME;
 import static android.provider.SearchIndexablesContract.COLUMN_INDEX_XML_RES_ICON_RESID;
@@ -75,51 +82,148 @@ public class PreIndexDataCollector {
 
     private static final List<String> EMPTY_LIST = Collections.emptyList();
 
-    private Context mContext;
+    // Upper bound on the time spent waiting for all of the providers, so that a hung provider
+    // cannot stall the whole index.
+    @VisibleForTesting
+    static final long PROVIDER_TIMEOUT_MS = 5000;
 
-    private PreIndexData mIndexData;
+    private static final int MAX_COLLECTION_THREADS = 4;
+
+    private Context mContext;
 
     public PreIndexDataCollector(Context context) {
         mContext = context;
     }
 
     public PreIndexData collectIndexableData(List<ResolveInfo> providers, boolean isFullIndex) {
-        mIndexData = new PreIndexData();
+        return collectIndexableData(providers, isFullIndex, Collections.emptySet());
+    }
 
-        for (final ResolveInfo info : providers) {
-            if (!isWellKnownProvider(info)) {
-                continue;
+    /**
+     * Collects the non-indexable keys of every provider, but the indexable data of only the
+     * providers hosted by {@param changedPackages}.
+     */
+    public PreIndexData collectIndexableData(List<ResolveInfo> providers,
+            Set<String> changedPackages) {
+        return collectIndexableData(providers, false /* isFullIndex */, changedPackages);
+    }
+
+    /**
+     * Queries the providers concurrently on a bounded pool, then merges their data in the order
+     * of {@param providers} so the result does not depend on thread scheduling. Providers which
+     * fail, or have not answered {@link #PROVIDER_TIMEOUT_MS} after the collection started, are
+     * skipped and reported in {@link PreIndexData#failedPackages}.
+     */
+    private PreIndexData collectIndexableData(List<ResolveInfo> providers, boolean isFullIndex,
+            Set<String> changedPackages) {
+        final PreIndexData indexData = new PreIndexData();
+        final List<ResolveInfo> wellKnownProviders = new ArrayList<>();
+        for (ResolveInfo info : providers) {
+            if (isWellKnownProvider(info)) {
+                wellKnownProviders.add(info);
             }
-            final String authority = info.providerInfo.authority;
+        }
+        if (wellKnownProviders.isEmpty()) {
+            return indexData;
+        }
+
+        final List<Callable<PreIndexData>> tasks = new ArrayList<>();
+        for (final ResolveInfo info : wellKnownProviders) {
             final String packageName = info.providerInfo.packageName;
+            final boolean collectIndexables = isFullIndex || changedPackages.contains(packageName);
+            tasks.add(() -> collectFromProvider(info, collectIndexables));
+        }
 
-            if (isFullIndex) {
-                addIndexablesFromRemoteProvider(packageName, authority);
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                getCollectionThreadCount(wellKnownProviders.size()));
+        try {
+            // A single deadline for all of the providers, including those still queued behind
+            // hung ones: a provider blocked in a binder call cannot be interrupted.
+            final List<Future<PreIndexData>> results;
+            try {
+                results = executor.invokeAll(tasks, getProviderTimeoutMs(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Log.w(TAG, "Interrupted collecting index data");
+                Thread.currentThread().interrupt();
+                for (ResolveInfo info : wellKnownProviders) {
+                    indexData.failedPackages.add(info.providerInfo.packageName);
+                }
+                return indexData;
             }
 
-            final long nonIndexableStartTime = System.currentTimeMillis();
-            addNonIndexablesKeysFromRemoteProvider(packageName, authority);
-            if (SettingsSearchIndexablesProvider.DEBUG) {
-                final long nonIndexableTime = System.currentTimeMillis() - nonIndexableStartTime;
-                Log.d(TAG, "performIndexing update non-indexable for package " + packageName
-                        + " took time: " + nonIndexableTime);
+            for (int i = 0; i < results.size(); i++) {
+                final Future<PreIndexData> result = results.get(i);
+                final String packageName = wellKnownProviders.get(i).providerInfo.packageName;
+                if (result.isCancelled()) {
+                    Log.w(TAG, "Timed out collecting index data for " + packageName);
+                    indexData.failedPackages.add(packageName);
+                    continue;
+                }
+                try {
+                    final PreIndexData providerData = result.get();
+                    indexData.dataToUpdate.addAll(providerData.dataToUpdate);
+                    indexData.nonIndexableKeys.putAll(providerData.nonIndexableKeys);
+                } catch (ExecutionException e) {
+                    Log.w(TAG, "Could not collect index data for " + packageName, e.getCause());
+                    indexData.failedPackages.add(packageName);
+                } catch (InterruptedException e) {
+                    // Cannot happen, invokeAll() only returns completed futures.
+                    Thread.currentThread().interrupt();
+                    indexData.failedPackages.add(packageName);
+                }
             }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return indexData;
+    }
+
+    @VisibleForTesting
+    long getProviderTimeoutMs() {
+        return PROVIDER_TIMEOUT_MS;
+    }
+
+    @VisibleForTesting
+    int getCollectionThreadCount(int providerCount) {
+        final int cores = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(providerCount, Math.min(cores, MAX_COLLECTION_THREADS)));
+    }
+
+    /**
+     * Collects the data of a single provider. Runs on a collection thread.
+     */
+    private PreIndexData collectFromProvider(ResolveInfo info, boolean collectIndexables) {
+        final PreIndexData providerData = new PreIndexData();
+        final String authority = info.providerInfo.authority;
+        final String packageName = info.providerInfo.packageName;
+
+        if (collectIndexables) {
+            addIndexablesFromRemoteProvider(providerData, packageName, authority);
         }
 
-        return mIndexData;
+        final long nonIndexableStartTime = System.currentTimeMillis();
+        addNonIndexablesKeysFromRemoteProvider(providerData, packageName, authority);
+        if (SettingsSearchIndexablesProvider.DEBUG) {
+            final long nonIndexableTime = System.currentTimeMillis() - nonIndexableStartTime;
+            Log.d(TAG, "performIndexing update non-indexable for package " + packageName
+                    + " took time: " + nonIndexableTime);
+        }
+        return providerData;
     }
 
-    private boolean addIndexablesFromRemoteProvider(String packageName, String authority) {
+    private boolean addIndexablesFromRemoteProvider(PreIndexData indexData, String packageName,
+            String authority) {
         try {
             final Context context = BASE_AUTHORITY.equals(authority) ?
                     mContext : mContext.createPackageContext(packageName, 0);
 
             final Uri uriForResources = buildUriForXmlResources(authority);
-            mIndexData.dataToUpdate.addAll(getIndexablesForXmlResourceUri(context, packageName,
+            indexData.dataToUpdate.addAll(getIndexablesForXmlResourceUri(context, packageName,
                     uriForResources, SearchIndexablesContract.INDEXABLES_XML_RES_COLUMNS));
 
             final Uri uriForRawData = buildUriForRawData(authority);
-            mIndexData.dataToUpdate.addAll(getIndexablesForRawDataUri(context, packageName,
+            indexData.dataToUpdate.addAll(getIndexablesForRawDataUri(context, packageName,
                     uriForRawData, SearchIndexablesContract.INDEXABLES_RAW_COLUMNS));
             return true;
         } catch (PackageManager.NameNotFoundException e) {
@@ -175,13 +279,13 @@ public class PreIndexDataCollector {
         return resources;
     }
 
-    private void addNonIndexablesKeysFromRemoteProvider(String packageName,
-            String authority) {
+    private void addNonIndexablesKeysFromRemoteProvider(PreIndexData indexData,
+            String packageName, String authority) {
         final List<String> keys =
                 getNonIndexablesKeysFromRemoteProvider(packageName, authority);
 
         if (keys != null && !keys.isEmpty()) {
-            mIndexData.nonIndexableKeys.put(authority, new ArraySet<>(keys));
+            indexData.nonIndexableKeys.put(authority, new ArraySet<>(keys));
         }
     }
 
@@ -19,11 +19,13 @@ package com.android.settings.slices;
 import static android.Manifest.permission.READ_SEARCH_INDEXABLES;
 
 import android.app.slice.SliceManager;
-import android.content.ContentResolver;
+import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.res.Configuration;
 import android.net.Uri;
 import android.os.StrictMode;
+import android.os.SystemClock;
 import android.provider.Settings;
 import android.provider.SettingsSlicesContract;
 import android.support.annotation.VisibleForTesting;
@@ -31,6 +33,7 @@ import android.text.TextUtils;
 import android.util.ArraySet;
 import android.util.KeyValueListParser;
 import android.util.Log;
+import android.util.LruCache;
 import android.util.Pair;
 
 import com.android.settings.bluetooth.BluetoothSliceBuilder;
@@ -40,6 +43,7 @@ import com.android.settings.notification.ZenModeSliceBuilder;
 import com.android.settings.overlay.FeatureFactory;
 import com.android.settings.wifi.WifiSliceBuilder;
 import com.android.settings.wifi.calling.WifiCallingSliceHelper;
+import com.android.settingslib.core.instrumentation.MetricsFeatureProvider;
 import com.android.settingslib.SliceBroadcastRelay;
 import com.android.settingslib.utils.ThreadUtils;
 
@@ -51,7 +55,6 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
 
 import androidx.slice.Slice;
@@ -69,10 +72,14 @@ import androidx.slice.SliceProvider;
  * return an stub {@link Slice} with the correct {@link Uri} immediately. In the background, the
  * data corresponding to the key in the {@link Uri} is read by {@link SlicesDatabaseAccessor}, and
  * the entire row is converted into a {@link SliceData}. Once complete, it is stored in
- * {@link #mSliceDataCache}, and then an update sent via the Slice framework to the Slice.
+ * {@link #mSliceDataLruCache}, and then an update sent via the Slice framework to the Slice.
  * The {@link Slice} displayed by the Slice-presenter will re-query this Slice-provider and find
  * the {@link SliceData} cached to build the full {@link Slice}.
  *
+ * <p>{@link SliceData} stays in the bounded {@link #mSliceDataLruCache} after use, so that
+ * presenters which rebind often are served from memory. When descendants of an authority are
+ * requested, the {@link SliceData} of all its keys is prefetched in a single query.
+ *
  * <p>When an action is taken on that {@link Slice}, we receive the action in
  * {@link SliceBroadcastReceiver}, and use the
  * {@link com.android.settings.core.BasePreferenceController} indexed as
@@ -111,11 +118,31 @@ public class SettingsSliceProvider extends SliceProvider {
     public static final String EXTRA_SLICE_PLATFORM_DEFINED =
             "com.android.settings.slice.extra.platform";
 
+    /**
+     * Histogram of Slice binds served from cached {@link SliceData}: 1 for a hit, 0 for a miss.
+     */
+    @VisibleForTesting
+    static final String METRICS_BIND_CACHE_HIT = "settings_slice_bind_cache_hit";
+
+    /**
+     * Histogram of the time in milliseconds taken by {@link #onBindSlice(Uri)} for Slices backed
+     * by the Slices database.
+     */
+    @VisibleForTesting
+    static final String METRICS_BIND_LATENCY = "settings_slice_bind_latency";
+
+    @VisibleForTesting
+    static final int SLICE_DATA_CACHE_SIZE = 256;
+
     @VisibleForTesting
     SlicesDatabaseAccessor mSlicesDatabaseAccessor;
 
     @VisibleForTesting
-    Map<Uri, SliceData> mSliceWeakDataCache;
+    LruCache<Uri, SliceData> mSliceDataLruCache;
+    /**
+     * {@link SliceData} of pinned Slices, kept regardless of {@link #mSliceDataLruCache}
+     * evictions until the Slice is unpinned.
+     */
     @VisibleForTesting
     Map<Uri, SliceData> mSliceDataCache;
 
@@ -132,10 +159,17 @@ public class SettingsSliceProvider extends SliceProvider {
     public boolean onCreateSliceProvider() {
         mSlicesDatabaseAccessor = new SlicesDatabaseAccessor(getContext());
         mSliceDataCache = new ConcurrentHashMap<>();
-        mSliceWeakDataCache = new WeakHashMap<>();
+        mSliceDataLruCache = new LruCache<>(SLICE_DATA_CACHE_SIZE);
         return true;
     }
 
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
+        // Titles and summaries are localized, drop them until they are re-read.
+        mSliceDataLruCache.evictAll();
+    }
+
     @Override
     public Uri onMapIntentToUri(Intent intent) {
         try {
@@ -207,17 +241,20 @@ public class SettingsSliceProvider extends SliceProvider {
                 return LocationSliceBuilder.getSlice(getContext());
             }
 
-            SliceData cachedSliceData = mSliceWeakDataCache.get(sliceUri);
+            final long startBindTime = SystemClock.elapsedRealtime();
+            SliceData cachedSliceData = mSliceDataCache.get(sliceUri);
             if (cachedSliceData == null) {
-                loadSliceInBackground(sliceUri);
-                return getSliceStub(sliceUri);
+                cachedSliceData = mSliceDataLruCache.get(sliceUri);
             }
-
-            // Remove the SliceData from the cache after it has been used to prevent a memory-leak.
-            if (!mSliceDataCache.containsKey(sliceUri)) {
-                mSliceWeakDataCache.remove(sliceUri);
+            final Slice slice;
+            if (cachedSliceData == null) {
+                loadSliceInBackground(sliceUri);
+                slice = getSliceStub(sliceUri);
+            } else {
+                slice = SliceBuilderUtils.buildSlice(getContext(), cachedSliceData);
             }
-            return SliceBuilderUtils.buildSlice(getContext(), cachedSliceData);
+            logBind(cachedSliceData != null, SystemClock.elapsedRealtime() - startBindTime);
+            return slice;
         } finally {
             StrictMode.setThreadPolicy(oldPolicy);
         }
@@ -259,12 +296,10 @@ public class SettingsSliceProvider extends SliceProvider {
 
         // No path nor authority. Return all possible Uris.
         if (isPathEmpty && TextUtils.isEmpty(authority)) {
-            final List<String> platformKeys = mSlicesDatabaseAccessor.getSliceKeys(
-                    true /* isPlatformSlice */);
-            final List<String> oemKeys = mSlicesDatabaseAccessor.getSliceKeys(
-                    false /* isPlatformSlice */);
-            descendants.addAll(buildUrisFromKeys(platformKeys, SettingsSlicesContract.AUTHORITY));
-            descendants.addAll(buildUrisFromKeys(oemKeys, SettingsSliceProvider.SLICE_AUTHORITY));
+            descendants.addAll(prefetchSliceData(true /* isPlatformSlice */,
+                    SettingsSlicesContract.AUTHORITY));
+            descendants.addAll(prefetchSliceData(false /* isPlatformSlice */,
+                    SettingsSliceProvider.SLICE_AUTHORITY));
             descendants.addAll(getSpecialCaseUris(true /* isPlatformSlice */));
             descendants.addAll(getSpecialCaseUris(false /* isPlatformSlice */));
 
@@ -282,27 +317,32 @@ public class SettingsSliceProvider extends SliceProvider {
 
         // Can assume authority belongs to the provider. Return all Uris for the authority.
         final boolean isPlatformUri = TextUtils.equals(authority, SettingsSlicesContract.AUTHORITY);
-        final List<String> keys = mSlicesDatabaseAccessor.getSliceKeys(isPlatformUri);
-        descendants.addAll(buildUrisFromKeys(keys, authority));
+        descendants.addAll(prefetchSliceData(isPlatformUri, authority));
         descendants.addAll(getSpecialCaseUris(isPlatformUri));
         return descendants;
     }
 
-    private List<Uri> buildUrisFromKeys(List<String> keys, String authority) {
-        final List<Uri> descendants = new ArrayList<>();
-
-        final Uri.Builder builder = new Uri.Builder()
-                .scheme(ContentResolver.SCHEME_CONTENT)
-                .authority(authority)
-                .appendPath(SettingsSlicesContract.PATH_SETTING_ACTION);
-
-        final String newUriPathPrefix = SettingsSlicesContract.PATH_SETTING_ACTION + "/";
-        for (String key : keys) {
-            builder.path(newUriPathPrefix + key);
-            descendants.add(builder.build());
+    /**
+     * Loads the {@link SliceData} of every key under {@param authority} in a single query and
+     * caches it, since presenters asking for descendants typically bind them next.
+     *
+     * <p>Prefetched data does not register intent filters; that happens when a Slice is pinned,
+     * which is the only case in which it receives updates.
+     *
+     * @return the action {@link Uri} of every key under {@param authority}.
+     */
+    @VisibleForTesting
+    List<Uri> prefetchSliceData(boolean isPlatformSlice, String authority) {
+        final List<SliceData> sliceData = mSlicesDatabaseAccessor.getSliceData(isPlatformSlice,
+                authority);
+        final List<Uri> uris = new ArrayList<>(sliceData.size());
+        for (SliceData data : sliceData) {
+            uris.add(data.getUri());
+            if (uris.size() <= SLICE_DATA_CACHE_SIZE) {
+                mSliceDataLruCache.put(data.getUri(), data);
+            }
         }
-
-        return descendants;
+        return uris;
     }
 
     @VisibleForTesting
@@ -330,7 +370,7 @@ public class SettingsSliceProvider extends SliceProvider {
         if (pinnedSlices.contains(uri)) {
             mSliceDataCache.put(uri, sliceData);
         }
-        mSliceWeakDataCache.put(uri, sliceData);
+        mSliceDataLruCache.put(uri, sliceData);
         getContext().getContentResolver().notifyChange(uri, null /* content observer */);
 
         Log.d(TAG, "Built slice (" + uri + ") in: " +
@@ -344,6 +384,14 @@ public class SettingsSliceProvider extends SliceProvider {
         });
     }
 
+    private void logBind(boolean cacheHit, long latencyMs) {
+        final Context context = getContext();
+        final MetricsFeatureProvider metricsFeatureProvider =
+                FeatureFactory.getFactory(context).getMetricsFeatureProvider();
+        metricsFeatureProvider.histogram(context, METRICS_BIND_CACHE_HIT, cacheHit ? 1 : 0);
+        metricsFeatureProvider.histogram(context, METRICS_BIND_LATENCY, (int) latencyMs);
+    }
+
     /**
      * @return an empty {@link Slice} with {@param uri} to be used as a stub while the real
      * {@link SliceData} is loaded from {@link SlicesDatabaseHelper.Tables#TABLE_SLICES_INDEX}.
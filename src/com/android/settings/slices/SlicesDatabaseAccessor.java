@@ -22,8 +22,10 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 
+import android.content.ContentResolver;
 import android.content.Context;
 import android.os.Binder;
+import android.provider.SettingsSlicesContract;
 import android.util.Pair;
 
 import com.android.settings.overlay.FeatureFactory;
@@ -116,6 +118,39 @@ public class SlicesDatabaseAccessor {
         return keys;
     }
 
+    /**
+     * Query the slices database once and return a {@link SliceData} object for every row matching
+     * on {@param isPlatformSlice}. Each {@link SliceData} holds the action {@link Uri} of its key
+     * under {@param authority}.
+     * Used to prefetch all Slices of an authority.
+     */
+    public List<SliceData> getSliceData(boolean isPlatformSlice, String authority) {
+        verifyIndexing();
+        final String whereClause = IndexColumns.PLATFORM_SLICE + " = "
+                + (isPlatformSlice ? TRUE : 0);
+
+        final SQLiteDatabase database = mHelper.getReadableDatabase();
+        final List<SliceData> sliceData = new ArrayList<>();
+        final Uri.Builder builder = new Uri.Builder()
+                .scheme(ContentResolver.SCHEME_CONTENT)
+                .authority(authority);
+        final String uriPathPrefix = SettingsSlicesContract.PATH_SETTING_ACTION + "/";
+
+        try (final Cursor resultCursor = database.query(TABLE_SLICES_INDEX, SELECT_COLUMNS_ALL,
+                whereClause, null /* selection */, null /* groupBy */, null /* having */,
+                null /* orderBy */)) {
+            while (resultCursor.moveToNext()) {
+                final String key = resultCursor.getString(
+                        resultCursor.getColumnIndex(IndexColumns.KEY));
+                builder.path(uriPathPrefix + key);
+                sliceData.add(buildSliceData(resultCursor, builder.build(),
+                        false /* isIntentOnly */));
+            }
+        }
+
+        return sliceData;
+    }
+
     private Cursor getIndexedSliceData(String path) {
         verifyIndexing();
 
@@ -16,7 +16,6 @@
 
 package com.android.settings.slices;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.support.annotation.VisibleForTesting;
@@ -28,6 +27,7 @@ import com.android.settings.core.BasePreferenceController;
 import com.android.settings.overlay.FeatureFactory;
 import com.android.settings.slices.SlicesDatabaseHelper.IndexColumns;
 import com.android.settings.slices.SlicesDatabaseHelper.Tables;
+import com.android.settings.utils.SQLiteBulkWriter;
 
 import java.util.List;
 
@@ -97,23 +97,25 @@ class SlicesIndexer implements Runnable {
 
     @VisibleForTesting
     void insertSliceData(SQLiteDatabase database, List<SliceData> indexData) {
-        ContentValues values;
-
-        for (SliceData dataRow : indexData) {
-            values = new ContentValues();
-            values.put(IndexColumns.KEY, dataRow.getKey());
-            values.put(IndexColumns.TITLE, dataRow.getTitle());
-            values.put(IndexColumns.SUMMARY, dataRow.getSummary());
-            values.put(IndexColumns.SCREENTITLE, dataRow.getScreenTitle().toString());
-            values.put(IndexColumns.KEYWORDS, dataRow.getKeywords());
-            values.put(IndexColumns.ICON_RESOURCE, dataRow.getIconResource());
-            values.put(IndexColumns.FRAGMENT, dataRow.getFragmentClassName());
-            values.put(IndexColumns.CONTROLLER, dataRow.getPreferenceController());
-            values.put(IndexColumns.PLATFORM_SLICE, dataRow.isPlatformDefined());
-            values.put(IndexColumns.SLICE_TYPE, dataRow.getSliceType());
-
-            database.replaceOrThrow(Tables.TABLE_SLICES_INDEX, null /* nullColumnHack */,
-                    values);
+        try (SQLiteBulkWriter writer = new SQLiteBulkWriter(database, Tables.TABLE_SLICES_INDEX,
+                IndexColumns.KEY, IndexColumns.TITLE, IndexColumns.SUMMARY,
+                IndexColumns.SCREENTITLE, IndexColumns.KEYWORDS, IndexColumns.ICON_RESOURCE,
+                IndexColumns.FRAGMENT, IndexColumns.CONTROLLER, IndexColumns.PLATFORM_SLICE,
+                IndexColumns.SLICE_TYPE)) {
+            for (SliceData dataRow : indexData) {
+                writer.bindString(1, dataRow.getKey())
+                        .bindString(2, dataRow.getTitle())
+                        .bindString(3, dataRow.getSummary())
+                        .bindString(4, dataRow.getScreenTitle().toString())
+                        .bindString(5, dataRow.getKeywords())
+                        .bindLong(6, dataRow.getIconResource())
+                        .bindString(7, dataRow.getFragmentClassName())
+                        .bindString(8, dataRow.getPreferenceController())
+                        .bindBoolean(9, dataRow.isPlatformDefined())
+                        .bindLong(10, dataRow.getSliceType())
+                        .insert();
+            }
+            writer.markSuccessful();
         }
     }
-}
\ No newline at end of file
+}
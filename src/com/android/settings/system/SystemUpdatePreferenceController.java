@@ -46,6 +46,8 @@ public class SystemUpdatePreferenceController extends BasePreferenceController {
 
     private final UserManager mUm;
     private final SystemUpdateManager mUpdateManager;
+    // Summary loaded off the main thread by preloadState(), used by the next getSummary() call.
+    private volatile CharSequence mPreloadedSummary;
 
     public SystemUpdatePreferenceController(Context context) {
         super(context, KEY_SYSTEM_UPDATE_SETTINGS);
@@ -61,6 +63,18 @@ public class SystemUpdatePreferenceController extends BasePreferenceController {
                 : UNSUPPORTED_ON_DEVICE;
     }
 
+    @Override
+    public boolean canPreloadInBackground() {
+        // Only the user and update managers are used, and mPreloadedSummary is handed over
+        // atomically.
+        return true;
+    }
+
+    @Override
+    public void preloadState() {
+        mPreloadedSummary = loadSummary();
+    }
+
     @Override
     public void displayPreference(PreferenceScreen screen) {
         super.displayPreference(screen);
@@ -87,6 +101,15 @@ public class SystemUpdatePreferenceController extends BasePreferenceController {
 
     @Override
     public CharSequence getSummary() {
+        final CharSequence preloadedSummary = mPreloadedSummary;
+        if (preloadedSummary != null) {
+            mPreloadedSummary = null;
+            return preloadedSummary;
+        }
+        return loadSummary();
+    }
+
+    private CharSequence loadSummary() {
         CharSequence summary = mContext.getString(R.string.android_version_summary,
                 Build.VERSION.RELEASE);
         final FutureTask<Bundle> bundleFutureTask = new FutureTask<>(
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.utils;
+
+import android.os.Process;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of background priority threads, for loaders which split their work across a few
+ * threads. Unlike {@link com.android.settingslib.utils.ThreadUtils#postOnBackgroundThread}, which
+ * runs work one item at a time, work submitted here runs concurrently.
+ *
+ * The threads are shared by the whole app, so a task must not wait for another task submitted
+ * here unless it can run that task itself: all threads may be busy.
+ */
+public class BackgroundThreadPool {
+
+    private static final String TAG = "SettingsBackground";
+
+    private static final int MAX_THREADS = 4;
+
+    private static ExecutorService sExecutor;
+
+    public static synchronized ExecutorService get() {
+        if (sExecutor == null) {
+            final AtomicInteger count = new AtomicInteger();
+            sExecutor = Executors.newFixedThreadPool(getThreadCount(), runnable -> {
+                final Thread thread = new Thread(() -> {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }, TAG + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return sExecutor;
+    }
+
+    /**
+     * @return the number of threads of the pool, which is how many parts work is worth splitting
+     * into.
+     */
+    public static int getThreadCount() {
+        return Math.max(2, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.utils;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.VisibleForTesting;
+
+/**
+ * Writes many rows into one table through a single compiled {@code INSERT OR REPLACE}
+ * statement, instead of compiling SQL and allocating {@link android.content.ContentValues} for
+ * every row.
+ *
+ * Usage: bind the columns of a row by their 1-based position in the column list passed to the
+ * constructor, call {@link #insert()}, and repeat. Call {@link #markSuccessful()} after the last
+ * row, then {@link #close()}.
+ *
+ * If the database is not already in a transaction, the writer opens one and commits it every
+ * {@link #DEFAULT_CHUNK_SIZE} rows. The last chunk is only committed if the writer was marked
+ * successful, so a failure rolls back the rows of the chunk in progress. Rows of chunks committed
+ * before a failure are kept. If the caller already holds a transaction, commits are left to the
+ * caller so that the caller's atomicity is preserved.
+ */
+public class SQLiteBulkWriter implements AutoCloseable {
+
+    @VisibleForTesting
+    static final int DEFAULT_CHUNK_SIZE = 500;
+
+    private final SQLiteDatabase mDatabase;
+    private final SQLiteStatement mStatement;
+    private final boolean mOwnsTransaction;
+    private final int mChunkSize;
+
+    private int mRowsInChunk;
+    private int mRowCount;
+    private boolean mSuccessful;
+
+    public SQLiteBulkWriter(SQLiteDatabase database, String table, String... columns) {
+        this(database, DEFAULT_CHUNK_SIZE, table, columns);
+    }
+
+    @VisibleForTesting
+    SQLiteBulkWriter(SQLiteDatabase database, int chunkSize, String table, String... columns) {
+        mDatabase = database;
+        mChunkSize = chunkSize;
+        mStatement = database.compileStatement(buildInsertSql(table, columns));
+        mOwnsTransaction = !database.inTransaction();
+        if (mOwnsTransaction) {
+            mDatabase.beginTransaction();
+        }
+    }
+
+    public SQLiteBulkWriter bindString(int index, String value) {
+        if (value == null) {
+            mStatement.bindNull(index);
+        } else {
+            mStatement.bindString(index, value);
+        }
+        return this;
+    }
+
+    public SQLiteBulkWriter bindLong(int index, long value) {
+        mStatement.bindLong(index, value);
+        return this;
+    }
+
+    public SQLiteBulkWriter bindBoolean(int index, boolean value) {
+        mStatement.bindLong(index, value ? 1 : 0);
+        return this;
+    }
+
+    public SQLiteBulkWriter bindBlob(int index, byte[] value) {
+        if (value == null) {
+            mStatement.bindNull(index);
+        } else {
+            mStatement.bindBlob(index, value);
+        }
+        return this;
+    }
+
+    /**
+     * Inserts the currently bound row, then clears the bindings for the next row.
+     *
+     * @return the row id of the inserted row.
+     */
+    public long insert() {
+        if (mSuccessful) {
+            throw new IllegalStateException("Insert after markSuccessful()");
+        }
+        final long rowId = mStatement.executeInsert();
+        mStatement.clearBindings();
+        mRowCount++;
+        if (mOwnsTransaction && ++mRowsInChunk >= mChunkSize) {
+            mDatabase.setTransactionSuccessful();
+            mDatabase.endTransaction();
+            mDatabase.beginTransaction();
+            mRowsInChunk = 0;
+        }
+        return rowId;
+    }
+
+    /**
+     * @return the number of rows inserted so far.
+     */
+    public int getRowCount() {
+        return mRowCount;
+    }
+
+    /**
+     * Marks all rows as written, so {@link #close()} commits the last chunk. No row may be
+     * inserted after this.
+     */
+    public void markSuccessful() {
+        mSuccessful = true;
+    }
+
+    /**
+     * Releases the compiled statement and, if the writer opened the transaction, ends it:
+     * the rows of the last chunk are committed if {@link #markSuccessful()} was called, and
+     * rolled back otherwise.
+     */
+    @Override
+    public void close() {
+        mStatement.close();
+        if (mOwnsTransaction) {
+            if (mSuccessful) {
+                mDatabase.setTransactionSuccessful();
+            }
+            mDatabase.endTransaction();
+        }
+    }
+
+    @VisibleForTesting
+    static String buildInsertSql(String table, String... columns) {
+        final StringBuilder sql = new StringBuilder("INSERT OR REPLACE INTO ")
+                .append(table)
+                .append(" (");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(columns[i]);
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i > 0 ? ", ?" : "?");
+        }
+        return sql.append(')').toString();
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.wifi;
+
+import android.support.annotation.VisibleForTesting;
+import android.text.format.DateUtils;
+import android.util.ArrayMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Computes which items of a keyed list were inserted, removed, updated or moved since the
+ * previous snapshot, so {@link WifiSettings} only touches the access point preferences that
+ * changed.
+ *
+ * The scanned access points are sorted by signal level, which jitters between scans. To keep
+ * the list from reshuffling every few seconds, the order of the items that were already shown is
+ * only changed at most once every {@link #REORDER_INTERVAL_MS}. In between, new items are
+ * inserted after the shown item that precedes them in the new order.
+ *
+ * @param <T> the type of the items. An item with the same key but a different reference counts
+ * as updated.
+ */
+class AccessPointListDiffer<T> {
+
+    @VisibleForTesting
+    static final long REORDER_INTERVAL_MS = 10 * DateUtils.SECOND_IN_MILLIS;
+
+    /**
+     * What changed between two snapshots.
+     */
+    static class ChangeSet<T> {
+        /** Items of the previous snapshot that are gone. */
+        final List<T> removed = new ArrayList<>();
+        /** Items that were not part of the previous snapshot. */
+        final List<T> inserted = new ArrayList<>();
+        /** Items whose key was already part of the previous snapshot, but with another item. */
+        final List<T> updated = new ArrayList<>();
+        /** Items that changed position relative to the other items that were kept. */
+        final List<T> moved = new ArrayList<>();
+        /** All items, in the order to show them. */
+        final List<T> items = new ArrayList<>();
+
+        boolean isEmpty() {
+            return removed.isEmpty() && inserted.isEmpty() && updated.isEmpty()
+                    && moved.isEmpty();
+        }
+    }
+
+    private final Function<T, String> mKeyFunction;
+    private final LongSupplier mClock;
+    private List<T> mItems = new ArrayList<>();
+    private long mLastReorderTime;
+    private boolean mReorderPending = true;
+
+    AccessPointListDiffer(Function<T, String> keyFunction, LongSupplier clock) {
+        mKeyFunction = keyFunction;
+        mClock = clock;
+    }
+
+    /**
+     * Makes {@param sortedItems} the snapshot the next update is compared with.
+     *
+     * @return what changed since the previous snapshot, and the order to show the items in.
+     */
+    ChangeSet<T> update(List<T> sortedItems) {
+        final ChangeSet<T> changes = new ChangeSet<>();
+        final int size = sortedItems.size();
+        final ArrayMap<String, T> newItems = new ArrayMap<>(size);
+        for (int i = 0; i < size; i++) {
+            final T item = sortedItems.get(i);
+            newItems.put(mKeyFunction.apply(item), item);
+        }
+
+        // Position of each kept key in the previous snapshot.
+        final ArrayMap<String, Integer> oldPositions = new ArrayMap<>(mItems.size());
+        final List<String> keptKeys = new ArrayList<>(mItems.size());
+        for (int i = 0, oldSize = mItems.size(); i < oldSize; i++) {
+            final T oldItem = mItems.get(i);
+            final String key = mKeyFunction.apply(oldItem);
+            final T newItem = newItems.get(key);
+            if (newItem == null) {
+                changes.removed.add(oldItem);
+                continue;
+            }
+            if (newItem != oldItem) {
+                changes.updated.add(newItem);
+            }
+            oldPositions.put(key, i);
+            keptKeys.add(key);
+        }
+
+        final long now = mClock.getAsLong();
+        if (mReorderPending || now < mLastReorderTime
+                || now - mLastReorderTime >= REORDER_INTERVAL_MS) {
+            mReorderPending = false;
+            mLastReorderTime = now;
+            changes.items.addAll(sortedItems);
+            for (int i = 0; i < size; i++) {
+                final T item = sortedItems.get(i);
+                if (!oldPositions.containsKey(mKeyFunction.apply(item))) {
+                    changes.inserted.add(item);
+                }
+            }
+        } else {
+            addInStableOrder(sortedItems, newItems, oldPositions, keptKeys, changes);
+        }
+        findMoved(oldPositions, changes);
+
+        mItems = new ArrayList<>(changes.items);
+        return changes;
+    }
+
+    /**
+     * Makes the next update use the new order as is, regardless of when the list was last
+     * reordered.
+     */
+    void requestReorder() {
+        mReorderPending = true;
+    }
+
+    /**
+     * Forgets the last snapshot, so the next update reports every item as inserted.
+     */
+    void clear() {
+        mItems = new ArrayList<>();
+        mReorderPending = true;
+    }
+
+    /**
+     * Keeps the kept items in their previous order, and inserts each new item right after the
+     * kept item preceding it in {@param sortedItems}.
+     */
+    private void addInStableOrder(List<T> sortedItems, ArrayMap<String, T> newItems,
+            ArrayMap<String, Integer> oldPositions, List<String> keptKeys, ChangeSet<T> changes) {
+        // New items by the kept key they follow, null for the ones before all kept items.
+        final ArrayMap<String, List<T>> insertedAfter = new ArrayMap<>();
+        String anchor = null;
+        for (int i = 0, size = sortedItems.size(); i < size; i++) {
+            final T item = sortedItems.get(i);
+            final String key = mKeyFunction.apply(item);
+            if (oldPositions.containsKey(key)) {
+                anchor = key;
+                continue;
+            }
+            List<T> following = insertedAfter.get(anchor);
+            if (following == null) {
+                following = new ArrayList<>();
+                insertedAfter.put(anchor, following);
+            }
+            following.add(item);
+            changes.inserted.add(item);
+        }
+
+        addAll(changes.items, insertedAfter.get(null));
+        for (int i = 0, size = keptKeys.size(); i < size; i++) {
+            final String key = keptKeys.get(i);
+            changes.items.add(newItems.get(key));
+            addAll(changes.items, insertedAfter.get(key));
+        }
+    }
+
+    /**
+     * Reports the kept items that are not part of the longest run of kept items whose relative
+     * order did not change.
+     */
+    private void findMoved(ArrayMap<String, Integer> oldPositions, ChangeSet<T> changes) {
+        final int itemCount = changes.items.size();
+        final int[] positions = new int[itemCount];
+        final int[] itemIndexes = new int[itemCount];
+        int keptCount = 0;
+        for (int i = 0; i < itemCount; i++) {
+            final Integer position = oldPositions.get(mKeyFunction.apply(changes.items.get(i)));
+            if (position != null) {
+                positions[keptCount] = position;
+                itemIndexes[keptCount] = i;
+                keptCount++;
+            }
+        }
+
+        // Longest increasing subsequence of the previous positions, O(n log n).
+        final int[] tails = new int[keptCount];
+        final int[] previous = new int[keptCount];
+        int length = 0;
+        for (int i = 0; i < keptCount; i++) {
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (positions[tails[mid]] < positions[i]) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length) {
+                length++;
+            }
+        }
+        final boolean[] inOrder = new boolean[keptCount];
+        for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = previous[i]) {
+            inOrder[i] = true;
+        }
+        for (int i = 0; i < keptCount; i++) {
+            if (!inOrder[i]) {
+                changes.moved.add(changes.items.get(itemIndexes[i]));
+            }
+        }
+    }
+
+    private static <T> void addAll(List<T> list, List<T> items) {
+        if (items != null) {
+            list.addAll(items);
+        }
+    }
+}
@@ -38,10 +38,12 @@ import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.PowerManager;
+import android.os.SystemClock;
 import android.provider.Settings;
 import android.support.annotation.VisibleForTesting;
 import android.support.v7.preference.Preference;
 import android.support.v7.preference.PreferenceCategory;
+import android.util.ArrayMap;
 import android.util.Log;
 import android.view.ContextMenu;
 import android.view.ContextMenu.ContextMenuInfo;
@@ -166,6 +168,8 @@ public class WifiSettings extends RestrictedSettingsFragment
 
     private PreferenceCategory mConnectedAccessPointPreferenceCategory;
     private PreferenceCategory mAccessPointsPreferenceCategory;
+    private final AccessPointListDiffer<AccessPoint> mAccessPointListDiffer =
+            new AccessPointListDiffer<>(AccessPoint::getKey, SystemClock::elapsedRealtime);
     private PreferenceCategory mAdditionalSettingsPreferenceCategory;
     private Preference mAddPreference;
     private Preference mConfigureWifiSettingsPreference;
@@ -672,6 +676,7 @@ public class WifiSettings extends RestrictedSettingsFragment
             case WifiManager.WIFI_STATE_ENABLING:
                 removeConnectedAccessPointPreference();
                 mAccessPointsPreferenceCategory.removeAll();
+                mAccessPointListDiffer.clear();
                 addMessagePreference(R.string.wifi_starting);
                 setProgressBarVisible(true);
                 break;
@@ -679,6 +684,7 @@ public class WifiSettings extends RestrictedSettingsFragment
             case WifiManager.WIFI_STATE_DISABLING:
                 removeConnectedAccessPointPreference();
                 mAccessPointsPreferenceCategory.removeAll();
+                mAccessPointListDiffer.clear();
                 addMessagePreference(R.string.wifi_stopping);
                 break;
 
@@ -718,64 +724,114 @@ public class WifiSettings extends RestrictedSettingsFragment
         if (!mWifiManager.isWifiEnabled()) {
             return;
         }
+        final long startTime = SystemClock.elapsedRealtime();
         // AccessPoints are sorted by the WifiTracker
         final List<AccessPoint> accessPoints = mWifiTracker.getAccessPoints();
         if (isVerboseLoggingEnabled()) {
             Log.i(TAG, "updateAccessPoints called for: " + accessPoints);
         }
 
-        boolean hasAvailableAccessPoints = false;
         mAccessPointsPreferenceCategory.removePreference(mStatusMessagePreference);
-        cacheRemoveAllPrefs(mAccessPointsPreferenceCategory);
 
         int index =
                 configureConnectedAccessPointPreferenceCategory(accessPoints) ? 1 : 0;
-        int numAccessPoints = accessPoints.size();
-        for (; index < numAccessPoints; index++) {
-            AccessPoint accessPoint = accessPoints.get(index);
+        final List<AccessPoint> reachableAccessPoints = new ArrayList<>(accessPoints.size());
+        for (int i = index, numAccessPoints = accessPoints.size(); i < numAccessPoints; i++) {
             // Ignore access points that are out of range.
-            if (accessPoint.isReachable()) {
-                String key = accessPoint.getKey();
-                hasAvailableAccessPoints = true;
-                LongPressAccessPointPreference pref =
-                        (LongPressAccessPointPreference) getCachedPreference(key);
-                if (pref != null) {
-                    pref.setOrder(index);
-                    continue;
-                }
-                LongPressAccessPointPreference preference =
-                        createLongPressAccessPointPreference(accessPoint);
-                preference.setKey(key);
-                preference.setOrder(index);
-                if (mOpenSsid != null && mOpenSsid.equals(accessPoint.getSsidStr())
-                        && accessPoint.getSecurity() != AccessPoint.SECURITY_NONE) {
-                    if (!accessPoint.isSaved() || isDisabledByWrongPassword(accessPoint)) {
-                        onPreferenceTreeClick(preference);
-                        mOpenSsid = null;
-                    }
+            if (accessPoints.get(i).isReachable()) {
+                reachableAccessPoints.add(accessPoints.get(i));
+            }
+        }
+        final AccessPointListDiffer.ChangeSet<AccessPoint> changes =
+                mAccessPointListDiffer.update(reachableAccessPoints);
+        final boolean hasAvailableAccessPoints = !changes.items.isEmpty();
+
+        final ArrayMap<String, LongPressAccessPointPreference> preferences =
+                getAccessPointPreferences();
+        for (int i = 0, size = changes.updated.size(); i < size; i++) {
+            // The AccessPoints need to be the same reference to ensure that updates are reflected
+            // in the UI.
+            final LongPressAccessPointPreference pref =
+                    preferences.remove(changes.updated.get(i).getKey());
+            if (pref != null) {
+                mAccessPointsPreferenceCategory.removePreference(pref);
+            }
+        }
+        for (int i = 0, size = changes.items.size(); i < size; i++, index++) {
+            final AccessPoint accessPoint = changes.items.get(i);
+            final String key = accessPoint.getKey();
+            final LongPressAccessPointPreference pref = preferences.remove(key);
+            if (pref != null) {
+                // Only changes anything if the access point was inserted before it or moved.
+                pref.setOrder(index);
+                continue;
+            }
+            LongPressAccessPointPreference preference =
+                    createLongPressAccessPointPreference(accessPoint);
+            preference.setKey(key);
+            preference.setOrder(index);
+            if (mOpenSsid != null && mOpenSsid.equals(accessPoint.getSsidStr())
+                    && accessPoint.getSecurity() != AccessPoint.SECURITY_NONE) {
+                if (!accessPoint.isSaved() || isDisabledByWrongPassword(accessPoint)) {
+                    onPreferenceTreeClick(preference);
+                    mOpenSsid = null;
                 }
-                mAccessPointsPreferenceCategory.addPreference(preference);
-                accessPoint.setListener(WifiSettings.this);
-                preference.refresh();
             }
+            mAccessPointsPreferenceCategory.addPreference(preference);
+            accessPoint.setListener(WifiSettings.this);
+            preference.refresh();
+        }
+        // Whatever is left are the removed access points.
+        for (int i = 0, size = preferences.size(); i < size; i++) {
+            mAccessPointsPreferenceCategory.removePreference(preferences.valueAt(i));
         }
-        removeCachedPrefs(mAccessPointsPreferenceCategory);
         mAddPreference.setOrder(index);
         mAccessPointsPreferenceCategory.addPreference(mAddPreference);
         setAdditionalSettingsSummaries();
 
+        Preference emptyPreference =
+                mAccessPointsPreferenceCategory.findPreference(PREF_KEY_EMPTY_WIFI_LIST);
         if (!hasAvailableAccessPoints) {
             setProgressBarVisible(true);
-            Preference pref = new Preference(getPrefContext());
-            pref.setSelectable(false);
-            pref.setSummary(R.string.wifi_empty_list_wifi_on);
-            pref.setOrder(index++);
-            pref.setKey(PREF_KEY_EMPTY_WIFI_LIST);
-            mAccessPointsPreferenceCategory.addPreference(pref);
+            if (emptyPreference == null) {
+                emptyPreference = new Preference(getPrefContext());
+                emptyPreference.setSelectable(false);
+                emptyPreference.setSummary(R.string.wifi_empty_list_wifi_on);
+                emptyPreference.setKey(PREF_KEY_EMPTY_WIFI_LIST);
+                emptyPreference.setOrder(index);
+                mAccessPointsPreferenceCategory.addPreference(emptyPreference);
+            }
         } else {
+            if (emptyPreference != null) {
+                mAccessPointsPreferenceCategory.removePreference(emptyPreference);
+            }
             // Continuing showing progress bar for an additional delay to overlap with animation
             getView().postDelayed(mHideProgressBarRunnable, 1700 /* delay millis */);
         }
+
+        if (isVerboseLoggingEnabled()) {
+            Log.d(TAG, "updateAccessPointPreferences took "
+                    + (SystemClock.elapsedRealtime() - startTime) + "ms for "
+                    + changes.items.size() + " access points: " + changes.inserted.size()
+                    + " inserted, " + changes.removed.size() + " removed, "
+                    + changes.updated.size() + " updated, " + changes.moved.size() + " moved");
+        }
+    }
+
+    /**
+     * @return the access point preferences of {@link #mAccessPointsPreferenceCategory}, by key.
+     */
+    private ArrayMap<String, LongPressAccessPointPreference> getAccessPointPreferences() {
+        final int count = mAccessPointsPreferenceCategory.getPreferenceCount();
+        final ArrayMap<String, LongPressAccessPointPreference> preferences =
+                new ArrayMap<>(count);
+        for (int i = 0; i < count; i++) {
+            final Preference pref = mAccessPointsPreferenceCategory.getPreference(i);
+            if (pref instanceof LongPressAccessPointPreference) {
+                preferences.put(pref.getKey(), (LongPressAccessPointPreference) pref);
+            }
+        }
+        return preferences;
     }
 
     @NonNull
@@ -977,6 +1033,7 @@ public class WifiSettings extends RestrictedSettingsFragment
         mStatusMessagePreference.setText(title, description, clickListener);
         removeConnectedAccessPointPreference();
         mAccessPointsPreferenceCategory.removeAll();
+        mAccessPointListDiffer.clear();
         mAccessPointsPreferenceCategory.addPreference(mStatusMessagePreference);
     }
 
@@ -984,6 +1041,7 @@ public class WifiSettings extends RestrictedSettingsFragment
         mStatusMessagePreference.setTitle(messageId);
         removeConnectedAccessPointPreference();
         mAccessPointsPreferenceCategory.removeAll();
+        mAccessPointListDiffer.clear();
         mAccessPointsPreferenceCategory.addPreference(mStatusMessagePreference);
     }
 
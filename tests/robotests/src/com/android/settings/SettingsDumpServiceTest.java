@@ -17,9 +17,11 @@ package com.android.settings;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.when;
 
@@ -31,6 +33,9 @@ import android.content.pm.ResolveInfo;
 import android.support.annotation.NonNull;
 
 import com.android.settings.fuelgauge.batterytip.AnomalyConfigJobService;
+import com.android.settings.search.IndexQueryCache;
+import com.android.settings.search.IndexQueryEngine;
+import com.android.settings.testutils.FakeFeatureFactory;
 import com.android.settings.testutils.SettingsRobolectricTestRunner;
 
 import org.json.JSONException;
@@ -100,6 +105,19 @@ public class SettingsDumpServiceTest {
                 ANOMALY_VERSION);
     }
 
+    @Test
+    public void testDumpSearchQueryCache_returnCounters() throws JSONException {
+        final FakeFeatureFactory factory = FakeFeatureFactory.setupForTest();
+        final IndexQueryEngine engine = mock(IndexQueryEngine.class);
+        when(engine.getCache()).thenReturn(new IndexQueryCache());
+        when(factory.searchFeatureProvider.getQueryEngine(any(Context.class))).thenReturn(engine);
+
+        final JSONObject jsonObject = mTestService.dumpSearchQueryCache();
+
+        assertThat(jsonObject.getInt("hits")).isEqualTo(0);
+        assertThat(jsonObject.getInt("misses")).isEqualTo(0);
+    }
+
     @Test
     public void testDump_ReturnJsonObject() throws JSONException {
         mResolveInfo.activityInfo = new ActivityInfo();
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+public class TrustedCertificateCacheTest {
+
+    private static final int PROFILE_ID = 0;
+    private static final String ALIAS = "system:cert";
+    private static final String OTHER_ALIAS = "system:other";
+    private static final byte[] CERTIFICATE = "certificate".getBytes(StandardCharsets.UTF_8);
+
+    private File mDir;
+    private File mFile;
+
+    @Before
+    public void setUp() {
+        mDir = RuntimeEnvironment.application.getCacheDir();
+        mFile = new File(mDir, TrustedCertificateCache.FILE_NAME_PREFIX + PROFILE_ID);
+        mFile.delete();
+    }
+
+    @Test
+    public void getSubject_sameCertificate_parsedOnce() {
+        final TestCache cache = new TestCache();
+
+        cache.getSubject(PROFILE_ID, ALIAS, CERTIFICATE);
+        final TrustedCertificateCache.Subject subject =
+                cache.getSubject(PROFILE_ID, ALIAS, CERTIFICATE);
+
+        assertThat(subject.primary).isEqualTo("certificate");
+        assertThat(cache.parsed).hasSize(1);
+    }
+
+    @Test
+    public void save_subjectsAreReadBack() {
+        final TestCache cache = new TestCache();
+        cache.getSubject(PROFILE_ID, ALIAS, CERTIFICATE);
+        cache.save(PROFILE_ID, Collections.singletonList(ALIAS));
+
+        final TestCache readBack = new TestCache();
+        final TrustedCertificateCache.Subject subject =
+                readBack.getSubject(PROFILE_ID, ALIAS, CERTIFICATE);
+
+        assertThat(subject.primary).isEqualTo("certificate");
+        assertThat(subject.secondary).isEqualTo(ALIAS);
+        assertThat(readBack.parsed).isEmpty();
+    }
+
+    @Test
+    public void getSubject_certificateChanged_parsesAgain() {
+        final TestCache cache = new TestCache();
+        cache.getSubject(PROFILE_ID, ALIAS, CERTIFICATE);
+        cache.save(PROFILE_ID, Collections.singletonList(ALIAS));
+
+        final TestCache readBack = new TestCache();
+        final TrustedCertificateCache.Subject subject = readBack.getSubject(PROFILE_ID, ALIAS,
+                "new certificate".getBytes(StandardCharsets.UTF_8));
+
+        assertThat(subject.primary).isEqualTo("new certificate");
+        assertThat(readBack.parsed).hasSize(1);
+    }
+
+    @Test
+    public void save_aliasRemoved_isPruned() {
+        final TestCache cache = new TestCache();
+        cache.getSubject(PROFILE_ID, ALIAS, CERTIFICATE);
+        cache.getSubject(PROFILE_ID, OTHER_ALIAS, CERTIFICATE);
+        cache.save(PROFILE_ID, Arrays.asList(ALIAS, OTHER_ALIAS));
+        cache.save(PROFILE_ID, Collections.singletonList(ALIAS));
+
+        final TestCache readBack = new TestCache();
+        readBack.getSubject(PROFILE_ID, ALIAS, CERTIFICATE);
+        readBack.getSubject(PROFILE_ID, OTHER_ALIAS, CERTIFICATE);
+
+        assertThat(readBack.parsed).containsExactly(OTHER_ALIAS);
+    }
+
+    @Test
+    public void getSubject_corruptFile_isIgnored() throws Exception {
+        try (FileOutputStream out = new FileOutputStream(mFile)) {
+            out.write(new byte[] {0, 0, 0, (byte) TrustedCertificateCache.VERSION, 0, 0});
+        }
+        final TestCache cache = new TestCache();
+
+        final TrustedCertificateCache.Subject subject =
+                cache.getSubject(PROFILE_ID, ALIAS, CERTIFICATE);
+
+        assertThat(subject.primary).isEqualTo("certificate");
+        assertThat(cache.parsed).hasSize(1);
+    }
+
+    @Test
+    public void getSubject_oldVersionFile_isIgnored() throws Exception {
+        final TestCache cache = new TestCache();
+        cache.getSubject(PROFILE_ID, ALIAS, CERTIFICATE);
+        cache.save(PROFILE_ID, Collections.singletonList(ALIAS));
+        // Keep the entries, only change the version.
+        final byte[] content = Files.readAllBytes(mFile.toPath());
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(mFile))) {
+            out.writeInt(TrustedCertificateCache.VERSION - 1);
+            out.write(content, Integer.BYTES, content.length - Integer.BYTES);
+        }
+
+        final TestCache readBack = new TestCache();
+        readBack.getSubject(PROFILE_ID, ALIAS, CERTIFICATE);
+
+        assertThat(readBack.parsed).hasSize(1);
+    }
+
+    /**
+     * Cache which parses the certificate bytes as the subject, and records the alias parsed.
+     */
+    private class TestCache extends TrustedCertificateCache {
+        final List<String> parsed = new ArrayList<>();
+        private String mAlias;
+
+        TestCache() {
+            super(mDir);
+        }
+
+        @Override
+        Subject getSubject(int profileId, String alias, byte[] encodedCertificate) {
+            mAlias = alias;
+            return super.getSubject(profileId, alias, encodedCertificate);
+        }
+
+        @Override
+        Subject parseSubject(byte[] encodedCertificate) {
+            parsed.add(mAlias);
+            return new Subject(new String(encodedCertificate, StandardCharsets.UTF_8), mAlias);
+        }
+    }
+}
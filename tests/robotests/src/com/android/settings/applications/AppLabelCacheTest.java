@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+public class AppLabelCacheTest {
+
+    private static final String PACKAGE_NAME = "com.test";
+
+    @Mock
+    private PackageManager mPackageManager;
+    private File mFile;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mFile = new File(RuntimeEnvironment.application.getCacheDir(), AppLabelCache.FILE_NAME);
+        mFile.delete();
+    }
+
+    @Test
+    public void getLabel_notInstalled_returnsNull() throws Exception {
+        when(mPackageManager.getPackageInfo(eq(PACKAGE_NAME), anyInt()))
+                .thenThrow(new PackageManager.NameNotFoundException());
+
+        assertThat(new AppLabelCache(mFile).getLabel(mPackageManager, PACKAGE_NAME)).isNull();
+    }
+
+    @Test
+    public void getLabel_packageNotUpdated_returnsCachedLabel() throws Exception {
+        final AppLabelCache cache = new AppLabelCache(mFile);
+        setPackage("Label", 1L);
+        assertThat(cache.getLabel(mPackageManager, PACKAGE_NAME)).isEqualTo("Label");
+
+        setPackage("New label", 1L);
+        assertThat(cache.getLabel(mPackageManager, PACKAGE_NAME)).isEqualTo("Label");
+    }
+
+    @Test
+    public void getLabel_packageUpdated_reloadsLabel() throws Exception {
+        final AppLabelCache cache = new AppLabelCache(mFile);
+        setPackage("Label", 1L);
+        cache.getLabel(mPackageManager, PACKAGE_NAME);
+
+        setPackage("New label", 2L);
+        assertThat(cache.getLabel(mPackageManager, PACKAGE_NAME)).isEqualTo("New label");
+    }
+
+    @Test
+    public void save_labelsAreReadBack() throws Exception {
+        final AppLabelCache cache = new AppLabelCache(mFile);
+        setPackage("Label", 1L);
+        cache.getLabel(mPackageManager, PACKAGE_NAME);
+        cache.save();
+
+        setPackage("New label", 1L);
+        assertThat(new AppLabelCache(mFile).getLabel(mPackageManager, PACKAGE_NAME))
+                .isEqualTo("Label");
+    }
+
+    private void setPackage(String label, long lastUpdateTime) throws Exception {
+        final PackageInfo info = new PackageInfo();
+        info.packageName = PACKAGE_NAME;
+        info.lastUpdateTime = lastUpdateTime;
+        info.applicationInfo = new ApplicationInfo();
+        info.applicationInfo.packageName = PACKAGE_NAME;
+        info.applicationInfo.nonLocalizedLabel = label;
+        when(mPackageManager.getPackageInfo(eq(PACKAGE_NAME), anyInt())).thenReturn(info);
+    }
+}
@@ -103,7 +103,8 @@ public class AppStateNotificationBridgeTest {
         mContext = RuntimeEnvironment.application.getApplicationContext();
 
         mBridge = new AppStateNotificationBridge(mContext, mState,
-                mock(AppStateBaseBridge.Callback.class), mUsageStats, mUserManager, mBackend);
+                mock(AppStateBaseBridge.Callback.class), mUsageStats, mUserManager, mBackend,
+                new NotificationSentIndex(() -> DAY_IN_MILLIS));
     }
 
     private AppEntry getMockAppEntry(String pkg) {
@@ -284,7 +285,8 @@ public class AppStateNotificationBridgeTest {
         // has work profile
         when(mUserManager.getProfileIdsWithDisabled(anyInt())).thenReturn(new int[]{1});
         mBridge = new AppStateNotificationBridge(mContext, mState,
-                mock(AppStateBaseBridge.Callback.class), mUsageStats, mUserManager, mBackend);
+                mock(AppStateBaseBridge.Callback.class), mUsageStats, mUserManager, mBackend,
+                new NotificationSentIndex(() -> DAY_IN_MILLIS));
 
         List<Event> eventsProfileOwner = new ArrayList<>();
         for (int i = 0; i < 8; i++) {
@@ -337,8 +339,7 @@ public class AppStateNotificationBridgeTest {
 
     @Test
     public void testUpdateExtraInfo_noEvents() throws RemoteException {
-        when(mUsageStats.queryEventsForPackageForUser(
-                anyLong(), anyLong(), anyInt(), anyString(), anyString()))
+        when(mUsageStats.queryEventsForUser(anyLong(), anyLong(), anyInt(), anyString()))
                 .thenReturn(mock(UsageEvents.class));
         AppEntry entry = getMockAppEntry(PKG1);
 
@@ -358,8 +359,8 @@ public class AppStateNotificationBridgeTest {
         }
 
         UsageEvents usageEvents = getUsageEvents(events);
-        when(mUsageStats.queryEventsForPackageForUser(
-                anyLong(), anyLong(), anyInt(), anyString(), anyString())).thenReturn(usageEvents);
+        when(mUsageStats.queryEventsForUser(anyLong(), anyLong(), anyInt(), anyString()))
+                .thenReturn(usageEvents);
 
         AppEntry entry = getMockAppEntry(PKG1);
         mBridge.updateExtraInfo(entry, "", 0);
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import static android.text.format.DateUtils.DAY_IN_MILLIS;
+import static android.text.format.DateUtils.HOUR_IN_MILLIS;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.app.usage.IUsageStatsManager;
+import android.app.usage.UsageEvents;
+import android.app.usage.UsageEvents.Event;
+import android.os.Parcel;
+
+import com.android.settings.applications.AppStateNotificationBridge.NotificationsSentState;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+public class NotificationSentIndexTest {
+
+    private static final String PKG1 = "pkg1";
+    private static final String PKG2 = "pkg2";
+    private static final String CALLER = "com.android.settings";
+    private static final int USER_ID = 0;
+    private static final long START = 100 * DAY_IN_MILLIS;
+
+    @Mock
+    private IUsageStatsManager mUsageStats;
+    private long mNow;
+    private NotificationSentIndex mIndex;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mNow = START;
+        mIndex = new NotificationSentIndex(() -> mNow);
+    }
+
+    @Test
+    public void update_onlyQueriesEventsSinceLastUpdate() throws Exception {
+        final long firstEnd = mNow;
+        when(mUsageStats.queryEventsForUser(anyLong(), anyLong(), anyInt(), anyString()))
+                .thenReturn(getUsageEvents(event(PKG1, mNow - DAY_IN_MILLIS)));
+        mIndex.update(mUsageStats, USER_ID, CALLER);
+
+        mNow += HOUR_IN_MILLIS;
+        when(mUsageStats.queryEventsForUser(anyLong(), anyLong(), anyInt(), anyString()))
+                .thenReturn(getUsageEvents(event(PKG1, mNow - 1)));
+        mIndex.update(mUsageStats, USER_ID, CALLER);
+
+        verify(mUsageStats).queryEventsForUser(firstEnd - NotificationSentIndex.WINDOW_MS,
+                firstEnd, USER_ID, CALLER);
+        verify(mUsageStats).queryEventsForUser(firstEnd, mNow, USER_ID, CALLER);
+        final NotificationsSentState state = mIndex.get(USER_ID, PKG1);
+        assertThat(state.sentCount).isEqualTo(2);
+        assertThat(state.lastSent).isEqualTo(mNow - 1);
+    }
+
+    @Test
+    public void update_sameTime_doesNotQueryAgain() throws Exception {
+        when(mUsageStats.queryEventsForUser(anyLong(), anyLong(), anyInt(), anyString()))
+                .thenReturn(getUsageEvents(event(PKG1, mNow - 1)));
+        mIndex.update(mUsageStats, USER_ID, CALLER);
+        mIndex.update(mUsageStats, USER_ID, CALLER);
+
+        verify(mUsageStats).queryEventsForUser(anyLong(), anyLong(), eq(USER_ID), anyString());
+        verify(mUsageStats, never()).queryEventsForPackageForUser(
+                anyLong(), anyLong(), anyInt(), anyString(), anyString());
+    }
+
+    @Test
+    public void get_dropsNotificationsOutsideWindow() throws Exception {
+        when(mUsageStats.queryEventsForUser(anyLong(), anyLong(), anyInt(), anyString()))
+                .thenReturn(getUsageEvents(event(PKG1, mNow - 6 * DAY_IN_MILLIS),
+                        event(PKG1, mNow - DAY_IN_MILLIS)));
+        mIndex.update(mUsageStats, USER_ID, CALLER);
+        assertThat(mIndex.get(USER_ID, PKG1).sentCount).isEqualTo(2);
+
+        mNow += 2 * DAY_IN_MILLIS;
+        assertThat(mIndex.get(USER_ID, PKG1).sentCount).isEqualTo(1);
+
+        mNow += 6 * DAY_IN_MILLIS;
+        assertThat(mIndex.get(USER_ID, PKG1)).isNull();
+    }
+
+    @Test
+    public void forEach_includesPackagesWithoutNotifications() throws Exception {
+        final Event other = event(PKG2, mNow - 1);
+        other.mEventType = Event.CHOOSER_ACTION;
+        when(mUsageStats.queryEventsForUser(anyLong(), anyLong(), anyInt(), anyString()))
+                .thenReturn(getUsageEvents(event(PKG1, mNow - 1), other));
+        mIndex.update(mUsageStats, USER_ID, CALLER);
+
+        final List<String> packages = new ArrayList<>();
+        mIndex.forEach(USER_ID, (pkg, state) -> packages.add(pkg));
+
+        assertThat(packages).containsExactly(PKG1, PKG2);
+        assertThat(mIndex.get(USER_ID, PKG2).sentCount).isEqualTo(0);
+        assertThat(mIndex.get(1 /* userId */, PKG1)).isNull();
+    }
+
+    private static Event event(String pkg, long timeStamp) {
+        final Event event = new Event();
+        event.mEventType = Event.NOTIFICATION_INTERRUPTION;
+        event.mPackage = pkg;
+        event.mTimeStamp = timeStamp;
+        return event;
+    }
+
+    private static UsageEvents getUsageEvents(Event... events) {
+        final List<Event> list = new ArrayList<>();
+        for (Event event : events) {
+            list.add(event);
+        }
+        final UsageEvents usageEvents = new UsageEvents(list, new String[] {PKG1, PKG2});
+        final Parcel parcel = Parcel.obtain();
+        parcel.setDataPosition(0);
+        usageEvents.writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+        return UsageEvents.CREATOR.createFromParcel(parcel);
+    }
+}
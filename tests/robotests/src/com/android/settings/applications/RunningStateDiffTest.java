@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.app.ActivityManager;
+import android.content.ComponentName;
+
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+public class RunningStateDiffTest {
+
+    private static final int UID = 10001;
+    private static final int PID = 1234;
+    private static final int OTHER_PID = 5678;
+    private static final ComponentName SERVICE = new ComponentName("com.test", "com.test.Service");
+
+    private RunningStateDiff mDiff;
+
+    @Before
+    public void setUp() {
+        mDiff = new RunningStateDiff();
+    }
+
+    @Test
+    public void update_firstSnapshot_reportsEverything() {
+        final RunningStateDiff.ChangeSet changes =
+                mDiff.update(services(service(PID)), processes(process(PID), process(OTHER_PID)));
+
+        assertThat(changes.isEmpty()).isFalse();
+        assertThat(changes.pids.get(PID)).isTrue();
+        assertThat(changes.pids.get(OTHER_PID)).isTrue();
+        assertThat(changes.services).containsExactly(SERVICE);
+    }
+
+    @Test
+    public void update_sameSnapshot_isEmpty() {
+        mDiff.update(services(service(PID)), processes(process(PID)));
+
+        assertThat(mDiff.update(services(service(PID)), processes(process(PID))).isEmpty())
+                .isTrue();
+    }
+
+    @Test
+    public void update_changedProcess_reportsOnlyThatPid() {
+        mDiff.update(services(), processes(process(PID), process(OTHER_PID)));
+        final ActivityManager.RunningAppProcessInfo changed = process(OTHER_PID);
+        changed.importance = ActivityManager.RunningAppProcessInfo.IMPORTANCE_CACHED;
+
+        final RunningStateDiff.ChangeSet changes =
+                mDiff.update(services(), processes(process(PID), changed));
+
+        assertThat(changes.pids.size()).isEqualTo(1);
+        assertThat(changes.pids.get(OTHER_PID)).isTrue();
+        assertThat(changes.services).isEmpty();
+    }
+
+    @Test
+    public void update_removedServiceAndProcess_areReported() {
+        mDiff.update(services(service(PID)), processes(process(PID), process(OTHER_PID)));
+
+        final RunningStateDiff.ChangeSet changes =
+                mDiff.update(services(), processes(process(PID)));
+
+        assertThat(changes.pids.size()).isEqualTo(1);
+        assertThat(changes.pids.get(OTHER_PID)).isTrue();
+        assertThat(changes.services).containsExactly(SERVICE);
+    }
+
+    @Test
+    public void clear_reportsEverythingAgain() {
+        mDiff.update(services(service(PID)), processes(process(PID)));
+        mDiff.clear();
+
+        assertThat(mDiff.update(services(service(PID)), processes(process(PID))).isEmpty())
+                .isFalse();
+    }
+
+    @Test
+    public void affects_matchesProcessServiceOrChild() {
+        final RunningStateDiff.ChangeSet changes = new RunningStateDiff.ChangeSet();
+        changes.pids.put(PID, true);
+
+        final RunningState.MergedItem processItem = new RunningState.MergedItem(0 /* userId */);
+        processItem.mProcess = processItem(PID);
+        final RunningState.MergedItem otherItem = new RunningState.MergedItem(0 /* userId */);
+        otherItem.mProcess = processItem(OTHER_PID);
+        final RunningState.MergedItem userItem = new RunningState.MergedItem(10 /* userId */);
+        userItem.mChildren.add(processItem);
+
+        assertThat(changes.affects(processItem)).isTrue();
+        assertThat(changes.affects(otherItem)).isFalse();
+        assertThat(changes.affects(userItem)).isTrue();
+
+        final RunningState.ServiceItem serviceItem = new RunningState.ServiceItem(0 /* userId */);
+        serviceItem.mRunningService = service(OTHER_PID);
+        otherItem.mServices.add(serviceItem);
+        changes.services.add(SERVICE);
+        assertThat(changes.affects(otherItem)).isTrue();
+    }
+
+    private static RunningState.ProcessItem processItem(int pid) {
+        final RunningState.ProcessItem item =
+                new RunningState.ProcessItem(RuntimeEnvironment.application, UID, "com.test");
+        item.mPid = pid;
+        return item;
+    }
+
+    private static ActivityManager.RunningAppProcessInfo process(int pid) {
+        final ActivityManager.RunningAppProcessInfo info =
+                new ActivityManager.RunningAppProcessInfo("com.test", pid, new String[0]);
+        info.uid = UID;
+        info.importance = ActivityManager.RunningAppProcessInfo.IMPORTANCE_SERVICE;
+        return info;
+    }
+
+    private static ActivityManager.RunningServiceInfo service(int pid) {
+        final ActivityManager.RunningServiceInfo info = new ActivityManager.RunningServiceInfo();
+        info.service = SERVICE;
+        info.uid = UID;
+        info.pid = pid;
+        info.process = "com.test";
+        info.started = true;
+        return info;
+    }
+
+    private static List<ActivityManager.RunningServiceInfo> services(
+            ActivityManager.RunningServiceInfo... services) {
+        return new ArrayList<>(Arrays.asList(services));
+    }
+
+    private static List<ActivityManager.RunningAppProcessInfo> processes(
+            ActivityManager.RunningAppProcessInfo... processes) {
+        return new ArrayList<>(Arrays.asList(processes));
+    }
+}
@@ -83,6 +83,21 @@ public class BackupSettingsActivityPreferenceControllerTest {
         verify(mBackupPreference).setSummary(summaryString);
     }
 
+    @Test
+    public void updateState_afterPreloadState_usesPreloadedSummaryOnce() {
+        mBackupEnabled = true;
+        mController.preloadState();
+        mBackupEnabled = false;
+
+        mController.updateState(mBackupPreference);
+        mController.updateState(mBackupPreference);
+
+        verify(mBackupPreference).setSummary(
+                mContext.getString(R.string.accessibility_feature_state_on));
+        verify(mBackupPreference).setSummary(
+                mContext.getString(R.string.accessibility_feature_state_off));
+    }
+
     @Test
     public void isAvailable_systemUser() {
         when(mUserManager.isAdminUser()).thenReturn(true);
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.core;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+
+import com.android.settings.testutils.FakeToggleController;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+public class PreferenceControllerRegistryTest {
+
+    private static final String KEY = "key";
+    private static final String CONTROLLER_NAME = FakeToggleController.class.getName();
+
+    private Context mContext;
+    private PreferenceControllerRegistry mRegistry;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mRegistry = new PreferenceControllerRegistry();
+    }
+
+    @Test
+    public void getInstance_registersControllersFromXml() {
+        assertThat(PreferenceControllerRegistry.getInstance().size()).isGreaterThan(0);
+    }
+
+    @Test
+    public void create_notRegistered_returnsNull() {
+        assertThat(mRegistry.contains(CONTROLLER_NAME)).isFalse();
+        assertThat(mRegistry.create(mContext, CONTROLLER_NAME)).isNull();
+        assertThat(mRegistry.create(mContext, CONTROLLER_NAME, KEY)).isNull();
+    }
+
+    @Test
+    public void create_keyedFactory_createsControllerWithKey() {
+        mRegistry.registerKeyedFactory(CONTROLLER_NAME, FakeToggleController::new);
+
+        final BasePreferenceController controller =
+                mRegistry.create(mContext, CONTROLLER_NAME, KEY);
+
+        assertThat(mRegistry.contains(CONTROLLER_NAME)).isTrue();
+        assertThat(controller).isInstanceOf(FakeToggleController.class);
+        assertThat(controller.getPreferenceKey()).isEqualTo(KEY);
+    }
+
+    @Test
+    public void create_keyedFactoryOnly_contextOnlyReturnsNull() {
+        mRegistry.registerKeyedFactory(CONTROLLER_NAME, FakeToggleController::new);
+
+        assertThat(mRegistry.create(mContext, CONTROLLER_NAME)).isNull();
+    }
+
+    @Test
+    public void getControllerNames_containsAllFactories() {
+        mRegistry.registerKeyedFactory(CONTROLLER_NAME, FakeToggleController::new);
+        mRegistry.registerContextFactory("context.Controller",
+                context -> new FakeToggleController(context, KEY));
+
+        assertThat(mRegistry.getControllerNames())
+                .containsExactly(CONTROLLER_NAME, "context.Controller");
+        assertThat(mRegistry.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void createInstance_notRegistered_fallsBackToReflection() {
+        final BasePreferenceController controller =
+                BasePreferenceController.createInstance(mContext, CONTROLLER_NAME, KEY);
+
+        assertThat(controller).isInstanceOf(FakeToggleController.class);
+        assertThat(controller.getPreferenceKey()).isEqualTo(KEY);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void createInstance_noContextOnlyConstructor_throws() {
+        BasePreferenceController.createInstance(mContext, CONTROLLER_NAME);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.core;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+
+import com.android.settings.R;
+import com.android.settings.core.PreferenceXmlMetadataCache.PreferenceMetadata;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+public class PreferenceXmlMetadataCacheTest {
+
+    private Context mContext;
+    private PreferenceXmlMetadataCache mCache;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mCache = new PreferenceXmlMetadataCache();
+    }
+
+    @Test
+    @Config(qualifiers = "mcc999")
+    public void getMetadata_firstElementIsPreferenceScreen() throws Exception {
+        final List<PreferenceMetadata> metadata =
+                mCache.getMetadata(mContext, R.xml.location_settings);
+
+        assertThat(metadata).isNotEmpty();
+        assertThat(metadata.get(0).type).isEqualTo(PreferenceXmlParserUtils.PREF_SCREEN_TAG);
+    }
+
+    @Test
+    @Config(qualifiers = "mcc999")
+    public void getMetadata_calledTwice_parsedOnce() throws Exception {
+        final List<PreferenceMetadata> first =
+                mCache.getMetadata(mContext, R.xml.location_settings);
+        final List<PreferenceMetadata> second =
+                mCache.getMetadata(mContext, R.xml.location_settings);
+
+        assertThat(second).isSameAs(first);
+    }
+
+    @Test
+    public void getMetadata_invalidResId_returnsEmpty() throws Exception {
+        assertThat(mCache.getMetadata(mContext, 0)).isEmpty();
+    }
+
+    @Test
+    public void writeSnapshot_readSnapshot_roundTrips() {
+        final File file = new File(mContext.getCacheDir(), "snapshot_test");
+        final List<PreferenceMetadata> metadata = new ArrayList<>();
+        metadata.add(new PreferenceMetadata.Builder()
+                .setType("PreferenceScreen")
+                .setTitle("title")
+                .build());
+        metadata.add(new PreferenceMetadata.Builder()
+                .setType("SwitchPreference")
+                .setKey("key")
+                .setController("controller")
+                .setKeywords("keywords")
+                .setIconResId(42)
+                .setPlatformSlice(true)
+                .build());
+
+        PreferenceXmlMetadataCache.writeSnapshot(file, "config", metadata);
+        final List<PreferenceMetadata> read =
+                PreferenceXmlMetadataCache.readSnapshot(file, "config");
+
+        assertThat(read).hasSize(2);
+        assertThat(read.get(0).title).isEqualTo("title");
+        assertThat(read.get(0).key).isNull();
+        assertThat(read.get(1).key).isEqualTo("key");
+        assertThat(read.get(1).controller).isEqualTo("controller");
+        assertThat(read.get(1).keywords).isEqualTo("keywords");
+        assertThat(read.get(1).iconResId).isEqualTo(42);
+        assertThat(read.get(1).platformSlice).isTrue();
+    }
+
+    @Test
+    public void readSnapshot_differentConfiguration_returnsNull() {
+        final File file = new File(mContext.getCacheDir(), "snapshot_test");
+        final List<PreferenceMetadata> metadata = new ArrayList<>();
+        metadata.add(new PreferenceMetadata.Builder().setType("PreferenceScreen").build());
+
+        PreferenceXmlMetadataCache.writeSnapshot(file, "config", metadata);
+
+        assertThat(PreferenceXmlMetadataCache.readSnapshot(file, "other config")).isNull();
+    }
+
+    @Test
+    public void readSnapshot_missingFile_returnsNull() {
+        final File file = new File(mContext.getCacheDir(), "missing_snapshot_test");
+
+        assertThat(PreferenceXmlMetadataCache.readSnapshot(file, "config")).isNull();
+    }
+
+    @Test
+    public void writeSnapshot_existingSnapshot_replacesIt() {
+        final File file = new File(mContext.getCacheDir(), "snapshot_test");
+        final List<PreferenceMetadata> metadata = new ArrayList<>();
+        metadata.add(new PreferenceMetadata.Builder().setType("PreferenceScreen").build());
+        PreferenceXmlMetadataCache.writeSnapshot(file, "config", metadata);
+
+        metadata.add(new PreferenceMetadata.Builder().setType("SwitchPreference").build());
+        PreferenceXmlMetadataCache.writeSnapshot(file, "new config", metadata);
+
+        assertThat(PreferenceXmlMetadataCache.readSnapshot(file, "config")).isNull();
+        assertThat(PreferenceXmlMetadataCache.readSnapshot(file, "new config")).hasSize(2);
+    }
+
+    @Test
+    public void getConfigurationKey_includesPackageVersion() throws Exception {
+        final PackageInfo info = mContext.getPackageManager().getPackageInfo(
+                mContext.getPackageName(), 0 /* flags */);
+
+        assertThat(PreferenceXmlMetadataCache.getConfigurationKey(mContext))
+                .contains(info.getLongVersionCode() + "/" + info.lastUpdateTime);
+    }
+}
@@ -16,6 +16,7 @@
 package com.android.settings.dashboard;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.nullable;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -33,6 +34,7 @@ import android.support.v7.preference.Preference;
 import android.support.v7.preference.PreferenceManager;
 import android.support.v7.preference.PreferenceScreen;
 
+import com.android.settings.core.BasePreferenceController;
 import com.android.settings.core.PreferenceControllerMixin;
 import com.android.settings.testutils.FakeFeatureFactory;
 import com.android.settings.testutils.SettingsRobolectricTestRunner;
@@ -174,6 +176,66 @@ public class DashboardFragmentTest {
         verify(mockController2).getPreferenceKey();
     }
 
+    @Test
+    public void updateState_backgroundControllers_preloadOnlyAvailable() {
+        final TestBasePreferenceController available =
+                new TestBasePreferenceController(mContext, "key1", true);
+        final TestBasePreferenceController unavailable =
+                new TestBasePreferenceController(mContext, "key2", false);
+        final Preference preference = new Preference(mContext);
+        when(mTestFragment.mScreen.findPreference("key1")).thenReturn(preference);
+        mTestFragment.addPreferenceController(available);
+        mTestFragment.addPreferenceController(unavailable);
+
+        mTestFragment.updatePreferenceStates();
+
+        assertThat(available.mPreloaded).isTrue();
+        assertThat(available.mUpdatedPreference).isSameAs(preference);
+        assertThat(unavailable.mPreloaded).isFalse();
+        assertThat(unavailable.mUpdatedPreference).isNull();
+    }
+
+    @Test
+    public void updateState_controllerNotOptedIn_notPreloaded() {
+        final TestBasePreferenceController controller =
+                new TestBasePreferenceController(mContext, "key1", true);
+        controller.mCanPreloadInBackground = false;
+        final Preference preference = new Preference(mContext);
+        when(mTestFragment.mScreen.findPreference("key1")).thenReturn(preference);
+        mTestFragment.addPreferenceController(controller);
+
+        mTestFragment.updatePreferenceStates();
+
+        assertThat(controller.mPreloaded).isFalse();
+        assertThat(controller.mUpdatedPreference).isSameAs(preference);
+    }
+
+    @Test
+    public void updateState_synchronous_updatesOptedInControllerOnMainThread() {
+        final TestBasePreferenceController controller =
+                new TestBasePreferenceController(mContext, "key1", true);
+        final Preference preference = new Preference(mContext);
+        when(mTestFragment.mScreen.findPreference("key1")).thenReturn(preference);
+        mTestFragment.addPreferenceController(controller);
+
+        mTestFragment.updatePreferenceStates(true /* synchronous */);
+
+        assertThat(controller.mPreloaded).isFalse();
+        assertThat(controller.mUpdatedPreference).isSameAs(preference);
+    }
+
+    @Test
+    public void findIndexedPreference_shouldNotWalkScreenForIndexedKey() {
+        final Preference preference = new Preference(mContext);
+        preference.setKey("key");
+        when(mTestFragment.mScreen.getPreferenceCount()).thenReturn(1);
+        when(mTestFragment.mScreen.getPreference(0)).thenReturn(preference);
+
+        assertThat(mTestFragment.findIndexedPreference("key")).isSameAs(preference);
+        assertThat(mTestFragment.findIndexedPreference("key")).isSameAs(preference);
+        verify(mTestFragment.mScreen, never()).findPreference(anyString());
+    }
+
     @Test
     public void tintTileIcon_hasMetadata_shouldReturnIconTintableMetadata() {
         final Tile tile = new Tile();
@@ -237,6 +299,39 @@ public class DashboardFragmentTest {
         }
     }
 
+    public static class TestBasePreferenceController extends BasePreferenceController {
+
+        private final boolean mAvailable;
+        private boolean mCanPreloadInBackground = true;
+        private boolean mPreloaded;
+        private Preference mUpdatedPreference;
+
+        private TestBasePreferenceController(Context context, String key, boolean available) {
+            super(context, key);
+            mAvailable = available;
+        }
+
+        @Override
+        public int getAvailabilityStatus() {
+            return mAvailable ? AVAILABLE : UNSUPPORTED_ON_DEVICE;
+        }
+
+        @Override
+        public boolean canPreloadInBackground() {
+            return mCanPreloadInBackground;
+        }
+
+        @Override
+        public void preloadState() {
+            mPreloaded = true;
+        }
+
+        @Override
+        public void updateState(Preference preference) {
+            mUpdatedPreference = preference;
+        }
+    }
+
     public static class TestFragment extends DashboardFragment {
 
         private final PreferenceManager mPreferenceManager;
@@ -290,5 +385,11 @@ public class DashboardFragmentTest {
         public PreferenceManager getPreferenceManager() {
             return mPreferenceManager;
         }
+
+        @Override
+        PreferenceControllerStateEvaluator createStateEvaluator(
+                PreferenceControllerStateEvaluator.Callback callback) {
+            return new PreferenceControllerStateEvaluator(callback, Runnable::run, Runnable::run);
+        }
     }
 }
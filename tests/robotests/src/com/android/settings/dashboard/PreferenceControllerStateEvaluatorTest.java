@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+
+import com.android.settings.core.BasePreferenceController;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+public class PreferenceControllerStateEvaluatorTest {
+
+    private final Queue<Runnable> mBackgroundTasks = new ArrayDeque<>();
+    private final Queue<Runnable> mMainTasks = new ArrayDeque<>();
+    private final List<List<BasePreferenceController>> mResults = new ArrayList<>();
+
+    private Context mContext;
+    private PreferenceControllerStateEvaluator mEvaluator;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mEvaluator = new PreferenceControllerStateEvaluator(mResults::add, mBackgroundTasks::add,
+                mMainTasks::add);
+    }
+
+    @Test
+    public void evaluate_reportsAvailableControllersOnMainThreadOnceAllDone() {
+        final TestController available = new TestController(mContext, "key1", true);
+        final TestController unavailable = new TestController(mContext, "key2", false);
+
+        mEvaluator.evaluate(Arrays.asList(available, unavailable));
+        mBackgroundTasks.poll().run();
+
+        assertThat(mMainTasks).isEmpty();
+
+        mBackgroundTasks.poll().run();
+        runAll(mMainTasks);
+
+        assertThat(mResults).containsExactly(Arrays.asList(available));
+        assertThat(available.mPreloadCount).isEqualTo(1);
+        assertThat(unavailable.mPreloadCount).isEqualTo(0);
+    }
+
+    @Test
+    public void evaluate_whileRunning_startsAfterwardsWithLatestControllers() {
+        final TestController first = new TestController(mContext, "key1", true);
+        final TestController second = new TestController(mContext, "key2", true);
+        final TestController third = new TestController(mContext, "key3", true);
+
+        mEvaluator.evaluate(Arrays.asList(first));
+        mEvaluator.evaluate(Arrays.asList(second));
+        mEvaluator.evaluate(Arrays.asList(third));
+
+        assertThat(mBackgroundTasks).hasSize(1);
+
+        runAll(mBackgroundTasks);
+        runAll(mMainTasks);
+        runAll(mBackgroundTasks);
+        runAll(mMainTasks);
+
+        assertThat(mResults).containsExactly(Arrays.asList(first), Arrays.asList(third))
+                .inOrder();
+        assertThat(second.mPreloadCount).isEqualTo(0);
+    }
+
+    @Test
+    public void cancel_whileRunning_dropsRunningAndPendingResults() {
+        final TestController first = new TestController(mContext, "key1", true);
+        final TestController second = new TestController(mContext, "key2", true);
+
+        mEvaluator.evaluate(Arrays.asList(first));
+        mEvaluator.evaluate(Arrays.asList(second));
+        mEvaluator.cancel();
+        runAll(mBackgroundTasks);
+        runAll(mMainTasks);
+
+        assertThat(mResults).isEmpty();
+        assertThat(mBackgroundTasks).isEmpty();
+        assertThat(second.mPreloadCount).isEqualTo(0);
+    }
+
+    @Test
+    public void evaluate_afterCancelWhileRunning_reportsOnlyNewResults() {
+        final TestController first = new TestController(mContext, "key1", true);
+        final TestController second = new TestController(mContext, "key2", true);
+
+        mEvaluator.evaluate(Arrays.asList(first));
+        mEvaluator.cancel();
+        mEvaluator.evaluate(Arrays.asList(second));
+        runAll(mBackgroundTasks);
+        runAll(mMainTasks);
+        runAll(mBackgroundTasks);
+        runAll(mMainTasks);
+
+        assertThat(mResults).containsExactly(Arrays.asList(second));
+    }
+
+    @Test
+    public void evaluate_controllerThrows_reportedUnavailable() {
+        final TestController failing = new TestController(mContext, "key1", true);
+        failing.mThrow = true;
+
+        mEvaluator.evaluate(Arrays.asList(failing));
+        runAll(mBackgroundTasks);
+        runAll(mMainTasks);
+
+        assertThat(mResults).containsExactly(new ArrayList<>());
+    }
+
+    private static void runAll(Queue<Runnable> tasks) {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private static class TestController extends BasePreferenceController {
+
+        private final boolean mAvailable;
+        private boolean mThrow;
+        private int mPreloadCount;
+
+        private TestController(Context context, String key, boolean available) {
+            super(context, key);
+            mAvailable = available;
+        }
+
+        @Override
+        public int getAvailabilityStatus() {
+            if (mThrow) {
+                throw new IllegalStateException();
+            }
+            return mAvailable ? AVAILABLE : UNSUPPORTED_ON_DEVICE;
+        }
+
+        @Override
+        public boolean canPreloadInBackground() {
+            return true;
+        }
+
+        @Override
+        public void preloadState() {
+            mPreloadCount++;
+        }
+    }
+}
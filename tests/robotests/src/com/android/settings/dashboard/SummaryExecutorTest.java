@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+public class SummaryExecutorTest {
+
+    private final Object mOwner1 = new Object();
+    private final Object mOwner2 = new Object();
+
+    private SummaryExecutor mExecutor;
+    private List<String> mRunJobs;
+
+    @Before
+    public void setUp() {
+        // No worker threads, jobs are run by the test.
+        mExecutor = new SummaryExecutor(0 /* threadCount */);
+        mRunJobs = new ArrayList<>();
+    }
+
+    @Test
+    public void submit_sameOwnerAndKey_shouldCoalesce() throws InterruptedException {
+        submit(mOwner1, "key", SummaryExecutor.PRIORITY_FOREGROUND, "first");
+        submit(mOwner1, "key", SummaryExecutor.PRIORITY_FOREGROUND, "second");
+
+        assertThat(mExecutor.getPendingCount()).isEqualTo(1);
+        mExecutor.runNextJob();
+
+        assertThat(mRunJobs).containsExactly("second");
+        assertThat(mExecutor.getQueuedCount()).isEqualTo(2);
+        assertThat(mExecutor.getCoalescedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void submit_differentOwners_shouldNotCoalesce() {
+        submit(mOwner1, "key", SummaryExecutor.PRIORITY_FOREGROUND, "first");
+        submit(mOwner2, "key", SummaryExecutor.PRIORITY_FOREGROUND, "second");
+
+        assertThat(mExecutor.getPendingCount()).isEqualTo(2);
+        assertThat(mExecutor.getCoalescedCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void runNextJob_shouldRunHigherPriorityOwnerFirst() throws InterruptedException {
+        submit(mOwner1, "key", SummaryExecutor.PRIORITY_BACKGROUND, "background");
+        submit(mOwner2, "key", SummaryExecutor.PRIORITY_FOREGROUND, "foreground");
+
+        mExecutor.runNextJob();
+        mExecutor.runNextJob();
+
+        assertThat(mRunJobs).containsExactly("foreground", "background").inOrder();
+    }
+
+    @Test
+    public void runNextJob_sameOwner_shouldKeepSubmissionOrder() throws InterruptedException {
+        submit(mOwner1, "key1", SummaryExecutor.PRIORITY_BACKGROUND, "first");
+        submit(mOwner1, "key2", SummaryExecutor.PRIORITY_FOREGROUND, "second");
+
+        mExecutor.runNextJob();
+        mExecutor.runNextJob();
+
+        assertThat(mRunJobs).containsExactly("first", "second").inOrder();
+    }
+
+    @Test
+    public void cancel_shouldDropPendingJobsOfOwner() throws InterruptedException {
+        submit(mOwner1, "key1", SummaryExecutor.PRIORITY_FOREGROUND, "first");
+        submit(mOwner1, "key2", SummaryExecutor.PRIORITY_FOREGROUND, "second");
+        submit(mOwner2, "key1", SummaryExecutor.PRIORITY_FOREGROUND, "third");
+
+        mExecutor.cancel(mOwner1);
+        mExecutor.runNextJob();
+
+        assertThat(mRunJobs).containsExactly("third");
+        assertThat(mExecutor.getCancelledCount()).isEqualTo(2);
+        assertThat(mExecutor.getPendingCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void cancel_withKey_shouldOnlyDropMatchingJob() {
+        submit(mOwner1, "key1", SummaryExecutor.PRIORITY_FOREGROUND, "first");
+        submit(mOwner1, "key2", SummaryExecutor.PRIORITY_FOREGROUND, "second");
+
+        mExecutor.cancel(mOwner1, "key1");
+
+        assertThat(mExecutor.hasPendingJob(mOwner1, "key1")).isFalse();
+        assertThat(mExecutor.hasPendingJob(mOwner1, "key2")).isTrue();
+        assertThat(mExecutor.getCancelledCount()).isEqualTo(1);
+    }
+
+    private void submit(Object owner, String key, int priority, String name) {
+        mExecutor.submit(owner, key, priority, () -> mRunJobs.add(name));
+    }
+}
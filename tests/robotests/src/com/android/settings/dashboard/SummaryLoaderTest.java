@@ -45,6 +45,7 @@ public class SummaryLoaderTest {
     private boolean mCallbackInvoked;
     private Tile mTile;
     private FakeFeatureFactory mFeatureFactory;
+    private SummaryExecutor mExecutor;
 
     @Before
     public void SetUp() {
@@ -57,7 +58,8 @@ public class SummaryLoaderTest {
 
         final Activity activity = Robolectric.buildActivity(Activity.class).get();
 
-        mSummaryLoader = new SummaryLoader(activity, CategoryKey.CATEGORY_HOMEPAGE);
+        mExecutor = new SummaryExecutor(0 /* threadCount */);
+        mSummaryLoader = new SummaryLoader(activity, CategoryKey.CATEGORY_HOMEPAGE, mExecutor);
         mSummaryLoader.setSummaryConsumer(tile -> mCallbackInvoked = true);
     }
 
@@ -97,4 +99,30 @@ public class SummaryLoaderTest {
 
         assertThat(tile.summary).isEqualTo(testSummary);
     }
+
+    @Test
+    public void setListening_true_shouldQueueTileLoading() {
+        mSummaryLoader.setListening(true);
+
+        assertThat(mExecutor.getPendingCount()).isEqualTo(1);
+        verifyZeroInteractions(mFeatureFactory.dashboardFeatureProvider);
+    }
+
+    @Test
+    public void setListening_false_shouldCancelTileLoading() {
+        mSummaryLoader.setListening(true);
+        mSummaryLoader.setListening(false);
+
+        assertThat(mExecutor.getCancelledCount()).isEqualTo(1);
+        assertThat(mExecutor.getPendingCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void release_shouldCancelPendingJobs() {
+        mSummaryLoader.setListening(true);
+
+        mSummaryLoader.release();
+
+        assertThat(mExecutor.getPendingCount()).isEqualTo(0);
+    }
 }
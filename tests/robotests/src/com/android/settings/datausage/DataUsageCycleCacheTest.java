@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.datausage;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.net.INetworkStatsSession;
+import android.net.NetworkStats;
+import android.net.NetworkStatsHistory;
+import android.net.NetworkTemplate;
+import android.os.Process;
+import android.text.format.DateUtils;
+
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+import com.android.settingslib.AppItem;
+import com.android.settingslib.net.ChartData;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+public class DataUsageCycleCacheTest {
+
+    private static final long NOW = 1_500_000_000_000L - 1_500_000_000_000L
+            % DataUsageCycleCache.BUCKET_DURATION_MS;
+    private static final long CYCLE_DURATION = 30 * DateUtils.DAY_IN_MILLIS;
+    private static final int UID = Process.FIRST_APPLICATION_UID;
+
+    @Mock
+    private INetworkStatsSession mSession;
+    private NetworkTemplate mTemplate;
+    private long mNow;
+    private DataUsageCycleCache mCache;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        mTemplate = NetworkTemplate.buildTemplateWifiWildcard();
+        mNow = NOW;
+        mCache = new DataUsageCycleCache(() -> mNow);
+        when(mSession.getSummaryForAllUid(any(), anyLong(), anyLong(), anyBoolean()))
+                .thenAnswer(invocation -> createStats(100));
+    }
+
+    @Test
+    public void getSummaryForAllUid_closedCycle_queriesOnce() throws Exception {
+        final long end = NOW - 2 * DateUtils.DAY_IN_MILLIS;
+        final long start = end - CYCLE_DURATION;
+
+        mCache.getSummaryForAllUid(mSession, mTemplate, start, end);
+        final NetworkStats stats = mCache.getSummaryForAllUid(mSession, mTemplate, start, end);
+
+        assertThat(stats.getTotalBytes()).isEqualTo(100);
+        verify(mSession, times(1)).getSummaryForAllUid(any(), anyLong(), anyLong(),
+                anyBoolean());
+    }
+
+    @Test
+    public void getSummaryForAllUid_openCycle_onlyQueriesUnsettledPartAgain() throws Exception {
+        final long start = NOW - 10 * DateUtils.DAY_IN_MILLIS;
+        final long end = start + CYCLE_DURATION;
+        final long settledEnd = NOW - DataUsageCycleCache.SETTLE_TIME_MS;
+
+        mCache.getSummaryForAllUid(mSession, mTemplate, start, end);
+        final NetworkStats stats = mCache.getSummaryForAllUid(mSession, mTemplate, start, end);
+
+        // Settled part once, open part twice.
+        assertThat(stats.getTotalBytes()).isEqualTo(200);
+        verify(mSession, times(1)).getSummaryForAllUid(eq(mTemplate), eq(start),
+                eq(settledEnd), eq(false));
+        verify(mSession, times(2)).getSummaryForAllUid(eq(mTemplate), eq(settledEnd),
+                eq(end), eq(false));
+    }
+
+    @Test
+    public void getSummaryForAllUid_timePassed_extendsSettledPart() throws Exception {
+        final long start = NOW - 10 * DateUtils.DAY_IN_MILLIS;
+        final long end = start + CYCLE_DURATION;
+        final long settledEnd = NOW - DataUsageCycleCache.SETTLE_TIME_MS;
+        mCache.getSummaryForAllUid(mSession, mTemplate, start, end);
+
+        mNow += DataUsageCycleCache.BUCKET_DURATION_MS;
+        mCache.getSummaryForAllUid(mSession, mTemplate, start, end);
+
+        verify(mSession).getSummaryForAllUid(eq(mTemplate), eq(settledEnd),
+                eq(settledEnd + DataUsageCycleCache.BUCKET_DURATION_MS), eq(false));
+        verify(mSession, times(1)).getSummaryForAllUid(eq(mTemplate), eq(start), anyLong(),
+                eq(false));
+    }
+
+    @Test
+    public void shouldForceUpdate_isRateLimited() {
+        assertThat(mCache.shouldForceUpdate()).isTrue();
+        assertThat(mCache.shouldForceUpdate()).isFalse();
+
+        mNow += DataUsageCycleCache.FORCE_UPDATE_INTERVAL_MS;
+
+        assertThat(mCache.shouldForceUpdate()).isTrue();
+    }
+
+    @Test
+    public void getChartData_expiresAfterForceUpdateInterval() {
+        final AppItem item = new AppItem(UID);
+        final ChartData data = new ChartData();
+        mCache.putChartData(mTemplate, item, data);
+
+        mNow += DataUsageCycleCache.FORCE_UPDATE_INTERVAL_MS - 1;
+        assertThat(mCache.getChartData(mTemplate, item)).isSameAs(data);
+
+        mNow += 1;
+        assertThat(mCache.getChartData(mTemplate, item)).isNull();
+    }
+
+    @Test
+    public void getTotalPerCycle_matchesGetValues() {
+        final long bucketDuration = DateUtils.HOUR_IN_MILLIS;
+        final NetworkStatsHistory history = new NetworkStatsHistory(bucketDuration);
+        for (int i = 0; i < 100; i++) {
+            history.recordData(i * bucketDuration, (i + 1) * bucketDuration,
+                    new NetworkStats.Entry(1000 + i, 1, 500, 1, 0));
+        }
+        // Two cycles splitting a bucket in half, in decreasing order like the spinner.
+        final long split = 40 * bucketDuration + bucketDuration / 2;
+        final long[] starts = {split, 10 * bucketDuration};
+        final long[] ends = {90 * bucketDuration, split};
+
+        final long[] totals = DataUsageCycleCache.getTotalPerCycle(history, starts, ends);
+
+        for (int i = 0; i < starts.length; i++) {
+            final NetworkStatsHistory.Entry entry = history.getValues(starts[i], ends[i], null);
+            assertThat(totals[i]).isEqualTo(entry.rxBytes + entry.txBytes);
+        }
+    }
+
+    private static NetworkStats createStats(long rxBytes) {
+        final NetworkStats stats = new NetworkStats(0L /* elapsedRealtime */, 1);
+        stats.addValues(new NetworkStats.Entry(NetworkStats.IFACE_ALL, UID,
+                NetworkStats.SET_DEFAULT, NetworkStats.TAG_NONE, rxBytes, 1 /* rxPackets */,
+                0 /* txBytes */, 0 /* txPackets */, 0 /* operations */));
+        return stats;
+    }
+}
@@ -26,13 +26,19 @@ import static org.mockito.Mockito.when;
 import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
+import android.net.NetworkStats;
 import android.net.NetworkTemplate;
 import android.os.Bundle;
+import android.os.Process;
+import android.os.UserHandle;
+import android.os.UserManager;
 import android.provider.Settings;
 
 import com.android.settings.testutils.FakeFeatureFactory;
 import com.android.settings.testutils.SettingsRobolectricTestRunner;
+import com.android.settingslib.AppItem;
 import com.android.settingslib.NetworkPolicyEditor;
+import com.android.settingslib.net.UidDetailProvider;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -41,6 +47,9 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.robolectric.util.ReflectionHelpers;
 
+import java.util.Arrays;
+import java.util.List;
+
 @RunWith(SettingsRobolectricTestRunner.class)
 public class DataUsageListTest {
 
@@ -103,4 +112,46 @@ public class DataUsageListTest {
         assertThat(mDataUsageList.mTemplate).isNotNull();
         assertThat(mDataUsageList.mSubId).isEqualTo(3);
     }
+
+    @Test
+    public void aggregate_collapsesUidsAndSplicesRestrictedApps() {
+        final int appUid = Process.FIRST_APPLICATION_UID;
+        final int managedAppUid = UserHandle.getUid(10, Process.FIRST_APPLICATION_UID);
+        final int restrictedUid = Process.FIRST_APPLICATION_UID + 1;
+        final NetworkStats stats = new NetworkStats(0L /* elapsedRealtime */, 4);
+        stats.addValues(createEntry(appUid, 100));
+        stats.addValues(createEntry(appUid, 50));
+        stats.addValues(createEntry(managedAppUid, 30));
+        stats.addValues(createEntry(Process.ROOT_UID, 10));
+        final UidCollapseResolver resolver = new UidCollapseResolver(0 /* currentUserId */,
+                Arrays.asList(UserHandle.of(0), UserHandle.of(10)), mock(UserManager.class));
+
+        final List<AppItem> items = DataUsageList.aggregate(stats,
+                new int[] {restrictedUid}, resolver);
+
+        assertThat(items).hasSize(5);
+        final AppItem app = findItem(items, appUid);
+        assertThat(app.total).isEqualTo(150);
+        assertThat(findItem(items, managedAppUid).total).isEqualTo(30);
+        assertThat(findItem(items, UidDetailProvider.buildKeyForUser(10)).total).isEqualTo(30);
+        assertThat(findItem(items, Process.SYSTEM_UID).total).isEqualTo(10);
+        final AppItem restricted = findItem(items, restrictedUid);
+        assertThat(restricted.restricted).isTrue();
+        assertThat(restricted.total).isEqualTo(-1);
+    }
+
+    private static NetworkStats.Entry createEntry(int uid, long rxBytes) {
+        return new NetworkStats.Entry(NetworkStats.IFACE_ALL, uid, NetworkStats.SET_DEFAULT,
+                NetworkStats.TAG_NONE, rxBytes, 1 /* rxPackets */, 0 /* txBytes */,
+                0 /* txPackets */, 0 /* operations */);
+    }
+
+    private static AppItem findItem(List<AppItem> items, int key) {
+        for (AppItem item : items) {
+            if (item.key == key) {
+                return item;
+            }
+        }
+        throw new AssertionError("No item for key " + key);
+    }
 }
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.datausage;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.pm.UserInfo;
+import android.net.TrafficStats;
+import android.os.Process;
+import android.os.UserHandle;
+import android.os.UserManager;
+
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+import com.android.settingslib.AppItem;
+import com.android.settingslib.net.UidDetailProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.Arrays;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+public class UidCollapseResolverTest {
+
+    private static final int CURRENT_USER = 0;
+    private static final int MANAGED_USER = 10;
+    private static final int OTHER_USER = 11;
+    private static final int REMOVED_USER = 12;
+    private static final int APP_ID = Process.FIRST_APPLICATION_UID + 1;
+
+    @Mock
+    private UserManager mUserManager;
+    private UidCollapseResolver mResolver;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        when(mUserManager.getUserInfo(OTHER_USER)).thenReturn(new UserInfo());
+        mResolver = new UidCollapseResolver(CURRENT_USER,
+                Arrays.asList(UserHandle.of(CURRENT_USER), UserHandle.of(MANAGED_USER)),
+                mUserManager);
+    }
+
+    @Test
+    public void currentUserApp_collapsesToItself() {
+        final int uid = UserHandle.getUid(CURRENT_USER, APP_ID);
+
+        assertThat(mResolver.getCollapseKey(uid)).isEqualTo(uid);
+        assertThat(mResolver.getCategory(uid)).isEqualTo(AppItem.CATEGORY_APP);
+        assertThat(mResolver.getProfileKey(uid)).isEqualTo(UidCollapseResolver.NO_KEY);
+        assertThat(mResolver.isInProfiles(uid)).isTrue();
+    }
+
+    @Test
+    public void managedProfileApp_isAlsoAddedToProfileItem() {
+        final int uid = UserHandle.getUid(MANAGED_USER, APP_ID);
+
+        assertThat(mResolver.getCollapseKey(uid)).isEqualTo(uid);
+        assertThat(mResolver.getProfileKey(uid))
+                .isEqualTo(UidDetailProvider.buildKeyForUser(MANAGED_USER));
+        assertThat(mResolver.isInProfiles(uid)).isTrue();
+    }
+
+    @Test
+    public void otherUserApp_collapsesToUserItem() {
+        final int uid = UserHandle.getUid(OTHER_USER, APP_ID);
+
+        assertThat(mResolver.getCollapseKey(uid))
+                .isEqualTo(UidDetailProvider.buildKeyForUser(OTHER_USER));
+        assertThat(mResolver.getCategory(uid)).isEqualTo(AppItem.CATEGORY_USER);
+        assertThat(mResolver.isInProfiles(uid)).isFalse();
+    }
+
+    @Test
+    public void removedUserApp_collapsesToRemovedItem_andUserIsLookedUpOnce() {
+        final int uid = UserHandle.getUid(REMOVED_USER, APP_ID);
+
+        assertThat(mResolver.getCollapseKey(uid)).isEqualTo(TrafficStats.UID_REMOVED);
+        assertThat(mResolver.getCollapseKey(uid + 1)).isEqualTo(TrafficStats.UID_REMOVED);
+        assertThat(mResolver.getCategory(uid)).isEqualTo(AppItem.CATEGORY_APP);
+        verify(mUserManager, times(1)).getUserInfo(REMOVED_USER);
+    }
+
+    @Test
+    public void systemUids_collapseToSystem() {
+        assertThat(mResolver.getCollapseKey(Process.ROOT_UID)).isEqualTo(Process.SYSTEM_UID);
+        assertThat(mResolver.getCollapseKey(TrafficStats.UID_TETHERING))
+                .isEqualTo(TrafficStats.UID_TETHERING);
+        assertThat(mResolver.getProfileKey(Process.ROOT_UID))
+                .isEqualTo(UidCollapseResolver.NO_KEY);
+    }
+}
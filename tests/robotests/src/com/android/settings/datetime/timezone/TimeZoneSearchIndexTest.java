@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.datetime.timezone;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+public class TimeZoneSearchIndexTest {
+
+    private static final String[][] SEARCH_KEYS = {
+            { "United States" },
+            { "Hong Kong" },
+            { "United Kingdom", "Great Britain" },
+            { "Secret" },
+    };
+
+    @Test
+    public void query_matchesWholeKeysAndWordStarts() {
+        final TimeZoneSearchIndex index = new TimeZoneSearchIndex(Locale.US, SEARCH_KEYS);
+
+        assertThat(index.query("Unit")).asList().containsExactly(0, 2).inOrder();
+        assertThat(index.query("kon")).asList().containsExactly(1);
+        assertThat(index.query("brit")).asList().containsExactly(2);
+        assertThat(index.query("SEC")).asList().containsExactly(3);
+        assertThat(index.query("states k")).asList().isEmpty();
+        assertThat(index.query("ted")).asList().isEmpty();
+    }
+
+    @Test
+    public void query_matchesMoreThanOneWordOfAKey() {
+        final TimeZoneSearchIndex index = new TimeZoneSearchIndex(Locale.US, SEARCH_KEYS);
+
+        assertThat(index.query("hong k")).asList().containsExactly(1);
+        assertThat(index.query("great brit")).asList().containsExactly(2);
+    }
+
+    @Test
+    public void query_itemMatchingTwice_isReturnedOnce() {
+        final TimeZoneSearchIndex index = new TimeZoneSearchIndex(Locale.US,
+                new String[][] { { "Kong Kong", "Kongo" } });
+
+        assertThat(index.query("kong")).asList().containsExactly(0);
+    }
+}
@@ -37,8 +37,10 @@ import static org.mockito.Mockito.when;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.util.ArrayMap;
 import android.util.SparseArray;
 
+import com.android.settings.deviceinfo.storage.CachedStorageValuesHelper.PackageStorageStats;
 import com.android.settings.testutils.SettingsRobolectricTestRunner;
 import com.android.settingslib.applications.StorageStatsSource;
 import com.android.settingslib.deviceinfo.PrivateStorageInfo;
@@ -288,4 +290,58 @@ public class CachedStorageValuesHelperTest {
         assertThat(mSharedPreferences.getInt(USER_ID_KEY, -1)).isEqualTo(0);
         assertThat(mSharedPreferences.getLong(TIMESTAMP_KEY, -1)).isEqualTo(10000L);
     };
+
+    @Test
+    public void getCachedPackageStats_emptyIfNothingCached() throws Exception {
+        when(mMockClock.getCurrentTime()).thenReturn(10000L);
+
+        assertThat(mCachedValuesHelper.getCachedPackageStats("uuid").size()).isEqualTo(0);
+    }
+
+    @Test
+    public void cachePackageStats_roundTrips() throws Exception {
+        when(mMockClock.getCurrentTime()).thenReturn(10000L);
+        mCachedValuesHelper.cachePackageStats("uuid", packageStats(10000L));
+
+        final SparseArray<ArrayMap<String, PackageStorageStats>> result =
+                mCachedValuesHelper.getCachedPackageStats("uuid");
+
+        assertThat(result.size()).isEqualTo(1);
+        final PackageStorageStats stats = result.get(10).get("com.test");
+        assertThat(stats.installId).isEqualTo("1:/data/app/com.test");
+        assertThat(stats.queryTime).isEqualTo(10000L);
+        assertThat(stats.blamedDataBytes).isEqualTo(100L);
+        assertThat(stats.codeBytes).isEqualTo(10L);
+    }
+
+    @Test
+    public void getCachedPackageStats_dropsExpiredStats() throws Exception {
+        mCachedValuesHelper.cachePackageStats("uuid", packageStats(10000L));
+        when(mMockClock.getCurrentTime())
+                .thenReturn(10001L + CachedStorageValuesHelper.PACKAGE_STATS_MAX_AGE_MS);
+
+        final SparseArray<ArrayMap<String, PackageStorageStats>> result =
+                mCachedValuesHelper.getCachedPackageStats("uuid");
+
+        assertThat(result.get(10).isEmpty()).isTrue();
+    }
+
+    @Test
+    public void getCachedPackageStats_emptyForOtherVolume() throws Exception {
+        when(mMockClock.getCurrentTime()).thenReturn(10000L);
+        mCachedValuesHelper.cachePackageStats(null, packageStats(10000L));
+
+        assertThat(mCachedValuesHelper.getCachedPackageStats("uuid").size()).isEqualTo(0);
+        assertThat(mCachedValuesHelper.getCachedPackageStats(null).size()).isEqualTo(1);
+    }
+
+    private static SparseArray<ArrayMap<String, PackageStorageStats>> packageStats(
+            long queryTime) {
+        final ArrayMap<String, PackageStorageStats> packages = new ArrayMap<>();
+        packages.put("com.test",
+                new PackageStorageStats("1:/data/app/com.test", queryTime, 100, 10));
+        final SparseArray<ArrayMap<String, PackageStorageStats>> stats = new SparseArray<>();
+        stats.put(10, packages);
+        return stats;
+    }
 }
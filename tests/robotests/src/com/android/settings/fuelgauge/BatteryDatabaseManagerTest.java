@@ -36,6 +36,7 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 @RunWith(RobolectricTestRunner.class)
@@ -148,4 +149,24 @@ public class BatteryDatabaseManagerTest {
                 AnomalyDatabaseHelper.State.NEW);
         assertThat(newAppInfos).containsExactly(mCombinedAppInfo);
     }
+
+    @Test
+    public void testInsertAnomalies_insertsAllAndSkipsDuplicates() {
+        mBatteryDatabaseManager.insertAnomaly(UID_NEW, PACKAGE_NAME_NEW, TYPE_NEW,
+                AnomalyDatabaseHelper.State.NEW, NOW);
+
+        final int count = mBatteryDatabaseManager.insertAnomalies(Arrays.asList(
+                new BatteryDatabaseManager.AnomalyRecord(UID_NEW, PACKAGE_NAME_NEW, TYPE_NEW,
+                        AnomalyDatabaseHelper.State.NEW, NOW),
+                new BatteryDatabaseManager.AnomalyRecord(UID_NEW, PACKAGE_NAME_NEW, TYPE_OLD,
+                        AnomalyDatabaseHelper.State.NEW, NOW),
+                new BatteryDatabaseManager.AnomalyRecord(UID_OLD, PACKAGE_NAME_OLD, TYPE_OLD,
+                        AnomalyDatabaseHelper.State.HANDLED, NOW)));
+
+        assertThat(count).isEqualTo(2);
+        assertThat(mBatteryDatabaseManager.queryAllAnomalies(ONE_DAY_BEFORE,
+                AnomalyDatabaseHelper.State.NEW)).containsExactly(mCombinedAppInfo);
+        assertThat(mBatteryDatabaseManager.queryAllAnomalies(ONE_DAY_BEFORE,
+                AnomalyDatabaseHelper.State.HANDLED)).containsExactly(mOldAppInfo);
+    }
 }
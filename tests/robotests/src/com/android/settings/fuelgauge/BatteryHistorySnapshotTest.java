@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.os.BatteryStats;
+import android.os.BatteryStats.HistoryItem;
+
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+public class BatteryHistorySnapshotTest {
+
+    private static final long WALL_TIME = 1_500_000_000_000L;
+    private static final long MINUTE = 60 * 1000L;
+    private static final long HOUR = 60 * MINUTE;
+
+    private BatteryHistorySnapshot mSnapshot;
+
+    @Before
+    public void setUp() {
+        mSnapshot = new BatteryHistorySnapshot();
+    }
+
+    @Test
+    public void finish_resolvesWallTimeFromTimeChange() {
+        addTimeChange(HistoryItem.CMD_RESET, 1000, WALL_TIME);
+        addUpdate(2000, 90, HistoryItem.STATE_SCREEN_ON_FLAG);
+        addUpdate(3000, 89, 0);
+        mSnapshot.finish();
+
+        assertThat(mSnapshot.size()).isEqualTo(3);
+        assertThat(mSnapshot.getStartWallTime()).isEqualTo(WALL_TIME);
+        assertThat(mSnapshot.getEndDataWallTime()).isEqualTo(WALL_TIME + 2000);
+        assertThat(mSnapshot.isDeltaData(0)).isFalse();
+        assertThat(mSnapshot.getWallTime(1)).isEqualTo(WALL_TIME + 1000);
+        assertThat(mSnapshot.getWallTime(2)).isEqualTo(WALL_TIME + 2000);
+        assertThat(mSnapshot.getBatteryLevel(2)).isEqualTo((byte) 89);
+        assertThat(mSnapshot.getAggregatedStates()).isEqualTo(HistoryItem.STATE_SCREEN_ON_FLAG);
+    }
+
+    @Test
+    public void finish_updateBeforeFirstTimeChange_wallTimeFromHistoryStart() {
+        addUpdate(1000, 90, 0);
+        addTimeChange(HistoryItem.CMD_CURRENT_TIME, 2000, WALL_TIME);
+        addUpdate(3000, 89, 0);
+        mSnapshot.finish();
+
+        assertThat(mSnapshot.getStartWallTime()).isEqualTo(WALL_TIME - 1000);
+        assertThat(mSnapshot.getWallTime(0)).isEqualTo(WALL_TIME - 1000);
+        assertThat(mSnapshot.getWallTime(2)).isEqualTo(WALL_TIME + 1000);
+    }
+
+    @Test
+    public void finish_dropsRecordsAfterLastDataPoint() {
+        addUpdate(1000, 90, 0);
+        addTimeChange(HistoryItem.CMD_CURRENT_TIME, 2000, WALL_TIME);
+        mSnapshot.finish();
+
+        assertThat(mSnapshot.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void finish_largeClockChange_isGap() {
+        addTimeChange(HistoryItem.CMD_RESET, 0, WALL_TIME);
+        addUpdate(10 * MINUTE, 90, 0);
+        addTimeChange(HistoryItem.CMD_CURRENT_TIME, 20 * MINUTE, WALL_TIME + 20 * MINUTE);
+        addTimeChange(HistoryItem.CMD_CURRENT_TIME, 30 * MINUTE, WALL_TIME + 10 * HOUR);
+        addUpdate(40 * MINUTE, 89, 0);
+        mSnapshot.finish();
+
+        assertThat(mSnapshot.getStartWallTime()).isEqualTo(WALL_TIME);
+        assertThat(mSnapshot.isGap(2)).isFalse();
+        assertThat(mSnapshot.isGap(3)).isTrue();
+        assertThat(mSnapshot.getWallTime(4)).isEqualTo(WALL_TIME + 10 * HOUR + 10 * MINUTE);
+    }
+
+    @Test
+    public void readRecord_keepsLatestCurrentTime() {
+        addTimeChange(HistoryItem.CMD_RESET, 1000, WALL_TIME);
+        addUpdate(2000, 90, HistoryItem.STATE_GPS_ON_FLAG);
+        mSnapshot.finish();
+        final HistoryItem rec = new HistoryItem();
+
+        mSnapshot.readRecord(1, rec);
+
+        assertThat(rec.cmd).isEqualTo(HistoryItem.CMD_UPDATE);
+        assertThat(rec.time).isEqualTo(2000);
+        assertThat(rec.batteryLevel).isEqualTo((byte) 90);
+        assertThat(rec.states).isEqualTo(HistoryItem.STATE_GPS_ON_FLAG);
+        assertThat(rec.currentTime).isEqualTo(WALL_TIME);
+    }
+
+    @Test
+    public void selectForWidth_keepsExtremesAndShortStateChanges() {
+        addTimeChange(HistoryItem.CMD_RESET, 0, WALL_TIME);
+        addUpdate(100, 50, 0);
+        addUpdate(200, 80, 0);
+        addUpdate(300, 20, 0);
+        addUpdate(400, 50, HistoryItem.STATE_GPS_ON_FLAG);
+        addUpdate(500, 50, 0);
+        addUpdate(600, 50, 0);
+        mSnapshot.finish();
+
+        // The whole history falls in a single pixel column.
+        final int[] selected = mSnapshot.selectForWidth(WALL_TIME, 10 * MINUTE, 1);
+
+        assertThat(selected).asList().containsExactly(0, 1, 2, 3, 4, 6).inOrder();
+    }
+
+    @Test
+    public void selectForWidth_boundsRecordsByWidth() {
+        addTimeChange(HistoryItem.CMD_RESET, 0, WALL_TIME);
+        for (int i = 1; i <= 100_000; i++) {
+            addUpdate(i * 1000L, 100 - (i % 100), (i % 2) * HistoryItem.STATE_SCREEN_ON_FLAG);
+        }
+        mSnapshot.finish();
+
+        final int[] selected = mSnapshot.selectForWidth(WALL_TIME, 100_000 * 1000L, 500);
+
+        // The reset record plus up to five records per pixel column.
+        assertThat(selected.length).isAtMost(1 + 5 * 500);
+    }
+
+    @Test
+    public void decode_iteratesHistoryOnce() {
+        final BatteryStats stats = mock(BatteryStats.class);
+        doReturn(true).when(stats).startIteratingHistoryLocked();
+        doAnswer(invocation -> {
+            final HistoryItem rec = invocation.getArgument(0);
+            if (rec.time >= 3000) {
+                return false;
+            }
+            rec.cmd = HistoryItem.CMD_UPDATE;
+            rec.time += 1000;
+            return true;
+        }).when(stats).getNextHistoryLocked(any(HistoryItem.class));
+
+        final BatteryHistorySnapshot snapshot = BatteryHistorySnapshot.decode(stats);
+
+        assertThat(snapshot.size()).isEqualTo(3);
+        verify(stats, times(1)).startIteratingHistoryLocked();
+        verify(stats, times(1)).finishIteratingHistoryLocked();
+    }
+
+    private void addUpdate(long time, int level, int states) {
+        final HistoryItem rec = new HistoryItem();
+        rec.cmd = HistoryItem.CMD_UPDATE;
+        rec.time = time;
+        rec.batteryLevel = (byte) level;
+        rec.states = states;
+        mSnapshot.add(rec);
+    }
+
+    private void addTimeChange(byte cmd, long time, long currentTime) {
+        final HistoryItem rec = new HistoryItem();
+        rec.cmd = cmd;
+        rec.time = time;
+        rec.currentTime = currentTime;
+        mSnapshot.add(rec);
+    }
+}
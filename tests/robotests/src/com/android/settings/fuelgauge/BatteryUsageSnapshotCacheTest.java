@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.os.Parcel;
+import android.os.Process;
+
+import com.android.internal.os.BatterySipper;
+import com.android.settings.fuelgauge.batterytip.tips.BatteryTip;
+import com.android.settings.fuelgauge.batterytip.tips.SummaryTip;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+public class BatteryUsageSnapshotCacheTest {
+
+    private static final long STATS_START = 1_500_000_000_000L;
+    private static final long AVERAGE_TIME_TO_DISCHARGE = 3600000;
+    private static final int UID = Process.FIRST_APPLICATION_UID;
+
+    private File mFile;
+    private BatteryUsageSnapshotCache mCache;
+
+    @Before
+    public void setUp() {
+        mFile = new File(RuntimeEnvironment.application.getCacheDir(),
+                BatteryUsageSnapshotCache.FILE_NAME);
+        mFile.delete();
+        mCache = new BatteryUsageSnapshotCache(mFile, Runnable::run);
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void update_isReadBackFromDisk() {
+        final BatteryInfo info = new BatteryInfo();
+        info.discharging = true;
+        info.remainingLabel = "1 hr left";
+        info.averageTimeToDischarge = AVERAGE_TIME_TO_DISCHARGE;
+        final BatterySipper sipper = new BatterySipper(BatterySipper.DrainType.APP,
+                new FakeUid(UID), 10);
+        sipper.mPackages = new String[] {"com.android.test"};
+        sipper.usageTimeMs = 1000;
+        sipper.percent = 25;
+
+        mCache.update(STATS_START, false /* plugged */, 50, snapshot -> {
+            snapshot.header = new BatteryUsageSnapshot.Header(info, 2000 /* screenUsageTimeMs */);
+            snapshot.tips = Collections.singletonList(
+                    new SummaryTip(BatteryTip.StateType.NEW, AVERAGE_TIME_TO_DISCHARGE));
+        });
+        mCache.update(STATS_START, false /* plugged */, 50, snapshot ->
+                snapshot.appUsages = Arrays.asList(new BatteryUsageSnapshot.AppUsage(sipper)));
+
+        final BatteryUsageSnapshot snapshot = new BatteryUsageSnapshotCache(mFile, Runnable::run)
+                .get(false /* plugged */, 50);
+
+        assertThat(snapshot).isNotNull();
+        assertThat(snapshot.statsStartClockTime).isEqualTo(STATS_START);
+        assertThat(snapshot.header.remainingLabel).isEqualTo("1 hr left");
+        assertThat(snapshot.header.averageTimeToDischarge).isEqualTo(AVERAGE_TIME_TO_DISCHARGE);
+        assertThat(snapshot.header.screenUsageTimeMs).isEqualTo(2000);
+        assertThat(snapshot.tips).hasSize(1);
+        assertThat(snapshot.tips.get(0)).isInstanceOf(SummaryTip.class);
+        assertThat(snapshot.appUsages).hasSize(1);
+        final BatterySipper restored = snapshot.appUsages.get(0).toBatterySipper();
+        assertThat(restored.getUid()).isEqualTo(UID);
+        assertThat(restored.mPackages).asList().containsExactly("com.android.test");
+        assertThat(restored.usageTimeMs).isEqualTo(1000);
+        assertThat(restored.percent).isWithin(0.01).of(25);
+    }
+
+    @Test
+    public void get_returnsCurrentBatteryLevel() {
+        mCache.update(STATS_START, false /* plugged */, 50,
+                snapshot -> snapshot.tips = Collections.emptyList());
+
+        assertThat(mCache.get(false /* plugged */, 45).batteryLevel).isEqualTo(45);
+    }
+
+    @Test
+    public void get_plugStateChanged_dropsSnapshot() {
+        mCache.update(STATS_START, false /* plugged */, 50,
+                snapshot -> snapshot.tips = Collections.emptyList());
+
+        assertThat(mCache.get(true /* plugged */, 50)).isNull();
+        assertThat(mCache.get(false /* plugged */, 50)).isNull();
+        assertThat(mFile.exists()).isFalse();
+    }
+
+    @Test
+    public void get_batteryLevelWentUpWhileUnplugged_dropsSnapshot() {
+        mCache.update(STATS_START, false /* plugged */, 50,
+                snapshot -> snapshot.tips = Collections.emptyList());
+
+        assertThat(mCache.get(false /* plugged */, 60)).isNull();
+    }
+
+    @Test
+    public void update_statsReset_dropsOtherParts() {
+        mCache.update(STATS_START, false /* plugged */, 50,
+                snapshot -> snapshot.tips = Collections.emptyList());
+        mCache.update(STATS_START + 1, false /* plugged */, 50,
+                snapshot -> snapshot.appUsages = Collections.emptyList());
+
+        final BatteryUsageSnapshot snapshot = mCache.get(false /* plugged */, 50);
+        assertThat(snapshot.tips).isNull();
+        assertThat(snapshot.appUsages).isEmpty();
+    }
+
+    @Test
+    public void invalidate_deletesFile() {
+        mCache.update(STATS_START, false /* plugged */, 50,
+                snapshot -> snapshot.tips = Collections.emptyList());
+        assertThat(mFile.exists()).isTrue();
+
+        mCache.invalidate();
+
+        assertThat(mCache.get(false /* plugged */, 50)).isNull();
+        assertThat(mFile.exists()).isFalse();
+    }
+
+    @Test
+    public void get_otherVersionOnDisk_isIgnored() throws Exception {
+        final Parcel parcel = Parcel.obtain();
+        parcel.writeInt(BatteryUsageSnapshotCache.VERSION + 1);
+        new BatteryUsageSnapshot(STATS_START, false /* plugged */, 50).writeToParcel(parcel);
+        try (FileOutputStream out = new FileOutputStream(mFile)) {
+            out.write(parcel.marshall());
+        }
+        parcel.recycle();
+
+        assertThat(mCache.get(false /* plugged */, 50)).isNull();
+        assertThat(mFile.exists()).isFalse();
+    }
+}
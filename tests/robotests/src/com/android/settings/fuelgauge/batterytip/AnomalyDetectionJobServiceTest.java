@@ -25,14 +25,10 @@ import static com.google.common.truth.Truth.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyInt;
-import static org.mockito.Matchers.anyLong;
-import static org.mockito.Matchers.anyString;
-import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -91,8 +87,6 @@ public class AnomalyDetectionJobServiceTest {
     @Mock
     private UserManager mUserManager;
     @Mock
-    private BatteryDatabaseManager mBatteryDatabaseManager;
-    @Mock
     private BatteryUtils mBatteryUtils;
     @Mock
     private PowerWhitelistBackend mPowerWhitelistBackend;
@@ -142,22 +136,21 @@ public class AnomalyDetectionJobServiceTest {
     }
 
     @Test
-    public void saveAnomalyToDatabase_systemWhitelisted_doNotSave() {
+    public void createAnomalyRecord_systemWhitelisted_doNotSave() {
         doReturn(UID).when(mAnomalyDetectionJobService).extractUidFromStatsDimensionsValue(any());
         doReturn(true).when(mPowerWhitelistBackend).isWhitelisted(any(String[].class));
 
-        mAnomalyDetectionJobService.saveAnomalyToDatabase(mContext,
-                mUserManager, mBatteryDatabaseManager, mBatteryUtils, mPolicy,
-                mPowerWhitelistBackend, mContext.getContentResolver(),
-                mFeatureFactory.powerUsageFeatureProvider,
-                mFeatureFactory.metricsFeatureProvider, mBundle);
+        final BatteryDatabaseManager.AnomalyRecord record =
+                mAnomalyDetectionJobService.createAnomalyRecord(mContext, mUserManager,
+                        mBatteryUtils, mPolicy, mPowerWhitelistBackend,
+                        mContext.getContentResolver(), mFeatureFactory.powerUsageFeatureProvider,
+                        mFeatureFactory.metricsFeatureProvider, mBundle);
 
-        verify(mBatteryDatabaseManager, never()).insertAnomaly(anyInt(), anyString(), anyInt(),
-                anyInt(), anyLong());
+        assertThat(record).isNull();
     }
 
     @Test
-    public void saveAnomalyToDatabase_systemApp_doNotSaveButLog() {
+    public void createAnomalyRecord_systemApp_doNotSaveButLog() {
         final ArrayList<String> cookies = new ArrayList<>();
         cookies.add(SUBSCRIBER_COOKIES_AUTO_RESTRICTION);
         mBundle.putStringArrayList(StatsManager.EXTRA_STATS_BROADCAST_SUBSCRIBER_COOKIES, cookies);
@@ -167,14 +160,13 @@ public class AnomalyDetectionJobServiceTest {
                 mAnomalyDetectionJobService).extractUidFromStatsDimensionsValue(any());
         doReturn(true).when(mBatteryUtils).shouldHideAnomaly(any(), anyInt(), any());
 
-        mAnomalyDetectionJobService.saveAnomalyToDatabase(mContext,
-                mUserManager, mBatteryDatabaseManager, mBatteryUtils, mPolicy,
-                mPowerWhitelistBackend, mContext.getContentResolver(),
-                mFeatureFactory.powerUsageFeatureProvider,
-                mFeatureFactory.metricsFeatureProvider, mBundle);
+        final BatteryDatabaseManager.AnomalyRecord record =
+                mAnomalyDetectionJobService.createAnomalyRecord(mContext, mUserManager,
+                        mBatteryUtils, mPolicy, mPowerWhitelistBackend,
+                        mContext.getContentResolver(), mFeatureFactory.powerUsageFeatureProvider,
+                        mFeatureFactory.metricsFeatureProvider, mBundle);
 
-        verify(mBatteryDatabaseManager, never()).insertAnomaly(anyInt(), anyString(), anyInt(),
-                anyInt(), anyLong());
+        assertThat(record).isNull();
         verify(mFeatureFactory.metricsFeatureProvider).action(mContext,
                 MetricsProto.MetricsEvent.ACTION_ANOMALY_IGNORED,
                 SYSTEM_PACKAGE,
@@ -183,37 +175,35 @@ public class AnomalyDetectionJobServiceTest {
     }
 
     @Test
-    public void saveAnomalyToDatabase_systemUid_doNotSave() {
+    public void createAnomalyRecord_systemUid_doNotSave() {
         doReturn(Process.SYSTEM_UID).when(
                 mAnomalyDetectionJobService).extractUidFromStatsDimensionsValue(any());
 
-        mAnomalyDetectionJobService.saveAnomalyToDatabase(mContext,
-                mUserManager, mBatteryDatabaseManager, mBatteryUtils, mPolicy,
-                mPowerWhitelistBackend, mContext.getContentResolver(),
-                mFeatureFactory.powerUsageFeatureProvider, mFeatureFactory.metricsFeatureProvider,
-                mBundle);
+        final BatteryDatabaseManager.AnomalyRecord record =
+                mAnomalyDetectionJobService.createAnomalyRecord(mContext, mUserManager,
+                        mBatteryUtils, mPolicy, mPowerWhitelistBackend,
+                        mContext.getContentResolver(), mFeatureFactory.powerUsageFeatureProvider,
+                        mFeatureFactory.metricsFeatureProvider, mBundle);
 
-        verify(mBatteryDatabaseManager, never()).insertAnomaly(anyInt(), anyString(), anyInt(),
-                anyInt(), anyLong());
+        assertThat(record).isNull();
     }
 
     @Test
-    public void saveAnomalyToDatabase_uidNull_doNotSave() {
+    public void createAnomalyRecord_uidNull_doNotSave() {
         doReturn(AnomalyDetectionJobService.UID_NULL).when(
                 mAnomalyDetectionJobService).extractUidFromStatsDimensionsValue(any());
 
-        mAnomalyDetectionJobService.saveAnomalyToDatabase(mContext,
-                mUserManager, mBatteryDatabaseManager, mBatteryUtils, mPolicy,
-                mPowerWhitelistBackend, mContext.getContentResolver(),
-                mFeatureFactory.powerUsageFeatureProvider, mFeatureFactory.metricsFeatureProvider,
-                mBundle);
+        final BatteryDatabaseManager.AnomalyRecord record =
+                mAnomalyDetectionJobService.createAnomalyRecord(mContext, mUserManager,
+                        mBatteryUtils, mPolicy, mPowerWhitelistBackend,
+                        mContext.getContentResolver(), mFeatureFactory.powerUsageFeatureProvider,
+                        mFeatureFactory.metricsFeatureProvider, mBundle);
 
-        verify(mBatteryDatabaseManager, never()).insertAnomaly(anyInt(), anyString(), anyInt(),
-                anyInt(), anyLong());
+        assertThat(record).isNull();
     }
 
     @Test
-    public void saveAnomalyToDatabase_normalAppWithAutoRestriction_save() {
+    public void createAnomalyRecord_normalAppWithAutoRestriction_save() {
         final ArrayList<String> cookies = new ArrayList<>();
         cookies.add(SUBSCRIBER_COOKIES_AUTO_RESTRICTION);
         mBundle.putStringArrayList(StatsManager.EXTRA_STATS_BROADCAST_SUBSCRIBER_COOKIES, cookies);
@@ -222,14 +212,14 @@ public class AnomalyDetectionJobServiceTest {
         doReturn(Process.FIRST_APPLICATION_UID).when(
                 mAnomalyDetectionJobService).extractUidFromStatsDimensionsValue(any());
 
-        mAnomalyDetectionJobService.saveAnomalyToDatabase(mContext,
-                mUserManager, mBatteryDatabaseManager, mBatteryUtils, mPolicy,
-                mPowerWhitelistBackend, mContext.getContentResolver(),
-                mFeatureFactory.powerUsageFeatureProvider, mFeatureFactory.metricsFeatureProvider,
-                mBundle);
+        final BatteryDatabaseManager.AnomalyRecord record =
+                mAnomalyDetectionJobService.createAnomalyRecord(mContext, mUserManager,
+                        mBatteryUtils, mPolicy, mPowerWhitelistBackend,
+                        mContext.getContentResolver(), mFeatureFactory.powerUsageFeatureProvider,
+                        mFeatureFactory.metricsFeatureProvider, mBundle);
 
-        verify(mBatteryDatabaseManager).insertAnomaly(anyInt(), anyString(), eq(6),
-                eq(AnomalyDatabaseHelper.State.AUTO_HANDLED), anyLong());
+        assertThat(record.type).isEqualTo(ANOMALY_TYPE);
+        assertThat(record.state).isEqualTo(AnomalyDatabaseHelper.State.AUTO_HANDLED);
         verify(mFeatureFactory.metricsFeatureProvider).action(mContext,
                 MetricsProto.MetricsEvent.ACTION_ANOMALY_TRIGGERED,
                 SYSTEM_PACKAGE,
@@ -238,7 +228,7 @@ public class AnomalyDetectionJobServiceTest {
     }
 
     @Test
-    public void saveAnomalyToDatabase_normalAppWithoutAutoRestriction_save() {
+    public void createAnomalyRecord_normalAppWithoutAutoRestriction_save() {
         final ArrayList<String> cookies = new ArrayList<>();
         cookies.add(SUBSCRIBER_COOKIES_NOT_AUTO_RESTRICTION);
         mBundle.putStringArrayList(StatsManager.EXTRA_STATS_BROADCAST_SUBSCRIBER_COOKIES, cookies);
@@ -247,14 +237,14 @@ public class AnomalyDetectionJobServiceTest {
         doReturn(Process.FIRST_APPLICATION_UID).when(
                 mAnomalyDetectionJobService).extractUidFromStatsDimensionsValue(any());
 
-        mAnomalyDetectionJobService.saveAnomalyToDatabase(mContext,
-                mUserManager, mBatteryDatabaseManager, mBatteryUtils, mPolicy,
-                mPowerWhitelistBackend, mContext.getContentResolver(),
-                mFeatureFactory.powerUsageFeatureProvider, mFeatureFactory.metricsFeatureProvider,
-                mBundle);
+        final BatteryDatabaseManager.AnomalyRecord record =
+                mAnomalyDetectionJobService.createAnomalyRecord(mContext, mUserManager,
+                        mBatteryUtils, mPolicy, mPowerWhitelistBackend,
+                        mContext.getContentResolver(), mFeatureFactory.powerUsageFeatureProvider,
+                        mFeatureFactory.metricsFeatureProvider, mBundle);
 
-        verify(mBatteryDatabaseManager).insertAnomaly(anyInt(), anyString(), eq(6),
-                eq(AnomalyDatabaseHelper.State.NEW), anyLong());
+        assertThat(record.type).isEqualTo(ANOMALY_TYPE);
+        assertThat(record.state).isEqualTo(AnomalyDatabaseHelper.State.NEW);
         verify(mFeatureFactory.metricsFeatureProvider).action(mContext,
                 MetricsProto.MetricsEvent.ACTION_ANOMALY_TRIGGERED,
                 SYSTEM_PACKAGE,
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge.batterytip;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.android.internal.os.BatteryStatsHelper;
+import com.android.settings.fuelgauge.BatteryInfo;
+import com.android.settings.fuelgauge.BatteryUtils;
+import com.android.settings.fuelgauge.batterytip.BatteryTipInputs.Input;
+import com.android.settings.fuelgauge.batterytip.tips.BatteryTip;
+import com.android.settings.fuelgauge.batterytip.tips.SmartBatteryTip;
+import com.android.settings.fuelgauge.batterytip.tips.SummaryTip;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+public class BatteryTipDetectorPipelineTest {
+
+    private static final long AVERAGE_TIME_MS = 1000;
+
+    @Mock
+    private BatteryStatsHelper mBatteryStatsHelper;
+    @Mock
+    private BatteryUtils mBatteryUtils;
+    @Mock
+    private BatteryDatabaseManager mBatteryDatabaseManager;
+    private BatteryInfo mBatteryInfo;
+    private ExecutorService mExecutor;
+    private BatteryTipDetectorPipeline mPipeline;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+
+        mBatteryInfo = new BatteryInfo();
+        mBatteryInfo.averageTimeToDischarge = AVERAGE_TIME_MS;
+        doReturn(mBatteryInfo).when(mBatteryUtils).getBatteryInfo(any(), any());
+        doReturn(new ArrayList<>()).when(mBatteryDatabaseManager)
+                .queryAllAnomalies(anyLong(), anyInt());
+        mExecutor = Executors.newFixedThreadPool(4);
+        mPipeline = new BatteryTipDetectorPipeline(new BatteryTipInputs(mBatteryStatsHelper,
+                mBatteryUtils, mBatteryDatabaseManager, "test"), mExecutor);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void run_keepsOrderAndComputesSharedInputsOnce() {
+        final List<BatteryTip> tips = mPipeline
+                .addDetector("first", Input.BATTERY_INFO, in -> () -> new SummaryTip(
+                        BatteryTip.StateType.NEW, in.getBatteryInfo().averageTimeToDischarge))
+                .addDetector("second", Input.BATTERY_INFO | Input.ANOMALIES, in -> () -> {
+                    in.getRecentAnomalies(AnomalyDatabaseHelper.State.NEW);
+                    return new SmartBatteryTip(in.getBatteryInfo().discharging
+                            ? BatteryTip.StateType.NEW : BatteryTip.StateType.INVISIBLE);
+                })
+                .run();
+
+        assertThat(tips).hasSize(2);
+        assertThat(tips.get(0)).isInstanceOf(SummaryTip.class);
+        assertThat(tips.get(1)).isInstanceOf(SmartBatteryTip.class);
+        assertThat(tips.get(1).getState()).isEqualTo(BatteryTip.StateType.NEW);
+        verify(mBatteryUtils, times(1)).getBatteryInfo(any(), any());
+        verify(mBatteryDatabaseManager, times(1))
+                .queryAllAnomalies(anyLong(), eq(AnomalyDatabaseHelper.State.NEW));
+        assertThat(mPipeline.getTimingsMs().keySet()).containsExactly("first", "second");
+    }
+
+    @Test
+    public void run_detectorOverBudget_usesFallback() {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final SmartBatteryTip fallback = new SmartBatteryTip(BatteryTip.StateType.INVISIBLE);
+
+        final List<BatteryTip> tips = mPipeline
+                .addDetector("fast", 0 /* inputs */,
+                        in -> () -> new SmartBatteryTip(BatteryTip.StateType.NEW))
+                .addDetector("slow", 0 /* inputs */, 10 /* budgetMs */, in -> () -> {
+                    try {
+                        latch.await();
+                    } catch (InterruptedException e) {
+                        // Fall through, the result is ignored anyway.
+                    }
+                    return new SmartBatteryTip(BatteryTip.StateType.NEW);
+                }, () -> fallback)
+                .run();
+        latch.countDown();
+
+        assertThat(tips).hasSize(2);
+        assertThat(tips.get(0).getState()).isEqualTo(BatteryTip.StateType.NEW);
+        assertThat(tips.get(1)).isSameAs(fallback);
+    }
+
+    @Test
+    public void run_detectorOverBudget_isInterrupted() throws Exception {
+        final CountDownLatch interrupted = new CountDownLatch(1);
+
+        mPipeline.addDetector("slow", 0 /* inputs */, 10 /* budgetMs */, in -> () -> {
+            try {
+                new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return new SmartBatteryTip(BatteryTip.StateType.NEW);
+        }, () -> new SmartBatteryTip(BatteryTip.StateType.INVISIBLE)).run();
+
+        assertThat(interrupted.await(1, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    public void run_failingDetectorWithFallback_usesFallback() {
+        final SmartBatteryTip fallback = new SmartBatteryTip(BatteryTip.StateType.INVISIBLE);
+
+        final List<BatteryTip> tips = mPipeline
+                .addDetector("failing", 0 /* inputs */, 1000 /* budgetMs */, in -> () -> {
+                    throw new IllegalStateException("failed");
+                }, () -> fallback)
+                .run();
+
+        assertThat(tips).containsExactly(fallback);
+    }
+}
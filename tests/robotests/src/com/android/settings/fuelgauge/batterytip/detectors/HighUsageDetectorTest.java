@@ -22,6 +22,7 @@ import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 import android.content.Context;
@@ -33,6 +34,7 @@ import com.android.internal.os.BatteryStatsHelper;
 import com.android.settings.fuelgauge.BatteryInfo;
 import com.android.settings.fuelgauge.BatteryUtils;
 import com.android.settings.fuelgauge.batterytip.AppInfo;
+import com.android.settings.fuelgauge.batterytip.BatteryTipInputs;
 import com.android.settings.fuelgauge.batterytip.BatteryTipPolicy;
 import com.android.settings.fuelgauge.batterytip.HighUsageDataParser;
 import com.android.settings.fuelgauge.batterytip.tips.BatteryTip;
@@ -66,6 +68,8 @@ public class HighUsageDetectorTest {
     private BatterySipper mZeroBatterySipper;
     @Mock
     private HighUsageDataParser mDataParser;
+    @Mock
+    private BatteryTipInputs mInputs;
 
     private AppInfo mAppInfo;
     private BatteryTipPolicy mPolicy;
@@ -146,4 +150,26 @@ public class HighUsageDetectorTest {
         assertThat(highUsageTip.isVisible()).isTrue();
         assertThat(highUsageTip.getHighUsageAppList()).containsExactly(mAppInfo);
     }
+
+    @Test
+    public void testDetect_withInputs_doesNotReadBatteryStatsHelper() {
+        final BatteryInfo batteryInfo = new BatteryInfo();
+        batteryInfo.discharging = true;
+        final List<AppInfo> foregroundApps = new ArrayList<>();
+        foregroundApps.add(mAppInfo);
+        when(mInputs.getBatteryInfo()).thenReturn(batteryInfo);
+        when(mInputs.getLastFullChargeTime()).thenReturn(1000L);
+        when(mInputs.getForegroundApps()).thenReturn(foregroundApps);
+        doReturn(true).when(mDataParser).isDeviceHeavilyUsed();
+        final HighUsageDetector detector = spy(new HighUsageDetector(mContext, mPolicy, mInputs));
+        detector.mBatteryUtils = mBatteryUtils;
+        detector.mDataParser = mDataParser;
+        doNothing().when(detector).parseBatteryData();
+
+        final HighUsageTip highUsageTip = (HighUsageTip) detector.detect();
+
+        assertThat(highUsageTip.getLastFullChargeTimeMs()).isEqualTo(1000L);
+        assertThat(highUsageTip.getHighUsageAppList()).containsExactly(mAppInfo);
+        verifyZeroInteractions(mBatteryStatsHelper, mBatteryUtils);
+    }
 }
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.graph;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.util.SparseIntArray;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class MinMaxDownsamplerTest {
+
+    private static final int BREAK = -1;
+
+    @Test
+    public void downsample_narrowBuckets_returnsSamePoints() {
+        final SparseIntArray points = new SparseIntArray();
+        for (int i = 0; i < 10; i++) {
+            points.append(i, i);
+        }
+
+        assertThat(MinMaxDownsampler.downsample(points, 1, BREAK)).isSameAs(points);
+    }
+
+    @Test
+    public void downsample_keepsFirstLastAndExtremesOfBucket() {
+        final SparseIntArray points = new SparseIntArray();
+        points.append(0, 50);
+        points.append(1, 60);
+        points.append(2, 90);
+        points.append(3, 40);
+        points.append(4, 10);
+        points.append(5, 70);
+        points.append(9, 55);
+
+        final SparseIntArray result = MinMaxDownsampler.downsample(points, 10, BREAK);
+
+        assertThat(result.size()).isEqualTo(4);
+        assertThat(result.get(0)).isEqualTo(50);
+        assertThat(result.get(2)).isEqualTo(90);
+        assertThat(result.get(4)).isEqualTo(10);
+        assertThat(result.get(9)).isEqualTo(55);
+    }
+
+    @Test
+    public void downsample_keepsBreaks() {
+        final SparseIntArray points = new SparseIntArray();
+        points.append(0, 50);
+        points.append(1, 40);
+        points.append(2, BREAK);
+        points.append(3, 30);
+        points.append(4, 20);
+        points.append(5, BREAK);
+
+        final SparseIntArray result = MinMaxDownsampler.downsample(points, 100, BREAK);
+
+        assertThat(result.size()).isEqualTo(6);
+        assertThat(result.get(2)).isEqualTo(BREAK);
+        assertThat(result.get(5)).isEqualTo(BREAK);
+    }
+
+    @Test
+    public void downsample_boundsPointsPerBucket() {
+        final SparseIntArray points = new SparseIntArray();
+        for (int i = 0; i < 100_000; i++) {
+            points.append(i, (i * 7919) % 100);
+        }
+
+        final SparseIntArray result = MinMaxDownsampler.downsample(points, 100, BREAK);
+
+        assertThat(result.size()).isAtMost(4 * 1000);
+    }
+}
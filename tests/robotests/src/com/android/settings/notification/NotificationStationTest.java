@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.notification;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.app.INotificationManager;
+import android.app.Notification;
+import android.content.Context;
+import android.os.Handler;
+import android.service.notification.StatusBarNotification;
+import android.support.v7.preference.Preference;
+import android.support.v7.preference.PreferenceManager;
+import android.support.v7.preference.PreferenceScreen;
+
+import com.android.settings.notification.NotificationStation.HistoricalNotificationPreference;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+import com.android.settings.testutils.shadow.ShadowActivityManager;
+import com.android.settings.testutils.shadow.ShadowThreadUtils;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.util.ReflectionHelpers;
+
+import java.util.List;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(shadows = {ShadowActivityManager.class, ShadowThreadUtils.class})
+public class NotificationStationTest {
+
+    private static final String KEY_1 = "0|com.test|1|null|10001";
+    private static final String KEY_2 = "0|com.test|2|null|10001";
+
+    @Mock
+    private INotificationManager mNoMan;
+    @Mock
+    private PreferenceManager mPreferenceManager;
+    @Mock
+    private PreferenceScreen mScreen;
+
+    private Context mContext;
+    private NotificationStation mFragment;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        mContext = RuntimeEnvironment.application;
+        mFragment = spy(new NotificationStation());
+        ReflectionHelpers.setField(mFragment, "mContext", mContext);
+        ReflectionHelpers.setField(mFragment, "mPm", mContext.getPackageManager());
+        ReflectionHelpers.setField(mFragment, "mNoMan", mNoMan);
+        ReflectionHelpers.setField(mFragment, "mHandler", new Handler());
+        when(mPreferenceManager.getContext()).thenReturn(mContext);
+        doReturn(mPreferenceManager).when(mFragment).getPreferenceManager();
+        doReturn(mScreen).when(mFragment).getPreferenceScreen();
+        setNotifications(new StatusBarNotification[0], new StatusBarNotification[0]);
+    }
+
+    @Test
+    public void refreshList_addsOneRowPerNotification() throws Exception {
+        setNotifications(new StatusBarNotification[] {
+                createNotification(KEY_1, 2L, "Title 1"),
+                createNotification(KEY_2, 1L, "Title 2")},
+                new StatusBarNotification[0]);
+
+        mFragment.refreshList();
+
+        final List<Preference> added = getAddedPreferences(2);
+        assertThat(getInfo(added.get(0)).title.toString()).isEqualTo("Title 1");
+        assertThat(getInfo(added.get(1)).title.toString()).isEqualTo("Title 2");
+    }
+
+    @Test
+    public void refreshList_notificationGone_removesItsRow() throws Exception {
+        setNotifications(new StatusBarNotification[] {
+                createNotification(KEY_1, 2L, "Title 1"),
+                createNotification(KEY_2, 1L, "Title 2")},
+                new StatusBarNotification[0]);
+        mFragment.refreshList();
+        final List<Preference> added = getAddedPreferences(2);
+
+        setNotifications(new StatusBarNotification[] {createNotification(KEY_1, 2L, "Title 1")},
+                new StatusBarNotification[0]);
+        mFragment.refreshList();
+
+        verify(mScreen).removePreference(added.get(1));
+        verify(mScreen, never()).removePreference(added.get(0));
+        getAddedPreferences(2);
+    }
+
+    @Test
+    public void refreshList_notificationChanged_rebindsSameRow() throws Exception {
+        setNotifications(new StatusBarNotification[] {createNotification(KEY_1, 1L, "Title")},
+                new StatusBarNotification[0]);
+        mFragment.refreshList();
+
+        setNotifications(new StatusBarNotification[] {createNotification(KEY_1, 1L, "New title")},
+                new StatusBarNotification[0]);
+        mFragment.refreshList();
+
+        final Preference pref = getAddedPreferences(1).get(0);
+        assertThat(getInfo(pref).title.toString()).isEqualTo("New title");
+        verify(mScreen, never()).removePreference(any(Preference.class));
+    }
+
+    @Test
+    public void refreshList_notificationUnchanged_keepsRowInfo() throws Exception {
+        setNotifications(new StatusBarNotification[] {createNotification(KEY_1, 1L, "Title")},
+                new StatusBarNotification[0]);
+        mFragment.refreshList();
+        final Preference pref = getAddedPreferences(1).get(0);
+        final NotificationStation.HistoricalNotificationInfo info = getInfo(pref);
+
+        mFragment.refreshList();
+
+        // Active notifications are loaded again, but the row is not rebound for the same content.
+        assertThat(getInfo(pref)).isSameAs(info);
+    }
+
+    @Test
+    public void setInfo_sameContent_doesNotRebind() throws Exception {
+        final NotificationStation.HistoricalNotificationInfo info = createInfo("Title");
+        final HistoricalNotificationPreference pref =
+                new HistoricalNotificationPreference(mContext, info);
+
+        assertThat(pref.setInfo(createInfo("Title"))).isFalse();
+        assertThat(pref.setInfo(createInfo("New title"))).isTrue();
+    }
+
+    @Test
+    public void refreshList_requestedWhileLoading_coalescedIntoOneLoad() throws Exception {
+        when(mNoMan.getActiveNotifications(anyString())).thenAnswer(invocation -> {
+            // Both requested while this load runs.
+            mFragment.refreshList();
+            mFragment.refreshList();
+            return new StatusBarNotification[0];
+        }).thenReturn(new StatusBarNotification[0]);
+
+        mFragment.refreshList();
+
+        verify(mNoMan, times(2)).getActiveNotifications(anyString());
+    }
+
+    private void setNotifications(StatusBarNotification[] active,
+            StatusBarNotification[] dismissed) throws Exception {
+        when(mNoMan.getActiveNotifications(anyString())).thenReturn(active);
+        when(mNoMan.getHistoricalNotifications(anyString(), anyInt())).thenReturn(dismissed);
+    }
+
+    private StatusBarNotification createNotification(String key, long postTime, String title) {
+        final StatusBarNotification sbn = mock(StatusBarNotification.class);
+        when(sbn.getKey()).thenReturn(key);
+        when(sbn.getPostTime()).thenReturn(postTime);
+        when(sbn.getPackageName()).thenReturn(mContext.getPackageName());
+        when(sbn.getNotification()).thenReturn(new Notification.Builder(mContext, "channel")
+                .setContentTitle(title)
+                .build());
+        return sbn;
+    }
+
+    private static NotificationStation.HistoricalNotificationInfo createInfo(String title) {
+        final NotificationStation.HistoricalNotificationInfo info =
+                new NotificationStation.HistoricalNotificationInfo();
+        info.title = title;
+        info.pkgname = "com.test";
+        info.extra = "extra";
+        info.timestamp = 1L;
+        info.active = true;
+        return info;
+    }
+
+    private List<Preference> getAddedPreferences(int count) {
+        final ArgumentCaptor<Preference> captor = ArgumentCaptor.forClass(Preference.class);
+        verify(mScreen, times(count)).addPreference(captor.capture());
+        return captor.getAllValues();
+    }
+
+    private static NotificationStation.HistoricalNotificationInfo getInfo(Preference pref) {
+        return ((HistoricalNotificationPreference) pref).getInfo();
+    }
+}
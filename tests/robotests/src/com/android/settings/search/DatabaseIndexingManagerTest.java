@@ -22,15 +22,21 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anySet;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
+import android.content.pm.ProviderInfo;
 import android.content.pm.ResolveInfo;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
@@ -324,6 +330,98 @@ public class DatabaseIndexingManagerTest {
         assertThat(cursor.getString(2)).isEqualTo(TITLE_ONE);
     }
 
+    @Test
+    public void testGetChangedProviderPackages_nothingIndexed_returnsNull() {
+        final Map<String, String> hashes = new ArrayMap<>();
+        hashes.put(packageName, "hash");
+
+        assertThat(mManager.getChangedProviderPackages(hashes)).isNull();
+    }
+
+    @Test
+    public void testGetChangedProviderPackages_returnsAddedUpdatedAndRemovedPackages() {
+        IndexDatabaseHelper.setProviderHashIndexed(mDb, "unchanged", "1");
+        IndexDatabaseHelper.setProviderHashIndexed(mDb, "updated", "1");
+        IndexDatabaseHelper.setProviderHashIndexed(mDb, "removed", "1");
+        final Map<String, String> hashes = new ArrayMap<>();
+        hashes.put("unchanged", "1");
+        hashes.put("updated", "2");
+        hashes.put("added", "1");
+
+        assertThat(mManager.getChangedProviderPackages(hashes))
+                .containsExactly("updated", "removed", "added");
+    }
+
+    @Test
+    public void testPerformIndexing_providersChanged_onlyChangedPackagesReindexed() {
+        final Set<String> changedPackages = new HashSet<>();
+        changedPackages.add(packageName);
+        final PreIndexData data = getPreIndexData(getFakeRaw());
+        doReturn(true).when(mManager)
+                .isFullIndex(any(Context.class), anyString(), anyString(), anyString());
+        doReturn(true).when(mManager)
+                .isLocaleAndBuildIndexed(any(Context.class), anyString(), anyString());
+        doReturn(changedPackages).when(mManager).getChangedProviderPackages(anyMap());
+        doReturn(data).when(mManager).getIndexDataFromProviders(anyList(), anySet());
+
+        mManager.performIndexing();
+
+        verify(mManager).updateDatabaseForPackages(data, changedPackages);
+        verify(mManager, never()).updateDatabase(any(PreIndexData.class), anyBoolean());
+    }
+
+    @Test
+    public void testPerformIndexing_providerFailedInFullIndex_collectedAgainAtNextIndexing() {
+        FAKE_PROVIDER_LIST.add(createProvider("indexed.package"));
+        FAKE_PROVIDER_LIST.add(createProvider("failed.package"));
+        final PreIndexData data = getPreIndexData(getFakeRaw());
+        data.failedPackages.add("failed.package");
+        doReturn(data).when(mManager).getIndexDataFromProviders(anyList(), anyBoolean());
+        doReturn(new PreIndexData()).when(mManager).getIndexDataFromProviders(anyList(), anySet());
+
+        mManager.performIndexing();
+        mManager.performIndexing();
+
+        final Set<String> failedPackages = new HashSet<>();
+        failedPackages.add("failed.package");
+        verify(mManager).getIndexDataFromProviders(FAKE_PROVIDER_LIST, true /* isFullIndex */);
+        verify(mManager).getIndexDataFromProviders(eq(FAKE_PROVIDER_LIST), eq(failedPackages));
+    }
+
+    @Test
+    public void testUpdateDatabaseForPackages_replacesRowsOfChangedPackagesOnly() {
+        insertSpecialCase(TITLE_ONE, true /* enabled */, KEY_ONE, packageName);
+        insertSpecialCase(TITLE_TWO, true /* enabled */, KEY_TWO, "other package");
+        final Set<String> changedPackages = new HashSet<>();
+        changedPackages.add(packageName);
+
+        mManager.updateDatabaseForPackages(getPreIndexData(getFakeRaw()), changedPackages);
+
+        final Cursor cursor = mDb.rawQuery("SELECT data_title FROM prefs_index", null);
+        final List<String> titles = new ArrayList<>();
+        while (cursor.moveToNext()) {
+            titles.add(cursor.getString(0));
+        }
+        cursor.close();
+        assertThat(titles).containsExactly(updatedTitle, TITLE_TWO);
+    }
+
+    @Test
+    public void testUpdateDataInDatabase_settingsPackage_nullTargetPackageMatched() {
+        insertSpecialCase(TITLE_ONE, true /* enabled */, KEY_ONE);
+        mDb.execSQL("UPDATE prefs_index SET intent_target_package = NULL");
+        Map<String, Set<String>> niks = new ArrayMap<>();
+        Set<String> keys = new HashSet<>();
+        keys.add(KEY_ONE);
+        niks.put(mContext.getPackageName(), keys);
+
+        mManager.updateDataInDatabase(mDb, niks);
+
+        Cursor cursor = mDb.rawQuery("SELECT * FROM prefs_index WHERE enabled = 0", null);
+        assertThat(cursor.getCount()).isEqualTo(1);
+        cursor.close();
+    }
+
     // Util functions
 
     private SearchIndexableRaw getFakeRaw() {
@@ -353,6 +451,11 @@ public class DatabaseIndexingManagerTest {
     }
 
     private void insertSpecialCase(String specialCase, boolean enabled, String key) {
+        insertSpecialCase(specialCase, enabled, key, null /* package */);
+    }
+
+    private void insertSpecialCase(String specialCase, boolean enabled, String key,
+            String providerPackage) {
         ContentValues values = new ContentValues();
         values.put(IndexDatabaseHelper.IndexColumns.DOCID, specialCase.hashCode());
         values.put(IndexDatabaseHelper.IndexColumns.LOCALE, localeStr);
@@ -376,10 +479,21 @@ public class DatabaseIndexingManagerTest {
         values.put(IndexDatabaseHelper.IndexColumns.USER_ID, 0);
         values.put(IndexDatabaseHelper.IndexColumns.PAYLOAD_TYPE, 0);
         values.put(IndexDatabaseHelper.IndexColumns.PAYLOAD, (String) null);
+        values.put(IndexDatabaseHelper.IndexColumns.PACKAGE, providerPackage);
 
         mDb.replaceOrThrow(IndexDatabaseHelper.Tables.TABLE_PREFS_INDEX, null, values);
     }
 
+    private static ResolveInfo createProvider(String packageName) {
+        final ResolveInfo info = new ResolveInfo();
+        info.providerInfo = new ProviderInfo();
+        info.providerInfo.packageName = packageName;
+        info.providerInfo.authority = packageName + ".search";
+        info.providerInfo.applicationInfo = new ApplicationInfo();
+        info.providerInfo.applicationInfo.sourceDir = "/data/app/" + packageName;
+        return info;
+    }
+
     private PreIndexData getPreIndexData(SearchIndexableData fakeData) {
         PreIndexData data = new PreIndexData();
         data.dataToUpdate.add(fakeData);
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.search;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.database.MatrixCursor;
+
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+public class IndexQueryCacheTest {
+
+    private static final long GENERATION = 3;
+    private static final String LOCALE = "en_US";
+    private static final int USER_ID = 0;
+
+    private IndexQueryCache mCache;
+
+    @Before
+    public void setUp() {
+        mCache = new IndexQueryCache();
+    }
+
+    @Test
+    public void get_empty_isMiss() {
+        assertThat(mCache.get(GENERATION, LOCALE, USER_ID, tokens("wifi"), 10)).isNull();
+        assertThat(mCache.getPrefixCandidates(GENERATION, LOCALE, USER_ID, tokens("wifi")))
+                .isNull();
+        assertThat(mCache.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void get_afterPut_isHit() {
+        final List<IndexQueryEngine.Result> results = results("Wi-Fi");
+        mCache.get(GENERATION, LOCALE, USER_ID, tokens("wifi"), 10);
+        mCache.put(GENERATION, LOCALE, USER_ID, tokens("wifi"), 10, results, true /* exact */);
+
+        assertThat(mCache.get(GENERATION, LOCALE, USER_ID, tokens("wifi"), 10))
+                .isSameAs(results);
+        assertThat(mCache.getHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void get_differentLocaleOrUser_isMiss() {
+        mCache.get(GENERATION, LOCALE, USER_ID, tokens("wifi"), 10);
+        mCache.put(GENERATION, LOCALE, USER_ID, tokens("wifi"), 10, results("Wi-Fi"),
+                true /* exact */);
+
+        assertThat(mCache.get(GENERATION, "fr_FR", USER_ID, tokens("wifi"), 10)).isNull();
+        assertThat(mCache.get(GENERATION, LOCALE, 10, tokens("wifi"), 10)).isNull();
+    }
+
+    @Test
+    public void get_newGeneration_dropsEntries() {
+        mCache.get(GENERATION, LOCALE, USER_ID, tokens("wifi"), 10);
+        mCache.put(GENERATION, LOCALE, USER_ID, tokens("wifi"), 10, results("Wi-Fi"),
+                true /* exact */);
+
+        assertThat(mCache.get(GENERATION + 1, LOCALE, USER_ID, tokens("wifi"), 10)).isNull();
+        assertThat(mCache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void put_staleGeneration_ignored() {
+        mCache.get(GENERATION + 1, LOCALE, USER_ID, tokens("wifi"), 10);
+        mCache.put(GENERATION, LOCALE, USER_ID, tokens("wifi"), 10, results("Wi-Fi"),
+                true /* exact */);
+
+        assertThat(mCache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void get_smallerLimit_truncates() {
+        mCache.get(GENERATION, LOCALE, USER_ID, tokens("s"), 2);
+        mCache.put(GENERATION, LOCALE, USER_ID, tokens("s"), 2, results("Sound", "Storage"),
+                true /* exact */);
+
+        assertThat(mCache.get(GENERATION, LOCALE, USER_ID, tokens("s"), 1)).hasSize(1);
+        assertThat(mCache.get(GENERATION, LOCALE, USER_ID, tokens("s"), 5)).isNull();
+    }
+
+    @Test
+    public void get_extendedQuery_isMiss() {
+        mCache.get(GENERATION, LOCALE, USER_ID, tokens("s"), 10);
+        mCache.put(GENERATION, LOCALE, USER_ID, tokens("s"), 10,
+                results("Sound", "Storage", "Screen lock"), true /* exact */);
+
+        assertThat(mCache.get(GENERATION, LOCALE, USER_ID, tokens("st"), 10)).isNull();
+    }
+
+    @Test
+    public void getPrefixCandidates_filtersCompletePrefixResults() {
+        mCache.get(GENERATION, LOCALE, USER_ID, tokens("s"), 10);
+        mCache.put(GENERATION, LOCALE, USER_ID, tokens("s"), 10,
+                results("Sound", "Storage", "Screen lock"), true /* exact */);
+
+        final List<IndexQueryEngine.Result> candidates =
+                mCache.getPrefixCandidates(GENERATION, LOCALE, USER_ID, tokens("st"));
+
+        assertThat(candidates).hasSize(1);
+        assertThat(candidates.get(0).title).isEqualTo("Storage");
+        assertThat(mCache.getPrefixHitCount()).isEqualTo(1);
+        // Only the scored results of the extended query are cached, by the engine.
+        assertThat(mCache.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void getPrefixCandidates_newToken_filtersPrefixResults() {
+        mCache.get(GENERATION, LOCALE, USER_ID, tokens("screen"), 10);
+        mCache.put(GENERATION, LOCALE, USER_ID, tokens("screen"), 10,
+                results("Screen lock", "Screen timeout"), true /* exact */);
+
+        final List<IndexQueryEngine.Result> candidates =
+                mCache.getPrefixCandidates(GENERATION, LOCALE, USER_ID, tokens("screen", "ti"));
+
+        assertThat(candidates).hasSize(1);
+        assertThat(candidates.get(0).title).isEqualTo("Screen timeout");
+    }
+
+    @Test
+    public void getPrefixCandidates_truncatedPrefixResults_isMiss() {
+        mCache.get(GENERATION, LOCALE, USER_ID, tokens("s"), 2);
+        mCache.put(GENERATION, LOCALE, USER_ID, tokens("s"), 2, results("Sound", "Storage"),
+                true /* exact */);
+
+        assertThat(mCache.getPrefixCandidates(GENERATION, LOCALE, USER_ID, tokens("st")))
+                .isNull();
+        assertThat(mCache.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void getPrefixCandidates_correctedPrefixResults_isMiss() {
+        mCache.get(GENERATION, LOCALE, USER_ID, tokens("stroage"), 10);
+        mCache.put(GENERATION, LOCALE, USER_ID, tokens("stroage"), 10, results("Storage"),
+                false /* exact */);
+
+        assertThat(mCache.getPrefixCandidates(GENERATION, LOCALE, USER_ID, tokens("stroages")))
+                .isNull();
+    }
+
+    private static List<String> tokens(String... tokens) {
+        return Arrays.asList(tokens);
+    }
+
+    private static List<IndexQueryEngine.Result> results(String... titles) {
+        final MatrixCursor cursor = new MatrixCursor(IndexQueryEngine.RESULT_COLUMNS);
+        for (int i = 0; i < titles.length; i++) {
+            final Object[] row = new Object[IndexQueryEngine.RESULT_COLUMNS.length];
+            row[0] = i;
+            row[1] = titles[i];
+            row[5] = 0;
+            row[10] = 0;
+            row[12] = titles[i].toLowerCase();
+            cursor.addRow(row);
+        }
+        final List<IndexQueryEngine.Result> results = new ArrayList<>();
+        while (cursor.moveToNext()) {
+            final double score = titles.length - cursor.getPosition();
+            results.add(new IndexQueryEngine.Result(cursor.getInt(0), score, cursor));
+        }
+        return results;
+    }
+}
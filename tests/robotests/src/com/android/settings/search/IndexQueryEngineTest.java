@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.search;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.android.settings.search.IndexDatabaseHelper.IndexColumns;
+import com.android.settings.search.indexing.IndexData;
+import com.android.settings.testutils.DatabaseTestUtils;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+public class IndexQueryEngineTest {
+
+    private Context mContext;
+    private SQLiteDatabase mDb;
+    private IndexQueryEngine mEngine;
+    private int mNextDocId;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mDb = IndexDatabaseHelper.getInstance(mContext).getWritableDatabase();
+        mEngine = new IndexQueryEngine(mContext);
+        mNextDocId = 1;
+    }
+
+    @After
+    public void cleanUp() {
+        DatabaseTestUtils.clearDb(mContext);
+    }
+
+    @Test
+    public void query_emptyQuery_returnsEmpty() {
+        insertRow("Bluetooth", null, null, true);
+
+        assertThat(mEngine.query("", 10)).isEmpty();
+        assertThat(mEngine.query("   ", 10)).isEmpty();
+    }
+
+    @Test
+    public void query_prefix_matchesTitle() {
+        insertRow("Bluetooth", null, null, true);
+
+        final List<IndexQueryEngine.Result> results = mEngine.query("blu", 10);
+
+        assertThat(results).hasSize(1);
+        assertThat(results.get(0).title).isEqualTo("Bluetooth");
+    }
+
+    @Test
+    public void query_titleMatch_rankedAboveSummaryMatch() {
+        insertRow("Display", "Adjust the wallpaper", null, true);
+        insertRow("Wallpaper", "Change the background", null, true);
+
+        final List<IndexQueryEngine.Result> results = mEngine.query("wallpaper", 10);
+
+        assertThat(getTitles(results)).containsExactly("Wallpaper", "Display").inOrder();
+    }
+
+    @Test
+    public void query_keywordMatch_returnsResult() {
+        insertRow("Network & internet", null, "wifi mobile", true);
+
+        assertThat(getTitles(mEngine.query("mobile", 10))).containsExactly("Network & internet");
+    }
+
+    @Test
+    public void query_multipleTokens_requiresAllTokens() {
+        insertRow("Screen timeout", null, null, true);
+        insertRow("Screen lock", null, null, true);
+
+        assertThat(getTitles(mEngine.query("screen lo", 10))).containsExactly("Screen lock");
+    }
+
+    @Test
+    public void query_disabledRow_notReturned() {
+        insertRow("Battery saver", null, null, false);
+
+        assertThat(mEngine.query("battery", 10)).isEmpty();
+    }
+
+    @Test
+    public void query_typo_returnsClosestTitle() {
+        insertRow("Bluetooth", null, null, true);
+        insertRow("Brightness", null, null, true);
+
+        assertThat(getTitles(mEngine.query("blutooth", 10))).containsExactly("Bluetooth");
+    }
+
+    @Test
+    public void query_shortTypo_returnsEmpty() {
+        insertRow("Sound", null, null, true);
+
+        assertThat(mEngine.query("snd", 10)).isEmpty();
+    }
+
+    @Test
+    public void query_limitsResults_keepsBest() {
+        for (int i = 0; i < 20; i++) {
+            insertRow("Setting " + i, "storage", null, true);
+        }
+        insertRow("Storage", null, null, true);
+
+        final List<IndexQueryEngine.Result> results = mEngine.query("storage", 3);
+
+        assertThat(results).hasSize(3);
+        assertThat(results.get(0).title).isEqualTo("Storage");
+    }
+
+    @Test
+    public void invalidate_rebuildsVocabulary() {
+        insertRow("Bluetooth", null, null, true);
+        assertThat(mEngine.query("lokation", 10)).isEmpty();
+
+        insertRow("Location", null, null, true);
+        mEngine.invalidate();
+
+        assertThat(getTitles(mEngine.query("lokation", 10))).containsExactly("Location");
+    }
+
+    @Test
+    public void query_repeated_servedFromCache() {
+        insertRow("Bluetooth", null, null, true);
+
+        final List<IndexQueryEngine.Result> first = mEngine.query("blu", 10);
+        final List<IndexQueryEngine.Result> second = mEngine.query("blu", 10);
+
+        assertThat(second).isSameAs(first);
+        assertThat(mEngine.getCache().getHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void query_extendedQuery_rankedAsIfQueriedDirectly() {
+        insertRow("Sound", "Storage sounds", null, true);
+        insertRow("Screen", "Storage screens", null, true);
+        insertRow("Storage", null, null, true);
+        mEngine.query("s", 10);
+
+        final List<IndexQueryEngine.Result> extended = mEngine.query("st", 10);
+        final List<IndexQueryEngine.Result> direct = new IndexQueryEngine(mContext).query("st", 10);
+
+        assertThat(mEngine.getCache().getPrefixHitCount()).isEqualTo(1);
+        assertThat(getTitles(extended)).containsExactlyElementsIn(getTitles(direct)).inOrder();
+        assertThat(extended.get(0).title).isEqualTo("Storage");
+        for (int i = 0; i < direct.size(); i++) {
+            assertThat(extended.get(i).score).isEqualTo(direct.get(i).score);
+        }
+    }
+
+    @Test
+    public void query_afterGenerationBump_queriesIndex() {
+        insertRow("Bluetooth", null, null, true);
+        assertThat(mEngine.query("b", 10)).hasSize(1);
+
+        insertRow("Brightness", null, null, true);
+        IndexDatabaseHelper.bumpIndexGeneration(mDb);
+
+        assertThat(getTitles(mEngine.query("b", 10))).containsExactly("Bluetooth", "Brightness");
+    }
+
+    @Test
+    public void tokenize_normalizesAndSplits() {
+        assertThat(IndexQueryEngine.tokenize("Wi-Fi  Calling!"))
+                .containsExactly("wifi", "calling").inOrder();
+    }
+
+    @Test
+    public void editDistance_withinLimit_returnsDistance() {
+        assertThat(IndexQueryEngine.editDistance("blutooth", "bluetooth", 2)).isEqualTo(1);
+        assertThat(IndexQueryEngine.editDistance("kitten", "sitting", 3)).isEqualTo(3);
+    }
+
+    @Test
+    public void editDistance_overLimit_returnsLimitPlusOne() {
+        assertThat(IndexQueryEngine.editDistance("abcdef", "uvwxyz", 1)).isEqualTo(2);
+    }
+
+    @Test
+    public void scoreBm25_unweightedColumns_scoreZero() {
+        // One phrase, one column, which maps to position 0 (locale) and carries no weight.
+        final byte[] matchInfo = buildMatchInfo(1, 1, 10, new int[] {2}, new int[] {2},
+                new int[] {1, 1, 1});
+
+        assertThat(IndexQueryEngine.scoreBm25(matchInfo)).isEqualTo(0.0);
+    }
+
+    @Test
+    public void scoreBm25_rarerTerm_scoresHigher() {
+        final int columns = IndexQueryEngine.COLUMN_POSITION_TITLE + 1;
+        final int[] lengths = new int[columns];
+        final int[] rare = new int[3 * columns];
+        final int[] common = new int[3 * columns];
+        final int title = 3 * IndexQueryEngine.COLUMN_POSITION_TITLE;
+        lengths[IndexQueryEngine.COLUMN_POSITION_TITLE] = 2;
+        rare[title] = 1;
+        rare[title + 2] = 1;
+        common[title] = 1;
+        common[title + 2] = 40;
+
+        final double rareScore = IndexQueryEngine.scoreBm25(
+                buildMatchInfo(1, columns, 100, lengths, lengths, rare));
+        final double commonScore = IndexQueryEngine.scoreBm25(
+                buildMatchInfo(1, columns, 100, lengths, lengths, common));
+
+        assertThat(rareScore).isGreaterThan(commonScore);
+    }
+
+    private void insertRow(String title, String summary, String keywords, boolean enabled) {
+        final ContentValues values = new ContentValues();
+        values.put(IndexColumns.DOCID, mNextDocId++);
+        values.put(IndexColumns.LOCALE, Locale.getDefault().toString());
+        values.put(IndexColumns.DATA_TITLE, title);
+        values.put(IndexColumns.DATA_TITLE_NORMALIZED, IndexData.normalizeString(title));
+        values.put(IndexColumns.DATA_SUMMARY_ON, summary);
+        values.put(IndexColumns.DATA_SUMMARY_ON_NORMALIZED,
+                summary == null ? null : IndexData.normalizeString(summary));
+        values.put(IndexColumns.DATA_KEYWORDS, keywords);
+        values.put(IndexColumns.ENABLED, enabled);
+        mDb.insert(IndexDatabaseHelper.Tables.TABLE_PREFS_INDEX, null, values);
+    }
+
+    private static List<String> getTitles(List<IndexQueryEngine.Result> results) {
+        final List<String> titles = new ArrayList<>();
+        for (IndexQueryEngine.Result result : results) {
+            titles.add(result.title);
+        }
+        return titles;
+    }
+
+    private static byte[] buildMatchInfo(int phrases, int columns, int rows, int[] avgLengths,
+            int[] lengths, int[] hits) {
+        final ByteBuffer buffer = ByteBuffer.allocate(
+                4 * (3 + 2 * columns + hits.length)).order(ByteOrder.nativeOrder());
+        buffer.putInt(phrases).putInt(columns).putInt(rows);
+        for (int length : avgLengths) {
+            buffer.putInt(length);
+        }
+        for (int length : lengths) {
+            buffer.putInt(length);
+        }
+        for (int hit : hits) {
+            buffer.putInt(hit);
+        }
+        return buffer.array();
+    }
+}
@@ -19,8 +19,12 @@ package com.android.settings.search.indexing;
 
 import static com.google.common.truth.Truth.assertThat;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.spy;
 
 import android.content.ContentResolver;
@@ -42,13 +46,17 @@ import org.mockito.MockitoAnnotations;
 import org.robolectric.RuntimeEnvironment;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 @RunWith(SettingsRobolectricTestRunner.class)
 public class PreIndexDataCollectorTest {
 
     private static final String AUTHORITY_ONE = "authority";
     private static final String PACKAGE_ONE = "com.android.settings";
+    private static final String AUTHORITY_TWO = "authority.two";
+    private static final String PACKAGE_TWO = "com.android.other";
 
     @Mock
     private ContentResolver mResolver;
@@ -113,17 +121,120 @@ public class PreIndexDataCollectorTest {
         assertThat(data.nonIndexableKeys.get(AUTHORITY_ONE)).containsAllIn(niks);
     }
 
+    @Test
+    public void testCollectIndexableData_changedPackages_addsDataOfChangedPackagesOnly() {
+        final List<ResolveInfo> providerInfo = getDummyResolveInfo();
+        doReturn(true).when(mDataCollector).isWellKnownProvider(any(ResolveInfo.class));
+        List<SearchIndexableRaw> rawData = getFakeRaw();
+        doReturn(rawData).when(mDataCollector).getIndexablesForRawDataUri(any(Context.class),
+                anyString(), any(Uri.class), any(String[].class));
+
+        PreIndexData unchangedData = mDataCollector.collectIndexableData(providerInfo,
+                Collections.singleton("other.package"));
+        PreIndexData changedData = mDataCollector.collectIndexableData(providerInfo,
+                Collections.singleton(PACKAGE_ONE));
+
+        assertThat(unchangedData.dataToUpdate).isEmpty();
+        assertThat(changedData.dataToUpdate).containsAllIn(rawData);
+    }
+
+    @Test
+    public void testCollectIndexableData_multipleProviders_mergedInProviderOrder()
+            throws Exception {
+        doReturn(mContext).when(mContext).createPackageContext(anyString(), anyInt());
+        final List<ResolveInfo> providerInfo = getDummyResolveInfo();
+        providerInfo.add(getDummyResolveInfo(AUTHORITY_TWO, PACKAGE_TWO));
+        doReturn(true).when(mDataCollector).isWellKnownProvider(any(ResolveInfo.class));
+        final List<SearchIndexableRaw> rawOne = getFakeRaw();
+        final List<SearchIndexableRaw> rawTwo = getFakeRaw();
+        doReturn(rawOne).when(mDataCollector).getIndexablesForRawDataUri(any(Context.class),
+                eq(PACKAGE_ONE), any(Uri.class), any(String[].class));
+        doReturn(rawTwo).when(mDataCollector).getIndexablesForRawDataUri(any(Context.class),
+                eq(PACKAGE_TWO), any(Uri.class), any(String[].class));
+
+        PreIndexData data = mDataCollector.collectIndexableData(providerInfo,
+                true /* isFullIndex */);
+
+        assertThat(data.dataToUpdate).containsExactly(rawOne.get(0), rawTwo.get(0)).inOrder();
+        assertThat(data.failedPackages).isEmpty();
+    }
+
+    @Test
+    public void testCollectIndexableData_providerFails_otherProvidersStillCollected() {
+        final List<ResolveInfo> providerInfo = getDummyResolveInfo();
+        providerInfo.add(getDummyResolveInfo(AUTHORITY_TWO, PACKAGE_TWO));
+        doReturn(true).when(mDataCollector).isWellKnownProvider(any(ResolveInfo.class));
+        final List<String> niks = getFakeNonIndexables();
+        doThrow(new IllegalStateException()).when(mDataCollector)
+                .getNonIndexablesKeysFromRemoteProvider(PACKAGE_ONE, AUTHORITY_ONE);
+        doReturn(niks).when(mDataCollector)
+                .getNonIndexablesKeysFromRemoteProvider(PACKAGE_TWO, AUTHORITY_TWO);
+
+        PreIndexData data = mDataCollector.collectIndexableData(providerInfo,
+                false /* isFullIndex */);
+
+        assertThat(data.failedPackages).containsExactly(PACKAGE_ONE);
+        assertThat(data.nonIndexableKeys.get(AUTHORITY_TWO)).containsAllIn(niks);
+    }
+
+    @Test
+    public void testCollectIndexableData_hungProviders_totalTimeBounded() {
+        final long timeoutMs = 200;
+        doReturn(timeoutMs).when(mDataCollector).getProviderTimeoutMs();
+        doReturn(2).when(mDataCollector).getCollectionThreadCount(anyInt());
+        doReturn(true).when(mDataCollector).isWellKnownProvider(any(ResolveInfo.class));
+        final List<ResolveInfo> providerInfo = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            providerInfo.add(getDummyResolveInfo(AUTHORITY_ONE + i, PACKAGE_ONE + i));
+        }
+        // Like a binder call, the hung providers do not return when interrupted.
+        final CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            while (true) {
+                try {
+                    release.await();
+                    return Collections.emptyList();
+                } catch (InterruptedException e) {
+                    // Keep blocking.
+                }
+            }
+        }).when(mDataCollector).getNonIndexablesKeysFromRemoteProvider(anyString(), anyString());
+
+        try {
+            final long startTime = System.currentTimeMillis();
+            final PreIndexData data = mDataCollector.collectIndexableData(providerInfo,
+                    false /* isFullIndex */);
+            final long elapsedTime = System.currentTimeMillis() - startTime;
+
+            assertThat(elapsedTime).isLessThan(2 * timeoutMs);
+            assertThat(data.failedPackages).containsExactly(PACKAGE_ONE + 0, PACKAGE_ONE + 1,
+                    PACKAGE_ONE + 2, PACKAGE_ONE + 3);
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testGetCollectionThreadCount_boundedByProviderCount() {
+        assertThat(mDataCollector.getCollectionThreadCount(1)).isEqualTo(1);
+        assertThat(mDataCollector.getCollectionThreadCount(0)).isEqualTo(1);
+    }
+
     private List<ResolveInfo> getDummyResolveInfo() {
         List<ResolveInfo> infoList = new ArrayList<>();
+        infoList.add(getDummyResolveInfo(AUTHORITY_ONE, PACKAGE_ONE));
+
+        return infoList;
+    }
+
+    private ResolveInfo getDummyResolveInfo(String authority, String packageName) {
         ResolveInfo info = new ResolveInfo();
         info.providerInfo = new ProviderInfo();
         info.providerInfo.exported = true;
-        info.providerInfo.authority = AUTHORITY_ONE;
-        info.providerInfo.packageName = PACKAGE_ONE;
+        info.providerInfo.authority = authority;
+        info.providerInfo.packageName = packageName;
         info.providerInfo.applicationInfo = new ApplicationInfo();
-        infoList.add(info);
-
-        return infoList;
+        return info;
     }
 
     private List<SearchIndexableResource> getFakeResource() {
@@ -19,6 +19,7 @@ package com.android.settings.slices;
 
 import static android.content.ContentResolver.SCHEME_CONTENT;
 import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
@@ -35,11 +36,13 @@ import android.net.Uri;
 import android.os.StrictMode;
 import android.provider.SettingsSlicesContract;
 import android.util.ArraySet;
+import android.util.LruCache;
 
 import com.android.settings.bluetooth.BluetoothSliceBuilder;
 import com.android.settings.location.LocationSliceBuilder;
 import com.android.settings.notification.ZenModeSliceBuilder;
 import com.android.settings.testutils.DatabaseTestUtils;
+import com.android.settings.testutils.FakeFeatureFactory;
 import com.android.settings.testutils.FakeToggleController;
 import com.android.settings.testutils.SettingsRobolectricTestRunner;
 import com.android.settings.testutils.shadow.ShadowThreadUtils;
@@ -87,6 +90,7 @@ public class SettingsSliceProviderTest {
     private SettingsSliceProvider mProvider;
     private SQLiteDatabase mDb;
     private SliceManager mManager;
+    private FakeFeatureFactory mFeatureFactory;
 
     private static final List<Uri> SPECIAL_CASE_PLATFORM_URIS = Arrays.asList(
             WifiSliceBuilder.WIFI_URI,
@@ -103,7 +107,9 @@ public class SettingsSliceProviderTest {
         mContext = spy(RuntimeEnvironment.application);
         mProvider = spy(new SettingsSliceProvider());
         ShadowStrictMode.reset();
-        mProvider.mSliceWeakDataCache = new HashMap<>();
+        mFeatureFactory = FakeFeatureFactory.setupForTest();
+        mProvider.mSliceDataLruCache =
+                new LruCache<>(SettingsSliceProvider.SLICE_DATA_CACHE_SIZE);
         mProvider.mSliceDataCache = new HashMap<>();
         mProvider.mSlicesDatabaseAccessor = new SlicesDatabaseAccessor(mContext);
         when(mProvider.getContext()).thenReturn(mContext);
@@ -137,7 +143,7 @@ public class SettingsSliceProviderTest {
         final Uri uri = SliceBuilderUtils.getUri(INTENT_PATH, false);
 
         mProvider.loadSlice(uri);
-        SliceData data = mProvider.mSliceWeakDataCache.get(uri);
+        SliceData data = mProvider.mSliceDataLruCache.get(uri);
 
         assertThat(data.getKey()).isEqualTo(KEY);
         assertThat(data.getTitle()).isEqualTo(TITLE);
@@ -178,15 +184,58 @@ public class SettingsSliceProviderTest {
     }
 
     @Test
-    public void testLoadSlice_cachedEntryRemovedOnBuild() {
+    public void testLoadSlice_cachedEntryKeptOnBuild() {
         SliceData data = getDummyData();
-        mProvider.mSliceWeakDataCache.put(data.getUri(), data);
+        mProvider.mSliceDataLruCache.put(data.getUri(), data);
         mProvider.onBindSlice(data.getUri());
         insertSpecialCase(data.getKey());
 
-        SliceData cachedData = mProvider.mSliceWeakDataCache.get(data.getUri());
+        SliceData cachedData = mProvider.mSliceDataLruCache.get(data.getUri());
 
-        assertThat(cachedData).isNull();
+        assertThat(cachedData).isSameAs(data);
+    }
+
+    @Test
+    public void onBindSlice_cachedData_logsCacheHit() {
+        SliceData data = getDummyData();
+        mProvider.mSliceDataLruCache.put(data.getUri(), data);
+
+        mProvider.onBindSlice(data.getUri());
+
+        verify(mFeatureFactory.metricsFeatureProvider).histogram(mContext,
+                SettingsSliceProvider.METRICS_BIND_CACHE_HIT, 1);
+        verify(mFeatureFactory.metricsFeatureProvider).histogram(eq(mContext),
+                eq(SettingsSliceProvider.METRICS_BIND_LATENCY), anyInt());
+    }
+
+    @Test
+    public void onBindSlice_noCachedData_logsCacheMiss() {
+        insertSpecialCase(KEY);
+        final Uri uri = SliceBuilderUtils.getUri(INTENT_PATH, false);
+
+        mProvider.onBindSlice(uri);
+
+        verify(mFeatureFactory.metricsFeatureProvider).histogram(mContext,
+                SettingsSliceProvider.METRICS_BIND_CACHE_HIT, 0);
+    }
+
+    @Test
+    public void getDescendantUris_prefetchesSliceData() {
+        final String key = "platform_key";
+        insertSpecialCase(key, true /* isPlatformSlice */);
+        final Uri uri = new Uri.Builder()
+                .scheme(SCHEME_CONTENT)
+                .authority(SettingsSlicesContract.AUTHORITY)
+                .build();
+
+        final Collection<Uri> descendants = mProvider.onGetSliceDescendants(uri);
+        descendants.removeAll(SPECIAL_CASE_PLATFORM_URIS);
+
+        assertThat(descendants).hasSize(1);
+        final Uri descendant = descendants.iterator().next();
+        final SliceData data = mProvider.mSliceDataLruCache.get(descendant);
+        assertThat(data.getKey()).isEqualTo(key);
+        assertThat(data.getUri()).isEqualTo(descendant);
     }
 
     @Test
@@ -194,7 +243,7 @@ public class SettingsSliceProviderTest {
         ShadowThreadUtils.setIsMainThread(true);
         final StrictMode.ThreadPolicy oldThreadPolicy = StrictMode.getThreadPolicy();
         SliceData data = getDummyData();
-        mProvider.mSliceWeakDataCache.put(data.getUri(), data);
+        mProvider.mSliceDataLruCache.put(data.getUri(), data);
         mProvider.onBindSlice(data.getUri());
 
         final StrictMode.ThreadPolicy newThreadPolicy = StrictMode.getThreadPolicy();
@@ -208,7 +257,7 @@ public class SettingsSliceProviderTest {
         ShadowThreadUtils.setIsMainThread(false);
 
         SliceData data = getDummyData();
-        mProvider.mSliceWeakDataCache.put(data.getUri(), data);
+        mProvider.mSliceDataLruCache.put(data.getUri(), data);
         mProvider.onBindSlice(data.getUri());
 
         assertThat(ShadowStrictMode.isThreadPolicyOverridden()).isTrue();
@@ -239,7 +288,7 @@ public class SettingsSliceProviderTest {
         mProvider.onSliceUnpinned(data.getUri());
         insertSpecialCase(data.getKey());
 
-        SliceData cachedData = mProvider.mSliceWeakDataCache.get(data.getUri());
+        SliceData cachedData = mProvider.mSliceDataLruCache.get(data.getUri());
 
         assertThat(cachedData).isNull();
     }
@@ -25,6 +25,7 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.provider.SettingsSlicesContract;
 import android.view.accessibility.AccessibilityManager;
 
 import com.android.settings.testutils.FakeIndexProvider;
@@ -173,6 +174,23 @@ public class SlicesDatabaseAccessorTest {
         assertThat(keys).containsExactly(key);
     }
 
+    @Test
+    public void getSliceData_returnsMatchingSlicesWithActionUris() {
+        insertSpecialCase("platform_key", true /* isPlatformSlice */);
+        insertSpecialCase("oem_key", false /* isPlatformSlice */);
+
+        final List<SliceData> sliceData = mAccessor.getSliceData(false /* isPlatformSlice */,
+                SettingsSliceProvider.SLICE_AUTHORITY);
+
+        assertThat(sliceData).hasSize(1);
+        final SliceData data = sliceData.get(0);
+        assertThat(data.getKey()).isEqualTo("oem_key");
+        assertThat(data.getTitle()).isEqualTo(FAKE_TITLE);
+        assertThat(data.getUri().getAuthority()).isEqualTo(SettingsSliceProvider.SLICE_AUTHORITY);
+        assertThat(data.getUri().getPath()).isEqualTo(
+                "/" + SettingsSlicesContract.PATH_SETTING_ACTION + "/oem_key");
+    }
+
     @Test
     @Config(qualifiers = "mcc999")
     public void getSliceKeys_indexesDatabase() {
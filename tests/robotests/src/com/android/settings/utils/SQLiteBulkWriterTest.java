@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.utils;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+public class SQLiteBulkWriterTest {
+
+    private static final String TABLE = "test_table";
+
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mDatabase = SQLiteDatabase.create(null /* factory */);
+        mDatabase.execSQL("CREATE TABLE " + TABLE
+                + " (key TEXT PRIMARY KEY, title TEXT, icon INTEGER, enabled INTEGER)");
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.close();
+    }
+
+    @Test
+    public void buildInsertSql_bindsAllColumns() {
+        assertThat(SQLiteBulkWriter.buildInsertSql(TABLE, "a", "b", "c"))
+                .isEqualTo("INSERT OR REPLACE INTO test_table (a, b, c) VALUES (?, ?, ?)");
+    }
+
+    @Test
+    public void insert_rowsAreWrittenWithBoundValues() {
+        try (SQLiteBulkWriter writer =
+                     new SQLiteBulkWriter(mDatabase, TABLE, "key", "title", "icon", "enabled")) {
+            writer.bindString(1, "key1").bindString(2, "title1").bindLong(3, 42)
+                    .bindBoolean(4, true).insert();
+            writer.bindString(1, "key2").bindString(2, null).bindLong(3, 0)
+                    .bindBoolean(4, false).insert();
+            assertThat(writer.getRowCount()).isEqualTo(2);
+            writer.markSuccessful();
+        }
+
+        final Cursor cursor = mDatabase.rawQuery(
+                "SELECT key, title, icon, enabled FROM " + TABLE + " ORDER BY key", null);
+        assertThat(cursor.getCount()).isEqualTo(2);
+        cursor.moveToFirst();
+        assertThat(cursor.getString(1)).isEqualTo("title1");
+        assertThat(cursor.getInt(2)).isEqualTo(42);
+        assertThat(cursor.getInt(3)).isEqualTo(1);
+        cursor.moveToNext();
+        assertThat(cursor.isNull(1)).isTrue();
+        assertThat(cursor.getInt(3)).isEqualTo(0);
+        cursor.close();
+    }
+
+    @Test
+    public void insert_sameKey_replacesRow() {
+        try (SQLiteBulkWriter writer = new SQLiteBulkWriter(mDatabase, TABLE, "key", "title")) {
+            writer.bindString(1, "key").bindString(2, "old").insert();
+            writer.bindString(1, "key").bindString(2, "new").insert();
+            writer.markSuccessful();
+        }
+
+        final Cursor cursor = mDatabase.rawQuery("SELECT title FROM " + TABLE, null);
+        assertThat(cursor.getCount()).isEqualTo(1);
+        cursor.moveToFirst();
+        assertThat(cursor.getString(0)).isEqualTo("new");
+        cursor.close();
+    }
+
+    @Test
+    public void insert_moreRowsThanChunk_allRowsCommitted() {
+        try (SQLiteBulkWriter writer = new SQLiteBulkWriter(mDatabase, 2 /* chunkSize */, TABLE,
+                "key")) {
+            for (int i = 0; i < 5; i++) {
+                writer.bindString(1, "key" + i).insert();
+            }
+            writer.markSuccessful();
+        }
+
+        assertThat(mDatabase.inTransaction()).isFalse();
+        final Cursor cursor = mDatabase.rawQuery("SELECT * FROM " + TABLE, null);
+        assertThat(cursor.getCount()).isEqualTo(5);
+        cursor.close();
+    }
+
+    @Test
+    public void close_callerOwnsTransaction_transactionLeftOpen() {
+        mDatabase.beginTransaction();
+        try {
+            try (SQLiteBulkWriter writer = new SQLiteBulkWriter(mDatabase, TABLE, "key")) {
+                writer.bindString(1, "key").insert();
+                writer.markSuccessful();
+            }
+            assertThat(mDatabase.inTransaction()).isTrue();
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    @Test
+    public void close_failedMidChunk_rowsRolledBack() {
+        try (SQLiteBulkWriter writer = new SQLiteBulkWriter(mDatabase, TABLE, "key")) {
+            writer.bindString(1, "key1").insert();
+            writer.bindString(1, "key2").insert();
+            throw new IllegalStateException("Failed to load the next row");
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+
+        assertThat(mDatabase.inTransaction()).isFalse();
+        final Cursor cursor = mDatabase.rawQuery("SELECT * FROM " + TABLE, null);
+        assertThat(cursor.getCount()).isEqualTo(0);
+        cursor.close();
+    }
+
+    @Test
+    public void close_failedAfterFullChunks_onlyLastChunkRolledBack() {
+        try (SQLiteBulkWriter writer = new SQLiteBulkWriter(mDatabase, 2 /* chunkSize */, TABLE,
+                "key")) {
+            for (int i = 0; i < 3; i++) {
+                writer.bindString(1, "key" + i).insert();
+            }
+            throw new IllegalStateException("Failed to load the next row");
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+
+        final Cursor cursor = mDatabase.rawQuery("SELECT * FROM " + TABLE, null);
+        assertThat(cursor.getCount()).isEqualTo(2);
+        cursor.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void insert_afterMarkSuccessful_throws() {
+        try (SQLiteBulkWriter writer = new SQLiteBulkWriter(mDatabase, TABLE, "key")) {
+            writer.markSuccessful();
+            writer.bindString(1, "key").insert();
+        }
+    }
+}
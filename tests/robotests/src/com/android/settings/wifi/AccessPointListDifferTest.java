@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.wifi;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+public class AccessPointListDifferTest {
+
+    private static final Item A = new Item("a");
+    private static final Item B = new Item("b");
+    private static final Item C = new Item("c");
+    private static final Item D = new Item("d");
+
+    private long mNow;
+    private AccessPointListDiffer<Item> mDiffer;
+
+    @Before
+    public void setUp() {
+        mNow = 1000L;
+        mDiffer = new AccessPointListDiffer<>(item -> item.key, () -> mNow);
+    }
+
+    @Test
+    public void update_firstSnapshot_insertsEverything() {
+        final AccessPointListDiffer.ChangeSet<Item> changes = mDiffer.update(list(A, B, C));
+
+        assertThat(changes.inserted).containsExactly(A, B, C).inOrder();
+        assertThat(changes.items).containsExactly(A, B, C).inOrder();
+        assertThat(changes.removed).isEmpty();
+        assertThat(changes.moved).isEmpty();
+    }
+
+    @Test
+    public void update_sameSnapshot_isEmpty() {
+        mDiffer.update(list(A, B, C));
+
+        final AccessPointListDiffer.ChangeSet<Item> changes = mDiffer.update(list(A, B, C));
+
+        assertThat(changes.isEmpty()).isTrue();
+        assertThat(changes.items).containsExactly(A, B, C).inOrder();
+    }
+
+    @Test
+    public void update_withinReorderInterval_keepsOrderAndInsertsAfterNeighbor() {
+        mDiffer.update(list(A, B, C));
+        mNow += AccessPointListDiffer.REORDER_INTERVAL_MS - 1;
+
+        final AccessPointListDiffer.ChangeSet<Item> changes = mDiffer.update(list(C, D, A));
+
+        assertThat(changes.items).containsExactly(A, C, D).inOrder();
+        assertThat(changes.inserted).containsExactly(D);
+        assertThat(changes.removed).containsExactly(B);
+        assertThat(changes.moved).isEmpty();
+    }
+
+    @Test
+    public void update_afterReorderInterval_reportsMoves() {
+        mDiffer.update(list(A, B, C));
+        mNow += AccessPointListDiffer.REORDER_INTERVAL_MS;
+
+        final AccessPointListDiffer.ChangeSet<Item> changes = mDiffer.update(list(C, A, B));
+
+        assertThat(changes.items).containsExactly(C, A, B).inOrder();
+        assertThat(changes.moved).containsExactly(C);
+        assertThat(changes.inserted).isEmpty();
+    }
+
+    @Test
+    public void update_requestReorder_reordersRightAway() {
+        mDiffer.update(list(A, B));
+        mDiffer.requestReorder();
+
+        assertThat(mDiffer.update(list(B, A)).items).containsExactly(B, A).inOrder();
+        assertThat(mDiffer.update(list(A, B)).items).containsExactly(B, A).inOrder();
+    }
+
+    @Test
+    public void update_newItemWithSameKey_isUpdated() {
+        mDiffer.update(list(A, B));
+        final Item newB = new Item("b");
+
+        final AccessPointListDiffer.ChangeSet<Item> changes = mDiffer.update(list(A, newB));
+
+        assertThat(changes.updated).containsExactly(newB);
+        assertThat(changes.items).containsExactly(A, newB).inOrder();
+        assertThat(changes.inserted).isEmpty();
+    }
+
+    @Test
+    public void clear_insertsEverythingAgain() {
+        mDiffer.update(list(A, B));
+        mDiffer.clear();
+
+        assertThat(mDiffer.update(list(A, B)).inserted).containsExactly(A, B);
+    }
+
+    private static List<Item> list(Item... items) {
+        final List<Item> list = new ArrayList<>();
+        for (Item item : items) {
+            list.add(item);
+        }
+        return list;
+    }
+
+    private static class Item {
+        final String key;
+
+        Item(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public String toString() {
+            return key;
+        }
+    }
+}
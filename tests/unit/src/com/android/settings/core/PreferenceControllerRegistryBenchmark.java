@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.core;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares creating every controller of {@link PreferenceControllerRegistry} through its
+ * generated constructor reference against creating it through reflection.
+ *
+ * Results are logged under the {@link #TAG} tag as nanoseconds per controller.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class PreferenceControllerRegistryBenchmark {
+
+    private static final String TAG = "ControllerRegistryBench";
+
+    private static final int ITERATIONS = 50;
+    private static final String KEY = "key";
+
+    private Context mContext;
+    private PreferenceControllerRegistry mRegistry;
+    private List<String> mControllerNames;
+
+    @Before
+    public void setUp() {
+        if (Looper.myLooper() == null) {
+            Looper.prepare();
+        }
+        mContext = InstrumentationRegistry.getTargetContext();
+        mRegistry = PreferenceControllerRegistry.getInstance();
+        mControllerNames = new ArrayList<>(mRegistry.getControllerNames());
+    }
+
+    @Test
+    public void reflection() {
+        // Warm up class loading so that both runs measure instantiation only.
+        createAllByReflection();
+
+        final long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < ITERATIONS; i++) {
+            createAllByReflection();
+        }
+        report("reflection", start);
+    }
+
+    @Test
+    public void generated() {
+        createAllFromRegistry();
+
+        final long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < ITERATIONS; i++) {
+            createAllFromRegistry();
+        }
+        report("generated", start);
+    }
+
+    private void createAllByReflection() {
+        for (String name : mControllerNames) {
+            BasePreferenceController controller;
+            try {
+                controller = BasePreferenceController.createInstanceByReflection(mContext, name);
+            } catch (IllegalStateException e) {
+                controller = BasePreferenceController.createInstanceByReflection(mContext, name,
+                        KEY);
+            }
+            assertThat(controller).isNotNull();
+        }
+    }
+
+    private void createAllFromRegistry() {
+        for (String name : mControllerNames) {
+            BasePreferenceController controller = mRegistry.create(mContext, name);
+            if (controller == null) {
+                controller = mRegistry.create(mContext, name, KEY);
+            }
+            assertThat(controller).isNotNull();
+        }
+    }
+
+    private void report(String name, long startNanos) {
+        final long elapsedNanos = SystemClock.elapsedRealtimeNanos() - startNanos;
+        final long count = (long) ITERATIONS * mControllerNames.size();
+        Log.i(TAG, name + ": " + count + " controllers in " + elapsedNanos / 1_000_000 + "ms, "
+                + elapsedNanos / Math.max(1, count) + "ns per controller");
+    }
+}
@@ -22,6 +22,7 @@ import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import android.content.Context;
@@ -33,6 +34,7 @@ import android.os.UserHandle;
 import android.os.UserManager;
 import android.support.test.filters.SmallTest;
 import android.support.test.runner.AndroidJUnit4;
+import android.util.ArrayMap;
 import android.util.SparseArray;
 
 import com.android.settingslib.applications.StorageStatsSource;
@@ -47,6 +49,8 @@ import org.mockito.MockitoAnnotations;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 @RunWith(AndroidJUnit4.class)
 @SmallTest
@@ -219,6 +223,83 @@ public class StorageAsyncLoaderTest {
         assertThat(result.get(PRIMARY_USER_ID).otherAppsSize).isEqualTo(DEFAULT_QUOTA + 11);
     }
 
+    @Test
+    public void testParallelLoadingMatchesSerial() throws Exception {
+        UserInfo info = new UserInfo();
+        info.id = SECONDARY_USER_ID;
+        mUsers.add(info);
+        for (int i = 0; i < 10; i++) {
+            addPackage(PACKAGE_NAME_1 + i, 0, 1, 10,
+                    i % 2 == 0 ? ApplicationInfo.CATEGORY_GAME : ApplicationInfo.CATEGORY_VIDEO);
+        }
+        mLoader.setParallel(true);
+
+        SparseArray<StorageAsyncLoader.AppsStorageResult> result = mLoader.loadInBackground();
+
+        assertThat(result.size()).isEqualTo(2);
+        assertThat(result.get(PRIMARY_USER_ID).gamesSize).isEqualTo(55L);
+        assertThat(result.get(PRIMARY_USER_ID).videoAppsSize).isEqualTo(55L);
+        // Code size is only counted for the first user.
+        assertThat(result.get(SECONDARY_USER_ID).gamesSize).isEqualTo(50L);
+        assertThat(result.get(SECONDARY_USER_ID).videoAppsSize).isEqualTo(50L);
+    }
+
+    @Test
+    public void testCachedPackageStatsAreQueriedAgainForFinalResult() throws Exception {
+        CachedStorageValuesHelper helper = mockCachedPackageStats();
+        mLoader.setCachedValuesHelper(helper);
+
+        SparseArray<StorageAsyncLoader.AppsStorageResult> result = mLoader.loadInBackground();
+
+        // Both packages are queried again, even the one whose stats were still cached.
+        assertThat(result.get(PRIMARY_USER_ID).otherAppsSize).isEqualTo(11L + 1100L);
+        verify(mSource).getStatsForPackage(anyString(), eq(PACKAGE_NAME_1),
+                any(UserHandle.class));
+        verify(helper).cachePackageStats(eq("id"), any());
+    }
+
+    @Test
+    public void testCachedPackageStatsSeedFirstPartialResult() throws Exception {
+        when(mSource.getExternalStorageStats(anyString(), eq(UserHandle.SYSTEM)))
+                .thenReturn(new StorageStatsSource.ExternalStorageStats(9, 2, 3, 4, 0));
+        mLoader.setCachedValuesHelper(mockCachedPackageStats());
+        mLoader.setParallel(true);
+        final List<SparseArray<StorageAsyncLoader.AppsStorageResult>> partialResults =
+                new ArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        mLoader.setPartialResultListener(partial -> {
+            partialResults.add(partial);
+            latch.countDown();
+        });
+
+        mLoader.loadInBackground();
+
+        assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+        // Only the cached stats of the package that was not updated since.
+        assertThat(partialResults.get(0).get(PRIMARY_USER_ID).otherAppsSize).isEqualTo(22L);
+    }
+
+    private CachedStorageValuesHelper mockCachedPackageStats() throws Exception {
+        CachedStorageValuesHelper helper = mock(CachedStorageValuesHelper.class);
+        ApplicationInfo cachedApp =
+                addPackage(PACKAGE_NAME_1, 0, 1, 10, ApplicationInfo.CATEGORY_UNDEFINED);
+        ApplicationInfo updatedApp =
+                addPackage(PACKAGE_NAME_2, 0, 100, 1000, ApplicationInfo.CATEGORY_UNDEFINED);
+        updatedApp.sourceDir = "/data/app/updated";
+        ArrayMap<String, CachedStorageValuesHelper.PackageStorageStats> packages =
+                new ArrayMap<>();
+        packages.put(PACKAGE_NAME_1, new CachedStorageValuesHelper.PackageStorageStats(
+                CachedStorageValuesHelper.PackageStorageStats.getInstallId(cachedApp),
+                0 /* queryTime */, 20, 2));
+        packages.put(PACKAGE_NAME_2, new CachedStorageValuesHelper.PackageStorageStats(
+                "stale", 0 /* queryTime */, 2000, 200));
+        SparseArray<ArrayMap<String, CachedStorageValuesHelper.PackageStorageStats>> cached =
+                new SparseArray<>();
+        cached.put(PRIMARY_USER_ID, packages);
+        when(helper.getCachedPackageStats(anyString())).thenReturn(cached);
+        return helper;
+    }
+
     private ApplicationInfo addPackage(String packageName, long cacheSize, long codeSize,
             long dataSize, int category) throws Exception {
         StorageStatsSource.AppStorageStats storageStats =
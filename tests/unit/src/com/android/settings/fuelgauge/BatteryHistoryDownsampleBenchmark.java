@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.graphics.Path;
+import android.os.BatteryStats.HistoryItem;
+import android.os.SystemClock;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.util.SparseIntArray;
+
+import com.android.settings.graph.MinMaxDownsampler;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Compares building a chart path from every record of a synthetic 100k record battery history
+ * against building it from the records selected by the min/max downsampling of
+ * {@link BatteryHistorySnapshot} and {@link MinMaxDownsampler}.
+ *
+ * Results are logged under the {@link #TAG} tag as time and number of path points.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class BatteryHistoryDownsampleBenchmark {
+
+    private static final String TAG = "BatteryDownsampleBench";
+
+    private static final int RECORD_COUNT = 100_000;
+    private static final int WIDTH = 1080;
+    private static final long WALL_TIME = 1_500_000_000_000L;
+    private static final long RECORD_INTERVAL_MS = 5_000;
+
+    private BatteryHistorySnapshot mSnapshot;
+    private SparseIntArray mPoints;
+
+    @Before
+    public void setUp() {
+        mSnapshot = new BatteryHistorySnapshot();
+        mPoints = new SparseIntArray(RECORD_COUNT);
+        final HistoryItem rec = new HistoryItem();
+        rec.cmd = HistoryItem.CMD_RESET;
+        rec.currentTime = WALL_TIME;
+        mSnapshot.add(rec);
+        for (int i = 1; i <= RECORD_COUNT; i++) {
+            rec.cmd = HistoryItem.CMD_UPDATE;
+            rec.time = i * RECORD_INTERVAL_MS;
+            // Slow drain with noise, and a screen flipping every few records.
+            rec.batteryLevel = (byte) (100 - (i * 100L / RECORD_COUNT) - (i % 3));
+            rec.states = (i / 7) % 2 == 0 ? HistoryItem.STATE_SCREEN_ON_FLAG : 0;
+            mSnapshot.add(rec);
+            mPoints.append((int) (i * RECORD_INTERVAL_MS / 1000), rec.batteryLevel);
+        }
+        mSnapshot.finish();
+    }
+
+    @Test
+    public void snapshot_allRecords() {
+        final long start = SystemClock.elapsedRealtimeNanos();
+        final Path path = new Path();
+        int points = 0;
+        for (int i = 0; i < mSnapshot.size(); i++) {
+            if (mSnapshot.isDeltaData(i)) {
+                lineTo(path, points++, mSnapshot.getWallTime(i), mSnapshot.getBatteryLevel(i));
+            }
+        }
+        report("all records", start, points);
+    }
+
+    @Test
+    public void snapshot_selectForWidth() {
+        final long start = SystemClock.elapsedRealtimeNanos();
+        final Path path = new Path();
+        final int[] records = mSnapshot.selectForWidth(mSnapshot.getStartWallTime(),
+                mSnapshot.getEndDataWallTime() - mSnapshot.getStartWallTime(), WIDTH);
+        int points = 0;
+        for (int i : records) {
+            if (mSnapshot.isDeltaData(i)) {
+                lineTo(path, points++, mSnapshot.getWallTime(i), mSnapshot.getBatteryLevel(i));
+            }
+        }
+        assertThat(records.length).isLessThan(RECORD_COUNT / 10);
+        report("selectForWidth", start, points);
+    }
+
+    @Test
+    public void usageGraph_minMaxDownsample() {
+        final long start = SystemClock.elapsedRealtimeNanos();
+        final int maxX = mPoints.keyAt(mPoints.size() - 1);
+        final SparseIntArray points =
+                MinMaxDownsampler.downsample(mPoints, (float) maxX / WIDTH, -1 /* breakValue */);
+        assertThat(points.size()).isAtMost(4 * WIDTH + 4);
+        report("MinMaxDownsampler", start, points.size());
+    }
+
+    private void lineTo(Path path, int index, long wallTime, int level) {
+        final long span = mSnapshot.getEndDataWallTime() - mSnapshot.getStartWallTime();
+        final float x = (wallTime - mSnapshot.getStartWallTime()) * WIDTH / (float) span;
+        if (index == 0) {
+            path.moveTo(x, level);
+        } else {
+            path.lineTo(x, level);
+        }
+    }
+
+    private void report(String name, long startNanos, int points) {
+        final long elapsedNanos = SystemClock.elapsedRealtimeNanos() - startNanos;
+        Log.i(TAG, name + ": " + RECORD_COUNT + " records to " + points + " points in "
+                + elapsedNanos / 1_000 + "us");
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge.batterytip;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the throughput of {@link BatteryDatabaseManager}: inserting a burst of anomalies one
+ * by one or with {@link BatteryDatabaseManager#insertAnomalies(List)}, and querying them back.
+ *
+ * Results are logged under the {@link #TAG} tag as operations per second. The anomaly database
+ * of the target is cleared before and after each run.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class BatteryDatabaseManagerBenchmark {
+
+    private static final String TAG = "BatteryDatabaseBench";
+
+    private static final int ANOMALY_COUNT = 2000;
+    private static final int QUERY_COUNT = 200;
+    private static final int APP_COUNT = 100;
+    private static final int TYPE_COUNT = 8;
+    private static final int FIRST_UID = 10000;
+
+    private BatteryDatabaseManager mManager;
+    private long mNow;
+
+    @Before
+    public void setUp() {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        mManager = BatteryDatabaseManager.getInstance(context);
+        mNow = System.currentTimeMillis();
+        clear();
+    }
+
+    @After
+    public void tearDown() {
+        clear();
+    }
+
+    @Test
+    public void insertAnomaly_perRow() {
+        final long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < ANOMALY_COUNT; i++) {
+            final BatteryDatabaseManager.AnomalyRecord record = createRecord(i);
+            mManager.insertAnomaly(record.uid, record.packageName, record.type, record.state,
+                    record.timestampMs);
+        }
+        report("insertAnomaly", ANOMALY_COUNT, start);
+        assertInserted();
+    }
+
+    @Test
+    public void insertAnomalies_batch() {
+        final List<BatteryDatabaseManager.AnomalyRecord> records = new ArrayList<>();
+        for (int i = 0; i < ANOMALY_COUNT; i++) {
+            records.add(createRecord(i));
+        }
+
+        final long start = SystemClock.elapsedRealtimeNanos();
+        assertThat(mManager.insertAnomalies(records)).isEqualTo(ANOMALY_COUNT);
+        report("insertAnomalies", ANOMALY_COUNT, start);
+        assertInserted();
+    }
+
+    @Test
+    public void queryAllAnomalies() {
+        final List<BatteryDatabaseManager.AnomalyRecord> records = new ArrayList<>();
+        for (int i = 0; i < ANOMALY_COUNT; i++) {
+            records.add(createRecord(i));
+        }
+        mManager.insertAnomalies(records);
+
+        final long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            mManager.queryAllAnomalies(mNow - ANOMALY_COUNT / 2,
+                    AnomalyDatabaseHelper.State.NEW);
+        }
+        report("queryAllAnomalies", QUERY_COUNT, start);
+    }
+
+    private BatteryDatabaseManager.AnomalyRecord createRecord(int i) {
+        final int app = i % APP_COUNT;
+        return new BatteryDatabaseManager.AnomalyRecord(FIRST_UID + app, "com.android.test" + app,
+                i % TYPE_COUNT, i % 3 == 0 ? AnomalyDatabaseHelper.State.AUTO_HANDLED
+                : AnomalyDatabaseHelper.State.NEW, mNow - i);
+    }
+
+    private void assertInserted() {
+        assertThat(mManager.queryAllAnomalies(0 /* timestampMsAfter */,
+                AnomalyDatabaseHelper.State.NEW)).hasSize(APP_COUNT);
+    }
+
+    private void clear() {
+        mManager.deleteAllAnomaliesBeforeTimeStamp(Long.MAX_VALUE);
+    }
+
+    private void report(String name, int count, long startNanos) {
+        final long elapsedNanos = SystemClock.elapsedRealtimeNanos() - startNanos;
+        final long opsPerSecond = count * 1_000_000_000L / Math.max(1, elapsedNanos);
+        Log.i(TAG, name + ": " + count + " operations in " + elapsedNanos / 1_000_000 + "ms, "
+                + opsPerSecond + " ops/s");
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.utils;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Compares the throughput of writing a synthetic search index with one
+ * {@link SQLiteDatabase#replaceOrThrow} per row against {@link SQLiteBulkWriter}.
+ *
+ * Results are logged under the {@link #TAG} tag as rows per second.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class SQLiteBulkWriterBenchmark {
+
+    private static final String TAG = "SQLiteBulkWriterBench";
+
+    private static final int ROW_COUNT = 5000;
+    private static final String TABLE = "prefs_index";
+    private static final String[] COLUMNS = {"docid", "locale", "data_title",
+            "data_title_normalized", "data_summary_on", "data_keywords", "class_name",
+            "screen_title", "icon", "enabled", "data_key_reference", "user_id", "payload"};
+
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mDatabase = SQLiteDatabase.create(null /* factory */);
+        mDatabase.execSQL("CREATE VIRTUAL TABLE " + TABLE + " USING fts4(locale, data_title, "
+                + "data_title_normalized, data_summary_on, data_keywords, class_name, "
+                + "screen_title, icon, enabled, data_key_reference, user_id, payload)");
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.close();
+    }
+
+    @Test
+    public void replaceOrThrow_perRow() {
+        final long start = SystemClock.elapsedRealtimeNanos();
+        mDatabase.beginTransaction();
+        try {
+            for (int i = 0; i < ROW_COUNT; i++) {
+                final ContentValues values = new ContentValues();
+                values.put(COLUMNS[0], i);
+                values.put(COLUMNS[1], "en_US");
+                values.put(COLUMNS[2], "Title " + i);
+                values.put(COLUMNS[3], "title " + i);
+                values.put(COLUMNS[4], "Summary " + i);
+                values.put(COLUMNS[5], "keyword" + i + " other");
+                values.put(COLUMNS[6], "com.android.settings.FakeFragment" + (i % 100));
+                values.put(COLUMNS[7], "Screen " + (i % 100));
+                values.put(COLUMNS[8], i);
+                values.put(COLUMNS[9], true);
+                values.put(COLUMNS[10], "key_" + i);
+                values.put(COLUMNS[11], -1);
+                values.put(COLUMNS[12], new byte[64]);
+                mDatabase.replaceOrThrow(TABLE, null /* nullColumnHack */, values);
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+        report("replaceOrThrow", start);
+    }
+
+    @Test
+    public void bulkWriter_compiledStatement() {
+        final long start = SystemClock.elapsedRealtimeNanos();
+        try (SQLiteBulkWriter writer = new SQLiteBulkWriter(mDatabase, TABLE, COLUMNS)) {
+            for (int i = 0; i < ROW_COUNT; i++) {
+                writer.bindLong(1, i)
+                        .bindString(2, "en_US")
+                        .bindString(3, "Title " + i)
+                        .bindString(4, "title " + i)
+                        .bindString(5, "Summary " + i)
+                        .bindString(6, "keyword" + i + " other")
+                        .bindString(7, "com.android.settings.FakeFragment" + (i % 100))
+                        .bindString(8, "Screen " + (i % 100))
+                        .bindLong(9, i)
+                        .bindBoolean(10, true)
+                        .bindString(11, "key_" + i)
+                        .bindLong(12, -1)
+                        .bindBlob(13, new byte[64])
+                        .insert();
+            }
+            writer.markSuccessful();
+        }
+        report("SQLiteBulkWriter", start);
+    }
+
+    private void report(String name, long startNanos) {
+        final long elapsedNanos = SystemClock.elapsedRealtimeNanos() - startNanos;
+        assertThat(DatabaseUtils.queryNumEntries(mDatabase, TABLE)).isEqualTo(ROW_COUNT);
+        final long rowsPerSecond = ROW_COUNT * 1_000_000_000L / Math.max(1, elapsedNanos);
+        Log.i(TAG, name + ": " + ROW_COUNT + " rows in " + elapsedNanos / 1_000_000 + "ms, "
+                + rowsPerSecond + " rows/s");
+    }
+}
@@ -0,0 +1,135 @@
+#!/usr/bin/env python
+#
+# Copyright (C) 2018 The Android Open Source Project
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+"""Generates GeneratedPreferenceControllerRegistry.java.
+
+Collects the controller class names referenced by settings:controller attributes in preference
+xml files, finds the public constructor of each controller in the java sources, and writes a
+class registering a reference to each public constructor. Controllers whose source or public
+constructor cannot be found are left out and keep being created through reflection.
+
+Usage: generate_preference_controller_registry.py --res <dir> [--res <dir>...]
+           --src <dir> [--src <dir>...] <output file>
+"""
+
+import argparse
+import os
+import re
+import sys
+
+CONTROLLER_ATTR = re.compile(r'settings:controller\s*=\s*"([^"]+)"')
+PUBLIC_CLASS = r'public\s+(?:final\s+)?class\s+%s\b'
+CONTEXT_CONSTRUCTOR = (r'public\s+%s\s*\(\s*(?:final\s+)?(?:@\w+\s+)?Context\s+\w+\s*\)')
+KEYED_CONSTRUCTOR = (r'public\s+%s\s*\(\s*(?:final\s+)?(?:@\w+\s+)?Context\s+\w+\s*,'
+                     r'\s*(?:final\s+)?(?:@\w+\s+)?String\s+\w+\s*\)')
+
+HEADER = """/*
+ * Generated by tools/generate_preference_controller_registry.py. Do not edit.
+ */
+
+package com.android.settings.core;
+
+import android.content.Context;
+
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+final class GeneratedPreferenceControllerRegistry {
+
+    static void registerAll(
+            Map<String, Function<Context, BasePreferenceController>> contextFactories,
+            Map<String, BiFunction<Context, String, BasePreferenceController>> keyedFactories) {
+"""
+
+FOOTER = """    }
+}
+"""
+
+
+def find_controllers(res_dirs):
+    controllers = set()
+    for res_dir in res_dirs:
+        for root, _, files in os.walk(res_dir):
+            if not os.path.basename(root).startswith('xml'):
+                continue
+            for name in files:
+                if not name.endswith('.xml'):
+                    continue
+                with open(os.path.join(root, name)) as xml:
+                    controllers.update(CONTROLLER_ATTR.findall(xml.read()))
+    return sorted(controllers)
+
+
+def find_source(src_dirs, controller):
+    relative_path = controller.replace('.', os.sep) + '.java'
+    for src_dir in src_dirs:
+        path = os.path.join(src_dir, relative_path)
+        if os.path.isfile(path):
+            return path
+    return None
+
+
+def find_constructors(src_dirs, controller):
+    """Returns the public constructors of controller: a subset of ('context', 'keyed')."""
+    if '$' in controller:
+        return ()
+    simple_name = controller.rsplit('.', 1)[-1]
+    path = find_source(src_dirs, controller)
+    if path is None:
+        return ()
+    with open(path) as java:
+        source = java.read()
+    if not re.search(PUBLIC_CLASS % simple_name, source):
+        return ()
+    constructors = []
+    if re.search(CONTEXT_CONSTRUCTOR % simple_name, source):
+        constructors.append('context')
+    if re.search(KEYED_CONSTRUCTOR % simple_name, source):
+        constructors.append('keyed')
+    return tuple(constructors)
+
+
+def main(argv):
+    parser = argparse.ArgumentParser(usage=__doc__)
+    parser.add_argument('--res', action='append', required=True)
+    parser.add_argument('--src', action='append', required=True)
+    parser.add_argument('output')
+    args = parser.parse_args(argv[1:])
+    output = args.output
+
+    lines = []
+    for controller in find_controllers(args.res):
+        constructors = find_constructors(args.src, controller)
+        if 'context' in constructors:
+            lines.append('        contextFactories.put("%s", %s::new);\n'
+                         % (controller, controller))
+        if 'keyed' in constructors:
+            lines.append('        keyedFactories.put("%s", %s::new);\n'
+                         % (controller, controller))
+
+    output_dir = os.path.dirname(output)
+    if output_dir and not os.path.isdir(output_dir):
+        os.makedirs(output_dir)
+    with open(output, 'w') as java:
+        java.write(HEADER)
+        java.writelines(lines)
+        java.write(FOOTER)
+    return 0
+
+
+if __name__ == '__main__':
+    sys.exit(main(sys.argv))